@@ -1,9 +1,14 @@
 package com.onextel.CallServiceApplication.common.shutdown;
 
 import com.onextel.CallServiceApplication.freeswitch.FreeSwitchRegistry;
+import com.onextel.CallServiceApplication.freeswitch.esl.EslClient;
 import com.onextel.CallServiceApplication.service.CallManager;
 import com.onextel.CallServiceApplication.service.CallService;
 import com.onextel.CallServiceApplication.service.EventProcessor;
+import com.onextel.CallServiceApplication.service.EventQuarantine;
+import com.onextel.CallServiceApplication.service.EventShardManager;
+import com.onextel.CallServiceApplication.service.EventReactiveIngest;
+import com.onextel.CallServiceApplication.service.EventStreamIngest;
 import com.onextel.CallServiceApplication.service.redis.CallStateBatchUpdater;
 import com.onextel.CallServiceApplication.service.redis.RedisCallStateManager;
 import com.onextel.CallServiceApplication.service.webhook.InMemoryWebhookEventQueue;
@@ -25,6 +30,11 @@ public class GracefulShutdownHandler {
     private final InMemoryWebhookEventQueue inMemoryWebHookQueue;
     private final FreeSwitchRegistry freeSwitchRegistry;
     private final EventProcessor eventProcessor;
+    private final EventShardManager eventShardManager;
+    private final EventStreamIngest eventStreamIngest;
+    private final EventReactiveIngest eventReactiveIngest;
+    private final EventQuarantine eventQuarantine;
+    private final EslClient eslClient;
     private final CallStateBatchUpdater callStateBatchUpdater;
     private final CallService callService;
 
@@ -45,7 +55,12 @@ public class GracefulShutdownHandler {
             log.info("Starting shutdown (initiated by {})",
                     Thread.currentThread().getName());
 
+            eventShardManager.shutdown();
+            eventReactiveIngest.shutdown();
+            eslClient.shutdown();
             eventProcessor.shutdown();
+            eventStreamIngest.shutdown();
+            eventQuarantine.shutdown();
             callManager.shutdown();
             callStateBatchUpdater.destroy();
             freeSwitchRegistry.shutdown();
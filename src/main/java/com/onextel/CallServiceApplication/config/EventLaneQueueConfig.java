@@ -0,0 +1,77 @@
+package com.onextel.CallServiceApplication.config;
+
+import com.onextel.CallServiceApplication.freeswitch.event.EventHandlerFactory;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
+import com.onextel.CallServiceApplication.service.EventProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lane event topology, enabled with {@code app.events.topology=lanes}.
+ * <p>
+ * Instead of binding one queue to TAP.Events with "#", every event lane gets its own
+ * queue bound with one routing key per event type that has a handler in the
+ * {@link EventHandlerFactory}. Types without handler (CODEC, RECV_RTCP_MESSAGE,
+ * PRESENCE_IN, API, MODULE_LOAD...) match no binding and are dropped by the broker.
+ * Lanes are the ones of the dispatch table ({@code app.events.lanes.control.types}), as
+ * for the in-process lanes of the {@link EventProcessor}, the queues are consumed by
+ * {@link com.onextel.CallServiceApplication.service.EventLaneQueueConsumers}.
+ * <p>
+ * The binding keys are built from {@code app.events.lane-queues.routing-key-pattern},
+ * {@code %s} standing for the Event-Name. The default matches the mod_amqp
+ * {@code format_fields} default (FreeSWITCH, FreeSWITCH-Hostname, Event-Name,
+ * Event-Subclass, Unique-ID). Stale bindings of removed handlers are not deleted.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.events.topology", havingValue = "lanes")
+@Slf4j
+public class EventLaneQueueConfig {
+    private static final String EVENT_NAME_PLACEHOLDER = "%s";
+
+    @Value("${app.events.lane-queues.routing-key-pattern:*.*.%s.#}")
+    private String routingKeyPattern;
+
+    @Bean
+    public Declarables eventLaneQueues(TopicExchange eventExchange, EventHandlerFactory eventHandlerFactory) {
+        if (!routingKeyPattern.contains(EVENT_NAME_PLACEHOLDER)) {
+            throw new IllegalStateException("app.events.lane-queues.routing-key-pattern must contain "
+                    + EVENT_NAME_PLACEHOLDER + ": " + routingKeyPattern);
+        }
+        Set<EventType> handledTypes = eventHandlerFactory.getHandledEventTypes();
+        Set<EventType> controlTypes = EnumSet.noneOf(EventType.class);
+        Set<EventType> infoTypes = EnumSet.noneOf(EventType.class);
+        for (EventType type : handledTypes) {
+            boolean control = EventProcessor.CONTROL_LANE.equals(eventHandlerFactory.getRoute(type).lane());
+            (control ? controlTypes : infoTypes).add(type);
+        }
+
+        List<Declarable> declarables = new ArrayList<>();
+        declareLane(declarables, eventExchange, EventProcessor.CONTROL_LANE, controlTypes);
+        declareLane(declarables, eventExchange, EventProcessor.INFO_LANE, infoTypes);
+
+        Set<EventType> droppedTypes = EnumSet.complementOf(EnumSet.copyOf(handledTypes));
+        log.info("Lane event topology: control {}, info {}, dropped by the broker {}",
+                controlTypes, infoTypes, droppedTypes);
+        return new Declarables(declarables);
+    }
+
+    private void declareLane(List<Declarable> declarables, TopicExchange eventExchange,
+                             String lane, Set<EventType> types) {
+        Queue queue = new Queue(RabbitConfig.eventLaneQueueName(lane), false);
+        declarables.add(queue);
+        for (EventType type : types) {
+            // Enum names are the FreeSWITCH Event-Names
+            String routingKey = routingKeyPattern.replace(EVENT_NAME_PLACEHOLDER, type.name());
+            declarables.add(BindingBuilder.bind(queue).to(eventExchange).with(routingKey));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.onextel.CallServiceApplication.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitioned event topology, enabled with {@code app.events.topology=sharded}.
+ * <p>
+ * TAP.Events is bound with "#" to a consistent-hash exchange that spreads the events
+ * over {@code app.events.shards.count} shard queues. The exchange hashes the routing
+ * key, so the FreeSWITCH mod_amqp producer must publish with the Channel-Call-UUID as
+ * routing key ({@code format_fields} set to Channel-Call-UUID), or set the hash to a
+ * header carrying it with {@code app.events.shards.hash-header}. Either way all events
+ * of a call land in the same shard, consumed by the instance holding its lease
+ * (see {@link com.onextel.CallServiceApplication.service.EventShardManager}).
+ * <p>
+ * Requires the rabbitmq_consistent_hash_exchange plugin. The shard count must be the
+ * same on every instance.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.events.topology", havingValue = "sharded")
+@Slf4j
+public class EventShardConfig {
+    private static final String CONSISTENT_HASH_EXCHANGE_TYPE = "x-consistent-hash";
+    private static final String HASH_HEADER_ARGUMENT = "hash-header";
+    // Binding key of a consistent-hash binding is the weight of the queue on the ring
+    private static final String SHARD_WEIGHT = "1";
+
+    @Value("${app.events.shards.count:16}")
+    private int shardCount;
+
+    @Value("${app.events.shards.hash-header:}")
+    private String hashHeader;
+
+    @Bean
+    public CustomExchange eventShardExchange() {
+        Map<String, Object> args = new HashMap<>();
+        if (!hashHeader.isBlank()) {
+            args.put(HASH_HEADER_ARGUMENT, hashHeader);
+        }
+        return new CustomExchange(RabbitConfig.EVENT_SHARD_EXCHANGE_NAME, CONSISTENT_HASH_EXCHANGE_TYPE,
+                true, false, args);
+    }
+
+    // Every event published to TAP.Events is forwarded to the consistent-hash exchange
+    @Bean
+    public Binding eventShardExchangeBinding(CustomExchange eventShardExchange, TopicExchange eventExchange) {
+        return BindingBuilder.bind(eventShardExchange).to(eventExchange)
+                .with(RabbitConfig.EVENT_ROUTING_KEY);
+    }
+
+    @Bean
+    public Declarables eventShardQueues(CustomExchange eventShardExchange) {
+        List<Declarable> declarables = new ArrayList<>(shardCount * 2);
+        for (int shard = 0; shard < shardCount; shard++) {
+            Queue queue = new Queue(RabbitConfig.eventShardQueueName(shard), false);
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(eventShardExchange).with(SHARD_WEIGHT).noargs());
+        }
+        log.info("Sharded event topology: {} shard queues behind {}, hashing on {}",
+                shardCount, RabbitConfig.EVENT_SHARD_EXCHANGE_NAME,
+                hashHeader.isBlank() ? "routing key" : "header " + hashHeader);
+        return new Declarables(declarables);
+    }
+}
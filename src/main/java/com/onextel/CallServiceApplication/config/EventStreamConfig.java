@@ -0,0 +1,51 @@
+package com.onextel.CallServiceApplication.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Stream ingest of the FreeSWITCH events, enabled with {@code app.events.ingest=stream}.
+ * <p>
+ * A RabbitMQ stream is bound to TAP.Events with "#" in place of freeswitchQueue and read
+ * through the stream protocol (spring.rabbitmq.stream.*, port 5552 by default, see
+ * {@link com.onextel.CallServiceApplication.service.EventStreamIngest}). Messages stay
+ * in the stream for {@code app.events.stream.max-age}, which bounds how far back a
+ * replay can go.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.events.ingest", havingValue = "stream")
+@Slf4j
+public class EventStreamConfig {
+    private static final String MAX_AGE_ARGUMENT = "x-max-age";
+
+    @Value("${app.events.stream.name:freeswitch.events}")
+    private String streamName;
+
+    @Value("${app.events.stream.max-age:24h}")
+    private String maxAge;
+
+    public EventStreamConfig(@Value("${app.events.topology:single}") String topology) {
+        if (!"single".equalsIgnoreCase(topology)) {
+            throw new IllegalStateException(
+                    "app.events.topology=" + topology + " is only supported with app.events.ingest=amqp");
+        }
+    }
+
+    @Bean
+    public Queue eventStream() {
+        log.info("Stream event ingest from stream {}, max age {}", streamName, maxAge);
+        return QueueBuilder.durable(streamName)
+                .stream()
+                .withArgument(MAX_AGE_ARGUMENT, maxAge)
+                .build();
+    }
+
+    @Bean
+    public Binding eventStreamBinding(Queue eventStream, TopicExchange eventExchange) {
+        return BindingBuilder.bind(eventStream).to(eventExchange).with(RabbitConfig.EVENT_ROUTING_KEY);
+    }
+}
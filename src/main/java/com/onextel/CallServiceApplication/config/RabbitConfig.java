@@ -3,6 +3,7 @@ package com.onextel.CallServiceApplication.config;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.config.RabbitListenerConfigUtils;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -13,6 +14,7 @@ import org.springframework.amqp.rabbit.listener.FatalExceptionStrategy;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
 import org.springframework.amqp.support.converter.MessageConversionException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -29,6 +31,27 @@ public class RabbitConfig {
     public static final String EVENT_EXCHANGE_NAME = "TAP.Events";
     public static final String EVENT_QUEUE_NAME = "freeswitchQueue";
     public static final String EVENT_ROUTING_KEY = "#"; // Wildcard for all events
+    public static final int EVENT_PREFETCH_COUNT = 50; // initial value, adjusted by the event flow controller
+    public static final int EVENT_CONCURRENT_CONSUMERS = 5;
+    public static final int EVENT_MAX_CONCURRENT_CONSUMERS = 10;
+
+    // Sharded topology (app.events.topology=sharded): TAP.Events -> consistent-hash exchange -> N shard queues
+    public static final String EVENT_SHARD_EXCHANGE_NAME = "TAP.Events.sharded";
+    public static final String EVENT_SHARD_QUEUE_PREFIX = "freeswitchQueue.shard-";
+    public static String eventShardQueueName(int shard) {
+        return EVENT_SHARD_QUEUE_PREFIX + shard;
+    }
+
+    // Lane topology (app.events.topology=lanes): one queue per event lane, bound only to the handled event types
+    public static final String EVENT_LANE_QUEUE_PREFIX = "freeswitchQueue.";
+    public static String eventLaneQueueName(String lane) {
+        return EVENT_LANE_QUEUE_PREFIX + lane;
+    }
+
+    // freeswitchQueue is only used by the single topology with AMQP or reactive ingest
+    private static final String EVENT_QUEUE_CONDITION =
+            "'${app.events.topology:single}' == 'single'"
+                    + " and ('${app.events.ingest:amqp}' == 'amqp' or '${app.events.ingest:amqp}' == 'reactive')";
 
     // Queue and exchange for sending commands to FreeSwitch TAP.Commands
     public static final String COMMAND_EXCHANGE_NAME = "TAP.Commands";
@@ -74,12 +97,12 @@ public class RabbitConfig {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
         factory.setAcknowledgeMode(AcknowledgeMode.MANUAL); // Enable manual ack
-        factory.setPrefetchCount(50); // Control how many messages are prefetched
+        factory.setPrefetchCount(EVENT_PREFETCH_COUNT); // Control how many messages are prefetched
         factory.setDefaultRequeueRejected(false); // Don't automatically requeue on failure
 
         // Additional settings
-        factory.setConcurrentConsumers(5); // Initial number of consumers based on thread pool size;
-        factory.setMaxConcurrentConsumers(10); // Maximum number of consumers
+        factory.setConcurrentConsumers(EVENT_CONCURRENT_CONSUMERS); // Initial number of consumers based on thread pool size;
+        factory.setMaxConcurrentConsumers(EVENT_MAX_CONCURRENT_CONSUMERS); // Maximum number of consumers
 
         factory.setMissingQueuesFatal(false); // Don't fail if queues are missing at startup
         factory.setAutoStartup(true); // Start the container automatically
@@ -118,7 +141,8 @@ public class RabbitConfig {
         return new RabbitAdmin(connectionFactory);
     }
 
-    @Bean
+    // Registered under the name @EnableRabbit uses, so the @RabbitListener containers land in this registry
+    @Bean(name = RabbitListenerConfigUtils.RABBIT_LISTENER_ENDPOINT_REGISTRY_BEAN_NAME)
     public RabbitListenerEndpointRegistry endpointRegistry() {
         return new RabbitListenerEndpointRegistry();
     }
@@ -151,8 +175,9 @@ public class RabbitConfig {
         return rabbitTemplate;
     }
 
-    // Queue for receiving events
+    // Queue for receiving events, replaced by the shard queues or the event stream
     @Bean
+    @ConditionalOnExpression(EVENT_QUEUE_CONDITION)
     public Queue eventQueue() {
         return new Queue(EVENT_QUEUE_NAME, false);
     }
@@ -165,6 +190,7 @@ public class RabbitConfig {
 
     // Binding between the event queue and event exchange (wildcard for all events)
     @Bean
+    @ConditionalOnExpression(EVENT_QUEUE_CONDITION)
     public Binding eventBinding(Queue eventQueue, TopicExchange eventExchange) {
         return BindingBuilder.bind(eventQueue).to(eventExchange).with(EVENT_ROUTING_KEY);
     }
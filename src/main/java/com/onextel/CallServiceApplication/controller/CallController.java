@@ -36,7 +36,8 @@ public class CallController {
         // validate the request
         callRequest.validate();
         Call call = callService.originateCall(callRequest);
-        return ResponseEntity.ok(call); // Return 200 OK
+        // Events of the call may already be changing it
+        return ResponseEntity.ok(call.getSnapshot()); // Return 200 OK
     }
 
     @GetMapping("/status/{callUuid}")
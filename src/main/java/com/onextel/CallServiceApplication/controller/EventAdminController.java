@@ -0,0 +1,180 @@
+package com.onextel.CallServiceApplication.controller;
+
+import com.onextel.CallServiceApplication.exception.ErrorResponse;
+import com.onextel.CallServiceApplication.service.EventProcessor;
+import com.onextel.CallServiceApplication.service.EventQuarantine;
+import com.onextel.CallServiceApplication.service.EventQuarantine.QuarantinedEvent;
+import com.onextel.CallServiceApplication.service.EventQuarantineReplayer;
+import com.onextel.CallServiceApplication.service.EventReplayer;
+import com.onextel.CallServiceApplication.service.EventStreamIngest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Operational endpoints of the FreeSWITCH event ingest.
+ */
+@RestController
+@RequestMapping("/v1/api/admin/events")
+@RequiredArgsConstructor
+@Slf4j
+public class EventAdminController {
+    private final EventStreamIngest eventStreamIngest;
+    private final EventProcessor eventProcessor;
+    private final EventReplayer eventReplayer;
+    private final EventQuarantine eventQuarantine;
+    private final EventQuarantineReplayer eventQuarantineReplayer;
+
+    /**
+     * Replays the event stream from first, last, next, offset:&lt;n&gt; or
+     * timestamp:&lt;ISO-8601 instant or epoch millis&gt;.
+     */
+    @PostMapping("/stream/replay")
+    public ResponseEntity<?> replayStream(@RequestParam String from) {
+        try {
+            eventStreamIngest.replayFrom(from);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Invalid offset", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse("Replay unavailable", e.getMessage()));
+        }
+        log.warn("Event stream replay from {} requested", from);
+        return ResponseEntity.accepted().build();
+    }
+
+    @PostMapping("/capture/start")
+    public ResponseEntity<?> startCapture() {
+        if (!eventReplayer.isEnabled()) {
+            return captureDisabled();
+        }
+        try {
+            return ResponseEntity.ok(Map.of("directory", eventProcessor.startCapture().toString()));
+        } catch (IOException e) {
+            log.error("Failed to start event capture", e);
+            return ResponseEntity.internalServerError().body(new ErrorResponse("Capture failed", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/capture/stop")
+    public ResponseEntity<?> stopCapture() {
+        if (!eventReplayer.isEnabled()) {
+            return captureDisabled();
+        }
+        eventProcessor.stopCapture();
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Replays a capture segment or directory, relative to the capture directory, in
+     * process at 1x, 10x, any factor or max speed. The report is available from
+     * GET /capture/replay once done.
+     */
+    @PostMapping("/capture/replay")
+    public ResponseEntity<?> replayCapture(@RequestParam String path,
+                                           @RequestParam(defaultValue = "1x") String speed) {
+        if (!eventReplayer.isEnabled()) {
+            return captureDisabled();
+        }
+        try {
+            eventReplayer.replayAsync(path, EventReplayer.parseSpeed(speed));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Invalid replay", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse("Replay running", e.getMessage()));
+        }
+        return ResponseEntity.accepted().build();
+    }
+
+    @GetMapping("/capture/replay")
+    public ResponseEntity<?> getReplayReport() {
+        if (!eventReplayer.isEnabled()) {
+            return captureDisabled();
+        }
+        if (eventReplayer.isRunning()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse("Replay running", "The report is available once the replay is done"));
+        }
+        EventReplayer.ReplayReport report = eventReplayer.getLastReport();
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
+    }
+
+    /**
+     * Lists the quarantined events, oldest first. Payloads (base64) are only returned
+     * with withPayload=true.
+     */
+    @GetMapping("/quarantine")
+    public ResponseEntity<?> listQuarantine(
+            @RequestParam(required = false) String eventType,
+            @RequestParam(required = false) EventQuarantine.Reason reason,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant since,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant until,
+            @RequestParam(defaultValue = "false") boolean includeReplayed,
+            @RequestParam(defaultValue = "false") boolean withPayload,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<QuarantinedEvent> records = eventQuarantine.list(
+                    quarantineFilter(eventType, reason, since, until), includeReplayed, limit);
+            return ResponseEntity.ok(withPayload ? records
+                    : records.stream().map(QuarantinedEvent::withoutPayload).toList());
+        } catch (IOException e) {
+            log.error("Failed to read the event quarantine", e);
+            return ResponseEntity.internalServerError().body(new ErrorResponse("Quarantine unreadable", e.getMessage()));
+        }
+    }
+
+    /**
+     * Re-injects the matching quarantined events through the event processor at rate
+     * events per second. The report is available from GET /quarantine/replay once done.
+     */
+    @PostMapping("/quarantine/replay")
+    public ResponseEntity<?> replayQuarantine(
+            @RequestParam(required = false) String eventType,
+            @RequestParam(required = false) EventQuarantine.Reason reason,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant since,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant until,
+            @RequestParam(defaultValue = "50") double rate,
+            @RequestParam(defaultValue = "1000") int limit) {
+        try {
+            eventQuarantineReplayer.replayAsync(quarantineFilter(eventType, reason, since, until), rate, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse("Invalid replay", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse("Replay unavailable", e.getMessage()));
+        }
+        log.warn("Quarantine replay requested, type {}, reason {}, since {}, until {}, rate {}/s, limit {}",
+                eventType, reason, since, until, rate, limit);
+        return ResponseEntity.accepted().build();
+    }
+
+    @GetMapping("/quarantine/replay")
+    public ResponseEntity<?> getQuarantineReplayReport() {
+        if (eventQuarantineReplayer.isRunning()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse("Replay running", "The report is available once the replay is done"));
+        }
+        EventQuarantineReplayer.ReplayReport report = eventQuarantineReplayer.getLastReport();
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
+    }
+
+    private static ResponseEntity<ErrorResponse> captureDisabled() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new ErrorResponse("Capture disabled",
+                "Event capture and replay need app.events.capture.replay.enabled=true"));
+    }
+
+    private static Predicate<QuarantinedEvent> quarantineFilter(String eventType, EventQuarantine.Reason reason,
+                                                                Instant since, Instant until) {
+        return record -> (eventType == null || eventType.equalsIgnoreCase(record.eventType()))
+                && (reason == null || reason == record.reason())
+                && (since == null || record.quarantinedAt() >= since.toEpochMilli())
+                && (until == null || record.quarantinedAt() < until.toEpochMilli());
+    }
+}
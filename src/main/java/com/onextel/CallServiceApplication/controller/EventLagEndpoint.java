@@ -0,0 +1,38 @@
+package com.onextel.CallServiceApplication.controller;
+
+import com.onextel.CallServiceApplication.service.EventLagMonitor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint with the FreeSWITCH event lag, /actuator/eventlag for every stage,
+ * event type and node, /actuator/eventlag/{stage} for one stage.
+ */
+@Component
+@Endpoint(id = "eventlag")
+@RequiredArgsConstructor
+public class EventLagEndpoint {
+    private final EventLagMonitor eventLagMonitor;
+
+    @ReadOperation
+    public Map<String, Object> lag() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("total", eventLagMonitor.getTotal());
+        body.put("stages", eventLagMonitor.getStats());
+        return body;
+    }
+
+    @ReadOperation
+    public List<EventLagMonitor.LagStats> stage(@Selector String stage) {
+        return eventLagMonitor.getStats().stream()
+                .filter(stats -> stats.stage().equalsIgnoreCase(stage))
+                .toList();
+    }
+}
@@ -11,16 +11,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +49,11 @@ public class FreeSwitchRegistry {
     private final ScheduledExecutorService scheduler;
     private final RedisPubSubManager pubSubManager;
 
+    // Latest heartbeat per Core-UUID, written by the heartbeat writer once per flush interval
+    private final Map<String, Event> pendingHeartbeats = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeatWriter;
+    private final long heartbeatFlushIntervalMs;
+
     @Configuration
     public static class CacheConfig {
         @Bean
@@ -65,7 +74,8 @@ public class FreeSwitchRegistry {
             @Qualifier("blockingRedisLockTemplate") RedisTemplate<String, String> redisLockTemplate,
             @Qualifier("redisObjectTemplate") RedisTemplate<String, Object> redisTemplate,
             StringRedisTemplate stringRedisTemplate,
-            RedisPubSubManager pubSubManager) {
+            RedisPubSubManager pubSubManager,
+            @Value("${app.freeswitch.heartbeat.flush-interval-ms:1000}") long heartbeatFlushIntervalMs) {
 
         this.localCache = redisFreeSwitchNodeCache;
         this.redisLockTemplate = redisLockTemplate;
@@ -75,12 +85,19 @@ public class FreeSwitchRegistry {
                 r -> new Thread(r, "fs-node-cleaner")
         );
         this.pubSubManager = pubSubManager;
+        this.heartbeatFlushIntervalMs = heartbeatFlushIntervalMs;
+        this.heartbeatWriter = Executors.newSingleThreadScheduledExecutor(
+                r -> new Thread(r, "fs-heartbeat-writer")
+        );
         startBackgroundTasks();
     }
 
     private void startBackgroundTasks() {
         // Start node cleanup task
         this.scheduler.scheduleAtFixedRate(this::cleanupInactiveNodes,5, 5, TimeUnit.MINUTES);
+        // Start heartbeat writer
+        this.heartbeatWriter.scheduleWithFixedDelay(this::flushHeartbeats,
+                heartbeatFlushIntervalMs, heartbeatFlushIntervalMs, TimeUnit.MILLISECONDS);
         // Start subscription
         pubSubManager.subscribe(NODE_UPDATES_CHANNEL, this::refreshNode);
     }
@@ -88,6 +105,13 @@ public class FreeSwitchRegistry {
     public void shutdown() {
         try {
             pubSubManager.unsubscribe(NODE_UPDATES_CHANNEL);
+            // Write the heartbeats still pending, then stop the writer
+            this.heartbeatWriter.shutdown();
+            if (this.heartbeatWriter.awaitTermination(5, TimeUnit.SECONDS)) {
+                flushHeartbeats();
+            } else {
+                this.heartbeatWriter.shutdownNow();
+            }
             // Shutdown scheduler
             this.scheduler.shutdown();
 
@@ -96,6 +120,7 @@ public class FreeSwitchRegistry {
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            this.heartbeatWriter.shutdownNow();
             this.scheduler.shutdownNow();
         }
 
@@ -109,6 +134,17 @@ public class FreeSwitchRegistry {
         return performUpdate(nodeId, event);
     }
 
+    /**
+     * Heartbeat fast path: keeps only the latest heartbeat of the node, the heartbeat
+     * writer applies it with the ones of the other nodes in one pipelined round trip per
+     * flush interval. Bursts of heartbeats cost a map put on the event thread.
+     */
+    public void submitHeartbeat(String nodeId, Event event) {
+        // Keep the newest by Event-Sequence, the channel events may have reordered them
+        pendingHeartbeats.merge(nodeId, event,
+                (pending, latest) -> latest.getEventSequence() >= pending.getEventSequence() ? latest : pending);
+    }
+
     public FreeSwitchNode updateNodeStatusWithLock(String nodeId, Event event) {
         if (!acquireLock(nodeId)) {
             throw new ConcurrentModificationException("Failed to acquire lock for " + nodeId);
@@ -193,6 +229,71 @@ public class FreeSwitchRegistry {
         stringRedisTemplate.convertAndSend(NODE_UPDATES_CHANNEL, nodeId);
     }
 
+    private void flushHeartbeats() {
+        if (pendingHeartbeats.isEmpty()) {
+            return;
+        }
+        List<FreeSwitchNode> nodes = new ArrayList<>(pendingHeartbeats.size());
+        for (String nodeId : new ArrayList<>(pendingHeartbeats.keySet())) {
+            Event event = pendingHeartbeats.remove(nodeId);
+            if (event == null) {
+                continue;
+            }
+            try {
+                FreeSwitchNode node = getNode(nodeId);
+                if (node == null) {
+                    node = createNewNode(nodeId, event);
+                }
+                node.updateStatus(event);
+                node.setLastUpdateTimestamp(Instant.now());
+                localCache.put(nodeId, node);
+                nodes.add(node);
+            } catch (Exception e) {
+                LOGGER.error("Failed to apply heartbeat of node {}", nodeId, e);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+        try {
+            writeNodes(nodes);
+        } catch (Exception e) {
+            // The next heartbeat of each node rewrites it
+            LOGGER.error("Failed to write heartbeats of {} nodes", nodes.size(), e);
+        }
+    }
+
+    /**
+     * Same writes as saveNode and publishNodeUpdate for every node, in one pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeNodes(List<FreeSwitchNode> nodes) {
+        RedisSerializer<String> keySerializer = RedisSerializer.string();
+        // The hash goes through the serializers of redisTemplate, as in saveNode and getNode
+        RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        byte[] healthyNodesKey = keySerializer.serialize(HEALTHY_NODES_KEY);
+        byte[] updatesChannel = keySerializer.serialize(NODE_UPDATES_CHANNEL);
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (FreeSwitchNode node : nodes) {
+                byte[] nodeId = keySerializer.serialize(node.getNodeId());
+                Map<byte[], byte[]> hash = new HashMap<>();
+                node.toRedisHash().forEach((field, value) ->
+                        hash.put(hashKeySerializer.serialize(field), hashValueSerializer.serialize(value)));
+                connection.hashCommands().hMSet(keySerializer.serialize(ALL_NODES_KEY + node.getNodeId()), hash);
+                if (node.isHealthy()) {
+                    connection.setCommands().sAdd(healthyNodesKey, nodeId);
+                } else {
+                    connection.setCommands().sRem(healthyNodesKey, nodeId);
+                }
+                connection.publish(updatesChannel, nodeId);
+            }
+            return null;
+        });
+        LOGGER.debug("Wrote heartbeats of {} nodes", nodes.size());
+    }
+
     private void refreshNode(String nodeId) {
         Map<Object, Object> hash = redisTemplate.opsForHash().entries(ALL_NODES_KEY + nodeId);
         if (hash != null && !hash.isEmpty()) {
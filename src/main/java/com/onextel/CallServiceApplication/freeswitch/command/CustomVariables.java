@@ -24,6 +24,8 @@ public class CustomVariables {
     public static final String CORRELATION_ID = "correlation_id";
     public static final String ONEXTEL_CALL_ID = "onextel_call_id";
     public static final String ONEXTEL_CALL_SERVICE_ID = "onextel_call_service_id";
+    // Campaign of the call, indexed by the CallManager
+    public static final String CAMPAIGN_ID = "campaign_id";
 
     private CustomVariables() {
         throw new UnsupportedOperationException("Cannot instantiate a constants class");
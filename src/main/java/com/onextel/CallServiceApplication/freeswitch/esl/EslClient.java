@@ -0,0 +1,343 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onextel.CallServiceApplication.freeswitch.FreeSwitchNode;
+import com.onextel.CallServiceApplication.freeswitch.FreeSwitchRegistry;
+import com.onextel.CallServiceApplication.freeswitch.event.EventHandlerFactory;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
+import com.onextel.CallServiceApplication.service.EventProcessor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound Event Socket client, enabled with {@code app.freeswitch.esl.enabled=true}.
+ * <p>
+ * Keeps one {@link EslConnection} per FreeSWITCH node: the nodes listed in
+ * {@code app.freeswitch.esl.nodes} and the healthy nodes of the {@link FreeSwitchRegistry},
+ * looked up periodically. Every connection resolves the hostname of its node once ready,
+ * commands addressed to a node by hostname go over its connection. A node is reached over
+ * a single connection: discovery skips the nodes whose hostname already has one, and a
+ * connection that turns out to reach a node already connected under another address
+ * (e.g. configured by hostname, discovered by IP) is closed, the discovered one first, so
+ * its events are not ingested twice.
+ * <p>
+ * With {@code app.events.ingest=esl} the connections subscribe to the event types with a
+ * handler and feed the events to the {@link EventProcessor} like the queue ingests do. The
+ * Event Socket has nothing to acknowledge: events fired while a connection is down or
+ * refused by a draining processor are lost. Since the registry is filled from heartbeat
+ * events, list the nodes explicitly when the events come from here.
+ * <p>
+ * With {@code app.freeswitch.esl.commands=true} the {@code CommandService} sends bgapi
+ * commands over the connections with a Job-UUID it maps to the correlation id, the result
+ * still arrives as a BACKGROUND_JOB event. Nodes without a ready connection fall back to
+ * the command queues.
+ * <p>
+ * Metrics:
+ *   - esl.connections.ready  connections authenticated and subscribed
+ *   - esl.events             events received and handed to the event processor
+ *   - esl.events.invalid     events that could not be converted or parsed
+ *   - esl.events.failed      events whose handler failed or that were refused
+ */
+@Service
+@Slf4j
+public class EslClient implements EslConnection.Listener {
+    @Value("${app.freeswitch.esl.enabled:false}")
+    private boolean enabled;
+
+    @Value("#{'${app.events.ingest:amqp}' == 'esl'}")
+    private boolean ingestEvents;
+
+    // host[:port] of the nodes to connect to besides the healthy nodes of the registry
+    @Value("${app.freeswitch.esl.nodes:}")
+    private List<String> configuredNodes;
+
+    @Value("${app.freeswitch.esl.discover-nodes:true}")
+    private boolean discoverNodes;
+
+    @Value("${app.freeswitch.esl.port:8021}")
+    private int defaultPort;
+
+    @Value("${app.freeswitch.esl.password:ClueCon}")
+    private String password;
+
+    @Value("${app.freeswitch.esl.reconnect-ms:2000}")
+    private long reconnectDelayMs;
+
+    @Value("${app.freeswitch.esl.reply-timeout-ms:10000}")
+    private long replyTimeoutMs;
+
+    @Value("${app.freeswitch.esl.io-threads:2}")
+    private int ioThreads;
+
+    // Event-Subclass values of the CUSTOM events to subscribe to, e.g. sofia::register
+    @Value("${app.freeswitch.esl.custom-subclasses:}")
+    private List<String> customSubclasses;
+
+    private final EventProcessor eventProcessor;
+    private final EventHandlerFactory eventHandlerFactory;
+    private final FreeSwitchRegistry freeSwitchRegistry;
+    private final ObjectMapper objectMapper;
+
+    // By address
+    private final Map<String, EslConnection> connections = new ConcurrentHashMap<>();
+    private final Set<String> discoveredAddresses = ConcurrentHashMap.newKeySet();
+    private final Map<String, EslConnection> connectionsByHostname = new ConcurrentHashMap<>();
+    // Discovered address -> hostname of the node it duplicates, skipped while that node is connected
+    private final Map<String, String> duplicateAddresses = new ConcurrentHashMap<>();
+
+    private final Counter eventCounter;
+    private final Counter invalidCounter;
+    private final Counter failedCounter;
+
+    private EventLoopGroup group;
+    private String subscription;
+    private volatile boolean shuttingDown;
+
+    public EslClient(EventProcessor eventProcessor,
+                     EventHandlerFactory eventHandlerFactory,
+                     FreeSwitchRegistry freeSwitchRegistry,
+                     ObjectMapper objectMapper,
+                     MeterRegistry meterRegistry) {
+        this.eventProcessor = eventProcessor;
+        this.eventHandlerFactory = eventHandlerFactory;
+        this.freeSwitchRegistry = freeSwitchRegistry;
+        this.objectMapper = objectMapper;
+
+        Gauge.builder("esl.connections.ready", connections,
+                        c -> c.values().stream().filter(EslConnection::isReady).count())
+                .description("Event Socket connections authenticated and subscribed")
+                .register(meterRegistry);
+        this.eventCounter = Counter.builder("esl.events")
+                .description("Events received over the Event Socket")
+                .register(meterRegistry);
+        this.invalidCounter = Counter.builder("esl.events.invalid")
+                .description("Event Socket events that could not be parsed")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("esl.events.failed")
+                .description("Event Socket events that failed or were refused")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || group != null) {
+            if (ingestEvents && !enabled) {
+                log.error("app.events.ingest=esl needs app.freeswitch.esl.enabled=true, no events will be received");
+            }
+            return;
+        }
+        group = new NioEventLoopGroup(ioThreads, new DefaultThreadFactory("esl-io"));
+        subscription = ingestEvents ? buildSubscription() : null;
+        log.info("Starting ESL client, subscription: {}", subscription != null ? subscription : "none");
+        for (String node : configuredNodes) {
+            if (!node.isBlank()) {
+                connect(node.trim());
+            }
+        }
+        discoverNodes();
+    }
+
+    /**
+     * Connects to the healthy nodes of the registry without a connection yet, and drops
+     * the discovered connections of nodes that left it and are down.
+     */
+    @Scheduled(fixedDelayString = "${app.freeswitch.esl.discovery-interval-ms:30000}")
+    public void discoverNodes() {
+        if (!enabled || !discoverNodes || group == null || shuttingDown) {
+            return;
+        }
+        // Address -> hostname of the node
+        Map<String, String> healthy = new HashMap<>();
+        try {
+            for (FreeSwitchNode node : freeSwitchRegistry.getHealthyNodes()) {
+                String ip = node.getIpAddress();
+                if (ip != null && !ip.isBlank()) {
+                    healthy.put(ip + ":" + defaultPort, node.getHostname() == null ? "" : node.getHostname());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("ESL node discovery failed: {}", e.getMessage());
+            return;
+        }
+        duplicateAddresses.values().removeIf(hostname -> !connectionsByHostname.containsKey(hostname));
+        healthy.forEach((address, hostname) -> {
+            if (connections.containsKey(address) || duplicateAddresses.containsKey(address)
+                    || connectionsByHostname.containsKey(hostname)) {
+                // Already connected, possibly configured under its hostname
+                return;
+            }
+            discoveredAddresses.add(address);
+            connect(address);
+        });
+        for (String address : discoveredAddresses) {
+            EslConnection connection = connections.get(address);
+            if (!healthy.containsKey(address) && (connection == null || !connection.isReady())) {
+                log.info("ESL node {} left the registry, closing its connection", address);
+                discoveredAddresses.remove(address);
+                removeConnection(address);
+            }
+        }
+    }
+
+    /**
+     * Sends a bgapi command to the node with the given FreeSWITCH hostname.
+     *
+     * @return the reply accepting the job, null if the node has no ready connection
+     */
+    public CompletableFuture<EslMessage> bgapi(String hostname, String command, String jobUuid) {
+        EslConnection connection = connectionsByHostname.get(hostname);
+        if (connection == null || !connection.isReady()) {
+            return null;
+        }
+        return connection.bgapi(command, jobUuid);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Collection<EslConnection> getConnections() {
+        return connections.values();
+    }
+
+    @Override
+    public void onReady(EslConnection connection) {
+        connection.sendCommand("api hostname").whenComplete((reply, error) -> {
+            if (error != null) {
+                log.warn("Failed to resolve the hostname of ESL node {}: {}", connection.getAddress(), error.getMessage());
+                return;
+            }
+            String hostname = reply.getBodyAsString().trim();
+            EslConnection existing = connectionsByHostname.put(hostname, connection);
+            if (existing != null && existing != connection && connections.containsValue(existing)) {
+                closeDuplicate(hostname, existing, connection);
+                return;
+            }
+            log.info("ESL node {} is {}", connection.getAddress(), hostname);
+        });
+    }
+
+    /**
+     * Keeps one of two connections reaching the same node, the configured one if only
+     * one of them was discovered, else the older one.
+     */
+    private void closeDuplicate(String hostname, EslConnection existing, EslConnection connection) {
+        boolean replaceExisting = discoveredAddresses.contains(existing.getAddress())
+                && !discoveredAddresses.contains(connection.getAddress());
+        EslConnection kept = replaceExisting ? connection : existing;
+        EslConnection duplicate = replaceExisting ? existing : connection;
+        connectionsByHostname.put(hostname, kept);
+        log.warn("ESL connection {} reaches {}, already connected over {}, closing it",
+                duplicate.getAddress(), hostname, kept.getAddress());
+        if (discoveredAddresses.remove(duplicate.getAddress())) {
+            duplicateAddresses.put(duplicate.getAddress(), hostname);
+        }
+        removeConnection(duplicate.getAddress());
+    }
+
+    @Override
+    public void onEvent(EslConnection connection, EslMessage message) {
+        if (!ingestEvents) {
+            return;
+        }
+        eventCounter.increment();
+        try {
+            byte[] body = EslMessage.EVENT_JSON.equals(message.getContentType())
+                    ? message.body()
+                    : plainToJson(message);
+            boolean accepted = eventProcessor.processPayload(body, (ok) -> {
+                if (!ok) {
+                    failedCounter.increment();
+                }
+            });
+            if (!accepted) {
+                invalidCounter.increment();
+            }
+        } catch (Exception e) {
+            invalidCounter.increment();
+            log.error("Failed to process ESL event from {}", connection.getAddress(), e);
+        }
+    }
+
+    /**
+     * Closes the connections, called before the event processor drains so no event
+     * arrives while it does.
+     */
+    public synchronized void shutdown() {
+        shuttingDown = true;
+        if (group == null) {
+            return;
+        }
+        connections.values().forEach(EslConnection::close);
+        connections.clear();
+        connectionsByHostname.clear();
+        group.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        log.info("ESL client stopped");
+    }
+
+    private void connect(String address) {
+        int colon = address.lastIndexOf(':');
+        String host = colon > 0 ? address.substring(0, colon) : address;
+        int port = colon > 0 ? Integer.parseInt(address.substring(colon + 1)) : defaultPort;
+        String key = host + ":" + port;
+        connections.computeIfAbsent(key, k -> {
+            EslConnection connection = new EslConnection(host, port, password, subscription,
+                    reconnectDelayMs, replyTimeoutMs, group, this);
+            connection.connect();
+            return connection;
+        });
+    }
+
+    private void removeConnection(String address) {
+        EslConnection connection = connections.remove(address);
+        if (connection != null) {
+            connection.close();
+            connectionsByHostname.values().remove(connection);
+        }
+    }
+
+    /**
+     * "json" and the names of the handled event types, CUSTOM with its subclasses last as
+     * the rest of the line is read as subclasses.
+     */
+    private String buildSubscription() {
+        Set<EventType> types = EnumSet.copyOf(eventHandlerFactory.getHandledEventTypes());
+        types.add(EventType.HEARTBEAT);
+        types.add(EventType.BACKGROUND_JOB);
+        boolean custom = types.remove(EventType.CUSTOM);
+        Set<String> names = new LinkedHashSet<>();
+        types.forEach(type -> names.add(type.name()));
+        StringBuilder line = new StringBuilder("json ").append(String.join(" ", names));
+        if (custom) {
+            line.append(" CUSTOM");
+            customSubclasses.stream().map(String::trim).filter(s -> !s.isEmpty())
+                    .forEach(subclass -> line.append(' ').append(subclass));
+        }
+        return line.toString();
+    }
+
+    private byte[] plainToJson(EslMessage message) throws Exception {
+        return objectMapper.writeValueAsBytes(EslConnection.parsePlainEvent(message));
+    }
+}
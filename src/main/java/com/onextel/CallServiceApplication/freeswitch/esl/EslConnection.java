@@ -0,0 +1,276 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent inbound Event Socket connection to one FreeSWITCH node.
+ * <p>
+ * On connect the node asks for authentication, the connection answers with the
+ * password, subscribes to its events (if it has a subscription) and reports itself
+ * ready. Commands are written in order and their replies matched in the same order,
+ * FreeSWITCH answers the commands of a socket one after the other. A lost connection is
+ * re-established after the reconnect delay until {@link #close()}, commands waiting for
+ * a reply fail and events fired in the meantime are lost: the Event Socket has no acks.
+ * A command whose reply does not arrive within the reply timeout fails, its reply is
+ * still consumed when it comes so the later replies stay matched.
+ * <p>
+ * Background commands carry a Job-UUID header chosen by the caller, FreeSWITCH uses it
+ * as the Job-UUID of the BACKGROUND_JOB event with the result.
+ */
+@Slf4j
+public class EslConnection {
+
+    public interface Listener {
+        /**
+         * Authenticated and subscribed, commands can be sent.
+         */
+        void onReady(EslConnection connection);
+
+        /**
+         * Event in the subscribed format, called on the event loop of the connection.
+         */
+        void onEvent(EslConnection connection, EslMessage event);
+    }
+
+    @Getter
+    private final String host;
+    @Getter
+    private final int port;
+    private final String password;
+    // e.g. "json HEARTBEAT CHANNEL_CREATE CUSTOM sofia::register", null to only send commands
+    private final String subscription;
+    private final long reconnectDelayMs;
+    private final long replyTimeoutMs;
+    private final EventLoopGroup group;
+    private final Listener listener;
+
+    // Replies arrive in command order, guarded by the write lock
+    private final Queue<CompletableFuture<EslMessage>> pendingReplies = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    private volatile Channel channel;
+    @Getter
+    private volatile boolean ready;
+    private volatile boolean closed;
+
+    public EslConnection(String host, int port, String password, String subscription, long reconnectDelayMs,
+                         long replyTimeoutMs, EventLoopGroup group, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.subscription = subscription;
+        this.reconnectDelayMs = reconnectDelayMs;
+        this.replyTimeoutMs = replyTimeoutMs;
+        this.group = group;
+        this.listener = listener;
+    }
+
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    public void connect() {
+        if (closed) {
+            return;
+        }
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new EslFrameDecoder(), new InboundHandler());
+                    }
+                });
+        bootstrap.connect(host, port).addListener((ChannelFuture future) -> {
+            if (future.isSuccess()) {
+                channel = future.channel();
+                log.info("ESL connected to {}", getAddress());
+            } else {
+                log.warn("ESL connection to {} failed: {}", getAddress(), future.cause().getMessage());
+                scheduleReconnect();
+            }
+        });
+    }
+
+    /**
+     * Sends a command, e.g. "api status".
+     *
+     * @return the command/reply or api/response, failed if the connection is lost first
+     *         or on reply timeout
+     */
+    public CompletableFuture<EslMessage> sendCommand(String command) {
+        CompletableFuture<EslMessage> reply = new CompletableFuture<>();
+        Channel current = channel;
+        if (current == null || !current.isActive()) {
+            reply.completeExceptionally(new IOException("ESL connection to " + getAddress() + " is down"));
+            return reply;
+        }
+        synchronized (writeLock) {
+            pendingReplies.add(reply);
+            // Lost since, channelInactive may have drained the replies before this one was added
+            if (channel != current) {
+                pendingReplies.remove(reply);
+                reply.completeExceptionally(new IOException("ESL connection to " + getAddress() + " lost"));
+                return reply;
+            }
+            current.writeAndFlush(Unpooled.copiedBuffer(command + "\n\n", StandardCharsets.UTF_8))
+                    .addListener(write -> {
+                        if (!write.isSuccess()) {
+                            // No reply is coming, the later replies would be matched to the wrong commands
+                            pendingReplies.remove(reply);
+                            reply.completeExceptionally(write.cause());
+                            current.close();
+                        }
+                    });
+        }
+        // Left in the queue on timeout, its late reply is matched to it and dropped
+        return reply.orTimeout(replyTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a background command. The "bgapi " prefix is added if missing.
+     *
+     * @param jobUuid Job-UUID of the BACKGROUND_JOB event carrying the result
+     * @return the reply accepting the job, failed if FreeSWITCH refused it
+     */
+    public CompletableFuture<EslMessage> bgapi(String command, String jobUuid) {
+        String bgapi = command.startsWith("bgapi ") ? command : "bgapi " + command;
+        return sendCommand(bgapi + "\nJob-UUID: " + jobUuid).thenApply(reply -> {
+            if (!reply.isOk()) {
+                throw new IllegalStateException("bgapi refused by " + getAddress() + ": " + reply.getReplyText());
+            }
+            return reply;
+        });
+    }
+
+    public void close() {
+        closed = true;
+        ready = false;
+        Channel current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Headers of a text/event-plain body, URL decoded, with the event body if any under "_body".
+     */
+    public static Map<String, String> parsePlainEvent(EslMessage message) {
+        String text = message.getBodyAsString();
+        int blank = text.indexOf("\n\n");
+        Map<String, String> headers = EslFrameDecoder.parseHeaders(blank < 0 ? text : text.substring(0, blank));
+        headers.replaceAll((name, value) -> URLDecoder.decode(value, StandardCharsets.UTF_8));
+        if (blank >= 0 && blank + 2 < text.length()) {
+            headers.put("_body", text.substring(blank + 2));
+        }
+        return headers;
+    }
+
+    private void scheduleReconnect() {
+        if (!closed && !group.isShuttingDown()) {
+            group.schedule(this::connect, reconnectDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void authenticate() {
+        sendCommand("auth " + password).whenComplete((reply, error) -> {
+            if (error != null || !reply.isOk()) {
+                log.error("ESL authentication to {} failed: {}", getAddress(),
+                        error != null ? error.getMessage() : reply.getReplyText());
+                channel.close();
+                return;
+            }
+            if (subscription == null) {
+                onSubscribed();
+                return;
+            }
+            sendCommand("event " + subscription).whenComplete((subscribed, subscribeError) -> {
+                if (subscribeError != null || !subscribed.isOk()) {
+                    log.error("ESL event subscription on {} failed: {}", getAddress(),
+                            subscribeError != null ? subscribeError.getMessage() : subscribed.getReplyText());
+                    channel.close();
+                    return;
+                }
+                onSubscribed();
+            });
+        });
+    }
+
+    private void onSubscribed() {
+        ready = true;
+        log.info("ESL connection to {} ready", getAddress());
+        listener.onReady(this);
+    }
+
+    private class InboundHandler extends SimpleChannelInboundHandler<EslMessage> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, EslMessage message) {
+            String contentType = message.getContentType();
+            if (contentType == null) {
+                return;
+            }
+            switch (contentType) {
+                case EslMessage.AUTH_REQUEST -> authenticate();
+                case EslMessage.COMMAND_REPLY, EslMessage.API_RESPONSE -> {
+                    CompletableFuture<EslMessage> reply = pendingReplies.poll();
+                    if (reply != null) {
+                        reply.complete(message);
+                    } else {
+                        log.warn("Unexpected ESL reply from {}: {}", getAddress(), message.getReplyText());
+                    }
+                }
+                case EslMessage.EVENT_JSON, EslMessage.EVENT_PLAIN -> listener.onEvent(EslConnection.this, message);
+                case EslMessage.DISCONNECT_NOTICE -> {
+                    log.warn("ESL disconnect notice from {}", getAddress());
+                    ctx.close();
+                }
+                default -> log.debug("Ignoring ESL message {} from {}", contentType, getAddress());
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            ready = false;
+            channel = null;
+            IOException lost = new IOException("ESL connection to " + getAddress() + " lost");
+            CompletableFuture<EslMessage> reply;
+            while ((reply = pendingReplies.poll()) != null) {
+                reply.completeExceptionally(lost);
+            }
+            if (!closed) {
+                log.warn("ESL connection to {} lost, reconnecting in {} ms", getAddress(), reconnectDelayMs);
+                scheduleReconnect();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.error("ESL connection to {} failed", getAddress(), cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the Event Socket byte stream into {@link EslMessage}s.
+ * <p>
+ * A message is a block of "Name: value" header lines ended by an empty line, followed
+ * by Content-Length bytes of body when the header is present. The envelope headers are
+ * not URL encoded (the headers of a plain event body are, see {@link EslConnection}).
+ */
+public class EslFrameDecoder extends ByteToMessageDecoder {
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    private Map<String, String> headers;
+    private int contentLength;
+    // Bytes of the header block already scanned for the empty line
+    private int scanned;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (true) {
+            if (headers == null && !readHeaders(in)) {
+                return;
+            }
+            if (in.readableBytes() < contentLength) {
+                return;
+            }
+            byte[] body = new byte[contentLength];
+            in.readBytes(body);
+            out.add(new EslMessage(headers, body));
+            headers = null;
+            contentLength = 0;
+        }
+    }
+
+    private boolean readHeaders(ByteBuf in) {
+        int start = in.readerIndex();
+        int end = in.writerIndex();
+        // Skip the blank lines between messages
+        while (start < end && in.getByte(start) == '\n') {
+            start++;
+        }
+        in.readerIndex(start);
+        int from = Math.max(start, start + scanned - 1);
+        for (int i = from; i < end - 1; i++) {
+            if (in.getByte(i) == '\n' && in.getByte(i + 1) == '\n') {
+                headers = parseHeaders(in.toString(start, i - start, StandardCharsets.UTF_8));
+                in.readerIndex(i + 2);
+                scanned = 0;
+                String length = headers.get(EslMessage.CONTENT_LENGTH);
+                contentLength = length == null ? 0 : Integer.parseInt(length.trim());
+                if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+                    throw new TooLongFrameException("Invalid ESL Content-Length " + contentLength);
+                }
+                return true;
+            }
+        }
+        scanned = end - start;
+        if (scanned > MAX_HEADER_BYTES) {
+            throw new TooLongFrameException("ESL header block longer than " + MAX_HEADER_BYTES + " bytes");
+        }
+        return false;
+    }
+
+    static Map<String, String> parseHeaders(String block) {
+        Map<String, String> parsed = new HashMap<>();
+        for (String line : block.split("\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                parsed.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        return parsed;
+    }
+}
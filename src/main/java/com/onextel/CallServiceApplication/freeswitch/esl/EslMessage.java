@@ -0,0 +1,46 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Message read from a FreeSWITCH Event Socket: the envelope headers and the body of
+ * Content-Length bytes, empty if there is none.
+ */
+public record EslMessage(Map<String, String> headers, byte[] body) {
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String REPLY_TEXT = "Reply-Text";
+
+    public static final String AUTH_REQUEST = "auth/request";
+    public static final String COMMAND_REPLY = "command/reply";
+    public static final String API_RESPONSE = "api/response";
+    public static final String EVENT_JSON = "text/event-json";
+    public static final String EVENT_PLAIN = "text/event-plain";
+    public static final String DISCONNECT_NOTICE = "text/disconnect-notice";
+
+    public String getContentType() {
+        return headers.get(CONTENT_TYPE);
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Reply-Text of a command reply, the body of an api response.
+     */
+    public String getReplyText() {
+        String replyText = headers.get(REPLY_TEXT);
+        return replyText != null ? replyText : getBodyAsString();
+    }
+
+    public boolean isOk() {
+        String replyText = getReplyText();
+        return replyText != null && replyText.startsWith("+OK");
+    }
+
+    public String getBodyAsString() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
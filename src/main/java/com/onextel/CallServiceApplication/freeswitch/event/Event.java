@@ -7,22 +7,61 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-@Getter
+/**
+ * FreeSWITCH event.
+ * <p>
+ * An event is either backed by a fully parsed header map, or by the headers of a
+ * {@link EventFieldProjection} plus a loader for the raw payload. In the latter case
+ * headers outside the projection are parsed on first access, so handlers can still
+ * reach any header while the common path only pays for the ones it declared.
+ */
 public class Event {
+    @Getter
     private final EventType eventType;
-    private final Map<String, Object> eventDetails;
+    @Getter
     private final int eventSequence;
 
+    private final Map<String, Object> projectedDetails;
+    private final EventFieldProjection projection;
+    private final Supplier<Map<String, Object>> fullDetailsLoader;
+    private volatile Map<String, Object> fullDetails;
+    // Set by the ingest before the event is handed over to the executor
+    @Getter
+    private long receivedAtMicros;
+    @Getter
+    private long receivedAtNanos;
+
     public Event(Map<String, Object> eventDetails) {
-        this.eventDetails = eventDetails;
-        this.eventType = EventUtils.getEventType(eventDetails);
+        this(eventDetails, EventFieldProjection.ALL, null);
+    }
+
+    /**
+     * Creates an event holding only the projected headers.
+     *
+     * @param projectedDetails  headers matched by the projection
+     * @param projection        projection used to parse the payload
+     * @param fullDetailsLoader parses every header of the payload, called at most once in practice
+     */
+    Event(Map<String, Object> projectedDetails,
+          EventFieldProjection projection,
+          Supplier<Map<String, Object>> fullDetailsLoader) {
+        this.projectedDetails = projectedDetails;
+        this.projection = projection;
+        this.fullDetailsLoader = fullDetailsLoader;
+        if (projection.isAll()) {
+            this.fullDetails = projectedDetails;
+        }
+        this.eventType = EventUtils.getEventType(projectedDetails);
         if (this.eventType == null) {
-            String eventDetailsFormatted = eventDetails.entrySet().stream()
+            String eventDetailsFormatted = getEventDetails().entrySet().stream()
                     .map(entry -> entry.getKey() +
                             " : " + entry.getValue())
                     .collect(Collectors.joining(", "));
@@ -30,7 +69,44 @@ public class Event {
                     + eventDetailsFormatted);
         }
         this.eventSequence =  EventUtils.getIntParamWithDefault(
-                eventDetails, EventParams.EVENT_SEQUENCE, 0);
+                projectedDetails, EventParams.EVENT_SEQUENCE, 0);
+    }
+
+    /**
+     * Returns all headers of the event, parsing the rest of the payload if the
+     * event was created from a projection.
+     */
+    public Map<String, Object> getEventDetails() {
+        Map<String, Object> details = fullDetails;
+        if (details == null) {
+            // Racing threads parse the same immutable payload, either result is fine
+            details = fullDetailsLoader.get();
+            fullDetails = details;
+        }
+        return details;
+    }
+
+    /**
+     * Calls the action for every header starting with the prefix.
+     */
+    public void forEachParamWithPrefix(String prefix, BiConsumer<String, Object> action) {
+        Map<String, Object> details = projection.includesPrefix(prefix) ? projectedDetails : getEventDetails();
+        details.forEach((key, value) -> {
+            if (key.startsWith(prefix)) {
+                action.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * Map holding the header, the projected headers if the projection covers it.
+     */
+    private Map<String, Object> detailsFor(String key) {
+        Map<String, Object> details = fullDetails;
+        if (details != null) {
+            return details;
+        }
+        return projection.includes(key) ? projectedDetails : getEventDetails();
     }
 
     public String getFreeSwitchNodeId() {
@@ -55,7 +131,7 @@ public class Event {
      */
     public LocalDateTime getEventDateLocal() {
         String dateString = EventUtils.getStringParam(
-                eventDetails, EventParams.EVENT_DATE_LOCAL);
+                detailsFor(EventParams.EVENT_DATE_LOCAL), EventParams.EVENT_DATE_LOCAL);
         if (dateString != null) {
             DateTimeFormatter formatter =
                     DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -70,7 +146,7 @@ public class Event {
      */
     public ZonedDateTime getEventDateGMT() {
         String dateString = EventUtils.getStringParam(
-                eventDetails, EventParams.EVENT_DATE_GMT);
+                detailsFor(EventParams.EVENT_DATE_GMT), EventParams.EVENT_DATE_GMT);
         if (dateString != null) {
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
                     "EEE, dd MMM yyyy HH:mm:ss 'GMT'");
@@ -81,43 +157,60 @@ public class Event {
 
     /**
      * Get Event-Date-Timestamp as an Instant object
-     * Represents: The timestamp value representing the event date and time,
-     * usually in epoch time (Unix timestamp), which is the number of
-     * milliseconds (or seconds) since January 1, 1970, 00:00:00 UTC (the Unix epoch).
+     * Represents: The time FreeSWITCH fired the event, in microseconds since
+     * January 1, 1970, 00:00:00 UTC (the Unix epoch).
      */
      public Instant getEventDateTimestamp() {
+        long micros = getEventDateTimestampMicros();
+        return micros > 0 ? Instant.EPOCH.plus(micros, ChronoUnit.MICROS) : null;
+    }
+
+    /**
+     * Event-Date-Timestamp in epoch microseconds, 0 if the header is missing.
+     */
+    public long getEventDateTimestampMicros() {
         String timestamp = EventUtils.getStringParam(
-                eventDetails, EventParams.EVENT_DATE_TIMESTAMP);
+                detailsFor(EventParams.EVENT_DATE_TIMESTAMP), EventParams.EVENT_DATE_TIMESTAMP);
         if (timestamp != null) {
             try {
-                long timestampMillis = Long.parseLong(timestamp);
-                // Convert to Instant (milliseconds)
-                return Instant.ofEpochMilli(timestampMillis);
+                return Long.parseLong(timestamp);
             } catch (NumberFormatException e) {
                 throw new IllegalArgumentException("Invalid timestamp value: " + timestamp, e);
             }
         }
-        return null;
+        return 0;
+    }
+
+    /**
+     * Stamps the time the event was received from the broker, the start of the
+     * receive-to-dispatch lag.
+     *
+     * @param epochMicros wall clock, compared with Event-Date-Timestamp
+     * @param nanos       {@link System#nanoTime()}, for the lag inside the service
+     */
+    public void markReceived(long epochMicros, long nanos) {
+        this.receivedAtMicros = epochMicros;
+        this.receivedAtNanos = nanos;
     }
 
     public String getStringParam(String key) {
-        return EventUtils.getStringParam(eventDetails, key);
+        return EventUtils.getStringParam(detailsFor(key), key);
     }
 
     public OptionalInt getIntParam(String key) {
-        return EventUtils.getIntParam(eventDetails, key);
+        return EventUtils.getIntParam(detailsFor(key), key);
     }
 
     public int getIntParamWithDefault(String key, int defaultValue) {
-        return EventUtils.getIntParamWithDefault(eventDetails, key, defaultValue);
+        return EventUtils.getIntParamWithDefault(detailsFor(key), key, defaultValue);
     }
 
     public OptionalDouble getDoubleParam(String key) {
-        return EventUtils.getDoubleParam(eventDetails, key);
+        return EventUtils.getDoubleParam(detailsFor(key), key);
     }
 
     public double getDoubleParamWithDefault(String key, double defaultValue) {
-        return EventUtils.getDoubleParamWithDefault(eventDetails, key, defaultValue);
+        return EventUtils.getDoubleParamWithDefault(detailsFor(key), key, defaultValue);
     }
 
     public String getParameter(String key) {
@@ -132,7 +225,7 @@ public class Event {
     public String toString() {
         String lineSeparator = System.lineSeparator();
         // Format event details as key : value pairs
-        String eventDetailsFormatted = eventDetails.entrySet().stream()
+        String eventDetailsFormatted = getEventDetails().entrySet().stream()
                 .map(entry -> entry.getKey() + " : " + entry.getValue())
                 .collect(Collectors.joining(lineSeparator));
         return String.format("event:%s Event-Sequence: %d:%s%s",
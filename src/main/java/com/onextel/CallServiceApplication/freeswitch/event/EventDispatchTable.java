@@ -0,0 +1,64 @@
+package com.onextel.CallServiceApplication.freeswitch.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Dispatch information of every {@link EventType}, indexed by ordinal.
+ * <p>
+ * Built once by the {@link EventHandlerFactory}, so the dispatch of an event is an
+ * array read: the handler, the headers to parse, whether the event is channel scoped,
+ * the header its per channel ordering is keyed on and the executor lane it runs on.
+ * Types without a dedicated handler share the fallback route.
+ */
+public final class EventDispatchTable {
+
+    /**
+     * @param handler          handler of the type, instrumented
+     * @param projection       headers the parser materializes for the type
+     * @param channelScoped    events of the type go through the channel mailboxes in order
+     * @param orderingKey      header the channel ordering is keyed on, null if not channel scoped
+     * @param lane             executor lane of the type
+     * @param dedicatedHandler false if the type goes to the fallback handler
+     */
+    public record Route(EventType eventType, EventHandler handler, EventFieldProjection projection,
+                        boolean channelScoped, String orderingKey, String lane, boolean dedicatedHandler) {
+    }
+
+    private final Route[] routes;
+    private final Set<EventType> handledTypes;
+
+    /**
+     * @param routes one route per event type, indexed by ordinal
+     */
+    EventDispatchTable(Route[] routes) {
+        if (routes.length != EventType.values().length) {
+            throw new IllegalArgumentException("Expected a route per event type, got " + routes.length);
+        }
+        Set<EventType> handled = EnumSet.noneOf(EventType.class);
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] == null || routes[i].eventType().ordinal() != i) {
+                throw new IllegalArgumentException("Route missing or misplaced at " + EventType.values()[i]);
+            }
+            if (routes[i].dedicatedHandler()) {
+                handled.add(routes[i].eventType());
+            }
+        }
+        this.routes = routes.clone();
+        this.handledTypes = Collections.unmodifiableSet(handled);
+    }
+
+    public Route route(EventType eventType) {
+        return routes[eventType.ordinal()];
+    }
+
+    /**
+     * Event types with a dedicated handler.
+     */
+    public Set<EventType> handledTypes() {
+        return handledTypes;
+    }
+}
@@ -0,0 +1,111 @@
+package com.onextel.CallServiceApplication.freeswitch.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Set of event headers a handler reads, given as exact keys and key prefixes
+ * (e.g. "variable_" for all channel variables).
+ * <p>
+ * The {@link EventParser} only materializes the headers of the projection, every
+ * other header stays in the raw payload until an {@link Event} asks for it.
+ */
+public final class EventFieldProjection {
+    /**
+     * Projection matching every header, the parser falls back to a full parse.
+     */
+    public static final EventFieldProjection ALL = new EventFieldProjection(Set.of(), List.of(), true);
+
+    /**
+     * Headers read for every event, independently of the handler.
+     */
+    public static final EventFieldProjection COMMON = EventFieldProjection.of(
+            EventParams.EVENT_NAME,
+            EventParams.EVENT_SEQUENCE,
+            EventParams.EVENT_DATE_TIMESTAMP,
+            EventParams.CORE_UUID,
+            EventParams.FREESWITCH_HOSTNAME,
+            EventParams.FREESWITCH_IPV4,
+            EventParams.CHANNEL_CALL_UUID,
+            EventParams.UNIQUE_ID);
+
+    private final Set<String> keys;
+    private final List<String> prefixes;
+    private final boolean all;
+
+    private EventFieldProjection(Set<String> keys, List<String> prefixes, boolean all) {
+        this.keys = keys;
+        this.prefixes = prefixes;
+        this.all = all;
+    }
+
+    public static EventFieldProjection of(String... keys) {
+        return new EventFieldProjection(Set.of(keys), List.of(), false);
+    }
+
+    /**
+     * Returns a copy of this projection also matching every header starting with one of the prefixes.
+     */
+    public EventFieldProjection withPrefixes(String... additionalPrefixes) {
+        if (all) {
+            return this;
+        }
+        List<String> merged = new ArrayList<>(prefixes);
+        Collections.addAll(merged, additionalPrefixes);
+        return new EventFieldProjection(keys, List.copyOf(merged), false);
+    }
+
+    /**
+     * Returns a projection matching every header matched by this one or the other.
+     */
+    public EventFieldProjection union(EventFieldProjection other) {
+        if (all || other.all) {
+            return ALL;
+        }
+        Set<String> mergedKeys = new HashSet<>(keys);
+        mergedKeys.addAll(other.keys);
+        List<String> mergedPrefixes = new ArrayList<>(prefixes);
+        for (String prefix : other.prefixes) {
+            if (!mergedPrefixes.contains(prefix)) {
+                mergedPrefixes.add(prefix);
+            }
+        }
+        return new EventFieldProjection(Set.copyOf(mergedKeys), List.copyOf(mergedPrefixes), false);
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    public boolean includes(String key) {
+        if (all || keys.contains(key)) {
+            return true;
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (key.startsWith(prefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean includesPrefix(String prefix) {
+        if (all) {
+            return true;
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (prefix.startsWith(prefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return all ? "EventFieldProjection[ALL]" : "EventFieldProjection[keys=" + keys + ", prefixes=" + prefixes + "]";
+    }
+}
@@ -5,14 +5,23 @@ import com.onextel.CallServiceApplication.freeswitch.FreeSwitchRegistry;
 import com.onextel.CallServiceApplication.freeswitch.event.handlers.*;
 import com.onextel.CallServiceApplication.service.CallManager;
 import com.onextel.CallServiceApplication.service.CommandService;
+import com.onextel.CallServiceApplication.service.EventProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Builds the {@link EventDispatchTable}: one instrumented handler, projection and lane
+ * per event type, resolved once at startup.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -22,33 +31,98 @@ public class EventHandlerFactory {
     private final CallManager callManager;
     private final FreeSwitchRegistry clusterManager;
     private final AuditService auditService;
-    private final Map<EventType, EventHandler> handlerMap = new HashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    // Lane of the call control events, every other type runs on the info lane
+    @Value("${app.events.lanes.control.types:" + EventProcessor.DEFAULT_CONTROL_EVENT_TYPES + "}")
+    private String[] controlLaneTypes;
+
+    private EventDispatchTable dispatchTable;
+
+    /**
+     * Headers of any handled event type, used by the parser until it knows the event type
+     */
+    private EventFieldProjection anyEventProjection = EventFieldProjection.COMMON;
 
     @PostConstruct
     public void initializeHandlers() {
+        Map<EventType, EventHandler> handlerMap = new EnumMap<>(EventType.class);
         handlerMap.put(EventType.HEARTBEAT, new HeartbeatEventHandler(clusterManager));
         handlerMap.put(EventType.BACKGROUND_JOB, new BackgroundJobEventHandler(commandService));
 
-        // Handling all Channel Events with the same handler
-        handlerMap.put(EventType.CHANNEL_CREATE, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_PROGRESS, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_ANSWER, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_CALLSTATE, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_HANGUP, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_HANGUP_COMPLETE, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_BRIDGE, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_UNBRIDGE, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.DTMF, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_HOLD, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_UNHOLD, new ChannelEventHandler(callManager, auditService));
-        handlerMap.put(EventType.CHANNEL_EXECUTE, new ChannelEventHandler(callManager, auditService));
+        // Handling all Channel Events with the same handler, it keeps no state
+        ChannelEventHandler channelEventHandler = new ChannelEventHandler(callManager, auditService);
+        handlerMap.put(EventType.CHANNEL_CREATE, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_PROGRESS, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_ANSWER, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_CALLSTATE, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_HANGUP, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_HANGUP_COMPLETE, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_BRIDGE, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_UNBRIDGE, channelEventHandler);
+        handlerMap.put(EventType.DTMF, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_HOLD, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_UNHOLD, channelEventHandler);
+        handlerMap.put(EventType.CHANNEL_EXECUTE, channelEventHandler);
 
         handlerMap.put(EventType.CUSTOM, new CustomEventHandler(callManager));
 
-        log.info("EventHandlerFactory init success.");
+        Set<EventType> controlTypes = EnumSet.noneOf(EventType.class);
+        for (String type : controlLaneTypes) {
+            controlTypes.add(EventType.fromString(type.trim()));
+        }
+
+        FallbackEventHandler fallbackHandler = new FallbackEventHandler();
+        EventType[] types = EventType.values();
+        EventDispatchTable.Route[] routes = new EventDispatchTable.Route[types.length];
+        for (EventType eventType : types) {
+            EventHandler handler = handlerMap.get(eventType);
+            boolean dedicated = handler != null;
+            if (!dedicated) {
+                handler = fallbackHandler;
+            }
+            EventFieldProjection projection = EventFieldProjection.COMMON
+                    .union(handler.getFieldProjection(eventType));
+            boolean channelScoped = EventUtils.isChannelEvent(eventType);
+            routes[eventType.ordinal()] = new EventDispatchTable.Route(eventType,
+                    new InstrumentedEventHandler(handler, eventType, meterRegistry), projection,
+                    channelScoped, channelScoped ? EventParams.CHANNEL_CALL_UUID : null,
+                    controlTypes.contains(eventType) ? EventProcessor.CONTROL_LANE : EventProcessor.INFO_LANE,
+                    dedicated);
+            if (dedicated) {
+                anyEventProjection = anyEventProjection.union(projection);
+            }
+        }
+        dispatchTable = new EventDispatchTable(routes);
+
+        log.info("EventHandlerFactory init success, handled types {}, control lane types {}",
+                dispatchTable.handledTypes(), controlTypes);
+    }
+
+    public EventDispatchTable.Route getRoute(EventType eventType) {
+        return dispatchTable.route(eventType);
     }
 
     public EventHandler getEventHandler(EventType eventType) {
-        return handlerMap.getOrDefault(eventType, new FallbackEventHandler());
+        return dispatchTable.route(eventType).handler();
+    }
+
+    /**
+     * Headers to materialize for the event type, the common headers plus the ones
+     * its handler declared.
+     */
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return dispatchTable.route(eventType).projection();
+    }
+
+    /**
+     * Event types with a dedicated handler, every other type goes to the fallback handler.
+     */
+    public Set<EventType> getHandledEventTypes() {
+        return dispatchTable.handledTypes();
+    }
+
+    public EventFieldProjection getAnyEventProjection() {
+        return anyEventProjection;
     }
 }
@@ -35,6 +35,7 @@ public class EventParams {
     public static final String IDLE_CPU = "Idle-CPU";
 
     // background job event parameters
+    public static final String JOB_UUID = "Job-UUID";
     public static final String JOB_COMMAND = "Job-Command";
     public static final String JOB_COMMAND_ARG = "Job-Command-Arg";
     public static final String BODY = "_body";
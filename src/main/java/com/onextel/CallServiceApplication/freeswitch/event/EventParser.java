@@ -0,0 +1,120 @@
+package com.onextel.CallServiceApplication.freeswitch.event;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for FreeSWITCH JSON events.
+ * <p>
+ * Reads the AMQP body bytes with a Jackson {@link JsonParser} and only materializes
+ * headers of the {@link EventFieldProjection} of the event type. Until Event-Name has
+ * been read the projection of all handlers is used. Skipped values are never decoded
+ * into Strings, which for CHANNEL_CREATE means the 150+ variable_* headers and SDP
+ * bodies of non-create events cost no allocation. The returned {@link Event} keeps
+ * the body and parses it fully on demand.
+ * <p>
+ * The body is never copied into a String. Parser buffers come from a shared pool
+ * instead of the default per-thread recycler, which virtual threads would defeat.
+ */
+@Component
+public class EventParser {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+    private static final int EXPECTED_PROJECTED_HEADERS = 32;
+
+    private final ObjectMapper objectMapper;
+    private final EventHandlerFactory eventHandlerFactory;
+
+    public EventParser(ObjectMapper objectMapper, EventHandlerFactory eventHandlerFactory) {
+        this.objectMapper = objectMapper.copyWith(objectMapper.getFactory().rebuild()
+                .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+                .build());
+        this.eventHandlerFactory = eventHandlerFactory;
+    }
+
+    /**
+     * Parses the projected headers of the event.
+     *
+     * @throws IOException              if the body is not a valid JSON object
+     * @throws IllegalArgumentException if the event type is missing or unknown
+     */
+    public Event parse(byte[] body) throws IOException {
+        return parse(body, 0, body.length);
+    }
+
+    /**
+     * Parses the projected headers of the event in the remaining bytes of the buffer,
+     * without copying them if the buffer is backed by an array.
+     */
+    public Event parse(ByteBuffer body) throws IOException {
+        if (body.hasArray()) {
+            return parse(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        }
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return parse(bytes);
+    }
+
+    private Event parse(byte[] body, int offset, int length) throws IOException {
+        Map<String, Object> details = new HashMap<>(EXPECTED_PROJECTED_HEADERS);
+        EventFieldProjection projection = eventHandlerFactory.getAnyEventProjection();
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Event payload is not a JSON object");
+            }
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                if (!projection.includes(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                Object value = readValue(parser, token);
+                details.put(field, value);
+                if (EventParams.EVENT_NAME.equals(field) && value instanceof String eventName) {
+                    projection = eventHandlerFactory.getFieldProjection(EventType.fromString(eventName));
+                }
+            }
+        }
+        return new Event(details, projection, () -> parseAll(body, offset, length));
+    }
+
+    /**
+     * Parses every header of the event.
+     */
+    public Map<String, Object> parseAll(byte[] body) {
+        return parseAll(body, 0, body.length);
+    }
+
+    private Map<String, Object> parseAll(byte[] body, int offset, int length) {
+        try {
+            return objectMapper.readValue(body, offset, length, MAP_TYPE);
+        } catch (IOException e) {
+            // The projected parse of the same bytes succeeded, so this is not expected
+            throw new UncheckedIOException("Failed to parse event payload", e);
+        }
+    }
+
+    private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_NULL -> null;
+            default -> objectMapper.readValue(parser, Object.class);
+        };
+    }
+}
@@ -1,11 +1,13 @@
 package com.onextel.CallServiceApplication.freeswitch.event;
 
 import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+import com.onextel.CallServiceApplication.service.EventLagMonitor;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Class representing a task to process the event
@@ -18,6 +20,9 @@ public class EventTask implements Runnable, Comparable<EventTask> {
     private final int eventSequence;
     private final EventHandler eventHandler;
     private final Consumer<Boolean> ackCallback; // true=ack, false=nack
+    private final EventLagMonitor lagMonitor;
+    // Returns true if it took care of the handler failure, the event is then acked
+    private final Predicate<Exception> failureHandler;
 
     public EventTask(
             Event event,
@@ -26,13 +31,34 @@ public class EventTask implements Runnable, Comparable<EventTask> {
         this.eventHandler = eventHandler;
         this.eventSequence = event.getEventSequence();
         this.ackCallback = null;
+        this.lagMonitor = null;
+        this.failureHandler = null;
     }
 
     public EventTask(Event event, EventHandler eventHandler, Consumer<Boolean> ackCallback) {
+        this(event, eventHandler, ackCallback, null);
+    }
+
+    /**
+     * @param lagMonitor records the lag of the event once handled, may be null
+     */
+    public EventTask(Event event, EventHandler eventHandler, Consumer<Boolean> ackCallback,
+                     EventLagMonitor lagMonitor) {
+        this(event, eventHandler, ackCallback, lagMonitor, null);
+    }
+
+    /**
+     * @param failureHandler called with the exception of a failed handler, the event is
+     *                       acked if it returns true (e.g. quarantined), may be null
+     */
+    public EventTask(Event event, EventHandler eventHandler, Consumer<Boolean> ackCallback,
+                     EventLagMonitor lagMonitor, Predicate<Exception> failureHandler) {
         this.event = event;
         this.eventHandler = eventHandler;
         this.eventSequence = event.getEventSequence();
         this.ackCallback = ackCallback;
+        this.lagMonitor = lagMonitor;
+        this.failureHandler = failureHandler;
     }
 
     @Override
@@ -50,17 +76,22 @@ public class EventTask implements Runnable, Comparable<EventTask> {
 
     @Override
     public void run() {
+        long startedNanos = System.nanoTime();
         try {
-            LOGGER.debug("Processing: {}", event.toString());
+            LOGGER.debug("Processing: {}", event);
             // LOGGER.info("Processing event: {} eventSequence {}", event.getEventType(), eventSequence);
             eventHandler.handleEvent(event);
+            if (lagMonitor != null) {
+                lagMonitor.record(event, startedNanos, System.nanoTime());
+            }
             if (ackCallback != null) {
                 ackCallback.accept(true); // Ack on success
             }
         } catch (Exception exp) {
             LOGGER.error("Failed to handle event {}", event, exp);
+            boolean handled = failureHandler != null && failureHandler.test(exp);
             if (ackCallback != null) {
-                ackCallback.accept(false); // Ack on success
+                ackCallback.accept(handled); // Nack unless the failure was taken care of
             }
         }
     }
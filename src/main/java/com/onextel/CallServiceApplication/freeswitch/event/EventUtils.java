@@ -4,6 +4,7 @@ import com.onextel.CallServiceApplication.model.DTMFEventType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
@@ -13,6 +14,26 @@ import java.util.regex.Pattern;
 public class EventUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(EventUtils.class);
 
+    // Events processed in order per channel, indexed by EventType ordinal
+    private static final boolean[] CHANNEL_EVENTS = new boolean[EventType.values().length];
+
+    static {
+        for (EventType eventType : EnumSet.of(
+                EventType.CHANNEL_CREATE,
+                EventType.CHANNEL_PROGRESS,
+                EventType.CHANNEL_ANSWER,
+                EventType.CHANNEL_HOLD,
+                EventType.CHANNEL_UNHOLD,
+                EventType.CHANNEL_HANGUP,
+                EventType.CHANNEL_HANGUP_COMPLETE,
+                EventType.CHANNEL_CALLSTATE,
+                EventType.CHANNEL_BRIDGE,
+                EventType.CHANNEL_UNBRIDGE,
+                EventType.DTMF)) {
+            CHANNEL_EVENTS[eventType.ordinal()] = true;
+        }
+    }
+
     // method to retrieve and convert EventType
     public static EventType getEventType(Map<String, Object> event) {
         String eventName = getEventParam(event, EventParams.EVENT_NAME, String.class);
@@ -99,17 +120,7 @@ public class EventUtils {
     }
 
     public static boolean isChannelEvent(EventType eventType) {
-        return eventType == EventType.CHANNEL_CREATE ||
-                eventType == EventType.CHANNEL_PROGRESS ||
-                eventType == EventType.CHANNEL_ANSWER ||
-                eventType == EventType.CHANNEL_HOLD ||
-                eventType == EventType.CHANNEL_UNHOLD ||
-                eventType == EventType.CHANNEL_HANGUP ||
-                eventType == EventType.CHANNEL_HANGUP_COMPLETE ||
-                eventType == EventType.CHANNEL_CALLSTATE ||
-                eventType == EventType.CHANNEL_BRIDGE ||
-                eventType == EventType.CHANNEL_UNBRIDGE ||
-                eventType == EventType.DTMF;
+        return CHANNEL_EVENTS[eventType.ordinal()];
     }
 
     public static String extractCorrelationId(String command) {
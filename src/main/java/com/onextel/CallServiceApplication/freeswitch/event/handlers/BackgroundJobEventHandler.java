@@ -2,7 +2,9 @@ package com.onextel.CallServiceApplication.freeswitch.event.handlers;
 
 import com.onextel.CallServiceApplication.common.StringUtils;
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
 import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 import com.onextel.CallServiceApplication.freeswitch.event.EventUtils;
 import com.onextel.CallServiceApplication.service.CommandService;
 import org.slf4j.Logger;
@@ -37,6 +39,11 @@ import org.slf4j.LoggerFactory;
 public class BackgroundJobEventHandler extends EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(
             BackgroundJobEventHandler.class);
+    private static final EventFieldProjection FIELDS = EventFieldProjection.of(
+            EventParams.JOB_UUID,
+            EventParams.JOB_COMMAND,
+            EventParams.JOB_COMMAND_ARG,
+            EventParams.BODY);
 
     private final CommandService commandService;
 
@@ -53,7 +60,12 @@ public class BackgroundJobEventHandler extends EventHandler {
             String jobArgs = event.getStringParam(EventParams.JOB_COMMAND_ARG);
             String fullCommand = jobCommand + " " + jobArgs;
 
-            String correlationId = EventUtils.extractCorrelationId(fullCommand);
+            // Commands sent over the Event Socket are correlated by the Job-UUID they were given
+            String correlationId = commandService.getCorrelationIdForJob(
+                    event.getStringParam(EventParams.JOB_UUID));
+            if (StringUtils.isNullOrBlank(correlationId)) {
+                correlationId = EventUtils.extractCorrelationId(fullCommand);
+            }
             String responseBody = event.getStringParam(EventParams.BODY);
 
             if (!StringUtils.isNullOrBlank(correlationId)) {
@@ -68,4 +80,9 @@ public class BackgroundJobEventHandler extends EventHandler {
             LOGGER.error("Error processing FreeSWITCH event:{}", event, e);
         }
     }
+
+    @Override
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return FIELDS;
+    }
 }
@@ -4,7 +4,9 @@ import com.onextel.CallServiceApplication.audit.AuditEventType;
 import com.onextel.CallServiceApplication.audit.AuditService;
 import com.onextel.CallServiceApplication.freeswitch.command.CustomVariables;
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
 import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 import com.onextel.CallServiceApplication.freeswitch.event.EventUtils;
 import com.onextel.CallServiceApplication.model.*;
 import com.onextel.CallServiceApplication.service.CallManager;
@@ -105,6 +107,26 @@ import java.util.stream.Stream;
 public class ChannelEventHandler extends EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(
             ChannelEventHandler.class);
+    private static final String VARIABLE_PREFIX = "variable_";
+
+    // Headers read while resolving the call and by every event type handled below
+    private static final EventFieldProjection FIELDS = EventFieldProjection.of(
+            EventParams.OTHER_LEG_UNIQUE_ID,
+            EventParams.CALL_DIRECTION,
+            EventParams.CHANNEL_CALL_STATE,
+            EventParams.HANGUP_CAUSE,
+            EventParams.BRIDGE_A_UNIQUE_ID,
+            EventParams.BRIDGE_B_UNIQUE_ID,
+            EventParams.DTMF_DIGIT,
+            EventParams.DTMF_DURATION,
+            EventParams.APPLICATION,
+            EventParams.APPLICATION_DATA,
+            "Answer-State",
+            CustomVariables.getVariable(CustomVariables.ONEXTEL_CALL_ID),
+            CustomVariables.getVariableWithSipHeader(CustomVariables.ONEXTEL_CALL_ID));
+
+    // CHANNEL_CREATE copies every channel variable to the new channel
+    private static final EventFieldProjection CREATE_FIELDS = FIELDS.withPrefixes(VARIABLE_PREFIX);
 
     private final CallManager callManager;
     private final AuditService auditService;
@@ -133,48 +155,59 @@ public class ChannelEventHandler extends EventHandler {
             return;
         }
 
+        // The handlers of the call's legs run one at a time as its writer
+        Call call = activeCall.get();
+        call.write(() -> dispatch(call, channelUuid, event));
+    }
+
+    private void dispatch(Call call, String channelUuid, Event event) {
         switch (event.getEventType()) {
             case CHANNEL_CREATE:
-                handleChannelCreate(activeCall.get(), channelUuid, event);
+                handleChannelCreate(call, channelUuid, event);
                 break;
             case CHANNEL_PROGRESS:
-                handleChannelProgress(activeCall.get(), channelUuid, event);
+                handleChannelProgress(call, channelUuid, event);
                 break;
             case CHANNEL_ANSWER:
-                handleChannelAnswer(activeCall.get(), channelUuid, event);
+                handleChannelAnswer(call, channelUuid, event);
                 break;
             case CHANNEL_CALLSTATE:
-                handleCallState(activeCall.get(), channelUuid, event);
+                handleCallState(call, channelUuid, event);
                 break;
             case CHANNEL_HANGUP:
-                handleChannelHangup(activeCall.get(), channelUuid, event);
+                handleChannelHangup(call, channelUuid, event);
                 break;
             case CHANNEL_HANGUP_COMPLETE:
-                handleChannelHangupComplete(activeCall.get(), channelUuid, event);
+                handleChannelHangupComplete(call, channelUuid, event);
                 break;
             case CHANNEL_BRIDGE:
-                handleChannelBridge(activeCall.get(), channelUuid, event);
+                handleChannelBridge(call, channelUuid, event);
                 break;
             case CHANNEL_UNBRIDGE:
-                handleChannelUnbridge(activeCall.get(), channelUuid, event);
+                handleChannelUnbridge(call, channelUuid, event);
                 break;
             case DTMF:
-                handleDTMF(activeCall.get(), channelUuid, event);
+                handleDTMF(call, channelUuid, event);
                 break;
             case CHANNEL_HOLD:
-                handleChannelHold(activeCall.get(), channelUuid, event);
+                handleChannelHold(call, channelUuid, event);
                 break;
             case CHANNEL_UNHOLD:
-                handleChannelUnhold(activeCall.get(), channelUuid, event);
+                handleChannelUnhold(call, channelUuid, event);
                 break;
             case CHANNEL_EXECUTE:
-                handleChannelExecute(activeCall.get(), channelUuid, event);
+                handleChannelExecute(call, channelUuid, event);
                 break;
             default:
                 LOGGER.warn("Unhandled channel event type: {}", event.getEventType());
         }
     }
 
+    @Override
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return eventType == EventType.CHANNEL_CREATE ? CREATE_FIELDS : FIELDS;
+    }
+
     private Optional<String> resolveCallUuid(Event event) {
         List<String> possibleNames = Arrays.asList(
                 CustomVariables.getVariable(CustomVariables.ONEXTEL_CALL_ID),
@@ -243,18 +276,17 @@ public class ChannelEventHandler extends EventHandler {
         Channel channel = new Channel(channelUuid, callUuid, role);
 
         // Set custom channel variables
-        event.getEventDetails().entrySet().stream()
-                .filter(entry -> entry.getKey().startsWith("variable_"))
-                .forEach(entry -> {
-                    String varName = entry.getKey().substring("variable_".length());
-                    String varValue = entry.getValue() != null ? entry.getValue().toString() : null;
-                    channel.getVariables().put(varName, varValue);
-                });
+        event.forEachParamWithPrefix(VARIABLE_PREFIX, (key, value) -> {
+            String varName = key.substring(VARIABLE_PREFIX.length());
+            String varValue = value != null ? value.toString() : null;
+            channel.getVariables().put(varName, varValue);
+        });
 
-        callManager.addChannelToCall(callUuid, channel);
+        // The cache is updated on return, Redis after the earlier writes of the call
+        callManager.addChannelToCallAsync(callUuid, channel);
 
         if (role == ChannelRole.ORIGINATOR) {
-            callManager.updateCallState(call.getCallUuid(), CallState.RINGING);
+            callManager.updateCallStateAsync(call.getCallUuid(), CallState.RINGING);
         }
 
         auditService.logEvent(AuditEventType.CHANNEL_CREATED, callUuid, channelUuid,
@@ -290,7 +322,7 @@ public class ChannelEventHandler extends EventHandler {
                 call.getCurrentState().validateTransition(CallState.ACTIVE);
 
                 channel.answer();
-                callManager.updateCallState(callUuid, CallState.ACTIVE);
+                callManager.updateCallStateAsync(callUuid, CallState.ACTIVE);
                 LOGGER.info("Channel answered: {} for call {}", channelUuid, callUuid);
                 auditService.logEvent(AuditEventType.CHANNEL_ANSWERED,
                     callUuid,
@@ -310,7 +342,7 @@ public class ChannelEventHandler extends EventHandler {
         call.getChannel(channelUuid).ifPresent(channel -> {
             channel.setDetailedState(callState);
             if ("HELD".equals(callState)) {
-                callManager.updateCallState(callUuid, CallState.ON_HOLD);
+                callManager.updateCallStateAsync(callUuid, CallState.ON_HOLD);
             }
         });
         LOGGER.info("Channel state: {} channel {} call {}", callState, channelUuid, callUuid);
@@ -324,11 +356,11 @@ public class ChannelEventHandler extends EventHandler {
             channel.hangup(hangupCause);
 
             if ("NORMAL_CLEARING".equals(hangupCause)) {
-                callManager.updateCallState(callUuid, CallState.ENDED);
+                callManager.updateCallStateAsync(callUuid, CallState.ENDED);
             } else if ("NO_ANSWER".equals(hangupCause)) {
-                callManager.updateCallState(callUuid, CallState.TIMED_OUT);
+                callManager.updateCallStateAsync(callUuid, CallState.TIMED_OUT);
             } else {
-                callManager.updateCallState(callUuid, CallState.FAILED);
+                callManager.updateCallStateAsync(callUuid, CallState.FAILED);
             }
             LOGGER.info("Channel hung up: {} with cause {}", callUuid, hangupCause);
             auditService.logEvent(AuditEventType.CHANNEL_HANGUP,
@@ -361,7 +393,7 @@ public class ChannelEventHandler extends EventHandler {
         call.getChannel(bLeg).ifPresent(Channel::bridge);
 
         String callUuid = call.getCallUuid();
-        callManager.updateCallState(callUuid, CallState.ACTIVE);
+        callManager.updateCallStateAsync(callUuid, CallState.ACTIVE);
         LOGGER.info("Channels bridged: {} and {}", aLeg, bLeg);
         auditService.logEvent(AuditEventType.CHANNEL_BRIDGED,
                 callUuid,
@@ -378,7 +410,7 @@ public class ChannelEventHandler extends EventHandler {
         call.getChannel(bLeg).ifPresent(c -> c.setBridged(false));
 
         if (call.isBeingTransferred()) {
-            callManager.updateCallState(call.getCallUuid(), CallState.TRANSFER_IN_PROGRESS);
+            callManager.updateCallStateAsync(call.getCallUuid(), CallState.TRANSFER_IN_PROGRESS);
         }
         LOGGER.info("Channels unbridged: {} and {}", aLeg, bLeg);
 
@@ -418,7 +450,7 @@ public class ChannelEventHandler extends EventHandler {
             if (channel.getState() == ChannelState.ANSWERED ||
                     channel.getState() == ChannelState.BRIDGED) {
                 channel.setState(ChannelState.HELD);
-                callManager.updateCallState(callUuid, CallState.ON_HOLD);
+                callManager.updateCallStateAsync(callUuid, CallState.ON_HOLD);
                 LOGGER.info("Channel put on hold: {} for call {}", channelUuid, callUuid);
                 auditService.logEvent(AuditEventType.CHANNEL_HOLD,
                         callUuid,
@@ -437,7 +469,7 @@ public class ChannelEventHandler extends EventHandler {
                 // If any channel is active, set call to ACTIVE
                 boolean anyActive = call.getChannels().values().stream()
                         .anyMatch(Channel::isActive);
-                callManager.updateCallState(callUuid, anyActive ? CallState.ACTIVE : CallState.RINGING);
+                callManager.updateCallStateAsync(callUuid, anyActive ? CallState.ACTIVE : CallState.RINGING);
                 LOGGER.info("Channel unheld: {}", channelUuid);
                 auditService.logEvent(AuditEventType.CHANNEL_UNHOLD,
                         callUuid,
@@ -455,6 +487,7 @@ public class ChannelEventHandler extends EventHandler {
         // Detect transfer completion
         if ("att_xfer".equals(application) || "transfer".equals(data)) {
             activeCall.updateCallState(CallState.TRANSFERRED);
+            callManager.reindexCall(activeCall);
             LOGGER.info("Call transferred: {}", activeCall.getCallUuid());
             auditService.logEvent(AuditEventType.CALL_TRANSFER_COMPLETE,
                     activeCall.getCallUuid(), channelUuid, "Call transferred");
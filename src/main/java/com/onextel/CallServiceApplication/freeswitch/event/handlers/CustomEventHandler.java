@@ -3,7 +3,9 @@ package com.onextel.CallServiceApplication.freeswitch.event.handlers;
 import com.onextel.CallServiceApplication.common.StringUtils;
 import com.onextel.CallServiceApplication.freeswitch.command.CustomVariables;
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
 import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 import com.onextel.CallServiceApplication.model.Call;
 import com.onextel.CallServiceApplication.model.CallState;
 import com.onextel.CallServiceApplication.service.CallManager;
@@ -47,6 +49,12 @@ import java.util.Optional;
 public class CustomEventHandler extends EventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(
             CustomEventHandler.class);
+    private static final EventFieldProjection FIELDS = EventFieldProjection.of(
+            EventParams.EVENT_SUBCLASS,
+            EventParams.OTHER_LEG_UNIQUE_ID,
+            "Action",
+            CustomVariables.getVariable(CustomVariables.ONEXTEL_CALL_ID),
+            CustomVariables.getVariableWithSipHeader(CustomVariables.ONEXTEL_CALL_ID));
 
     private final CallManager callManager;
 
@@ -81,10 +89,18 @@ public class CustomEventHandler extends EventHandler {
         }
     }
 
+    @Override
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return FIELDS;
+    }
+
     private void handleConferenceEvent(Call activeCall, Event event) {
         String action = event.getStringParam("Action");
         if ("add-member".equals(action)) {
-            activeCall.updateCallState(CallState.CONFERENCING);
+            activeCall.write(() -> {
+                activeCall.updateCallState(CallState.CONFERENCING);
+                callManager.reindexCall(activeCall);
+            });
             LOGGER.info("Call added to conference: {}", activeCall.getCallUuid());
         }
     }
@@ -2,8 +2,19 @@ package com.onextel.CallServiceApplication.freeswitch.event.handlers;
 
 
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 
 public abstract class EventHandler {
 
     public abstract void handleEvent(Event event);
+
+    /**
+     * Headers this handler reads for the given event type. Only these are parsed
+     * eagerly, anything else is parsed on demand when the event is accessed.
+     * Defaults to every header.
+     */
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return EventFieldProjection.ALL;
+    }
 }
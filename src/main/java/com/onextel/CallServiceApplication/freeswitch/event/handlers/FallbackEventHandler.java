@@ -1,6 +1,8 @@
 package com.onextel.CallServiceApplication.freeswitch.event.handlers;
 
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,4 +15,9 @@ public class FallbackEventHandler extends EventHandler {
                 event.getEventType(), event.getEventSequence());
         //LOGGER.info("Fallback Processing: {}", event.toString());
     }
+
+    @Override
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return EventFieldProjection.COMMON;
+    }
 }
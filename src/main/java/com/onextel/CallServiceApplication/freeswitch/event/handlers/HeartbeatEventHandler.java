@@ -2,6 +2,9 @@ package com.onextel.CallServiceApplication.freeswitch.event.handlers;
 
 import com.onextel.CallServiceApplication.freeswitch.FreeSwitchRegistry;
 import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventFieldProjection;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +41,10 @@ import org.slf4j.LoggerFactory;
 public class HeartbeatEventHandler extends EventHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(HeartbeatEventHandler.class);
+    private static final EventFieldProjection FIELDS = EventFieldProjection.of(
+            EventParams.SESSION_COUNT,
+            EventParams.MAX_SESSIONS,
+            EventParams.IDLE_CPU);
     private final FreeSwitchRegistry clusterManager;
 
     public HeartbeatEventHandler(FreeSwitchRegistry clusterManager) {
@@ -54,9 +61,14 @@ public class HeartbeatEventHandler extends EventHandler {
             // Handle heartbeat event and update session count or other relevant metrics
             LOG.info("Processing heartbeat event eventSequence [{}] host [{}] ip [{}] nodeId [{}]",
                     eventSequence, fsHostname, fsIpAddress, fsNodeId);
-            clusterManager.updateNodeStatus(fsNodeId, event);
+            clusterManager.submitHeartbeat(fsNodeId, event);
         } catch (Exception ex) {
             LOG.error("Failed to process heartbeat event for {} nodeId {}", fsHostname, fsNodeId, ex);
         }
     }
+
+    @Override
+    public EventFieldProjection getFieldProjection(EventType eventType) {
+        return FIELDS;
+    }
 }
@@ -1,6 +1,7 @@
 package com.onextel.CallServiceApplication.model;
 
 import com.fasterxml.jackson.annotation.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -8,7 +9,17 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A call and its channels, cached by the CallManager and stored in Redis.
+ * <p>
+ * A call has a single writer at a time: event handlers and the CallManager change it
+ * and its channels inside {@link #write(Runnable)} only. Other threads (REST responses,
+ * Redis writes) read the {@link CallSnapshot} published at the end of every write
+ * instead of the live fields. The channel and DTMF updates and the change tracking
+ * take the same writer lock, so {@link #drainChanges()} never sees half a write.
+ */
 @Getter
 @Setter
 @JsonInclude(JsonInclude.Include.NON_NULL)  // Avoid storing null values
@@ -72,6 +83,30 @@ public class Call {
     @JsonProperty("dtmfHistory")
     private final List<DTMFEvent> dtmfHistory = Collections.synchronizedList(new ArrayList<>());
 
+    // Change tracking for the partial writes to Redis, see drainChanges()
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ChangeSet changes = new ChangeSet();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, ChannelSnapshot> addedChannels = new LinkedHashMap<>();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Set<String> removedChannels = new LinkedHashSet<>();
+
+    // Held by the single writer, reentrant so a handler may call CallManager methods that write
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ReentrantLock writer = new ReentrantLock();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile CallSnapshot snapshot;
+
     @JsonCreator // For JSON serialization
     protected Call() {
         this.callUuid = "";
@@ -103,22 +138,22 @@ public class Call {
     }
 
     public void updateCallState(CallState newState) {
-        this.previousState = this.currentState;
-        this.currentState = newState;
+        setPreviousState(this.currentState);
+        setCurrentState(newState);
 
         switch(newState) {
             case ACTIVE:
-                this.answerTime = Instant.now();
+                setAnswerTime(Instant.now());
                 break;
             case ENDED:
             case FAILED:
             case TIMED_OUT:
             case TRANSFERRED:
-                this.endTime = Instant.now();
-                this.duration = Duration.between(
+                setEndTime(Instant.now());
+                setDuration(Duration.between(
                         this.answerTime != null ? this.answerTime : this.createTime,
                         this.endTime
-                );
+                ));
                 break;
             case TRANSFER_IN_PROGRESS:
                 this.beingTransferred = true;
@@ -127,14 +162,25 @@ public class Call {
         updateTimeStamp();
     }
 
-    public synchronized void addChannel(Channel channel) {
-        channels.put(channel.getChannelUuid(), channel);
-
-        // Set special channel references
-        if (channel.getChannelRole() == ChannelRole.ORIGINATOR) {
-            this.originatorChannelUuid = channel.getChannelUuid();
-        } else if (channel.getChannelRole() == ChannelRole.DESTINATION) {
-            this.destinationChannelUuid = channel.getChannelUuid();
+    public void addChannel(Channel channel) {
+        writer.lock();
+        try {
+            channels.put(channel.getChannelUuid(), channel);
+            if (changes.isTracking()) {
+                removedChannels.remove(channel.getChannelUuid());
+                // Later changes of the channel are drained as its own changes
+                channel.startChangeTracking();
+                addedChannels.put(channel.getChannelUuid(), channel.snapshot());
+            }
+
+            // Set special channel references
+            if (channel.getChannelRole() == ChannelRole.ORIGINATOR) {
+                setOriginatorChannelUuid(channel.getChannelUuid());
+            } else if (channel.getChannelRole() == ChannelRole.DESTINATION) {
+                setDestinationChannelUuid(channel.getChannelUuid());
+            }
+        } finally {
+            writer.unlock();
         }
     }
 
@@ -143,7 +189,17 @@ public class Call {
     }
 
     public Optional<Channel> removeChannel(String channelUuid) {
-        return Optional.ofNullable(channelUuid).map(channels::remove);
+        writer.lock();
+        try {
+            Optional<Channel> removed = Optional.ofNullable(channelUuid).map(channels::remove);
+            // A channel added since the last flush was never stored
+            if (removed.isPresent() && changes.isTracking() && addedChannels.remove(channelUuid) == null) {
+                removedChannels.add(channelUuid);
+            }
+            return removed;
+        } finally {
+            writer.unlock();
+        }
     }
 
     @JsonIgnore
@@ -191,7 +247,7 @@ public class Call {
     public void setEarlyMediaDetected(boolean detected) {
         this.earlyMediaDetected = detected;
         if (detected) {
-            this.earlyMediaTime = Instant.now();
+            setEarlyMediaTime(Instant.now());
         }
     }
 
@@ -215,15 +271,227 @@ public class Call {
     }
 
     public void updateTimeStamp() {
-        this.lastUpdateTimestamp = Instant.now();
+        setLastUpdateTimestamp(Instant.now());
     }
 
-    public synchronized void addDTMFEvent(DTMFEvent dtmfEvent) {
-        dtmfHistory.add(dtmfEvent);
+    public void addDTMFEvent(DTMFEvent dtmfEvent) {
+        writer.lock();
+        try {
+            dtmfHistory.add(dtmfEvent);
+            changes.mark("dtmfHistory", List.copyOf(dtmfHistory));
+        } finally {
+            writer.unlock();
+        }
     }
 
     public List<DTMFEvent> getDTMFHistory() {
         return Collections.unmodifiableList(dtmfHistory);
     }
 
+    // ========== SINGLE WRITER & SNAPSHOTS ========== //
+
+    /**
+     * Runs the changes as the writer of the call, then publishes a new snapshot. Writers
+     * of the same call (e.g. the handlers of its two legs) run one after the other,
+     * nested writes publish once when the outermost one ends.
+     */
+    public void write(Runnable changes) {
+        writer.lock();
+        try {
+            changes.run();
+        } finally {
+            if (writer.getHoldCount() == 1) {
+                snapshot = snapshot();
+            }
+            writer.unlock();
+        }
+    }
+
+    /**
+     * The snapshot published by the last write, safe to read and serialize on any thread.
+     */
+    @JsonIgnore
+    public CallSnapshot getSnapshot() {
+        CallSnapshot current = snapshot;
+        if (current == null) {
+            // Never written yet, publish the current state
+            write(() -> { });
+            current = snapshot;
+        }
+        return current;
+    }
+
+    // Reads the live fields, only called by the writer
+    private CallSnapshot snapshot() {
+        Map<String, ChannelSnapshot> channelSnapshots = new LinkedHashMap<>();
+        channels.forEach((channelUuid, channel) -> channelSnapshots.put(channelUuid, channel.snapshot()));
+        return new CallSnapshot(callUuid, callUrl, callerIdName, callerIdNumber, extension,
+                applicationName, applicationArguments, copyOf(customVariables),
+                freeSwitchNodeId, callServiceInstanceId, orphaned, currentState, previousState,
+                lastUpdateTimestamp, createTime, earlyMediaTime, answerTime, endTime, getDuration(),
+                hangupCause, Collections.unmodifiableMap(channelSnapshots),
+                originatorChannelUuid, destinationChannelUuid, List.copyOf(dtmfHistory), isActive());
+    }
+
+    // Variables may hold null values, which Map.copyOf rejects
+    private static Map<String, String> copyOf(Map<String, String> variables) {
+        return variables != null ? Collections.unmodifiableMap(new HashMap<>(variables)) : null;
+    }
+
+    // ========== CHANGE TRACKING ========== //
+
+    /**
+     * Starts recording the changes of the call and its channels, dropping what was
+     * recorded so far, and returns the snapshot they apply to. Called when the whole
+     * call is written, later writes only need the changes drained since.
+     */
+    public CallSnapshot startChangeTracking() {
+        // As a writer, so no change falls between the snapshot and the restart
+        writer.lock();
+        try {
+            changes.start();
+            addedChannels.clear();
+            removedChannels.clear();
+            channels.values().forEach(Channel::startChangeTracking);
+            CallSnapshot current = snapshot();
+            if (writer.getHoldCount() == 1) {
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Stops recording, e.g. after a partial write failed, so the next write stores the
+     * whole call again.
+     */
+    public void stopChangeTracking() {
+        writer.lock();
+        try {
+            changes.stop();
+            addedChannels.clear();
+            removedChannels.clear();
+            channels.values().forEach(Channel::stopChangeTracking);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    @JsonIgnore
+    public boolean isChangeTracked() {
+        return changes.isTracking();
+    }
+
+    /**
+     * Returns the changes of the call and its channels since the last drain and clears
+     * them. The values are immutable, a channel added since comes as the snapshot taken
+     * when it was added, followed by its own changes.
+     * <p>
+     * Takes the writer lock, so the changes drained always hold whole writes: a write in
+     * progress is either drained entirely or left for the next drain.
+     */
+    public CallChanges drainChanges() {
+        writer.lock();
+        try {
+            Map<String, Object> properties = changes.drain();
+            Map<String, ChannelSnapshot> added = addedChannels.isEmpty() ? Map.of() : new LinkedHashMap<>(addedChannels);
+            Set<String> removed = removedChannels.isEmpty() ? Set.of() : new LinkedHashSet<>(removedChannels);
+            addedChannels.clear();
+            removedChannels.clear();
+
+            Map<String, Map<String, Object>> channelChanges = new LinkedHashMap<>();
+            channels.forEach((channelUuid, channel) -> {
+                Map<String, Object> changed = channel.drainChanges();
+                if (!changed.isEmpty()) {
+                    channelChanges.put(channelUuid, changed);
+                }
+            });
+            return new CallChanges(properties, added, channelChanges, removed);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Setters of the stored properties record the change, the others are generated
+
+    public void setCustomVariables(Map<String, String> customVariables) {
+        this.customVariables = customVariables;
+        changes.mark("customVariables", copyOf(customVariables));
+    }
+
+    public void setFreeSwitchNodeId(String freeSwitchNodeId) {
+        this.freeSwitchNodeId = freeSwitchNodeId;
+        changes.mark("freeSwitchNodeId", freeSwitchNodeId);
+    }
+
+    public void setCallServiceInstanceId(String callServiceInstanceId) {
+        this.callServiceInstanceId = callServiceInstanceId;
+        changes.mark("callServiceInstanceId", callServiceInstanceId);
+    }
+
+    public void setOrphaned(boolean orphaned) {
+        this.orphaned = orphaned;
+        changes.mark("orphaned", orphaned);
+    }
+
+    public void setCurrentState(CallState currentState) {
+        this.currentState = currentState;
+        changes.mark("currentState", currentState);
+    }
+
+    public void setPreviousState(CallState previousState) {
+        this.previousState = previousState;
+        changes.mark("previousState", previousState);
+    }
+
+    public void setLastUpdateTimestamp(Instant lastUpdateTimestamp) {
+        this.lastUpdateTimestamp = lastUpdateTimestamp;
+        changes.mark("lastUpdateTimestamp", lastUpdateTimestamp);
+    }
+
+    public void setCreateTime(Instant createTime) {
+        this.createTime = createTime;
+        changes.mark("createTime", createTime);
+    }
+
+    public void setEarlyMediaTime(Instant earlyMediaTime) {
+        this.earlyMediaTime = earlyMediaTime;
+        changes.mark("earlyMediaTime", earlyMediaTime);
+    }
+
+    public void setAnswerTime(Instant answerTime) {
+        this.answerTime = answerTime;
+        changes.mark("answerTime", answerTime);
+        changes.mark("duration", getDuration());
+    }
+
+    public void setEndTime(Instant endTime) {
+        this.endTime = endTime;
+        changes.mark("endTime", endTime);
+        changes.mark("duration", getDuration());
+    }
+
+    public void setDuration(Duration duration) {
+        this.duration = duration;
+        // Stored as computed by getDuration()
+        changes.mark("duration", getDuration());
+    }
+
+    public void setHangupCause(String hangupCause) {
+        this.hangupCause = hangupCause;
+        changes.mark("hangupCause", hangupCause);
+    }
+
+    public void setOriginatorChannelUuid(String originatorChannelUuid) {
+        this.originatorChannelUuid = originatorChannelUuid;
+        changes.mark("originatorChannelUuid", originatorChannelUuid);
+    }
+
+    public void setDestinationChannelUuid(String destinationChannelUuid) {
+        this.destinationChannelUuid = destinationChannelUuid;
+        changes.mark("destinationChannelUuid", destinationChannelUuid);
+    }
+
 }
\ No newline at end of file
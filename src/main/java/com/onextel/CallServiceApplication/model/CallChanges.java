@@ -0,0 +1,24 @@
+package com.onextel.CallServiceApplication.model;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes of a {@link Call} since its last flush, as drained by {@link Call#drainChanges()}.
+ *
+ * @param properties      changed properties of the call by JSON property name
+ * @param addedChannels   channels added since, as when they were added
+ * @param channelChanges  changed properties per channel UUID, for the added channels
+ *                        those made after they were added
+ * @param removedChannels UUIDs of the stored channels removed since
+ */
+public record CallChanges(Map<String, Object> properties,
+                          Map<String, ChannelSnapshot> addedChannels,
+                          Map<String, Map<String, Object>> channelChanges,
+                          Set<String> removedChannels) {
+
+    public boolean isEmpty() {
+        return properties.isEmpty() && addedChannels.isEmpty()
+                && channelChanges.isEmpty() && removedChannels.isEmpty();
+    }
+}
@@ -0,0 +1,43 @@
+package com.onextel.CallServiceApplication.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of a {@link Call} and its channels as published by its writer, see
+ * {@link Call#write(Runnable)}. Serialized with the same properties as the call, so it
+ * is stored in Redis and read back as a Call.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CallSnapshot(
+        String callUuid,
+        String callUrl,
+        String callerIdName,
+        String callerIdNumber,
+        String extension,
+        String applicationName,
+        String applicationArguments,
+        Map<String, String> customVariables,
+        String freeSwitchNodeId,
+        String callServiceInstanceId,
+        boolean orphaned,
+        CallState currentState,
+        CallState previousState,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant lastUpdateTimestamp,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant createTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant earlyMediaTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant answerTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant endTime,
+        Duration duration,
+        String hangupCause,
+        Map<String, ChannelSnapshot> channels,
+        String originatorChannelUuid,
+        String destinationChannelUuid,
+        List<DTMFEvent> dtmfHistory,
+        boolean active) {
+}
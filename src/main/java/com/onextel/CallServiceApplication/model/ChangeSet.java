@@ -0,0 +1,51 @@
+package com.onextel.CallServiceApplication.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Properties of a {@link Call} or {@link Channel} changed since their last flush to
+ * Redis, with their latest value, in the order they first changed.
+ * <p>
+ * Records nothing until {@link #start()}, so building or deserializing an object does
+ * not mark its properties.
+ */
+final class ChangeSet {
+    // Allocated on the first change, most objects are flushed with a few properties
+    private Map<String, Object> changes;
+    private boolean tracking;
+
+    synchronized void start() {
+        changes = null;
+        tracking = true;
+    }
+
+    synchronized void stop() {
+        changes = null;
+        tracking = false;
+    }
+
+    synchronized boolean isTracking() {
+        return tracking;
+    }
+
+    synchronized void mark(String property, Object value) {
+        if (!tracking) {
+            return;
+        }
+        if (changes == null) {
+            changes = new LinkedHashMap<>();
+        }
+        changes.put(property, value);
+    }
+
+    /**
+     * Returns the recorded changes and clears them.
+     */
+    synchronized Map<String, Object> drain() {
+        Map<String, Object> drained = changes != null ? changes : Collections.emptyMap();
+        changes = null;
+        return drained;
+    }
+}
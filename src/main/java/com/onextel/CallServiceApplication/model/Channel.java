@@ -1,6 +1,7 @@
 package com.onextel.CallServiceApplication.model;
 
 import com.fasterxml.jackson.annotation.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -38,6 +39,11 @@ public class Channel {
     @JsonIgnore
     private Map<String, String> variables = new HashMap<>();
 
+    // Properties changed since the last flush, drained by the owning Call
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ChangeSet changes = new ChangeSet();
 
     @JsonCreator // For JSON serialization
     protected Channel() {
@@ -52,33 +58,33 @@ public class Channel {
     }
 
     public void answer() {
-        this.state = ChannelState.ANSWERED;
-        this.answeredTime = Instant.now();
+        setState(ChannelState.ANSWERED);
+        setAnsweredTime(Instant.now());
     }
 
     public void bridge() {
-        this.state = ChannelState.BRIDGED;
+        setState(ChannelState.BRIDGED);
     }
 
     public void unbridge() {
-        this.state = ChannelState.UNBRIDGED;
-        this.bridged = false;
+        setState(ChannelState.UNBRIDGED);
+        setBridged(false);
     }
 
     public void startTransfer() {
-        this.state = ChannelState.TRANSFERRING;
+        setState(ChannelState.TRANSFERRING);
     }
 
     public void hangup(String cause) {
-        this.state = ChannelState.HANGUP;
-        this.hangupCause = cause;
-        this.hangupTime = Instant.now();
+        setState(ChannelState.HANGUP);
+        setHangupCause(cause);
+        setHangupTime(Instant.now());
     }
 
     public void fail(String reason) {
-        this.state = ChannelState.FAILED;
-        this.hangupCause = reason;
-        this.hangupTime = Instant.now();
+        setState(ChannelState.FAILED);
+        setHangupCause(reason);
+        setHangupTime(Instant.now());
     }
 
     public boolean isActive() {
@@ -93,4 +99,65 @@ public class Channel {
         Instant end = hangupTime != null ? hangupTime : Instant.now();
         return Duration.between(answeredTime, end);
     }
+
+    ChannelSnapshot snapshot() {
+        return new ChannelSnapshot(channelUuid, callUuid, state, channelRole, createdTime,
+                answeredTime, hangupTime, hangupCause, bridged, isActive(), getDuration());
+    }
+
+    // ========== CHANGE TRACKING ========== //
+
+    void startChangeTracking() {
+        changes.start();
+    }
+
+    void stopChangeTracking() {
+        changes.stop();
+    }
+
+    Map<String, Object> drainChanges() {
+        return changes.drain();
+    }
+
+    // Setters of the stored properties record the change, the others are generated
+
+    public void setCallUuid(String callUuid) {
+        this.callUuid = callUuid;
+        changes.mark("callUuid", callUuid);
+    }
+
+    public void setState(ChannelState state) {
+        this.state = state;
+        changes.mark("state", state);
+    }
+
+    public void setChannelRole(ChannelRole channelRole) {
+        this.channelRole = channelRole;
+        changes.mark("channelRole", channelRole);
+    }
+
+    public void setCreatedTime(Instant createdTime) {
+        this.createdTime = createdTime;
+        changes.mark("createdTime", createdTime);
+    }
+
+    public void setAnsweredTime(Instant answeredTime) {
+        this.answeredTime = answeredTime;
+        changes.mark("answeredTime", answeredTime);
+    }
+
+    public void setHangupTime(Instant hangupTime) {
+        this.hangupTime = hangupTime;
+        changes.mark("hangupTime", hangupTime);
+    }
+
+    public void setHangupCause(String hangupCause) {
+        this.hangupCause = hangupCause;
+        changes.mark("hangupCause", hangupCause);
+    }
+
+    public void setBridged(boolean bridged) {
+        this.bridged = bridged;
+        changes.mark("bridged", bridged);
+    }
 }
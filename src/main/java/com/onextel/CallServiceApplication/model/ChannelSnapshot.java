@@ -0,0 +1,25 @@
+package com.onextel.CallServiceApplication.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Immutable copy of a {@link Channel}, serialized with the same properties.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChannelSnapshot(
+        String channelUuid,
+        String callUuid,
+        ChannelState state,
+        ChannelRole channelRole,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant createdTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant answeredTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Instant hangupTime,
+        String hangupCause,
+        boolean bridged,
+        boolean active,
+        Duration duration) {
+}
@@ -0,0 +1,22 @@
+package com.onextel.CallServiceApplication.service;
+
+import java.time.Instant;
+
+/**
+ * The deadline a cached call is waiting on in its current state, see
+ * {@link CallManager} for the action taken when it passes.
+ *
+ * @param kind what the call should have done by then
+ * @param at   when it passes
+ */
+record CallDeadline(Kind kind, Instant at) {
+
+    enum Kind {
+        // Not answered, from the creation of the call
+        RING_TIMEOUT,
+        // Answered, from the answer time
+        MAX_DURATION,
+        // Ended or hung up by this instance, the hangup of its channels has not arrived
+        MISSING_HANGUP
+    }
+}
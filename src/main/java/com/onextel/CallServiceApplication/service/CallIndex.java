@@ -0,0 +1,191 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.freeswitch.command.CustomVariables;
+import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallState;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Secondary indexes over the calls cached by the {@link CallManager}: by state (ordered
+ * by last update), by FreeSWITCH node, by campaign and by answer time, so the queries
+ * over the active calls cost the size of their result instead of a scan of the cache.
+ * <p>
+ * Every call has one entry holding the values it is indexed under. {@link #index(Call)}
+ * re-reads them from the call and moves the call between the indexes inside a compute
+ * on its entry, so two updates of one call never interleave. Readers see each index
+ * weakly consistent, a call moving between two states may briefly show in both or none.
+ * <p>
+ * Fields changed on the call without going through {@link #index(Call)} are not seen
+ * until the next one, the CallManager reindexes after every change of state, node or
+ * timestamps it makes.
+ */
+final class CallIndex {
+
+    // Orders calls by a timestamp, the call UUID breaks ties
+    private record TimeKey(Instant time, String callUuid) implements Comparable<TimeKey> {
+        @Override
+        public int compareTo(TimeKey other) {
+            int byTime = time.compareTo(other.time);
+            return byTime != 0 ? byTime : callUuid.compareTo(other.callUuid);
+        }
+    }
+
+    // Values the call is currently indexed under
+    private record Entry(Call call, CallState state, TimeKey updated, TimeKey answered,
+                         String nodeId, String campaignId) {
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<CallState, ConcurrentSkipListMap<TimeKey, Call>> byState = new EnumMap<>(CallState.class);
+    private final Map<CallState, AtomicLong> stateCounts = new EnumMap<>(CallState.class);
+    private final ConcurrentSkipListMap<TimeKey, Call> byAnswerTime = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Map<String, Call>> byNode = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, Call>> byCampaign = new ConcurrentHashMap<>();
+
+    CallIndex() {
+        // Built once, the enum maps are only read afterwards
+        for (CallState state : CallState.values()) {
+            byState.put(state, new ConcurrentSkipListMap<>());
+            stateCounts.put(state, new AtomicLong());
+        }
+    }
+
+    /**
+     * Indexes the call under its current state, timestamps, node and campaign, replacing
+     * its previous entry (also one of another Call instance with the same UUID).
+     */
+    void index(Call call) {
+        entries.compute(call.getCallUuid(), (callUuid, previous) -> {
+            Entry next = entryOf(call);
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(next);
+            return next;
+        });
+    }
+
+    /**
+     * Removes the call unless its UUID has been indexed with another Call instance since,
+     * e.g. the cache replaced it with a recovered copy.
+     */
+    void remove(Call call) {
+        entries.computeIfPresent(call.getCallUuid(), (callUuid, current) -> {
+            if (current.call() != call) {
+                return current;
+            }
+            unlink(current);
+            return null;
+        });
+    }
+
+    /**
+     * Calls in the state, least recently updated first.
+     */
+    List<Call> inState(CallState state) {
+        return new ArrayList<>(byState.get(state).values());
+    }
+
+    /**
+     * Number of calls per state, the states without calls are left out.
+     */
+    Map<CallState, Long> countByState() {
+        Map<CallState, Long> counts = new EnumMap<>(CallState.class);
+        stateCounts.forEach((state, count) -> {
+            long value = count.get();
+            if (value > 0) {
+                counts.put(state, value);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Calls answered before the instant, earliest answer first.
+     */
+    List<Call> answeredBefore(Instant cutoff) {
+        // The empty UUID sorts before every call answered exactly at the cutoff
+        return new ArrayList<>(byAnswerTime.headMap(new TimeKey(cutoff, "")).values());
+    }
+
+    List<Call> onNode(String nodeId) {
+        Map<String, Call> calls = byNode.get(nodeId);
+        return calls == null ? Collections.emptyList() : new ArrayList<>(calls.values());
+    }
+
+    List<Call> inCampaign(String campaignId) {
+        Map<String, Call> calls = byCampaign.get(campaignId);
+        return calls == null ? Collections.emptyList() : new ArrayList<>(calls.values());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static Entry entryOf(Call call) {
+        String callUuid = call.getCallUuid();
+        Instant updatedAt = call.getLastUpdateTimestamp() != null ? call.getLastUpdateTimestamp() : Instant.EPOCH;
+        TimeKey answered = call.getAnswerTime() != null ? new TimeKey(call.getAnswerTime(), callUuid) : null;
+        String campaignId = call.getCustomVariables() != null
+                ? call.getCustomVariables().get(CustomVariables.CAMPAIGN_ID) : null;
+        return new Entry(call, call.getCurrentState(), new TimeKey(updatedAt, callUuid), answered,
+                call.getFreeSwitchNodeId(), campaignId);
+    }
+
+    private void link(Entry entry) {
+        String callUuid = entry.call().getCallUuid();
+        byState.get(entry.state()).put(entry.updated(), entry.call());
+        stateCounts.get(entry.state()).incrementAndGet();
+        if (entry.answered() != null) {
+            byAnswerTime.put(entry.answered(), entry.call());
+        }
+        if (entry.nodeId() != null) {
+            addToBucket(byNode, entry.nodeId(), callUuid, entry.call());
+        }
+        if (entry.campaignId() != null) {
+            addToBucket(byCampaign, entry.campaignId(), callUuid, entry.call());
+        }
+    }
+
+    private void unlink(Entry entry) {
+        String callUuid = entry.call().getCallUuid();
+        byState.get(entry.state()).remove(entry.updated());
+        stateCounts.get(entry.state()).decrementAndGet();
+        if (entry.answered() != null) {
+            byAnswerTime.remove(entry.answered());
+        }
+        if (entry.nodeId() != null) {
+            removeFromBucket(byNode, entry.nodeId(), callUuid);
+        }
+        if (entry.campaignId() != null) {
+            removeFromBucket(byCampaign, entry.campaignId(), callUuid);
+        }
+    }
+
+    // Bucket changes run under the bucket key, so an add never lands in a bucket being dropped
+    private static void addToBucket(ConcurrentHashMap<String, Map<String, Call>> buckets,
+                                    String key, String callUuid, Call call) {
+        buckets.compute(key, (k, calls) -> {
+            Map<String, Call> bucket = calls != null ? calls : new ConcurrentHashMap<>();
+            bucket.put(callUuid, call);
+            return bucket;
+        });
+    }
+
+    private static void removeFromBucket(ConcurrentHashMap<String, Map<String, Call>> buckets,
+                                         String key, String callUuid) {
+        buckets.computeIfPresent(key, (k, calls) -> {
+            calls.remove(callUuid);
+            return calls.isEmpty() ? null : calls;
+        });
+    }
+}
@@ -9,10 +9,14 @@ import com.onextel.CallServiceApplication.audit.AuditService;
 import com.onextel.CallServiceApplication.common.StringUtils;
 import com.onextel.CallServiceApplication.dto.CallStatsResponse;
 import com.onextel.CallServiceApplication.exception.CallNotFoundException;
+import com.onextel.CallServiceApplication.exception.NoAvailableFreeSwitchNodeException;
 import com.onextel.CallServiceApplication.exception.RequestTimeoutException;
+import com.onextel.CallServiceApplication.freeswitch.command.CallDropCause;
 import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallSnapshot;
 import com.onextel.CallServiceApplication.model.CallState;
 import com.onextel.CallServiceApplication.model.Channel;
+import com.onextel.CallServiceApplication.model.ChannelState;
 import com.onextel.CallServiceApplication.model.stats.CampaignStats;
 import com.onextel.CallServiceApplication.model.stats.StandaloneStats;
 import com.onextel.CallServiceApplication.model.stats.StateTransition;
@@ -31,9 +35,13 @@ import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  *
@@ -45,6 +53,27 @@ import java.util.stream.Collectors;
  *   - Automatic Redis sync on eviction
  *   - Full Redis sync every 15 minutes
  *
+ * Queries by state, node, campaign and answer time read the {@link CallIndex}, kept in
+ * step with the cache on registration, state changes and removal.
+ *
+ * The *Async variants of registerCall, updateCallState, addChannelToCall and
+ * removeChannel update the cache and return once it is updated, the future completes
+ * when Redis is. Redis writes of one call run one after the other in the order they
+ * were issued, writes of different calls run concurrently. The blocking variants wait
+ * for the future, they must not be called inside {@link Call#write(Runnable)} as a
+ * write storing the whole call waits for the writer.
+ *
+ * Changes to a call are made inside its {@link Call#write(Runnable)}, callers outside
+ * the event handlers read {@link #getCallSnapshot(String)} instead of the live call.
+ *
+ * Every cached call waits on one {@link CallDeadline} kept in a {@link CallTimerWheel}
+ * and rescheduled whenever the call is reindexed:
+ *   - Not answered: ${app.calls.deadlines.ring-timeout-ms} after creation, the call is
+ *     hung up, or failed if FreeSWITCH never created a channel for it
+ *   - Answered: ${app.calls.deadlines.max-duration-ms} after answer, the call is hung up
+ *   - Ended, or hung up after a deadline: ${app.calls.deadlines.hangup-grace-ms} later the
+ *     call is failed and finalized if the hangup of its channels has not arrived
+ *
  */
 @Service
 @Slf4j
@@ -53,6 +82,21 @@ public class CallManager {
     private final Cache<String, Call> activeCalls;
     // ChannelUuid -> Call
     private final Cache<String, String> channelToCallMap;
+    // Secondary indexes over activeCalls
+    private final CallIndex callIndex = new CallIndex();
+    // CallUuid -> last Redis write issued for the call, removed once it completes
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> pendingWrites = new ConcurrentHashMap<>();
+    // Starts writes queued behind another write, off the Redis I/O thread completing it
+    private final ExecutorService writeExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("call-write-", 0).factory());
+    // Deadline of each cached call, expiries run on their own virtual thread as they wait for the writer
+    private final ExecutorService deadlineExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("call-deadline-", 0).factory());
+    private final CallTimerWheel deadlines;
+    // Calls finalized but still cached, late events of theirs schedule no deadline
+    private final Set<String> finalizedCalls = ConcurrentHashMap.newKeySet();
+    // Sends hangup commands for expired deadlines, set by the CallService
+    private volatile HangupSender hangupSender;
 
     private final RedisCallStateManager redisManager;
     private final RedisCallMetricsService metricsService;
@@ -70,6 +114,29 @@ public class CallManager {
     @Value("${app.calls.orphan.recovery.enabled:true}")
     private boolean orphanRecoveryEnabled;
 
+    @Value("${app.calls.writes.shutdown-timeout-ms:5000}")
+    private long writesShutdownTimeoutMs;
+
+    @Value("${app.calls.deadlines.enabled:true}")
+    private boolean deadlinesEnabled;
+
+    @Value("${app.calls.deadlines.ring-timeout-ms:90000}")
+    private long ringTimeoutMs;
+
+    // Below the cache expiry, an evicted call loses its deadline
+    @Value("${app.calls.deadlines.max-duration-ms:3000000}")  // 50 minutes default
+    private long maxDurationMs;
+
+    @Value("${app.calls.deadlines.hangup-grace-ms:30000}")
+    private long hangupGraceMs;
+
+    // With sharded event queues this instance receives every event of the calls in its
+    // shards, a call missing from the cache moved here with its shard and is adopted
+    @Value("#{'${app.events.topology:single}' == 'sharded'}")
+    private boolean adoptCallsOnMiss;
+    // Adoptions in progress, events of both legs may miss at the same time
+    private final Map<String, CompletableFuture<Optional<Call>>> adoptions = new ConcurrentHashMap<>();
+
     @Getter
     private String appInstanceId;
 
@@ -78,10 +145,14 @@ public class CallManager {
                        AuditService auditService,
                        RedisCallMetricsService metricsService,
                        @Value("${app.cache.calls.max-size:10000}") int maxCacheCalls,
-                       @Value("${app.cache.calls.expire-hours:1}") int callsExpireHours) {
+                       @Value("${app.cache.calls.expire-hours:1}") int callsExpireHours,
+                       @Value("${app.calls.deadlines.tick-ms:250}") long deadlineTickMs,
+                       @Value("${app.calls.deadlines.wheel-size:1024}") int deadlineWheelSize) {
         this.redisManager = Objects.requireNonNull(redisManager, "Redis call manager cannot be null");
         this.auditService = auditService;
         this.metricsService = Objects.requireNonNull(metricsService, "RedisMetricsService cannot be null");
+        this.deadlines = new CallTimerWheel(Duration.ofMillis(deadlineTickMs), deadlineWheelSize,
+                deadlineExecutor, this::onDeadline);
 
         // Initialize caches
         this.channelToCallMap = Caffeine.newBuilder()
@@ -93,13 +164,22 @@ public class CallManager {
                 .maximumSize(maxCacheCalls)
                 .expireAfterWrite(callsExpireHours, TimeUnit.HOURS)
                 .removalListener((String key, Call call, RemovalCause cause) -> {
+                    if (call != null) {
+                        // No-op when the call was replaced, the new instance is indexed already
+                        callIndex.remove(call);
+                    }
+                    if (cause != RemovalCause.REPLACED) {
+                        deadlines.cancel(key);
+                        finalizedCalls.remove(key);
+                    }
                     if (call != null && cause.wasEvicted()) {
                         log.warn("Call {} evicted from cache: {}", key, cause);
                         call.getChannels().keySet().forEach(channelUuid -> {
                             channelToCallMap.invalidate(channelUuid);
                             log.debug("Channel {} removed from channelToCallMap", channelUuid);
                         });
-                        redisManager.updateCall(call); // Ensure Redis has latest state
+                        // Ensure Redis has latest state
+                        writeInOrder(key, () -> redisManager.updateCallAsync(call));
                     }
                 })
                 .recordStats()
@@ -118,8 +198,22 @@ public class CallManager {
         }
     }
 
+    /**
+     * Sends the hangup commands of calls whose deadline passed, set by the CallService.
+     */
+    @FunctionalInterface
+    interface HangupSender {
+        void hangup(String channelUuid, String freeSwitchNodeId, CallDropCause cause)
+                throws NoAvailableFreeSwitchNodeException;
+    }
+
+    void setHangupSender(HangupSender hangupSender) {
+        this.hangupSender = hangupSender;
+    }
+
     @PostConstruct
     public void init() {
+        deadlines.start();
         try {
             if (orphanRecoveryEnabled) {
                 recoverOrphanedCalls();
@@ -136,6 +230,10 @@ public class CallManager {
         try {
             log.info("Shutting down CallManager");
             stopScheduledTasks();
+            deadlines.stop();
+            deadlineExecutor.shutdown();
+            awaitPendingWrites();
+            writeExecutor.shutdown();
             // Transfer ownership of all calls to orphan pool
             redisManager.transferCallsToOrphanPool(appInstanceId);
 
@@ -195,9 +293,12 @@ public class CallManager {
             // Re-register in active calls
             activeCalls.put(call.getCallUuid(), call);
 
-            call.setOrphaned(false);
-            call.setCallServiceInstanceId(appInstanceId);
-            call.setLastUpdateTimestamp(Instant.now());
+            call.write(() -> {
+                call.setOrphaned(false);
+                call.setCallServiceInstanceId(appInstanceId);
+                call.setLastUpdateTimestamp(Instant.now());
+                index(call);
+            });
 
             if (!redisManager.updateCall(call)) {
                 log.warn("Failed to update Redis state for recovered call {}", call.getCallUuid());
@@ -277,9 +378,12 @@ public class CallManager {
 
         try {
             activeCalls.asMap().forEach((callUuid, call) -> {
-                if (!redisManager.updateCall(call)) {
-                    log.error("Failed to sync call {} to Redis", callUuid);
-                }
+                // Whole calls, a partial update would only carry their pending changes
+                writeInOrder(callUuid, () -> redisManager.storeCallAsync(call)).thenAccept(stored -> {
+                    if (!stored) {
+                        log.error("Failed to sync call {} to Redis", callUuid);
+                    }
+                });
             });
         } catch (Exception exp) {
             log.error("Cache --> Redis full sync failed", exp);
@@ -315,16 +419,24 @@ public class CallManager {
     // ========== CALL LIFECYCLE MANAGEMENT ========== //
 
     public void registerCall(Call call) {
-        call.setCallServiceInstanceId(appInstanceId);
-        call.setLastUpdateTimestamp(Instant.now());
+        registerCallAsync(call).join();
+    }
 
+    /**
+     * Caches the call and completes once it is registered in Redis, with false if that failed.
+     */
+    public CompletableFuture<Boolean> registerCallAsync(Call call) {
+        call.write(() -> {
+            call.setCallServiceInstanceId(appInstanceId);
+            call.setLastUpdateTimestamp(Instant.now());
+            index(call);
+        });
         activeCalls.put(call.getCallUuid(), call);
         call.getChannels().keySet().forEach(channelUuid ->
                 channelToCallMap.put(channelUuid, call.getCallUuid()));
 
-        if (!redisManager.registerCall(call)) {
-            log.error("Failed to register call in Redis: {}", call.getCallUuid());
-        }
+        CompletableFuture<Boolean> registered = writeInOrder(call.getCallUuid(),
+                () -> redisManager.registerCallAsync(call));
 
         auditService.logEvent(AuditEventType.CALL_REGISTERED,
                 call.getCallUuid(),
@@ -332,6 +444,12 @@ public class CallManager {
                 "New call registered"
         );
         log.info("Registered call {}", call.getCallUuid());
+        return registered.thenApply(stored -> {
+            if (!stored) {
+                log.error("Failed to register call in Redis: {}", call.getCallUuid());
+            }
+            return stored;
+        });
     }
 
     public void unregisterCall(String callUuid) {
@@ -341,9 +459,14 @@ public class CallManager {
             // call.getChannels().keySet().forEach(channelToCallMap::invalidate);
             // activeCalls.invalidate(callUuid);
 
-            if (!redisManager.unregisterCall(callUuid)) {
-                log.error("Failed to unregister call from Redis: {}", callUuid);
-            }
+            finalizedCalls.add(callUuid);
+            deadlines.cancel(callUuid);
+            // Often called by a writer of the call, never wait for Redis under its lock
+            writeInOrder(callUuid, () -> redisManager.unregisterCallAsync(callUuid)).thenAccept(unregistered -> {
+                if (!unregistered) {
+                    log.error("Failed to unregister call from Redis: {}", callUuid);
+                }
+            });
 
             log.info("Unregistered call {}", callUuid);
             auditService.logEvent(AuditEventType.CALL_UNREGISTERED,
@@ -365,22 +488,38 @@ public class CallManager {
     // ========== Call State Management ==========
 
     public void updateCallState(String callUuid, CallState newState) {
+        updateCallStateAsync(callUuid, newState).join();
+    }
+
+    /**
+     * Changes the state of the cached call and completes once Redis has the change, with
+     * false if the call is unknown or the write failed.
+     */
+    public CompletableFuture<Boolean> updateCallStateAsync(String callUuid, CallState newState) {
         Call call = activeCalls.getIfPresent(callUuid);
         if (call == null) {
             log.warn("Attempted to update state for non-existent call: {}", callUuid);
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
-        CallState previousState = call.getCurrentState();
-        call.updateCallState(newState);
-        if (!redisManager.updateCall(call)) {
-            log.error("Failed to update call state in Redis: {}", callUuid);
-        }
+        CallState[] previousState = new CallState[1];
+        call.write(() -> {
+            previousState[0] = call.getCurrentState();
+            call.updateCallState(newState);
+            index(call);
+        });
+        CompletableFuture<Boolean> updated = writeInOrder(callUuid, () -> redisManager.updateCallAsync(call))
+                .thenApply(stored -> {
+                    if (!stored) {
+                        log.error("Failed to update call state in Redis: {}", callUuid);
+                    }
+                    return stored;
+                });
 
         auditService.logEvent(AuditEventType.CALL_STATE_CHANGED,
                 callUuid,
                 null,
-                String.format("State changed from %s to %s", previousState, newState)
+                String.format("State changed from %s to %s", previousState[0], newState)
         );
 
         // Campaign call
@@ -388,48 +527,260 @@ public class CallManager {
 
         // Standalone call
         redisManager.updateCallState(callUuid, newState, null, null);
+        return updated;
     }
 
     public void addChannelToCall(String callUuid, Channel channel) {
-        Call call = activeCalls.getIfPresent(callUuid);
-        if (call != null) {
-            call.addChannel(channel);
-            channelToCallMap.put(channel.getChannelUuid(), callUuid);
-            if (!redisManager.updateCall(call)) {
-                log.error("Failed to update call with new channel");
-            }
+        addChannelToCallAsync(callUuid, channel).join();
+    }
 
-            log.info("Added channel {} to call {}", channel.getChannelUuid(), callUuid);
-            auditService.logEvent(AuditEventType.CHANNEL_ADDED,
-                    callUuid,
-                    channel.getChannelUuid(),
-                    "Channel added"
-            );
+    /**
+     * Adds the channel to the cached call and completes once Redis has it, with false if
+     * the call is unknown or the write failed.
+     */
+    public CompletableFuture<Boolean> addChannelToCallAsync(String callUuid, Channel channel) {
+        Call call = activeCalls.getIfPresent(callUuid);
+        if (call == null) {
+            return CompletableFuture.completedFuture(false);
         }
+        call.write(() -> call.addChannel(channel));
+        channelToCallMap.put(channel.getChannelUuid(), callUuid);
+        CompletableFuture<Boolean> updated = writeInOrder(callUuid, () -> redisManager.updateCallAsync(call))
+                .thenApply(stored -> {
+                    if (!stored) {
+                        log.error("Failed to update call with new channel");
+                    }
+                    return stored;
+                });
+
+        log.info("Added channel {} to call {}", channel.getChannelUuid(), callUuid);
+        auditService.logEvent(AuditEventType.CHANNEL_ADDED,
+                callUuid,
+                channel.getChannelUuid(),
+                "Channel added"
+        );
+        return updated;
     }
 
     public void removeChannel(String channelUuid) {
+        removeChannelAsync(channelUuid).join();
+    }
+
+    /**
+     * Hangs up the channel on its cached call and completes once Redis has the change,
+     * with false if the channel is unknown or the write failed.
+     */
+    public CompletableFuture<Boolean> removeChannelAsync(String channelUuid) {
         String callUuid = channelToCallMap.getIfPresent(channelUuid);
-        if (callUuid != null) {
-            Call call = activeCalls.getIfPresent(callUuid);
-            if (call != null) {
-                call.getChannel(channelUuid).ifPresent(channel -> {
-                    channel.hangup("REMOVED_BY_SYSTEM");
-                    if (!redisManager.updateCall(call)) {
-                        log.error("Failed to update call after channel removal");
-                    }
+        Call call = callUuid != null ? activeCalls.getIfPresent(callUuid) : null;
+        if (call == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> updated = call.getChannel(channelUuid).map(channel -> {
+            call.write(() -> channel.hangup("REMOVED_BY_SYSTEM"));
+            return writeInOrder(callUuid, () -> redisManager.updateCallAsync(call))
+                    .thenApply(stored -> {
+                        if (!stored) {
+                            log.error("Failed to update call after channel removal");
+                        }
+                        return stored;
+                    });
+        }).orElseGet(() -> CompletableFuture.completedFuture(false));
+
+        log.info("Removed channel {} from call {}", channelUuid, callUuid);
+        auditService.logEvent(AuditEventType.CHANNEL_REMOVED,
+                callUuid,
+                channelUuid,
+                "Channel removed"
+        );
+        return updated;
+    }
+
+    /**
+     * Starts the write once the writes issued before for the same call have completed,
+     * so their partial updates reach Redis in the order of the changes. The returned
+     * future completes with the result of the write, false if it failed.
+     */
+    private CompletableFuture<Boolean> writeInOrder(String callUuid, Supplier<CompletableFuture<Boolean>> write) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        CompletableFuture<Boolean> previous = pendingWrites.put(callUuid, done);
+        Runnable start = () -> {
+            try {
+                write.get().whenComplete((stored, error) -> {
+                    pendingWrites.remove(callUuid, done);
+                    done.complete(error == null && Boolean.TRUE.equals(stored));
                 });
+            } catch (Exception e) {
+                log.error("Failed to start Redis write for call {}", callUuid, e);
+                pendingWrites.remove(callUuid, done);
+                done.complete(false);
+            }
+        };
+        if (previous == null || previous.isDone()) {
+            start.run();
+        } else {
+            previous.whenCompleteAsync((stored, error) -> start.run(), writeExecutor);
+        }
+        return done;
+    }
 
-                log.info("Removed channel {} from call {}", channelUuid, callUuid);
-                auditService.logEvent(AuditEventType.CHANNEL_REMOVED,
-                        callUuid,
-                        channelUuid,
-                        "Channel removed"
-                );
+    private void awaitPendingWrites() {
+        CompletableFuture<?>[] pending = pendingWrites.values().toArray(new CompletableFuture[0]);
+        if (pending.length == 0) {
+            return;
+        }
+        log.info("Waiting for the Redis writes of {} calls", pending.length);
+        try {
+            // The last write of each call completes after the ones before it
+            CompletableFuture.allOf(pending).get(writesShutdownTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Redis writes of {} calls still pending after {} ms", pendingWrites.size(),
+                    writesShutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Writes complete with false instead of failing
+            log.warn("Redis write failed during shutdown", e);
+        }
+    }
+
+    // ========== CALL DEADLINES ========== //
+
+    /**
+     * Number of cached calls waiting on a deadline.
+     */
+    public int getDeadlineCount() {
+        return deadlines.size();
+    }
+
+    /**
+     * Fails and finalizes a call whose originate FreeSWITCH rejected, no channel of it
+     * will report a hangup. Calls that have channels already are left to their events.
+     */
+    public void failCall(String callUuid, String reason) {
+        Call call = activeCalls.getIfPresent(callUuid);
+        if (call == null) {
+            return;
+        }
+        call.write(() -> {
+            if (call.getChannels().isEmpty() && !call.getCurrentState().isTerminal()) {
+                repairCall(call, reason);
+            }
+        });
+    }
+
+    // Read by the writer of the call
+    private CallDeadline deadlineOf(Call call) {
+        CallState state = call.getCurrentState();
+        if (state == null) {
+            return null;
+        }
+        Instant now = Instant.now();
+        if (state == CallState.TRANSFERRED || state.isActive()) {
+            Instant answered = call.getAnswerTime() != null ? call.getAnswerTime() : now;
+            return new CallDeadline(CallDeadline.Kind.MAX_DURATION, answered.plusMillis(maxDurationMs));
+        }
+        if (state.isTerminal()) {
+            Instant ended = call.getEndTime() != null ? call.getEndTime() : now;
+            return new CallDeadline(CallDeadline.Kind.MISSING_HANGUP, ended.plusMillis(hangupGraceMs));
+        }
+        Instant created = call.getCreateTime() != null ? call.getCreateTime() : now;
+        return new CallDeadline(CallDeadline.Kind.RING_TIMEOUT, created.plusMillis(ringTimeoutMs));
+    }
+
+    // Runs on the deadline executor once the deadline of the call passed
+    private void onDeadline(String callUuid, CallDeadline deadline) {
+        Call call = activeCalls.getIfPresent(callUuid);
+        if (call == null || finalizedCalls.contains(callUuid)) {
+            return;
+        }
+        CallDropCause[] hangupCause = new CallDropCause[1];
+        List<String> channelsUp = new ArrayList<>();
+        String[] nodeId = new String[1];
+        call.write(() -> {
+            CallDeadline current = deadlineOf(call);
+            // A change of state raced the expiry, the call waits on another deadline now
+            if (deadline.kind() != CallDeadline.Kind.MISSING_HANGUP
+                    && (current == null || current.kind() != deadline.kind())) {
+                index(call);
+                return;
+            }
+            switch (deadline.kind()) {
+                case RING_TIMEOUT -> {
+                    if (call.getChannels().isEmpty()) {
+                        // The originate never produced a channel, e.g. its job failed
+                        repairCall(call, "ORIGINATE_TIMEOUT");
+                    } else {
+                        hangupCause[0] = CallDropCause.NO_ANSWER;
+                    }
+                }
+                case MAX_DURATION -> hangupCause[0] = CallDropCause.NORMAL_CLEARING;
+                case MISSING_HANGUP -> repairCall(call, "MISSING_HANGUP");
+            }
+            if (hangupCause[0] != null) {
+                channelsUp.addAll(startHangup(call, hangupCause[0]));
+                nodeId[0] = call.getFreeSwitchNodeId();
+            }
+        });
+        // The commands go out once the writer is released, other writers of the call do not wait on them
+        if (hangupCause[0] != null) {
+            sendHangup(callUuid, channelsUp, nodeId[0], hangupCause[0]);
+        }
+    }
+
+    /**
+     * Waits for the hangup of the channels still up until the grace period passes.
+     *
+     * @return the channels to hang up
+     */
+    private List<String> startHangup(Call call, CallDropCause cause) {
+        String callUuid = call.getCallUuid();
+        log.warn("Call {} passed its deadline in state {}, hanging up with {}",
+                callUuid, call.getCurrentState(), cause.name());
+        List<String> channelsUp = call.getChannels().values().stream()
+                .filter(channel -> channel.getState() != ChannelState.HANGUP
+                        && channel.getState() != ChannelState.FAILED)
+                .map(Channel::getChannelUuid)
+                .toList();
+        deadlines.schedule(callUuid, new CallDeadline(CallDeadline.Kind.MISSING_HANGUP,
+                Instant.now().plusMillis(hangupGraceMs)));
+        return channelsUp;
+    }
+
+    private void sendHangup(String callUuid, List<String> channelUuids, String nodeId, CallDropCause cause) {
+        HangupSender sender = hangupSender;
+        if (sender == null) {
+            return;
+        }
+        for (String channelUuid : channelUuids) {
+            try {
+                sender.hangup(channelUuid, nodeId, cause);
+            } catch (NoAvailableFreeSwitchNodeException | RuntimeException e) {
+                // Repaired once the grace period passes
+                log.warn("Cannot hang up channel {} of call {} on node {}: {}",
+                        channelUuid, callUuid, nodeId, e.getMessage());
             }
         }
     }
 
+    // Ends the call locally when FreeSWITCH will not report it, so it stops counting as live
+    private void repairCall(Call call, String reason) {
+        String callUuid = call.getCallUuid();
+        log.warn("Call {} in state {} got no hangup, failing it with {}",
+                callUuid, call.getCurrentState(), reason);
+        call.getChannels().values().stream()
+                .filter(channel -> channel.getState() != ChannelState.HANGUP
+                        && channel.getState() != ChannelState.FAILED)
+                .forEach(channel -> channel.fail(reason));
+        if (!call.getCurrentState().isTerminal()) {
+            call.setHangupCause(reason);
+            updateCallStateAsync(callUuid, CallState.FAILED);
+        } else {
+            writeInOrder(callUuid, () -> redisManager.updateCallAsync(call));
+        }
+        finalizeCall(callUuid);
+    }
+
     public void cleanupOrphanedChannel(String channelUuid) {
         // Remove from channelToCallMap if exists
         String callUuid = channelToCallMap.getIfPresent(channelUuid);
@@ -438,7 +789,7 @@ public class CallManager {
             // clean up the channel from the Call object
             Call call = activeCalls.getIfPresent(callUuid);
             if (call != null) {
-                call.removeChannel(channelUuid);
+                call.write(() -> call.removeChannel(channelUuid));
 
                 // If call has no more channels, consider cleaning it up
                 if (call.getChannels().isEmpty()) {
@@ -448,6 +799,29 @@ public class CallManager {
         }
     }
 
+    /**
+     * Re-reads the indexed fields of a cached call (state, timestamps, node) after they
+     * were changed on the call directly instead of through this manager.
+     */
+    public void reindexCall(Call call) {
+        if (activeCalls.getIfPresent(call.getCallUuid()) == call) {
+            index(call);
+        }
+    }
+
+    // Reindexes the call and moves its deadline to the one of its current state
+    private void index(Call call) {
+        callIndex.index(call);
+        if (deadlinesEnabled && !finalizedCalls.contains(call.getCallUuid())) {
+            CallDeadline deadline = deadlineOf(call);
+            if (deadline != null) {
+                deadlines.schedule(call.getCallUuid(), deadline);
+            } else {
+                deadlines.cancel(call.getCallUuid());
+            }
+        }
+    }
+
     public Optional<Call> getCall(String callUuid) {
         try {
             return Optional.ofNullable(activeCalls.getIfPresent(callUuid));
@@ -457,12 +831,75 @@ public class CallManager {
         }
     }
 
+    /**
+     * Snapshot of the cached call, for readers outside its writer such as REST responses.
+     */
+    public Optional<CallSnapshot> getCallSnapshot(String callUuid) {
+        return Optional.ofNullable(activeCalls.getIfPresent(callUuid)).map(Call::getSnapshot);
+    }
+
     public Optional<Call> getCallByChannel(String channelUuid) {
         String callUuid = channelToCallMap.getIfPresent(channelUuid);
         if (!StringUtils.isNullOrBlank(callUuid)) {
             return getCall(callUuid);
         }
-        return redisManager.getCallForChannel(channelUuid).flatMap(this::getCall);
+        Optional<String> redisCallUuid = redisManager.getCallForChannel(channelUuid);
+        if (adoptCallsOnMiss) {
+            return redisCallUuid.flatMap(this::adoptCall);
+        }
+        return redisCallUuid.flatMap(this::getCall);
+    }
+
+    /**
+     * Loads a call owned by another instance from Redis and takes it over, used when
+     * its event shard moved to this instance.
+     */
+    private Optional<Call> adoptCall(String callUuid) {
+        Call cached = activeCalls.getIfPresent(callUuid);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        // Not loaded under the cache entry, the Redis reads and writes would hold its lock
+        CompletableFuture<Optional<Call>> adoption = new CompletableFuture<>();
+        CompletableFuture<Optional<Call>> running = adoptions.putIfAbsent(callUuid, adoption);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            // Another adoption may have finished since the cache lookup
+            Optional<Call> call = Optional.ofNullable(activeCalls.getIfPresent(callUuid))
+                    .or(() -> redisManager.getCall(callUuid).map(this::takeOverCall));
+            adoption.complete(call);
+            return call;
+        } catch (RuntimeException e) {
+            adoption.completeExceptionally(e);
+            throw e;
+        } finally {
+            adoptions.remove(callUuid, adoption);
+        }
+    }
+
+    private Call takeOverCall(Call call) {
+        String callUuid = call.getCallUuid();
+        String previousInstanceId = call.getCallServiceInstanceId();
+        call.write(() -> {
+            call.setOrphaned(false);
+            call.setCallServiceInstanceId(appInstanceId);
+        });
+        Call existing = activeCalls.asMap().putIfAbsent(callUuid, call);
+        if (existing != null) {
+            return existing;
+        }
+        call.getChannels().keySet().forEach(channelUuid -> channelToCallMap.put(channelUuid, callUuid));
+        index(call);
+
+        if (!redisManager.adoptCall(call, previousInstanceId)) {
+            log.warn("Failed to update Redis ownership of adopted call {}", callUuid);
+        }
+        log.info("Adopted call {} from instance {}", callUuid, previousInstanceId);
+        auditService.logEvent(AuditEventType.CALL_RECOVERED, callUuid,
+                null, String.format("Adopted from instance %s with its event shard", previousInstanceId));
+        return call;
     }
 
     public boolean isCallActive(String callUuid) {
@@ -472,16 +909,25 @@ public class CallManager {
     }
 
     public List<Call> getCallsByState(CallState state) {
-        return activeCalls.asMap().values().stream()
-                .filter(call -> call.getCurrentState() == state)
-                .toList();
+        return callIndex.inState(state);
     }
 
+    /**
+     * Calls in the state, least recently updated first.
+     */
     public List<Call> getLastUpdatedCallsByState(CallState state) {
-        return activeCalls.asMap().values().stream()
-                .filter(call -> call.getCurrentState() == state)
-                .sorted(Comparator.comparing(Call::getLastUpdateTimestamp))
-                .collect(Collectors.toList());
+        return callIndex.inState(state);
+    }
+
+    public List<Call> getCallsByNode(String freeSwitchNodeId) {
+        return callIndex.onNode(freeSwitchNodeId);
+    }
+
+    /**
+     * Calls started with the {@code campaign_id} custom variable.
+     */
+    public List<Call> getCallsByCampaign(String campaignId) {
+        return callIndex.inCampaign(campaignId);
     }
 
     public List<Call> getActiveCalls() {
@@ -530,19 +976,14 @@ public class CallManager {
     }
 
     public Map<CallState, Long> getCallStateStatistics() {
-        return activeCalls.asMap().values().stream()
-                .collect(Collectors.groupingBy(
-                        Call::getCurrentState,
-                        Collectors.counting()
-                ));
+        return callIndex.countByState();
     }
 
+    /**
+     * Calls answered longer ago than the threshold, earliest answer first.
+     */
     public List<Call> getLongRunningCalls(Duration threshold) {
-        Instant cutoff = Instant.now().minus(threshold);
-        return activeCalls.asMap().values().stream()
-                .filter(c -> c.getAnswerTime() != null)
-                .filter(c -> c.getAnswerTime().isBefore(cutoff))
-                .collect(Collectors.toList());
+        return callIndex.answeredBefore(Instant.now().minus(threshold));
     }
 
     private void dumpStats() {
@@ -11,6 +11,7 @@ import com.onextel.CallServiceApplication.freeswitch.FreeSwitchNode;
 import com.onextel.CallServiceApplication.freeswitch.FreeSwitchRegistry;
 import com.onextel.CallServiceApplication.freeswitch.command.*;
 import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallSnapshot;
 import com.onextel.CallServiceApplication.model.CallState;
 import com.onextel.CallServiceApplication.model.stats.CampaignStats;
 import com.onextel.CallServiceApplication.model.stats.StandaloneStats;
@@ -63,6 +64,7 @@ public class CallService implements CommandResponseCallback {
                 "Call service instance registered");
 
         callManager.setAppInstanceId(callServiceInstanceId);
+        callManager.setHangupSender(this::hangupCall);
     }
 
     public boolean isShuttingDown() {
@@ -99,15 +101,16 @@ public class CallService implements CommandResponseCallback {
         callCommand.addCustomVariable(ONEXTEL_CALL_ID, newCall.getCallUuid());
         callCommand.addCustomVariable(ONEXTEL_CALL_SERVICE_ID, callServiceInstanceId);
 
-        callManager.registerCall(newCall);
+        // Not waiting for Redis, the first event of the call arrives after the originate round trip
+        callManager.registerCallAsync(newCall);
         String newCallCommandString = callCommand.toPlainText();
         commandService.sendMessageAsync(newCallCommandString, fsNode.getCommandQueueName(),
                 newCall.getCallUuid(), this);
         return newCall;
     }
 
-    public Optional<Call> getCallStatus(String uuid) {
-        return callManager.getCall(uuid);
+    public Optional<CallSnapshot> getCallStatus(String uuid) {
+        return callManager.getCallSnapshot(uuid);
     }
 
     public void hangupCall(String uuid, String fsNodeId, CallDropCause cause) throws NoAvailableFreeSwitchNodeException {
@@ -164,7 +167,11 @@ public class CallService implements CommandResponseCallback {
         String response = commandInfo.getCommandResponse();
         log.info("Command processed callId:{} Command:{} Response:{}",
                 callId, command, response);
-        // TODO: mark call as failed
+        if (command != null && command.startsWith("bgapi originate ")
+                && response != null && response.startsWith("-ERR")) {
+            // No channel event follows a rejected originate
+            callManager.failCall(callId, response.substring("-ERR".length()).trim());
+        }
     }
 
     public CompletableFuture<CallStatsResponse> getCallStats(String callUuid) {
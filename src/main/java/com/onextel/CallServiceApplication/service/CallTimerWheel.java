@@ -0,0 +1,256 @@
+package com.onextel.CallServiceApplication.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel holding one {@link CallDeadline} per call for the {@link CallManager}.
+ * <p>
+ * The wheel is a power of two number of buckets, each one tick wide. A deadline goes to
+ * the bucket of its tick with the number of full turns left before it is due, so
+ * scheduling, replacing and cancelling cost O(1) whatever the number of calls, and a
+ * tick only visits the timers of one bucket. Deadlines further away than one turn stay
+ * in their bucket and count their turns down. Timers fire at the end of their tick,
+ * never early and at most one tick late.
+ * <p>
+ * Callers schedule and cancel from any thread, the new and cancelled timers are queued
+ * and moved in and out of the buckets by the single ticker thread. The map of timers by
+ * call UUID decides between an expiry and a concurrent replace or cancel: a timer only
+ * fires if it is still the call's timer when the ticker removes it from the map. Expired
+ * deadlines are handed to the executor, the ticker never runs the handler itself.
+ */
+@Slf4j
+final class CallTimerWheel {
+
+    @FunctionalInterface
+    interface Handler {
+        void expired(String callUuid, CallDeadline deadline);
+    }
+
+    // Bounds the work of one tick when many calls are rescheduled at once
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final class Timer {
+        final String callUuid;
+        final CallDeadline deadline;
+        // Relative to the start of the wheel
+        final long deadlineNanos;
+        volatile boolean cancelled;
+
+        // Owned by the ticker
+        long remainingRounds;
+        Bucket bucket;
+        Timer prev;
+        Timer next;
+
+        Timer(String callUuid, CallDeadline deadline, long deadlineNanos) {
+            this.callUuid = callUuid;
+            this.deadline = deadline;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    // Doubly linked so a cancelled timer is unlinked without a scan
+    private static final class Bucket {
+        Timer head;
+        Timer tail;
+
+        void add(Timer timer) {
+            timer.bucket = this;
+            timer.prev = tail;
+            if (tail == null) {
+                head = timer;
+            } else {
+                tail.next = timer;
+            }
+            tail = timer;
+        }
+
+        void remove(Timer timer) {
+            if (timer.prev == null) {
+                head = timer.next;
+            } else {
+                timer.prev.next = timer.next;
+            }
+            if (timer.next == null) {
+                tail = timer.prev;
+            } else {
+                timer.next.prev = timer.prev;
+            }
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Handler handler;
+    private final long startNanos = System.nanoTime();
+
+    // CallUuid -> current timer of the call
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Queue<Timer> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timer> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /**
+     * @param tick          width of a bucket, the precision of the deadlines
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     * @param executor      runs the handler of the expired deadlines
+     */
+    CallTimerWheel(Duration tick, int ticksPerWheel, Executor executor, Handler handler) {
+        if (tick.toMillis() < 1 || ticksPerWheel < 1 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid timing wheel tick " + tick + " or size " + ticksPerWheel);
+        }
+        this.tickNanos = tick.toNanos();
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.wheel = new Bucket[Math.max(size, 1)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.executor = executor;
+        this.handler = handler;
+        this.ticker = Thread.ofPlatform().name("call-timer-wheel").daemon().unstarted(this::run);
+    }
+
+    void start() {
+        ticker.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    /**
+     * Sets the deadline of the call, replacing its previous one. A deadline already
+     * passed fires on the next tick.
+     */
+    void schedule(String callUuid, CallDeadline deadline) {
+        Timer current = timers.get(callUuid);
+        if (current != null && current.deadline.equals(deadline)) {
+            // Rescheduled by a change that did not move it
+            return;
+        }
+        long delayNanos = Math.max(0, Duration.between(Instant.now(), deadline.at()).toNanos());
+        Timer timer = new Timer(callUuid, deadline, System.nanoTime() - startNanos + delayNanos);
+        Timer previous = timers.put(callUuid, timer);
+        if (previous != null) {
+            cancel(previous);
+        }
+        scheduled.add(timer);
+    }
+
+    void cancel(String callUuid) {
+        Timer previous = timers.remove(callUuid);
+        if (previous != null) {
+            cancel(previous);
+        }
+    }
+
+    /**
+     * Number of calls with a deadline.
+     */
+    int size() {
+        return timers.size();
+    }
+
+    private void cancel(Timer timer) {
+        timer.cancelled = true;
+        cancelled.add(timer);
+    }
+
+    private void run() {
+        long tick = 0;
+        while (awaitEndOfTick(tick)) {
+            try {
+                unlinkCancelled();
+                transferScheduled(tick);
+                expire(wheel[(int) (tick & mask)]);
+            } catch (RuntimeException e) {
+                log.error("Call timer wheel tick {} failed", tick, e);
+            }
+            tick++;
+        }
+        log.info("Call timer wheel stopped with {} deadlines", timers.size());
+    }
+
+    private boolean awaitEndOfTick(long tick) {
+        long endOfTick = tickNanos * (tick + 1);
+        while (running) {
+            long sleepNanos = endOfTick - (System.nanoTime() - startNanos);
+            if (sleepNanos <= 0) {
+                return true;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+        return false;
+    }
+
+    private void unlinkCancelled() {
+        Timer timer;
+        while ((timer = cancelled.poll()) != null) {
+            // Not in a bucket yet if cancelled before its transfer, which then skips it
+            if (timer.bucket != null) {
+                timer.bucket.remove(timer);
+            }
+        }
+    }
+
+    private void transferScheduled(long tick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timer timer = scheduled.poll();
+            if (timer == null) {
+                return;
+            }
+            if (timer.cancelled) {
+                continue;
+            }
+            long dueTick = timer.deadlineNanos / tickNanos;
+            timer.remainingRounds = (dueTick - tick) / wheel.length;
+            // Overdue deadlines go to the current bucket and fire on this tick
+            wheel[(int) (Math.max(dueTick, tick) & mask)].add(timer);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timer timer = bucket.head;
+        while (timer != null) {
+            Timer next = timer.next;
+            if (timer.cancelled) {
+                bucket.remove(timer);
+            } else if (timer.remainingRounds <= 0) {
+                bucket.remove(timer);
+                fire(timer);
+            } else {
+                timer.remainingRounds--;
+            }
+            timer = next;
+        }
+    }
+
+    private void fire(Timer timer) {
+        if (!timers.remove(timer.callUuid, timer)) {
+            // Replaced or cancelled since
+            return;
+        }
+        try {
+            executor.execute(() -> handler.expired(timer.callUuid, timer.deadline));
+        } catch (RejectedExecutionException e) {
+            log.warn("Dropped expired {} of call {}, executor shut down", timer.deadline.kind(), timer.callUuid);
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package com.onextel.CallServiceApplication.service;
 
 import com.onextel.CallServiceApplication.audit.AuditService;
+import com.onextel.CallServiceApplication.freeswitch.FreeSwitchNode;
 import com.onextel.CallServiceApplication.freeswitch.command.CommandResponseCallback;
 import com.onextel.CallServiceApplication.freeswitch.command.FreeSwitchCommand;
+import com.onextel.CallServiceApplication.freeswitch.esl.EslClient;
+import com.onextel.CallServiceApplication.freeswitch.esl.EslMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageBuilder;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -16,6 +20,9 @@ import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -27,10 +34,19 @@ public class CommandService {
     private final static String FS_CORRELATION_ID_HEADER = "fs_correlation_id";
     private final RabbitTemplate rabbitTemplate;
     private final AuditService auditService;
+    // Provider as the ESL client depends on the event handlers, which depend on this service
+    private final ObjectProvider<EslClient> eslClient;
     /**
      * In-memory map to track commands and their responses by correlationId
      */
     private final Map<String, FreeSwitchCommand> activeCommands = new ConcurrentHashMap<>();
+    /**
+     * Correlation id of the commands sent over the Event Socket by Job-UUID
+     */
+    private final Map<String, String> correlationIdsByJob = new ConcurrentHashMap<>();
+    // Send bgapi commands over the Event Socket of the node when it has a ready connection
+    @Value("${app.freeswitch.esl.commands:false}")
+    private boolean eslCommands;
     @Value("${app.rabbitmq.commands.exchange.name:" + DEFAULT_EXCHANGE_NAME + "}")
     private String commandsExchangeName;
     private String serviceInstanceId;
@@ -71,6 +87,14 @@ public class CommandService {
      */
     public void sendMessageAsync(String commandMessage, String queueName,
                                  String correlationId, CommandResponseCallback callback) {
+        // Tracked before sending, the response may arrive before the send returns
+        activeCommands.put(correlationId,
+                new FreeSwitchCommand(correlationId, replyToQueueName,
+                        commandMessage, callback));
+        if (eslCommands && sendOverEventSocket(commandMessage, queueName, correlationId)) {
+            return;
+        }
+
         log.debug("Sending command:queueName:[{}] replyQueue:[{}] correlationId:[{}] command:[{}]",
                 queueName, replyToQueueName, correlationId, commandMessage);
         Message message = MessageBuilder.withBody(commandMessage.getBytes())
@@ -86,10 +110,48 @@ public class CommandService {
         log.info("Message Sent to queue:{} correlationId:{} message:{}",
                 queueName, correlationId, message);
         auditService.logCommandSent(correlationId, queueName, "freeswitchQueue", commandMessage);
+    }
 
-        activeCommands.put(correlationId,
-                new FreeSwitchCommand(correlationId, replyToQueueName,
-                        commandMessage, callback));
+    /**
+     * Sends the command as bgapi over the Event Socket of the node owning the command
+     * queue. The Job-UUID of the BACKGROUND_JOB event with the result maps back to the
+     * correlation id, a refused command completes with the refusal.
+     *
+     * @return false if the node has no ready connection, the command is then sent to the queue
+     */
+    private boolean sendOverEventSocket(String commandMessage, String queueName, String correlationId) {
+        EslClient client = eslClient.getIfAvailable();
+        if (client == null || !client.isEnabled()
+                || !queueName.endsWith(FreeSwitchNode.COMMAND_QUEUE_SUFFIX)) {
+            return false;
+        }
+        String hostname = queueName.substring(0, queueName.length() - FreeSwitchNode.COMMAND_QUEUE_SUFFIX.length());
+        String jobUuid = UUID.randomUUID().toString();
+        correlationIdsByJob.put(jobUuid, correlationId);
+        CompletableFuture<EslMessage> reply = client.bgapi(hostname, commandMessage, jobUuid);
+        if (reply == null) {
+            correlationIdsByJob.remove(jobUuid);
+            return false;
+        }
+        log.info("Command sent over ESL to:{} correlationId:{} jobUuid:{}", hostname, correlationId, jobUuid);
+        auditService.logCommandSent(correlationId, "esl:" + hostname, "esl:" + hostname, commandMessage);
+        reply.whenComplete((accepted, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                correlationIdsByJob.remove(jobUuid);
+                log.error("ESL command failed correlationId:{} jobUuid:{}", correlationId, jobUuid, cause);
+                completeCommand(correlationId, "-ERR " + cause.getMessage());
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Correlation id of a command sent over the Event Socket, removed once looked up.
+     */
+    public String getCorrelationIdForJob(String jobUuid) {
+        return jobUuid == null ? null : correlationIdsByJob.remove(jobUuid);
     }
 
     private String getReplyQueueName(String serviceInstanceId) {
@@ -133,6 +195,7 @@ public class CommandService {
         Instant cutoff = Instant.now().minus(5, ChronoUnit.MINUTES);
         activeCommands.entrySet().removeIf(entry ->
                 entry.getValue().getCreatedAt().isBefore(cutoff));
+        correlationIdsByJob.values().removeIf(correlationId -> !activeCommands.containsKey(correlationId));
     }
 
 }
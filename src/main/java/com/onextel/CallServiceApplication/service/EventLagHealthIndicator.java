@@ -0,0 +1,35 @@
+package com.onextel.CallServiceApplication.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the instance OUT_OF_SERVICE while the p99 of the end to end event lag over
+ * the recent window is above app.events.lag.health.max-p99-ms, so a readiness probe
+ * takes a lagging instance out of rotation. UP when no event was handled in the window.
+ */
+@Component("eventLag")
+@RequiredArgsConstructor
+public class EventLagHealthIndicator implements HealthIndicator {
+    private final EventLagMonitor eventLagMonitor;
+
+    @Value("${app.events.lag.health.max-p99-ms:10000}")
+    private long maxP99Ms;
+
+    @Override
+    public Health health() {
+        EventLagMonitor.LagStats total = eventLagMonitor.getTotal();
+        Health.Builder health = total.count() > 0 && total.p99Ms() > maxP99Ms
+                ? Health.outOfService()
+                : Health.up();
+        return health
+                .withDetail("events", total.count())
+                .withDetail("p50Ms", total.p50Ms())
+                .withDetail("p99Ms", total.p99Ms())
+                .withDetail("maxP99Ms", maxP99Ms)
+                .build();
+    }
+}
@@ -0,0 +1,156 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end lag of the FreeSWITCH events, from the time FreeSWITCH fired them to the
+ * completion of their handler, split in three stages recorded per event type and
+ * FreeSWITCH node:
+ * <pre>
+ *   broker_to_receive     Event-Date-Timestamp -> received from the broker (FreeSWITCH clock vs ours)
+ *   receive_to_dispatch   received -> handler started (reorder buffer, mailbox and lane queues)
+ *   dispatch_to_complete  handler run time
+ * </pre>
+ * The timers keep a percentile histogram, exported to Prometheus as buckets so lag
+ * percentiles can be aggregated over instances (and drive autoscaling), and are read
+ * by the eventlag actuator endpoint and the lag health indicator.
+ * <p>
+ * A FreeSWITCH clock ahead of ours would give a negative broker lag, it is recorded
+ * as 0.
+ * <p>
+ * Metrics:
+ *   - events.lag        stage lag, tagged stage, type and node
+ *   - events.lag.total  Event-Date-Timestamp to handler completion over every event
+ */
+@Service
+@Slf4j
+public class EventLagMonitor {
+    public static final String BROKER_TO_RECEIVE = "broker_to_receive";
+    public static final String RECEIVE_TO_DISPATCH = "receive_to_dispatch";
+    public static final String DISPATCH_TO_COMPLETE = "dispatch_to_complete";
+    private static final String UNKNOWN_NODE = "unknown";
+
+    public record LagStats(String stage, String type, String node, long count,
+                           double meanMs, double p50Ms, double p99Ms, double maxMs) {
+    }
+
+    private record TimerKey(String stage, String type, String node) {
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+    private final Timer totalTimer;
+
+    @Value("${app.events.lag.enabled:true}")
+    private boolean enabled;
+
+    public EventLagMonitor(MeterRegistry meterRegistry,
+                           @Value("${app.events.lag.window-seconds:120}") int windowSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.totalTimer = Timer.builder("events.lag.total")
+                .description("FreeSWITCH event time to handler completion")
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .distributionStatisticExpiry(Duration.ofSeconds(windowSeconds))
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records the lag of a handled event.
+     *
+     * @param startedNanos   {@link System#nanoTime()} when the handler started
+     * @param completedNanos {@link System#nanoTime()} when the handler returned
+     */
+    public void record(Event event, long startedNanos, long completedNanos) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String type = event.getEventType().name();
+            String node = event.getFreeSwitchHostname();
+            if (node == null) {
+                node = UNKNOWN_NODE;
+            }
+            timer(DISPATCH_TO_COMPLETE, type, node).record(completedNanos - startedNanos, TimeUnit.NANOSECONDS);
+
+            // Replayed events and the inline paths are not stamped
+            long receivedAtMicros = event.getReceivedAtMicros();
+            if (receivedAtMicros <= 0) {
+                return;
+            }
+            long inServiceNanos = completedNanos - event.getReceivedAtNanos();
+            timer(RECEIVE_TO_DISPATCH, type, node)
+                    .record(startedNanos - event.getReceivedAtNanos(), TimeUnit.NANOSECONDS);
+
+            long firedAtMicros = event.getEventDateTimestampMicros();
+            if (firedAtMicros > 0) {
+                long brokerMicros = Math.max(0, receivedAtMicros - firedAtMicros);
+                timer(BROKER_TO_RECEIVE, type, node).record(brokerMicros, TimeUnit.MICROSECONDS);
+                totalTimer.record(TimeUnit.MICROSECONDS.toNanos(brokerMicros) + inServiceNanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Event lag not recorded for {}: {}", event.getEventType(), e.getMessage());
+        }
+    }
+
+    /**
+     * Lag statistics of every stage, event type and node seen so far, worst p99 first.
+     */
+    public List<LagStats> getStats() {
+        List<LagStats> stats = new ArrayList<>(timers.size());
+        timers.forEach((key, timer) -> stats.add(toStats(key, timer.takeSnapshot())));
+        stats.sort(Comparator.comparingDouble(LagStats::p99Ms).reversed());
+        return stats;
+    }
+
+    /**
+     * End to end lag over the recent window.
+     */
+    public LagStats getTotal() {
+        return toStats(new TimerKey("total", "all", "all"), totalTimer.takeSnapshot());
+    }
+
+    private Timer timer(String stage, String type, String node) {
+        return timers.computeIfAbsent(new TimerKey(stage, type, node), key -> Timer.builder("events.lag")
+                .tag("stage", key.stage())
+                .tag("type", key.type())
+                .tag("node", key.node())
+                .description("FreeSWITCH event lag per stage")
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(meterRegistry));
+    }
+
+    private static LagStats toStats(TimerKey key, HistogramSnapshot snapshot) {
+        double p50 = 0;
+        double p99 = 0;
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            if (percentile.percentile() == 0.5) {
+                p50 = percentile.value(TimeUnit.MILLISECONDS);
+            } else if (percentile.percentile() == 0.99) {
+                p99 = percentile.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return new LagStats(key.stage(), key.type(), key.node(), snapshot.count(),
+                snapshot.mean(TimeUnit.MILLISECONDS), p50, p99, snapshot.max(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,86 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.config.RabbitConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumes the lane queues of the lane topology ({@code app.events.topology=lanes},
+ * see {@link com.onextel.CallServiceApplication.config.EventLaneQueueConfig}).
+ * <p>
+ * Each lane has its own listener container. The control lane defaults to a single
+ * consumer, which keeps the broker order of the call control events, and keeps its
+ * consumer count. The info lane starts with its configured consumers and is scaled by
+ * the event flow controller. Prefetch of both follows the flow controller, the
+ * configured value is the starting point. Containers are stopped by the
+ * {@link EventProcessor} shutdown like the other listeners.
+ */
+@Service
+@Slf4j
+public class EventLaneQueueConsumers {
+    private static final String ENDPOINT_ID_PREFIX = "event-lane-";
+
+    @Value("#{'${app.events.topology:single}' == 'lanes'}")
+    private boolean enabled;
+
+    @Value("${app.events.lane-queues.control.consumers:1}")
+    private int controlConsumers;
+
+    @Value("${app.events.lane-queues.control.prefetch:" + RabbitConfig.EVENT_PREFETCH_COUNT + "}")
+    private int controlPrefetch;
+
+    @Value("${app.events.lane-queues.info.consumers:" + RabbitConfig.EVENT_CONCURRENT_CONSUMERS + "}")
+    private int infoConsumers;
+
+    @Value("${app.events.lane-queues.info.prefetch:" + RabbitConfig.EVENT_PREFETCH_COUNT + "}")
+    private int infoPrefetch;
+
+    private final SimpleRabbitListenerContainerFactory listenerContainerFactory;
+    private final EventProcessor eventProcessor;
+    private final List<SimpleMessageListenerContainer> containers = new ArrayList<>();
+
+    public EventLaneQueueConsumers(SimpleRabbitListenerContainerFactory listenerContainerFactory,
+                                   EventProcessor eventProcessor) {
+        this.listenerContainerFactory = listenerContainerFactory;
+        this.eventProcessor = eventProcessor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || !containers.isEmpty()) {
+            return;
+        }
+        containers.add(startContainer(EventProcessor.CONTROL_LANE, controlConsumers, controlPrefetch, false));
+        containers.add(startContainer(EventProcessor.INFO_LANE, infoConsumers, infoPrefetch, true));
+    }
+
+    private SimpleMessageListenerContainer startContainer(String lane, int consumers, int prefetch, boolean elastic) {
+        String queueName = RabbitConfig.eventLaneQueueName(lane);
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId(ENDPOINT_ID_PREFIX + lane);
+        endpoint.setQueueNames(queueName);
+        endpoint.setMessageListener((ChannelAwareMessageListener) eventProcessor::processEvent);
+
+        // Same ack mode and error handling as the single queue listener
+        SimpleMessageListenerContainer container = listenerContainerFactory.createListenerContainer(endpoint);
+        container.setConcurrentConsumers(consumers);
+        container.setMaxConcurrentConsumers(elastic
+                ? Math.max(consumers, RabbitConfig.EVENT_MAX_CONCURRENT_CONSUMERS) : consumers);
+        container.setPrefetchCount(prefetch);
+        container.afterPropertiesSet();
+        container.start();
+        eventProcessor.registerListenerContainer(container, elastic);
+        log.info("Consuming {} lane from {} with {} consumers, prefetch {}", lane, queueName, consumers, prefetch);
+        return container;
+    }
+}
@@ -1,13 +1,23 @@
 package com.onextel.CallServiceApplication.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.onextel.CallServiceApplication.common.ThreadUtils;
+import com.onextel.CallServiceApplication.config.RabbitConfig;
 import com.onextel.CallServiceApplication.freeswitch.event.*;
 import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
-import com.rabbitmq.client.AlreadyClosedException;
+import com.onextel.CallServiceApplication.service.event.AckCoalescer;
+import com.onextel.CallServiceApplication.service.event.AckCoalescerRegistry;
+import com.onextel.CallServiceApplication.service.event.BoundedVirtualThreadExecutor;
+import com.onextel.CallServiceApplication.service.event.EventCaptureWriter;
+import com.onextel.CallServiceApplication.service.event.EventDeduplicator;
+import com.onextel.CallServiceApplication.service.event.EventFlowController;
+import com.onextel.CallServiceApplication.service.event.EventLaneScheduler;
+import com.onextel.CallServiceApplication.service.event.EventPayloadLogger;
+import com.onextel.CallServiceApplication.service.event.EventReorderBuffer;
+import com.onextel.CallServiceApplication.service.event.MailboxScheduler;
+import com.onextel.CallServiceApplication.service.event.VirtualThreadPinningMonitor;
 import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,15 +26,22 @@ import org.springframework.amqp.core.QueueInformation;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -40,18 +57,162 @@ public class EventProcessor {
      */
     private static final int CHANNEL_QUEUE_CAPACITY = 100;
 
+    /**
+     * Max events a channel mailbox processes before yielding its worker thread
+     */
+    private static final int CHANNEL_MAILBOX_BATCH_SIZE = 16;
+
+    public static final String CONTROL_LANE = "control";
+    public static final String INFO_LANE = "info";
+    // Every state changing channel event, they must stay in order with each other
+    public static final String DEFAULT_CONTROL_EVENT_TYPES = "CHANNEL_CREATE,CHANNEL_PROGRESS,CHANNEL_ANSWER,"
+            + "CHANNEL_CALLSTATE,CHANNEL_BRIDGE,CHANNEL_UNBRIDGE,CHANNEL_HOLD,CHANNEL_UNHOLD,"
+            + "CHANNEL_HANGUP,CHANNEL_HANGUP_COMPLETE,BACKGROUND_JOB";
+
+    /**
+     * Executor mode for event handlers:
+     * fixed   - bounded pool of MAX_EVENT_PROCESSOR_THREADS platform threads
+     * virtual - one virtual thread per task, bounded by execution and AMQP permits
+     */
+    @Value("${app.events.executor:fixed}")
+    private String executorMode;
+
+    @Value("${app.events.virtual.max-in-flight:1000}")
+    private int virtualMaxInFlight;
+
+    // AMQP channels serialize frames under a monitor, which pins virtual threads
+    @Value("${app.events.virtual.amqp-permits:8}")
+    private int virtualAmqpPermits;
+
+    @Value("${app.events.virtual.pinning-threshold-ms:20}")
+    private long pinningThresholdMs;
+
+    // Call control events get their own lane, so floods of informational events
+    // (DTMF, CUSTOM registrations, CHANNEL_EXECUTE...) cannot delay call teardown
+    @Value("${app.events.lanes.enabled:true}")
+    private boolean lanesEnabled;
+
+    // The lane of each event type (app.events.lanes.control.types) is resolved by the EventHandlerFactory
+    @Value("${app.events.lanes.control.weight:4}")
+    private int controlLaneWeight;
+
+    // 0 = whole executor capacity
+    @Value("${app.events.lanes.control.max-concurrency:0}")
+    private int controlLaneMaxConcurrency;
+
+    @Value("${app.events.lanes.info.weight:1}")
+    private int infoLaneWeight;
+
+    // 0 = half of the executor capacity
+    @Value("${app.events.lanes.info.max-concurrency:0}")
+    private int infoLaneMaxConcurrency;
+
+    // Acks are coalesced into one multiple ack per batch-size acks or max-delay-ms
+    @Value("${app.rabbitmq.ack.batch-size:20}")
+    private int ackBatchSize;
+
+    @Value("${app.rabbitmq.ack.max-delay-ms:50}")
+    private long ackMaxDelayMs;
+
+    // Channel events are held up to window-ms until earlier Event-Sequence numbers of their node arrive,
+    // only for an instance that receives every event of its nodes (see EventReorderBuffer)
+    @Value("${app.events.reorder.enabled:false}")
+    private boolean reorderEnabled;
+
+    // Lane and shard queues and ESL subscriptions only carry part of the node events, their gaps never close
+    @Value("#{'${app.events.topology:single}' != 'single' or '${app.events.ingest:amqp}' == 'esl'}")
+    private boolean partialEventStream;
+
+    @Value("${app.events.reorder.window-ms:100}")
+    private long reorderWindowMs;
+
+    @Value("${app.events.reorder.max-buffered:1000}")
+    private int reorderMaxBuffered;
+
+    // Redelivered events already handled are dropped, keyed on Core-UUID and Event-Sequence
+    @Value("${app.events.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${app.events.dedup.window-seconds:120}")
+    private long dedupWindowSeconds;
+
+    @Value("${app.events.dedup.capacity:65536}")
+    private int dedupCapacity;
+
+    // Prefetch and consumer count follow the pending work and handling latency
+    @Value("${app.rabbitmq.flow.enabled:true}")
+    private boolean flowControlEnabled;
+
+    @Value("${app.rabbitmq.flow.min-prefetch:10}")
+    private int flowMinPrefetch;
+
+    @Value("${app.rabbitmq.flow.max-prefetch:200}")
+    private int flowMaxPrefetch;
+
+    @Value("${app.rabbitmq.flow.min-consumers:1}")
+    private int flowMinConsumers;
+
+    @Value("${app.rabbitmq.flow.max-consumers:" + RabbitConfig.EVENT_MAX_CONCURRENT_CONSUMERS + "}")
+    private int flowMaxConsumers;
+
+    @Value("${app.rabbitmq.flow.latency-target-ms:250}")
+    private long flowLatencyTargetMs;
+
+    @Value("${app.rabbitmq.flow.pending-high:2000}")
+    private int flowPendingHigh;
+
+    @Value("${app.rabbitmq.flow.pending-pause:10000}")
+    private int flowPendingPause;
+
+    // Raw event bodies appended to memory mapped segments, input of the EventReplayer
+    @Value("${app.events.capture.enabled:false}")
+    private boolean captureEnabled;
+
+    @Value("${app.events.capture.directory:capture}")
+    private String captureDirectory;
+
+    @Value("${app.events.capture.segment-mb:64}")
+    private int captureSegmentMb;
+
+    // Raw payloads are logged at DEBUG (EventPayloadLogger), one out of sample-every, 0 = never
+    @Value("${app.events.payload-log.sample-every:100}")
+    private long payloadLogSampleEvery;
+
+    @Value("${app.events.payload-log.max-bytes:16384}")
+    private int payloadLogMaxBytes;
+
+    // One deadline for the shutdown drain of the mailboxes and the event executor, what is
+    // left then is nacked with requeue
+    @Value("${app.events.shutdown.drain-timeout-ms:20000}")
+    private long drainTimeoutMs;
+
     // Executor service for processing events, general pool for tasks
-    private final ExecutorService eventExecutorService = Executors.newFixedThreadPool(MAX_EVENT_PROCESSOR_THREADS);
-    private final ObjectMapper objectMapper;
+    private ExecutorService eventExecutorService;
+    private Semaphore amqpPermits;
+    private VirtualThreadPinningMonitor pinningMonitor;
+    private AckCoalescerRegistry ackCoalescers;
+    private EventReorderBuffer reorderBuffer;
+    private EventDeduplicator deduplicator;
+    private EventFlowController flowController;
+    private volatile EventCaptureWriter captureWriter;
+    private EventPayloadLogger payloadLogger;
+    private final EventParser eventParser;
+    private final MeterRegistry meterRegistry;
 
     /**
-     * Maintain event queue per channel so channel events are processed
-     * based on sequence number.
+     * Maintain a mailbox per channel so channel events are processed
+     * one at a time, in sequence number order.
      */
-    private final ConcurrentHashMap<String, PriorityBlockingQueue<EventTask>> channelEventQueues = new ConcurrentHashMap<>();
+    private MailboxScheduler channelMailboxes;
+    private EventLaneScheduler eventLanes;
     private final EventHandlerFactory eventHandlerFactory;
+    private final EventLagMonitor eventLagMonitor;
+    private final EventQuarantine eventQuarantine;
 
-    private List<MessageListenerContainer> listenerContainers; // used in shutdown
+    // @RabbitListener containers, stopped in shutdown and steered by the flow controller
+    private final RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
+    // Containers created outside the registry (event shards), value tells if elastic
+    private final Map<MessageListenerContainer, Boolean> registeredContainers = new ConcurrentHashMap<>();
     private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
     private final RabbitAdmin rabbitAdmin;
@@ -59,13 +220,69 @@ public class EventProcessor {
 
     @PostConstruct
     public void setup() {
-        ((ThreadPoolExecutor) eventExecutorService).setRejectedExecutionHandler((r, executor) -> {
-            if (shuttingDown.get()) {
-                log.warn("Rejected task during shutdown: {}", r);
-            } else {
-                log.error("Task rejected while executor is active. Consider increasing pool or queue size.");
+        payloadLogger = new EventPayloadLogger(payloadLogSampleEvery, payloadLogMaxBytes);
+        if ("virtual".equalsIgnoreCase(executorMode)) {
+            eventExecutorService = new BoundedVirtualThreadExecutor("event-vt-", virtualMaxInFlight, meterRegistry);
+            amqpPermits = new Semaphore(virtualAmqpPermits);
+            pinningMonitor = new VirtualThreadPinningMonitor(Duration.ofMillis(pinningThresholdMs), meterRegistry);
+            pinningMonitor.start();
+            log.info("Event processing on virtual threads, max in flight {}, AMQP permits {}",
+                    virtualMaxInFlight, virtualAmqpPermits);
+        } else {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(MAX_EVENT_PROCESSOR_THREADS);
+            pool.setRejectedExecutionHandler((r, executor) -> {
+                if (shuttingDown.get()) {
+                    log.warn("Rejected task during shutdown: {}", r);
+                } else {
+                    log.error("Task rejected while executor is active. Consider increasing pool or queue size.");
+                }
+                // Let the caller nack the event instead of silently dropping it
+                throw new RejectedExecutionException("Event executor rejected task " + r);
+            });
+            eventExecutorService = pool;
+            log.info("Event processing on fixed pool of {} threads", MAX_EVENT_PROCESSOR_THREADS);
+        }
+        if (lanesEnabled) {
+            setupLanes();
+            // One mailbox per channel, each run is weighed on the lane of its next event
+            channelMailboxes = new MailboxScheduler(eventExecutorService,
+                    task -> eventLanes.lane(laneOf(task.getEvent().getEventType())),
+                    CHANNEL_QUEUE_CAPACITY, CHANNEL_MAILBOX_BATCH_SIZE, meterRegistry);
+        } else {
+            channelMailboxes = new MailboxScheduler(eventExecutorService,
+                    CHANNEL_QUEUE_CAPACITY, CHANNEL_MAILBOX_BATCH_SIZE, meterRegistry);
+        }
+        if (flowControlEnabled) {
+            flowController = new EventFlowController(
+                    new EventFlowController.Limits(flowMinPrefetch, flowMaxPrefetch,
+                            flowMinConsumers, Math.min(flowMaxConsumers, RabbitConfig.EVENT_MAX_CONCURRENT_CONSUMERS),
+                            Duration.ofMillis(flowLatencyTargetMs), flowPendingHigh, flowPendingPause),
+                    RabbitConfig.EVENT_PREFETCH_COUNT, RabbitConfig.EVENT_CONCURRENT_CONSUMERS,
+                    this::getPendingWork, this::getManagedContainers, meterRegistry);
+            // The ack window must cover the largest prefetch, batches the smallest
+            ackCoalescers = new AckCoalescerRegistry(Math.min(ackBatchSize, Math.max(1, flowMinPrefetch / 2)),
+                    ackMaxDelayMs, Math.max(flowMaxPrefetch, RabbitConfig.EVENT_PREFETCH_COUNT), meterRegistry);
+        } else {
+            ackCoalescers = new AckCoalescerRegistry(ackBatchSize, ackMaxDelayMs,
+                    RabbitConfig.EVENT_PREFETCH_COUNT, meterRegistry);
+        }
+        if (reorderEnabled && partialEventStream) {
+            log.warn("Event reorder buffer disabled, the event topology or ingest only delivers part of the node events");
+        } else if (reorderEnabled) {
+            reorderBuffer = new EventReorderBuffer(reorderWindowMs, reorderMaxBuffered,
+                    task -> handleChannelEvent(orderingKeyOf(task.getEvent()), task),
+                    meterRegistry);
+        }
+        if (dedupEnabled) {
+            deduplicator = new EventDeduplicator(dedupWindowSeconds, TimeUnit.SECONDS, dedupCapacity, meterRegistry);
+        }
+        if (captureEnabled) {
+            try {
+                startCapture();
+            } catch (IOException e) {
+                log.error("Failed to start event capture in {}", captureDirectory, e);
             }
-        });
+        }
     }
 
     // Graceful shutdown of all executors
@@ -76,29 +293,33 @@ public class EventProcessor {
             log.info("Starting graceful shutdown...");
 
             // Stop all RabbitMQ listener containers to prevent more events from coming in
-            if (listenerContainers != null) {
-                for (MessageListenerContainer container : listenerContainers) {
-                    container.stop(() -> {
-                        // This callback is called when the container is actually stopped
-                        log.debug("Listener container {} stopped", container);
-                    });
-                }
-                log.info("RabbitMQ listeners stopping asynchronously...");
+            for (EventFlowController.ManagedContainer managed : getManagedContainers()) {
+                MessageListenerContainer container = managed.container();
+                container.stop(() -> {
+                    // This callback is called when the container is actually stopped
+                    log.debug("Listener container {} stopped", container);
+                });
             }
+            log.info("RabbitMQ listeners stopping asynchronously...");
 
             // Wait a brief moment to allow in-flight messages to be processed/rejected
             ThreadUtils.safeSleep(500, "EventProcessor shutdown waiting to process in-flight messages");
 
-            // Process remaining messages in queues
-            drainChannelQueues(Duration.ofSeconds(20));
+            // Held events are released into the mailboxes, which reject them while shutting down
+            if (reorderBuffer != null) {
+                reorderBuffer.shutdown();
+            }
 
-            // Shutdown executor
-            eventExecutorService.shutdown();
-            if (!eventExecutorService.awaitTermination(10, TimeUnit.SECONDS)) {
-                log.warn("Event Executor did not terminate in time, forcing shutdown...");
-                eventExecutorService.shutdownNow();
+            // Let the mailboxes and the executor work off what was accepted, until one deadline
+            drainPendingEvents(Duration.ofMillis(drainTimeoutMs));
+            if (pinningMonitor != null) {
+                pinningMonitor.close();
             }
 
+            // Send the acks still held back by the coalescers
+            ackCoalescers.shutdown();
+            stopCapture();
+
             log.info("EventProcessor shutdown complete");
 
         } catch (InterruptedException e) {
@@ -138,148 +359,394 @@ public class EventProcessor {
 //        }
 //    }
 
-    @RabbitListener(queues = "freeswitchQueue", ackMode = "MANUAL") //Manual ack
+    // Not started with the sharded topology (shard queues consumed by EventShardManager)
+    // or the stream and reactive ingests (EventStreamIngest, EventReactiveIngest)
+    @RabbitListener(queues = "freeswitchQueue", ackMode = "MANUAL", //Manual ack
+            autoStartup = "#{'${app.events.topology:single}' == 'single' and '${app.events.ingest:amqp}' == 'amqp'}")
     public void processEvent(Message message, Channel channel) {
+        awaitFlowResume(() -> false);
+        processEvent(message, channel, () -> { });
+    }
+
+    /**
+     * Blocks the listener thread while the flow controller pauses the consumers, so the
+     * broker stops delivering once the prefetch window is full. Returns on shutdown.
+     *
+     * @param abandon polled while waiting, returns true to stop waiting
+     */
+    public void awaitFlowResume(BooleanSupplier abandon) {
+        if (flowController != null) {
+            flowController.awaitResume(() -> shuttingDown.get() || abandon.getAsBoolean());
+        }
+    }
+
+    /**
+     * Handles a delivery of a listener container created outside the @RabbitListener
+     * registry, after {@link #awaitFlowResume}.
+     *
+     * @param onSettled called once the delivery is acked, nacked or rejected, or right
+     *                  away if the channel is closed and the broker redelivers it
+     */
+    public void processEvent(Message message, Channel channel, Runnable onSettled) {
+        if (!validateChannel(channel)) {
+            log.warn("Channel is not available or closed, message will be redelivered");
+            onSettled.run();
+            return;
+        }
+        // Every delivery must be settled through the coalescer of its channel
+        AckCoalescer acks = ackCoalescers.forChannel(channel, message.getMessageProperties().getDeliveryTag());
+
         if (shuttingDown.get()) {
-            rejectMessage(message, channel);
+            rejectMessage(message, acks);
+            onSettled.run();
             return;
         }
 
         try {
-            String eventPayload = new String(message.getBody());
-            log.info("Event Message : {}", eventPayload);
-            Event event = parseEvent(eventPayload);
-            if (event == null) {
-                rejectMessage(message, channel);
-                return;
-            }
-
-            EventType eventType = event.getEventType();
-            EventHandler handler = eventHandlerFactory.getEventHandler(eventType);
-
-            if (eventType == EventType.HEARTBEAT) {
-                handler.handleEvent(event);
-                ackMessage(message, channel);
-                return;
-            }
-
-            // Create task with ack/nack callback
-            EventTask eventTask = new EventTask(event, handler, (ack) -> {
-                if (channel == null || !channel.isOpen()) {
-                    log.warn("Channel is not available or closed, cannot ack/nack message");
-                    return;
-                }
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            // Set if the quarantine could not take the failed event, it would fail again on redelivery
+            AtomicBoolean unquarantined = new AtomicBoolean();
+            boolean accepted = processPayload(message.getBody(), (ack) -> {
                 try {
-                    if (ack) {
-                        channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
-                    } else {
-                        channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, !shuttingDown.get());
+                    acquireAmqpPermit();
+                    try {
+                        if (ack) {
+                            acks.ack(deliveryTag);
+                        } else {
+                            acks.nack(deliveryTag, !shuttingDown.get() && !unquarantined.get());
+                        }
+                    } finally {
+                        releaseAmqpPermit();
                     }
                 } catch (Exception e) {
                     log.error("Failed to ack/nack message", e);
+                } finally {
+                    onSettled.run();
                 }
-            });
-            if (EventUtils.isChannelEvent(eventType)) {
-                handleChannelEvent(event.getStringParam(EventParams.CHANNEL_CALL_UUID), eventTask);
-            } else {
-                handleGeneralEvent(eventTask);
+            }, () -> unquarantined.set(true));
+            if (!accepted) {
+                rejectMessage(message, acks);
+                onSettled.run();
             }
-
         } catch (Exception exp) {
             log.error("Failed to process message {}", message, exp);
-            rejectMessage(message, channel);
+            rejectMessage(message, acks);
+            onSettled.run();
+        }
+    }
+
+    /**
+     * Sends the acks held back by the coalescers, e.g. before a listener container
+     * is stopped and its channels closed.
+     */
+    public void flushAcks() {
+        if (ackCoalescers != null) {
+            ackCoalescers.flushAll();
+        }
+    }
+
+    /**
+     * Takes care of a payload that could not be parsed (event null) or whose handler
+     * failed, e.g. by quarantining it.
+     */
+    @FunctionalInterface
+    interface FailureHandler {
+        /**
+         * @return true if the failure was taken care of, a failed handler is then settled as done
+         */
+        boolean onFailure(byte[] body, Event event, Exception error);
+    }
+
+    /**
+     * Parses the event payload and dispatches it to its handler, shared by every ingest
+     * backend. The settle callback is called once the event is handled (true) or failed
+     * or was refused (false), possibly on another thread. Failed events are quarantined
+     * when the quarantine is enabled, a failed handler is then settled with true so the
+     * event is not redelivered.
+     *
+     * @return false if the payload could not be parsed, settle is then never called
+     */
+    public boolean processPayload(byte[] body, Consumer<Boolean> settle) {
+        return processPayload(body, settle, null);
+    }
+
+    /**
+     * @param onUnquarantined called before the event is settled with false if its handler
+     *                        failed and the quarantine did not take it, may be null
+     */
+    private boolean processPayload(byte[] body, Consumer<Boolean> settle, Runnable onUnquarantined) {
+        long receivedAtMicros = EventCaptureWriter.nowMicros();
+        long receivedAtNanos = System.nanoTime();
+        EventCaptureWriter capture = captureWriter;
+        if (capture != null) {
+            capture.append(body, receivedAtMicros);
+        }
+        payloadLogger.sample(body);
+        FailureHandler failures = null;
+        if (eventQuarantine.isEnabled()) {
+            failures = (failed, event, error) -> {
+                boolean quarantined = quarantine(failed, event, error);
+                if (!quarantined && onUnquarantined != null) {
+                    onUnquarantined.run();
+                }
+                return quarantined;
+            };
+        }
+        return dispatchPayload(body, true, failures, event -> {
+            event.markReceived(receivedAtMicros, receivedAtNanos);
+            return settle;
+        });
+    }
+
+    /**
+     * Parse and dispatch part of {@link #processPayload}, also used by the replay which
+     * is not captured again and may bypass the dedup filter.
+     *
+     * @param settleFor settle callback of the parsed event
+     */
+    boolean dispatchPayload(byte[] body, boolean deduplicate, Function<Event, Consumer<Boolean>> settleFor) {
+        return dispatchPayload(body, deduplicate, null, settleFor);
+    }
+
+    /**
+     * @param failures called on parse and handler failures, null to only log them
+     */
+    boolean dispatchPayload(byte[] body, boolean deduplicate, FailureHandler failures,
+                            Function<Event, Consumer<Boolean>> settleFor) {
+        Event event = parseEvent(body, failures);
+        if (event == null) {
+            return false;
+        }
+        Consumer<Boolean> settle = settleFor.apply(event);
+
+        if (flowController != null) {
+            long dispatchedAt = System.nanoTime();
+            Consumer<Boolean> settleEvent = settle;
+            settle = (ok) -> {
+                flowController.recordLatency(System.nanoTime() - dispatchedAt);
+                settleEvent.accept(ok);
+            };
+        }
+        if (deduplicator != null && deduplicate) {
+            String nodeId = event.getFreeSwitchNodeId();
+            int sequence = event.getEventSequence();
+            if (deduplicator.isDuplicate(nodeId, sequence)) {
+                log.debug("Dropping redelivered event {} sequence {} of node {}",
+                        event.getEventType(), sequence, nodeId);
+                settle.accept(true);
+                return true;
+            }
+            // Recorded once handled, a nacked event must pass again on redelivery
+            Consumer<Boolean> settleEvent = settle;
+            settle = (ok) -> {
+                if (ok) {
+                    deduplicator.record(nodeId, sequence);
+                }
+                settleEvent.accept(ok);
+            };
+        }
+
+        EventType eventType = event.getEventType();
+        EventDispatchTable.Route route = eventHandlerFactory.getRoute(eventType);
+        EventHandler handler = route.handler();
+
+        boolean channelEvent = route.channelScoped();
+        if (reorderBuffer != null && !channelEvent) {
+            // Every event carries the node sequence, so it may close a gap for held channel events
+            reorderBuffer.observe(event.getFreeSwitchNodeId(), event.getEventSequence());
+        }
+
+        if (eventType == EventType.HEARTBEAT) {
+            handler.handleEvent(event);
+            settle.accept(true);
+            return true;
+        }
+
+        // Create task with settle callback
+        EventTask eventTask = new EventTask(event, handler, settle, eventLagMonitor,
+                failures == null ? null : error -> failures.onFailure(body, event, error));
+        if (channelEvent && reorderBuffer != null) {
+            reorderBuffer.offer(event.getFreeSwitchNodeId(), eventTask);
+        } else if (channelEvent) {
+            handleChannelEvent(event.getStringParam(route.orderingKey()), eventTask);
+        } else {
+            handleGeneralEvent(eventTask);
+        }
+        return true;
+    }
+
+    boolean isShuttingDown() {
+        return shuttingDown.get();
+    }
+
+    /**
+     * Starts appending the received event bodies to capture segments, no-op if running.
+     *
+     * @return the capture directory
+     */
+    public synchronized Path startCapture() throws IOException {
+        if (captureWriter == null) {
+            captureWriter = new EventCaptureWriter(Path.of(captureDirectory),
+                    captureSegmentMb * 1024 * 1024, meterRegistry);
+        }
+        return captureWriter.getDirectory();
+    }
+
+    public synchronized void stopCapture() {
+        if (captureWriter != null) {
+            captureWriter.close();
+            captureWriter = null;
+            log.info("Event capture stopped");
+        }
+    }
+
+    public boolean isCapturing() {
+        return captureWriter != null;
+    }
+
+    /**
+     * Adds a listener container created outside the @RabbitListener registry, so it is
+     * stopped on shutdown and steered by the flow controller.
+     *
+     * @param elastic false keeps its consumer count, e.g. for a single ordered consumer
+     */
+    public void registerListenerContainer(MessageListenerContainer container, boolean elastic) {
+        registeredContainers.put(container, elastic);
+    }
+
+    public void unregisterListenerContainer(MessageListenerContainer container) {
+        registeredContainers.remove(container);
+    }
+
+    private List<EventFlowController.ManagedContainer> getManagedContainers() {
+        List<EventFlowController.ManagedContainer> containers = new ArrayList<>();
+        rabbitListenerEndpointRegistry.getListenerContainers().forEach(container ->
+                containers.add(new EventFlowController.ManagedContainer(container, true)));
+        registeredContainers.forEach((container, elastic) ->
+                containers.add(new EventFlowController.ManagedContainer(container, elastic)));
+        return containers;
+    }
+
+    /**
+     * Events accepted but not handled yet: queued in the channel mailboxes plus queued
+     * (fixed pool) or running (virtual threads) general tasks.
+     */
+    private int getPendingWork() {
+        int pending = channelMailboxes.getPendingEventCount();
+        if (eventLanes != null) {
+            // Mailboxes and general tasks waiting for their lane budget
+            pending += eventLanes.getQueuedCount();
+        }
+        if (eventExecutorService instanceof ThreadPoolExecutor pool) {
+            pending += pool.getQueue().size();
+        } else if (eventExecutorService instanceof BoundedVirtualThreadExecutor virtualExecutor) {
+            pending += virtualExecutor.getInFlight();
         }
+        return pending;
     }
 
-    private Event parseEvent(String eventPayload) {
+    @Scheduled(fixedDelayString = "${app.rabbitmq.flow.interval-ms:1000}")
+    public void adjustFlow() {
+        if (flowController == null || shuttingDown.get()) {
+            return;
+        }
         try {
-            Map<String, Object> eventDetails = objectMapper.readValue(eventPayload,
-                    new TypeReference<Map<String, Object>>() {
-                    });
-            return new Event(eventDetails);
-        } catch (JsonProcessingException e) {
-            String errorMessage = String.format(
-                    "JsonProcessingException -> Failed to process message %s", eventPayload);
-            log.error(errorMessage, e);
-            return null;
-        } catch (IllegalArgumentException e) {
-            String errorMessage = String.format(
-                    "Failed to create Event object from message %s", eventPayload);
-            log.error(errorMessage, e);
-            return null;
+            flowController.adjust();
+        } catch (Exception e) {
+            log.error("Event flow adjustment failed", e);
         }
     }
 
-    private void handleChannelEvent(String channelId, EventTask eventTask) {
+    private Event parseEvent(byte[] body, FailureHandler failures) {
         try {
-            if (shuttingDown.get()) {
-                eventTask.nack(); // Reject immediately if shutting down
-                return;
+            return eventParser.parse(body);
+        } catch (JsonProcessingException e) {
+            log.error("JsonProcessingException -> Failed to process message {}", payloadLogger.describe(body), e);
+            if (failures != null) {
+                failures.onFailure(body, null, e);
             }
-
-            // Ensure there's a priority queue for the channel
-            PriorityBlockingQueue<EventTask> channelQueue =
-                    channelEventQueues.computeIfAbsent(
-                            channelId,
-                            k -> new PriorityBlockingQueue<>(CHANNEL_QUEUE_CAPACITY)
-                    );
-            // Add the event to the queue
-            if (!channelQueue.offer(eventTask)) {
-                log.warn("Channel queue full for channel {}, rejecting message", channelId);
-                eventTask.nack();
-                return;
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Failed to create Event object from message {}", payloadLogger.describe(body), e);
+            if (failures != null) {
+                failures.onFailure(body, null, e);
             }
+            return null;
+        }
+    }
+
+    private boolean quarantine(byte[] body, Event event, Exception error) {
+        if (event == null) {
+            return eventQuarantine.quarantine(body, EventQuarantine.Reason.PARSE_FAILED,
+                    null, null, 0, 1, error);
+        }
+        return eventQuarantine.quarantine(body, EventQuarantine.Reason.HANDLER_FAILED,
+                event.getEventType().name(), event.getFreeSwitchNodeId(), event.getEventSequence(), 1, error);
+    }
 
-            // Process the channel events sequentially by sequence number
-            eventExecutorService.submit(() -> processChannelEvent(channelId, channelQueue));
+    private void handleChannelEvent(String channelId, EventTask eventTask) {
+        if (shuttingDown.get()) {
+            eventTask.nack(); // Reject immediately if shutting down
+            return;
+        }
 
-        }  catch (RejectedExecutionException ex) {
-            log.warn("Rejected event task during shutdown");
+        // The mailbox keeps the channel events in order and is drained by a single worker,
+        // with lanes its runs are scheduled on the lane of their events
+        if (!channelMailboxes.submit(channelId, eventTask)) {
+            log.warn("Channel queue full for channel {}, rejecting message", channelId);
             eventTask.nack();
         }
     }
 
+    private void setupLanes() {
+        int capacity = "virtual".equalsIgnoreCase(executorMode) ? virtualMaxInFlight : MAX_EVENT_PROCESSOR_THREADS;
+        eventLanes = new EventLaneScheduler(eventExecutorService, List.of(
+                new EventLaneScheduler.LaneSpec(CONTROL_LANE, controlLaneWeight,
+                        controlLaneMaxConcurrency > 0 ? controlLaneMaxConcurrency : capacity),
+                new EventLaneScheduler.LaneSpec(INFO_LANE, infoLaneWeight,
+                        infoLaneMaxConcurrency > 0 ? infoLaneMaxConcurrency : Math.max(1, capacity / 2))),
+                meterRegistry);
+    }
+
+    private String laneOf(EventType eventType) {
+        return eventHandlerFactory.getRoute(eventType).lane();
+    }
+
+    private String orderingKeyOf(Event event) {
+        return event.getStringParam(eventHandlerFactory.getRoute(event.getEventType()).orderingKey());
+    }
+
     void handleGeneralEvent(EventTask eventTask) {
         try {
             if (shuttingDown.get()) {
                 eventTask.nack(); // Reject immediately if shutting down
                 return;
             }
-            eventExecutorService.submit(eventTask);
+            if (eventLanes != null) {
+                eventLanes.lane(laneOf(eventTask.getEvent().getEventType())).execute(eventTask);
+            } else {
+                // Not wrapped in a future, so a shutdown deadline gets the task back to nack it
+                eventExecutorService.execute(eventTask);
+            }
         } catch (RejectedExecutionException ex) {
             log.warn("Rejected general task during shutdown");
             eventTask.nack();
         }
     }
 
-    private void processChannelEvent(String channelId, PriorityBlockingQueue<EventTask> channelQueue) {
-        try {
-            while (!Thread.currentThread().isInterrupted() && !shuttingDown.get()) {
-                EventTask eventTask = channelQueue.poll(100, TimeUnit.MILLISECONDS);
-                if (eventTask != null) {
-                    eventTask.run();
-                } else if (channelQueue.isEmpty()) {
-                    // Clean up empty queues
-                    channelEventQueues.remove(channelId);
-                    break;
-                }
-            }
+    /**
+     * In virtual mode caps the number of threads inside the AMQP channel at once, the
+     * channel writes under a monitor and every waiter would otherwise pin a carrier.
+     */
+    private void acquireAmqpPermit() throws InterruptedException {
+        if (amqpPermits != null) {
+            amqpPermits.acquire();
+        }
+    }
 
-            // Special handling during shutdown - process any remaining tasks if we're shutting down
-            if (shuttingDown.get()) {
-                EventTask remainingTask;
-                while ((remainingTask = channelQueue.poll()) != null) {
-                    try {
-                        remainingTask.run();
-                    } catch (Exception e) {
-                        log.warn("Failed to process task during shutdown", e);
-                        remainingTask.nack();
-                    }
-                }
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Event processing interrupted for channel {}", channelId, e);
+    private void releaseAmqpPermit() {
+        if (amqpPermits != null) {
+            amqpPermits.release();
         }
     }
 
@@ -287,81 +754,61 @@ public class EventProcessor {
         return channel != null && channel.isOpen();
     }
 
-    private void ackMessage(Message message, Channel channel) {
-        try {
-            if (channel == null || !channel.isOpen()) {
-                log.warn("Channel is not available or closed, cannot ack message");
-                return;
-            }
-
-            long deliveryTag = message.getMessageProperties().getDeliveryTag();
-            channel.basicAck(deliveryTag, false);
-
-            if (log.isTraceEnabled()) {
-                log.trace("Acked message with delivery tag: {}", message);
-            }
+    private void rejectMessage(Message message, AckCoalescer acks) {
+        // Always requeue if we're shutting down
+        boolean requeue = shuttingDown.get();
+        acks.reject(message.getMessageProperties().getDeliveryTag(), requeue);
 
-        } catch (IOException e) {
-            log.error("Failed to ack message with delivery tag: {}",
-                    message.getMessageProperties().getDeliveryTag(), e);
-        } catch (AlreadyClosedException e) {
-            log.warn("Channel already closed while trying to ack message");
-        } catch (Exception e) {
-            log.error("Unexpected error while sending ack message", e);
+        if (log.isTraceEnabled()) {
+            log.trace("Re-queued message during shutdown: {}", message);
         }
     }
 
-    private void rejectMessage(Message message, Channel channel) {
-        try {
-            if (channel == null || !channel.isOpen()) {
-                return;
-            }
-
-            // Always requeue if we're shutting down
-            boolean requeue = shuttingDown.get();
-            channel.basicReject(message.getMessageProperties().getDeliveryTag(), requeue);
+    /**
+     * Drains the channel mailboxes in parallel on the event executor, then the general
+     * tasks, against a single deadline. Events still waiting at the deadline are nacked,
+     * requeued as the processor is shutting down, so the next instance picks them up
+     * instead of waiting for the broker to notice the closed channels.
+     */
+    private void drainPendingEvents(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        MailboxScheduler.DrainReport report = channelMailboxes.drain(timeout);
+        if (report.complete()) {
+            log.info("All channel queues drained: {} events in {} ms", report.drained(), report.durationMs());
+        } else {
+            log.warn("Channel queue drain deadline reached after {} ms: {} events drained, {} nacked from {} channels",
+                    report.durationMs(), report.drained(), report.nacked(), report.abandonedMailboxes());
+        }
 
-            if (log.isTraceEnabled()) {
-                log.trace("Re-queued message during shutdown: {}", message);
-            }
-        } catch (IOException ioEx) {
-            log.error("Failed to reject message", ioEx);
+        int nacked = 0;
+        eventExecutorService.shutdown();
+        long remainingNanos = Math.max(deadline - System.nanoTime(), TimeUnit.SECONDS.toNanos(1));
+        if (!eventExecutorService.awaitTermination(remainingNanos, TimeUnit.NANOSECONDS)) {
+            log.warn("Event Executor did not terminate in time, forcing shutdown...");
+            nacked += nackUnstarted(eventExecutorService.shutdownNow());
+        }
+        if (eventLanes != null) {
+            // Lane tasks still waiting for a budget nobody will free any more
+            nacked += nackUnstarted(eventLanes.drainQueued());
+        }
+        if (nacked > 0) {
+            log.warn("Nacked {} general events not started before the drain deadline", nacked);
         }
     }
 
-    private void drainChannelQueues(Duration timeout) {
-        long start = System.currentTimeMillis();
-        long maxTime = timeout.toMillis();
-
-        while (System.currentTimeMillis() - start < maxTime) {
-            boolean allQueuesEmpty = true;
-
-            for (Map.Entry<String, PriorityBlockingQueue<EventTask>> entry : channelEventQueues.entrySet()) {
-                PriorityBlockingQueue<EventTask> queue = entry.getValue();
-                EventTask task;
-                while ((task = queue.poll()) != null) {
-                    try {
-                        task.run();
-                    } catch (Exception e) {
-                        log.warn("Error running remaining task on shutdown", e);
-                    }
-                }
-                if (!queue.isEmpty()) {
-                    allQueuesEmpty = false;
-                }
-            }
-
-            if (allQueuesEmpty) {
-                log.info("All channel queues drained.");
-                return;
-            }
-
-            if (ThreadUtils.safeSleep(100, "event processor - drainChannelQueues")) {
-                break;
+    /**
+     * Nacks the event tasks among tasks that never ran, the mailboxes among them were
+     * already emptied by the drain.
+     */
+    private int nackUnstarted(List<Runnable> unstarted) {
+        int nacked = 0;
+        for (Runnable task : unstarted) {
+            if (task instanceof EventTask eventTask) {
+                eventTask.nack();
+                nacked++;
             }
         }
-
-        log.warn("Timeout reached while draining queues. Some events may remain.");
+        return nacked;
     }
 
     @Scheduled(fixedDelay = 60000)
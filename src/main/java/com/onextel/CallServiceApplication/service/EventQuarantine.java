@@ -0,0 +1,288 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.onextel.CallServiceApplication.common.JsonUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Append-only store of the event deliveries that failed, so they are settled instead of
+ * being dropped or redelivered in a loop.
+ * <p>
+ * Each failed delivery is one JSON line of {@code events.jsonl} in the quarantine
+ * directory, with the failure reason, the event type when the payload could be parsed,
+ * the exception and the raw body (base64, it may not even be valid UTF-8). Ids of the
+ * records re-injected with the {@link EventQuarantineReplayer} are appended to
+ * {@code replayed.ids} and hidden from listings by default, a failing replay is
+ * quarantined again as a new record with one more attempt.
+ * <p>
+ * Records past the size limit are dropped and counted, the files are never rewritten.
+ * A live delivery that could not be quarantined is rejected without requeue, it would
+ * only fail again on redelivery.
+ * Disabled with {@code app.events.quarantine.enabled=false}, failed deliveries are then
+ * rejected or nacked with requeue as before.
+ * <p>
+ * Metrics:
+ *   - events.quarantine.records  failed deliveries quarantined, tagged by reason
+ *   - events.quarantine.dropped  failed deliveries not quarantined (size limit or I/O failure), lost
+ */
+@Service
+@Slf4j
+public class EventQuarantine {
+    static final String RECORDS_FILE = "events.jsonl";
+    static final String REPLAYED_FILE = "replayed.ids";
+
+    public enum Reason {
+        // Payload is not a valid event, redelivery cannot fix it
+        PARSE_FAILED,
+        // Event handler threw
+        HANDLER_FAILED
+    }
+
+    /**
+     * Quarantined delivery.
+     *
+     * @param payload raw body in base64, null in listings without payloads
+     */
+    public record QuarantinedEvent(String id, long quarantinedAt, Reason reason, String eventType,
+                                   String nodeId, int eventSequence, int attempts, String error, String payload) {
+
+        public QuarantinedEvent withoutPayload() {
+            return new QuarantinedEvent(id, quarantinedAt, reason, eventType, nodeId, eventSequence,
+                    attempts, error, null);
+        }
+
+        public byte[] body() {
+            return payload == null ? new byte[0] : Base64.getDecoder().decode(payload);
+        }
+    }
+
+    @Value("${app.events.quarantine.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.events.quarantine.directory:quarantine}")
+    private String directoryName;
+
+    @Value("${app.events.quarantine.max-mb:256}")
+    private long maxMb;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<String> replayedIds = new HashSet<>();
+    private final AtomicLong idSequence = new AtomicLong();
+    private Path directory;
+    private long maxBytes;
+    private BufferedWriter recordWriter;
+    private BufferedWriter replayedWriter;
+    private long size;
+    // Disabled, closed, or failed to open
+    private volatile boolean closed = true;
+
+    private final Counter parseFailedCounter;
+    private final Counter handlerFailedCounter;
+    private final Counter droppedCounter;
+
+    public EventQuarantine(MeterRegistry meterRegistry) {
+        this.parseFailedCounter = Counter.builder("events.quarantine.records")
+                .tag("reason", Reason.PARSE_FAILED.name())
+                .description("Failed event deliveries quarantined")
+                .register(meterRegistry);
+        this.handlerFailedCounter = Counter.builder("events.quarantine.records")
+                .tag("reason", Reason.HANDLER_FAILED.name())
+                .description("Failed event deliveries quarantined")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("events.quarantine.dropped")
+                .description("Failed event deliveries that could not be quarantined")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void setup() {
+        if (!enabled) {
+            return;
+        }
+        directory = Path.of(directoryName);
+        maxBytes = maxMb * 1024 * 1024;
+        try {
+            open();
+            closed = false;
+        } catch (IOException e) {
+            log.error("Failed to open the event quarantine in {}, failed events are requeued", directory, e);
+        }
+    }
+
+    /**
+     * @return false if failed deliveries are not quarantined, they are then rejected or requeued
+     */
+    public boolean isEnabled() {
+        return !closed;
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        Path records = directory.resolve(RECORDS_FILE);
+        Path replayed = directory.resolve(REPLAYED_FILE);
+        if (Files.exists(records)) {
+            size = Files.size(records);
+        }
+        if (Files.exists(replayed)) {
+            for (String id : Files.readAllLines(replayed, StandardCharsets.UTF_8)) {
+                if (!id.isBlank()) {
+                    replayedIds.add(id.trim());
+                }
+            }
+        }
+        this.recordWriter = Files.newBufferedWriter(records, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.replayedWriter = Files.newBufferedWriter(replayed, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        log.info("Event quarantine in {}, {} bytes of records, {} replayed", directory, size, replayedIds.size());
+    }
+
+    /**
+     * @param eventType event type, null if the payload could not be parsed
+     * @param nodeId    Core-UUID of the FreeSWITCH node, may be null
+     * @param attempts  deliveries of the payload so far, 1 for a live event
+     * @return false if the delivery was not quarantined
+     */
+    public boolean quarantine(byte[] body, Reason reason, String eventType, String nodeId, int eventSequence,
+                              int attempts, Exception error) {
+        long now = System.currentTimeMillis();
+        QuarantinedEvent record = new QuarantinedEvent(now + "-" + idSequence.incrementAndGet(), now, reason,
+                eventType, nodeId, eventSequence, attempts, describe(error),
+                Base64.getEncoder().encodeToString(body));
+        String line;
+        try {
+            line = JsonUtil.serialize(record);
+        } catch (JsonProcessingException e) {
+            droppedCounter.increment();
+            return false;
+        }
+        int lineBytes = line.length() + 1; // chars, the body is base64 and most of the rest ASCII
+        lock.lock();
+        try {
+            if (closed || size + lineBytes > maxBytes) {
+                droppedCounter.increment();
+                log.warn("Event quarantine {}, dropping {} event {}", closed ? "closed" : "full", reason, eventType);
+                return false;
+            }
+            recordWriter.write(line);
+            recordWriter.newLine();
+            recordWriter.flush();
+            size += lineBytes;
+        } catch (IOException e) {
+            log.error("Failed to quarantine {} event {} in {}", reason, eventType, directory, e);
+            droppedCounter.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        (reason == Reason.PARSE_FAILED ? parseFailedCounter : handlerFailedCounter).increment();
+        return true;
+    }
+
+    /**
+     * Reads the quarantined deliveries in quarantine order.
+     *
+     * @param filter          records to return
+     * @param includeReplayed also return the records already re-injected
+     * @param limit           maximum records returned
+     */
+    public List<QuarantinedEvent> list(Predicate<QuarantinedEvent> filter, boolean includeReplayed, int limit)
+            throws IOException {
+        if (directory == null) {
+            return List.of();
+        }
+        List<QuarantinedEvent> records = new ArrayList<>();
+        Set<String> replayed;
+        lock.lock();
+        try {
+            replayed = Set.copyOf(replayedIds);
+        } finally {
+            lock.unlock();
+        }
+        // Lines are flushed whole under the lock, a reader only sees complete records
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve(RECORDS_FILE), StandardCharsets.UTF_8)) {
+            String line;
+            while (records.size() < limit && (line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                QuarantinedEvent record;
+                try {
+                    record = JsonUtil.deserialize(line, QuarantinedEvent.class);
+                } catch (JsonProcessingException e) {
+                    continue;
+                }
+                if ((includeReplayed || !replayed.contains(record.id())) && filter.test(record)) {
+                    records.add(record);
+                }
+            }
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Records that the delivery was re-injected, it is hidden from the default listings.
+     */
+    public void markReplayed(String id) {
+        lock.lock();
+        try {
+            if (closed || !replayedIds.add(id)) {
+                return;
+            }
+            replayedWriter.write(id);
+            replayedWriter.newLine();
+            replayedWriter.flush();
+        } catch (IOException e) {
+            log.warn("Failed to mark quarantined event {} as replayed", id, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            recordWriter.close();
+            replayedWriter.close();
+        } catch (IOException e) {
+            log.warn("Failed to close event quarantine {}", directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String describe(Exception error) {
+        if (error == null) {
+            return null;
+        }
+        return error.getMessage() == null
+                ? error.getClass().getName()
+                : error.getClass().getName() + ": " + error.getMessage();
+    }
+}
@@ -0,0 +1,172 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.service.EventQuarantine.QuarantinedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Re-injects quarantined events (see {@link EventQuarantine}) in bulk through the parse
+ * and dispatch path of the {@link EventProcessor}, at a bounded rate so a large
+ * quarantine does not starve the live events.
+ * <p>
+ * Replayed events bypass the dedup filter, their live delivery was recorded as
+ * handled when it was quarantined. Every record settled is marked replayed, an event
+ * failing again is quarantined as a new record with one more attempt.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EventQuarantineReplayer {
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Value("${app.events.quarantine.replay.max-in-flight:100}")
+    private int maxInFlight;
+
+    @Value("${app.events.quarantine.replay.drain-timeout-seconds:60}")
+    private long drainTimeoutSeconds;
+
+    private final EventProcessor eventProcessor;
+    private final EventQuarantine eventQuarantine;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile ReplayReport lastReport;
+
+    /**
+     * @param requarantined events whose handler failed again, quarantined as new records
+     * @param refused       events nacked by the processor (queue full, shutting down)
+     */
+    public record ReplayReport(long matched, long replayed, long requarantined, long refused, long invalid,
+                               long unsettled, long durationMs) {
+    }
+
+    /**
+     * Starts re-injecting the quarantined events matching the filter, oldest first, on
+     * its own thread.
+     *
+     * @param ratePerSecond events dispatched per second at most
+     * @param limit         events re-injected at most
+     * @throws IllegalStateException if a replay is running or the quarantine is disabled
+     */
+    public CompletableFuture<ReplayReport> replayAsync(Predicate<QuarantinedEvent> filter,
+                                                       double ratePerSecond, int limit) {
+        if (!(ratePerSecond > 0) || limit <= 0) {
+            throw new IllegalArgumentException("Rate and limit must be positive");
+        }
+        if (!eventQuarantine.isEnabled()) {
+            throw new IllegalStateException("The event quarantine is disabled");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A quarantine replay is already running");
+        }
+        CompletableFuture<ReplayReport> result = new CompletableFuture<>();
+        Thread.ofPlatform().name("event-quarantine-replay").daemon().start(() -> {
+            try {
+                result.complete(run(filter, ratePerSecond, limit));
+            } catch (Exception e) {
+                log.error("Quarantine replay failed", e);
+                result.completeExceptionally(e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return result;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ReplayReport getLastReport() {
+        return lastReport;
+    }
+
+    private ReplayReport run(Predicate<QuarantinedEvent> filter, double ratePerSecond, int limit)
+            throws IOException {
+        List<QuarantinedEvent> records = eventQuarantine.list(filter, false, limit);
+        log.warn("Re-injecting {} quarantined events at {}/s", records.size(), ratePerSecond);
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        AtomicLong inFlight = new AtomicLong();
+        LongAdder settledOk = new LongAdder();
+        LongAdder requarantined = new LongAdder();
+        LongAdder refused = new LongAdder();
+        long invalid = 0;
+        long start = System.nanoTime();
+        long due = start;
+
+        for (QuarantinedEvent record : records) {
+            parkUntil(due);
+            due += intervalNanos;
+            while (inFlight.get() >= maxInFlight && !eventProcessor.isShuttingDown()) {
+                LockSupport.parkNanos(DRAIN_POLL_NANOS / 10);
+            }
+            if (eventProcessor.isShuttingDown()) {
+                break;
+            }
+
+            int attempts = record.attempts() + 1;
+            EventProcessor.FailureHandler requarantine = (body, event, error) -> {
+                if (event == null) {
+                    return eventQuarantine.quarantine(body, EventQuarantine.Reason.PARSE_FAILED,
+                            null, null, 0, attempts, error);
+                }
+                boolean quarantined = eventQuarantine.quarantine(body, EventQuarantine.Reason.HANDLER_FAILED,
+                        event.getEventType().name(), event.getFreeSwitchNodeId(), event.getEventSequence(),
+                        attempts, error);
+                if (quarantined) {
+                    requarantined.increment();
+                }
+                return quarantined;
+            };
+
+            String id = record.id();
+            inFlight.incrementAndGet();
+            boolean accepted = eventProcessor.dispatchPayload(record.body(), false, requarantine,
+                    event -> ok -> {
+                        // A failed handler quarantined again is settled ok as well, a refused
+                        // event stays unreplayed so the next replay picks it up
+                        if (ok) {
+                            settledOk.increment();
+                            eventQuarantine.markReplayed(id);
+                        } else {
+                            refused.increment();
+                        }
+                        inFlight.decrementAndGet();
+                    });
+            if (!accepted) {
+                invalid++;
+                inFlight.decrementAndGet();
+                eventQuarantine.markReplayed(id);
+            }
+        }
+
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(DRAIN_POLL_NANOS);
+        }
+        ReplayReport report = new ReplayReport(records.size(), settledOk.sum() - requarantined.sum(),
+                requarantined.sum(), refused.sum(), invalid, inFlight.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastReport = report;
+        log.warn("Quarantine replay done: {}", report);
+        return report;
+    }
+
+    private static void parkUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
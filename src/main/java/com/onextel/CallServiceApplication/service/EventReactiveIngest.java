@@ -0,0 +1,251 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.common.ThreadUtils;
+import com.onextel.CallServiceApplication.config.RabbitConfig;
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventHandlerFactory;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.rabbitmq.AcknowledgableDelivery;
+import reactor.rabbitmq.ConsumeOptions;
+import reactor.rabbitmq.RabbitFlux;
+import reactor.rabbitmq.Receiver;
+import reactor.rabbitmq.ReceiverOptions;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reactive ingest backend, enabled with {@code app.events.ingest=reactive}.
+ * <p>
+ * Consumes freeswitchQueue with reactor-rabbitmq instead of the @RabbitListener of the
+ * {@link EventProcessor}:
+ * <pre>
+ *   consumeManualAck(qos prefetch) -> parse -> groupBy(lane of Channel-Call-UUID)
+ *       -> concatMap(handler on the handler scheduler) -> ack
+ * </pre>
+ * Demand is bounded at every stage: the broker pushes at most prefetch unacked
+ * deliveries, limitRate and the group buffers request no more than that, and each lane
+ * handles one event at a time. A slow handler (e.g. waiting on Redis) therefore holds
+ * its deliveries unacked and the broker stops sending, instead of work piling up in
+ * executor queues.
+ * <p>
+ * Channels are hashed into a fixed number of lanes rather than one group per channel
+ * UUID: groupBy needs its groups to complete to stay live, and the channels of a call
+ * never end while it is up. Events of a channel share a lane, so they stay in order.
+ * Events without a channel are spread by delivery tag.
+ * <p>
+ * The reorder buffer, dedup filter and flow controller of the EventProcessor path are
+ * not part of this pipeline.
+ * <p>
+ * Metrics:
+ *   - events.reactive.inflight  deliveries received and not settled
+ *   - events.reactive.handled   events handled and acked
+ *   - events.reactive.failed    events whose handler failed, quarantined and acked (nacked with
+ *                               requeue if the {@link EventQuarantine} is disabled)
+ *   - events.reactive.invalid   payloads that could not be parsed, quarantined and rejected
+ */
+@Service
+@Slf4j
+public class EventReactiveIngest {
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(20);
+
+    @Value("#{'${app.events.ingest:amqp}' == 'reactive'}")
+    private boolean enabled;
+
+    @Value("${app.events.topology:single}")
+    private String topology;
+
+    @Value("${app.events.reactive.prefetch:" + RabbitConfig.EVENT_PREFETCH_COUNT * RabbitConfig.EVENT_CONCURRENT_CONSUMERS + "}")
+    private int prefetch;
+
+    @Value("${app.events.reactive.lanes:64}")
+    private int lanes;
+
+    @Value("${app.events.reactive.handler-threads:50}")
+    private int handlerThreads;
+
+    private final EventParser eventParser;
+    private final EventHandlerFactory eventHandlerFactory;
+    private final ConnectionFactory connectionFactory;
+    private final RabbitAdmin rabbitAdmin;
+    private final EventQuarantine eventQuarantine;
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Receiver receiver;
+    private Scheduler handlerScheduler;
+    private Disposable subscription;
+
+    private final Counter handledCounter;
+    private final Counter failedCounter;
+    private final Counter invalidCounter;
+
+    private record LaneEvent(AcknowledgableDelivery delivery, Event event, int lane) {
+    }
+
+    public EventReactiveIngest(EventParser eventParser,
+                               EventHandlerFactory eventHandlerFactory,
+                               ConnectionFactory connectionFactory,
+                               RabbitAdmin rabbitAdmin,
+                               EventQuarantine eventQuarantine,
+                               MeterRegistry meterRegistry) {
+        this.eventParser = eventParser;
+        this.eventHandlerFactory = eventHandlerFactory;
+        this.connectionFactory = connectionFactory;
+        this.rabbitAdmin = rabbitAdmin;
+        this.eventQuarantine = eventQuarantine;
+
+        Gauge.builder("events.reactive.inflight", inFlight, AtomicInteger::get)
+                .description("Reactive deliveries received and not settled")
+                .register(meterRegistry);
+        this.handledCounter = Counter.builder("events.reactive.handled")
+                .description("Reactive events handled and acked")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("events.reactive.failed")
+                .description("Reactive events whose handler failed")
+                .register(meterRegistry);
+        this.invalidCounter = Counter.builder("events.reactive.invalid")
+                .description("Reactive payloads that could not be parsed")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || subscription != null) {
+            return;
+        }
+        if (!"single".equalsIgnoreCase(topology)) {
+            throw new IllegalStateException(
+                    "app.events.topology=" + topology + " is only supported with app.events.ingest=amqp");
+        }
+        // The receiver has its own connection, make sure the queue exists before consuming
+        rabbitAdmin.initialize();
+
+        com.rabbitmq.client.ConnectionFactory rabbitConnectionFactory =
+                ((CachingConnectionFactory) connectionFactory).getRabbitConnectionFactory();
+        receiver = RabbitFlux.createReceiver(new ReceiverOptions()
+                .connectionFactory(rabbitConnectionFactory)
+                .connectionSupplier(cf -> cf.newConnection("call-service-reactive-events"))
+                .connectionSubscriptionScheduler(Schedulers.boundedElastic()));
+        handlerScheduler = Schedulers.newBoundedElastic(handlerThreads, Integer.MAX_VALUE, "reactive-events");
+
+        subscription = receiver.consumeManualAck(RabbitConfig.EVENT_QUEUE_NAME, new ConsumeOptions().qos(prefetch))
+                .limitRate(prefetch)
+                .doOnNext(delivery -> inFlight.incrementAndGet())
+                .<LaneEvent>handle((delivery, sink) -> {
+                    LaneEvent laneEvent = parse(delivery);
+                    if (laneEvent != null) {
+                        sink.next(laneEvent);
+                    }
+                })
+                .groupBy(LaneEvent::lane, prefetch)
+                .flatMap(lane -> lane.concatMap(this::handle, 1), lanes)
+                .subscribe(
+                        ignored -> {
+                        },
+                        error -> log.error("Reactive event pipeline terminated", error));
+        log.info("Consuming events from {} with the reactive pipeline, prefetch {}, {} lanes, {} handler threads",
+                RabbitConfig.EVENT_QUEUE_NAME, prefetch, lanes, handlerThreads);
+    }
+
+    /**
+     * Stops handling new deliveries, waits for the running handlers and closes the
+     * consumer. Deliveries not handled are nacked or left unacked, either way redelivered.
+     */
+    public synchronized void shutdown() {
+        if (subscription == null) {
+            return;
+        }
+        draining.set(true);
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            ThreadUtils.safeSleep(50, "Reactive event ingest waiting for running handlers");
+        }
+        if (inFlight.get() > 0) {
+            log.warn("{} reactive deliveries still in flight, they will be redelivered", inFlight.get());
+        }
+        subscription.dispose();
+        receiver.close();
+        handlerScheduler.disposeGracefully().block(Duration.ofSeconds(5));
+        log.info("Reactive event ingest stopped");
+    }
+
+    private LaneEvent parse(AcknowledgableDelivery delivery) {
+        try {
+            Event event = eventParser.parse(delivery.getBody());
+            String channelUuid = event.getStringParam(EventParams.CHANNEL_CALL_UUID);
+            int lane = channelUuid != null
+                    ? Math.floorMod(channelUuid.hashCode(), lanes)
+                    : (int) Math.floorMod(delivery.getEnvelope().getDeliveryTag(), (long) lanes);
+            return new LaneEvent(delivery, event, lane);
+        } catch (Exception e) {
+            log.error("Invalid event payload, rejecting it", e);
+            invalidCounter.increment();
+            if (eventQuarantine.isEnabled()) {
+                eventQuarantine.quarantine(delivery.getBody(), EventQuarantine.Reason.PARSE_FAILED,
+                        null, null, 0, 1, e);
+            }
+            settle(delivery, () -> delivery.nack(false));
+            return null;
+        }
+    }
+
+    private Mono<Void> handle(LaneEvent laneEvent) {
+        AcknowledgableDelivery delivery = laneEvent.delivery();
+        if (draining.get()) {
+            settle(delivery, () -> delivery.nack(true));
+            return Mono.empty();
+        }
+        Event event = laneEvent.event();
+        return Mono.fromRunnable(() -> eventHandlerFactory.getEventHandler(event.getEventType()).handleEvent(event))
+                .subscribeOn(handlerScheduler)
+                .then(Mono.fromRunnable(() -> {
+                    handledCounter.increment();
+                    settle(delivery, delivery::ack);
+                }))
+                .onErrorResume(e -> {
+                    log.error("Failed to handle event {}", event.getEventType(), e);
+                    failedCounter.increment();
+                    if (!eventQuarantine.isEnabled()) {
+                        settle(delivery, () -> delivery.nack(true));
+                        return Mono.empty();
+                    }
+                    boolean quarantined = eventQuarantine.quarantine(
+                            delivery.getBody(), EventQuarantine.Reason.HANDLER_FAILED, event.getEventType().name(),
+                            event.getFreeSwitchNodeId(), event.getEventSequence(), 1,
+                            e instanceof Exception exception ? exception : new RuntimeException(e));
+                    // Not quarantined, it is dropped (counted by the quarantine) instead of failing again
+                    settle(delivery, quarantined ? delivery::ack : () -> delivery.nack(false));
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void settle(AcknowledgableDelivery delivery, Runnable settlement) {
+        try {
+            settlement.run();
+        } catch (Exception e) {
+            // Channel closed, the broker redelivers
+            log.warn("Failed to settle delivery {}", delivery.getEnvelope().getDeliveryTag(), e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.model.CallState;
+import com.onextel.CallServiceApplication.service.event.EventCaptureReader;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds an event capture (see {@link com.onextel.CallServiceApplication.service.event.EventCaptureWriter})
+ * back through the parse and dispatch path of the {@link EventProcessor}, in process and
+ * without a broker, as a repeatable load test of the handlers.
+ * <p>
+ * Events are dispatched at their captured pace scaled by the speed (1x, 10x, ...) or as
+ * fast as the handlers settle them (max), never more than max-in-flight at a time. The
+ * dedup filter is bypassed so the same capture can be replayed again. The handlers run
+ * against the real call state, replay on a test instance only.
+ * <p>
+ * The capture and replay endpoints are off unless app.events.capture.replay.enabled is
+ * set, and a replay only reads captures under the capture directory.
+ * <p>
+ * The report gives the throughput, the dispatch to settle latency percentiles per event
+ * type and the call counts left once every event settled.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EventReplayer {
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    @Value("${app.events.capture.replay.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.events.capture.directory:capture}")
+    private String captureDirectory;
+
+    @Value("${app.events.capture.replay.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${app.events.capture.replay.drain-timeout-seconds:60}")
+    private long drainTimeoutSeconds;
+
+    private final EventProcessor eventProcessor;
+    private final CallManager callManager;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile ReplayReport lastReport;
+
+    public record TypeLatency(long count, double p50Micros, double p90Micros, double p99Micros, long maxMicros) {
+    }
+
+    public record ReplayReport(String path, String speed, long events, long invalid, long failed, long unsettled,
+                               long durationMs, double eventsPerSecond, Map<String, TypeLatency> latencies,
+                               int activeCalls, Map<CallState, Long> callStates) {
+    }
+
+    /**
+     * Whether the capture and replay endpoints are enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a replay on its own thread.
+     *
+     * @param capture segment or directory, relative to the capture directory
+     * @param speed   time scale of the capture, 0 for max speed
+     * @throws IllegalStateException    if replay is disabled or a replay is running
+     * @throws IllegalArgumentException if the capture does not exist or is outside the
+     *                                  capture directory
+     */
+    public CompletableFuture<ReplayReport> replayAsync(String capture, double speed) {
+        if (!enabled) {
+            throw new IllegalStateException("Event replay is disabled");
+        }
+        Path path = resolveCapture(capture);
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("An event replay is already running");
+        }
+        CompletableFuture<ReplayReport> result = new CompletableFuture<>();
+        Thread.ofPlatform().name("event-replay").daemon().start(() -> {
+            try {
+                result.complete(run(path, speed));
+            } catch (Exception e) {
+                log.error("Event replay of {} failed", path, e);
+                result.completeExceptionally(e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return result;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ReplayReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Resolves the capture under the capture directory, following links, so a path
+     * cannot name a file outside it.
+     */
+    Path resolveCapture(String capture) {
+        try {
+            Path directory = Path.of(captureDirectory).toRealPath();
+            Path path = directory.resolve(capture).normalize();
+            if (!path.startsWith(directory) || !Files.exists(path)) {
+                throw new IllegalArgumentException("No event capture " + capture + " in " + directory);
+            }
+            Path realPath = path.toRealPath();
+            if (!realPath.startsWith(directory)) {
+                throw new IllegalArgumentException("No event capture " + capture + " in " + directory);
+            }
+            return realPath;
+        } catch (IOException | InvalidPathException e) {
+            throw new IllegalArgumentException("No event capture " + capture + " in " + captureDirectory, e);
+        }
+    }
+
+    /**
+     * Parses 1x, 10x, 2.5 or max.
+     *
+     * @return the speed, 0 for max
+     */
+    public static double parseSpeed(String value) {
+        String speed = value.trim().toLowerCase();
+        if ("max".equals(speed)) {
+            return 0;
+        }
+        if (speed.endsWith("x")) {
+            speed = speed.substring(0, speed.length() - 1);
+        }
+        try {
+            double parsed = Double.parseDouble(speed);
+            if (parsed > 0 && Double.isFinite(parsed)) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid replay speed: " + value);
+    }
+
+    private ReplayReport run(Path path, double speed) throws IOException {
+        String speedLabel = speed == 0 ? "max" : speed + "x";
+        log.warn("Replaying event capture {} at {}", path, speedLabel);
+
+        // Own registry, the replay latencies must not mix with the live event metrics
+        SimpleMeterRegistry replayRegistry = new SimpleMeterRegistry();
+        Map<String, Timer> latencies = new ConcurrentHashMap<>();
+        AtomicLong inFlight = new AtomicLong();
+        LongAdder failed = new LongAdder();
+        long[] invalid = {0};
+        long[] firstMicros = {-1};
+        long start = System.nanoTime();
+
+        long events = EventCaptureReader.read(path, (receivedAtMicros, body) -> {
+            if (speed > 0) {
+                if (firstMicros[0] < 0) {
+                    firstMicros[0] = receivedAtMicros;
+                }
+                long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(receivedAtMicros - firstMicros[0]) / speed);
+                parkUntil(due);
+            }
+            while (inFlight.get() >= maxInFlight && !eventProcessor.isShuttingDown()) {
+                LockSupport.parkNanos(DRAIN_POLL_NANOS / 10);
+            }
+            if (eventProcessor.isShuttingDown()) {
+                return false;
+            }
+
+            long dispatchedAt = System.nanoTime();
+            inFlight.incrementAndGet();
+            boolean accepted = eventProcessor.dispatchPayload(body, false, event -> ok -> {
+                latencies.computeIfAbsent(event.getEventType().name(), type -> Timer.builder("events.replay.latency")
+                                .tag("type", type)
+                                .publishPercentiles(PERCENTILES)
+                                // Percentiles over the whole replay, not a decaying window
+                                .distributionStatisticExpiry(Duration.ofDays(1))
+                                .distributionStatisticBufferLength(1)
+                                .register(replayRegistry))
+                        .record(System.nanoTime() - dispatchedAt, TimeUnit.NANOSECONDS);
+                if (!ok) {
+                    failed.increment();
+                }
+                inFlight.decrementAndGet();
+            });
+            if (!accepted) {
+                invalid[0]++;
+                inFlight.decrementAndGet();
+            }
+            return true;
+        });
+
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(DRAIN_POLL_NANOS);
+        }
+        long durationNanos = System.nanoTime() - start;
+
+        Map<String, TypeLatency> typeLatencies = new TreeMap<>();
+        latencies.forEach((type, timer) -> {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            ValueAtPercentile[] percentiles = snapshot.percentileValues();
+            typeLatencies.put(type, new TypeLatency(snapshot.count(),
+                    percentiles[0].value(TimeUnit.MICROSECONDS),
+                    percentiles[1].value(TimeUnit.MICROSECONDS),
+                    percentiles[2].value(TimeUnit.MICROSECONDS),
+                    (long) snapshot.max(TimeUnit.MICROSECONDS)));
+        });
+        replayRegistry.close();
+        double seconds = durationNanos / 1e9;
+        ReplayReport report = new ReplayReport(path.toString(), speedLabel, events, invalid[0],
+                failed.sum(), inFlight.get(), TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                seconds > 0 ? events / seconds : 0, typeLatencies,
+                callManager.getActiveCalls().size(), callManager.getCallStateStatistics());
+        lastReport = report;
+        log.warn("Event replay of {} done: {} events in {} ms ({} events/s), {} invalid, {} failed, {} unsettled",
+                path, events, report.durationMs(), Math.round(report.eventsPerSecond()),
+                report.invalid(), report.failed(), report.unsettled());
+        return report;
+    }
+
+    private static void parkUntil(long deadlineNanos) {
+        long wait;
+        while ((wait = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
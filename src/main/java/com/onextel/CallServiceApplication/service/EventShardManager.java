@@ -0,0 +1,373 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.common.startup.AppInstanceIdProvider;
+import com.onextel.CallServiceApplication.config.RabbitConfig;
+import com.onextel.CallServiceApplication.service.redis.RedisCallStateManager;
+import com.onextel.CallServiceApplication.service.redis.RedisEventShardLeases;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Claims event shard queues through Redis leases and consumes the claimed ones
+ * (sharded topology, {@code app.events.topology=sharded}, see
+ * {@link com.onextel.CallServiceApplication.config.EventShardConfig}).
+ * <p>
+ * Every rebalance the manager renews its leases, stops consuming shards whose lease
+ * was lost, and evens out the shards over the live instances: an instance gives back
+ * one shard per round while it holds more than its share (shard count divided by the
+ * instances in the heartbeat set, rounded up) and claims free shards while below it.
+ * A shard left free for two rounds is claimed by anyone, so shards of a dead instance
+ * are picked up as soon as its leases expire, even before it drops out of the
+ * heartbeat set.
+ * <p>
+ * Rebalancing runs on a thread of the manager rather than on the shared Spring
+ * scheduler: draining a shard can take up to the drain timeout, which must not hold
+ * back the instance heartbeat or the orphan scan, and those must not hold back the
+ * lease renewal past the lease TTL.
+ * <p>
+ * Each claimed shard gets its own listener container with a single consumer by
+ * default, which keeps the broker delivery order of the shard. Before a shard is given
+ * back or after its lease was lost, its listener stops dispatching and the events
+ * already dispatched are allowed to finish and their acks are flushed, so the new owner
+ * does not handle them a second time. Only the deliveries left undispatched, or still
+ * running at the drain timeout, are redelivered to the new owner, which adopts the
+ * calls from Redis on their first event (see {@link CallManager#getCallByChannel}).
+ * <p>
+ * Metrics:
+ *   - events.shards.owned     shards consumed by this instance
+ *   - events.shards.acquired  leases acquired
+ *   - events.shards.released  leases given back for rebalancing or shutdown
+ *   - events.shards.lost      leases expired or taken over by another instance
+ */
+@Service
+@Slf4j
+public class EventShardManager {
+    private static final String ENDPOINT_ID_PREFIX = "event-shard-";
+
+    @Value("#{'${app.events.topology:single}' == 'sharded'}")
+    private boolean enabled;
+
+    @Value("${app.events.shards.count:16}")
+    private int shardCount;
+
+    @Value("${app.events.shards.lease-ttl-ms:15000}")
+    private long leaseTtlMs;
+
+    // More than one consumer per shard trades the shard delivery order for throughput
+    @Value("${app.events.shards.consumers:1}")
+    private int consumersPerShard;
+
+    // Max wait for the dispatched events of a shard before its consumer is stopped
+    @Value("${app.events.shards.drain-timeout-ms:5000}")
+    private long drainTimeoutMs;
+
+    @Value("${app.events.shards.rebalance-ms:5000}")
+    private long rebalanceMs;
+
+    private final RedisEventShardLeases leases;
+    private final RedisCallStateManager redisManager;
+    private final SimpleRabbitListenerContainerFactory listenerContainerFactory;
+    private final EventProcessor eventProcessor;
+    private final String instanceId;
+
+    private final Map<Integer, OwnedShard> ownedShards = new ConcurrentHashMap<>();
+    // Shard -> consecutive rounds it was seen without owner
+    private final Map<Integer, Integer> freeRounds = new HashMap<>();
+    // Shard -> time it was given back, not claimed again by this instance for one lease TTL
+    private final Map<Integer, Long> releasedAt = new HashMap<>();
+    private volatile boolean stopped;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "event-shard-rebalancer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter acquiredCounter;
+    private final Counter releasedCounter;
+    private final Counter lostCounter;
+
+    public EventShardManager(RedisEventShardLeases leases,
+                             RedisCallStateManager redisManager,
+                             SimpleRabbitListenerContainerFactory listenerContainerFactory,
+                             EventProcessor eventProcessor,
+                             AppInstanceIdProvider appInstanceIdProvider,
+                             MeterRegistry meterRegistry) {
+        this.leases = leases;
+        this.redisManager = redisManager;
+        this.listenerContainerFactory = listenerContainerFactory;
+        this.eventProcessor = eventProcessor;
+        this.instanceId = appInstanceIdProvider.getAppInstanceId();
+
+        Gauge.builder("events.shards.owned", ownedShards, Map::size)
+                .description("Event shards consumed by this instance")
+                .register(meterRegistry);
+        this.acquiredCounter = Counter.builder("events.shards.acquired")
+                .description("Event shard leases acquired")
+                .register(meterRegistry);
+        this.releasedCounter = Counter.builder("events.shards.released")
+                .description("Event shard leases given back")
+                .register(meterRegistry);
+        this.lostCounter = Counter.builder("events.shards.lost")
+                .description("Event shard leases lost to expiry or another instance")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            scheduler.shutdown();
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::rebalance, 0, rebalanceMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void rebalance() {
+        if (!enabled || stopped) {
+            return;
+        }
+        try {
+            renewLeases();
+
+            int share = fairShare();
+            if (ownedShards.size() > share) {
+                // One per round, the shard has to be picked up before the next one moves
+                ownedShards.keySet().stream().max(Integer::compare)
+                        .ifPresent(shard -> releaseShards(List.of(shard)));
+            }
+            claimShards(share);
+        } catch (Exception e) {
+            log.error("Event shard rebalance failed, {} shards owned", ownedShards.size(), e);
+        }
+    }
+
+    /**
+     * Stops consuming and gives back every lease. Called before the event processor
+     * shuts down, the unacked deliveries go back to the shard queues.
+     */
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        stopped = true;
+        // Not under the monitor, a running rebalance holds it until its drain is done
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(drainTimeoutMs + 5000, TimeUnit.MILLISECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            log.info("Releasing {} event shards", ownedShards.size());
+            releaseShards(new ArrayList<>(ownedShards.keySet()));
+        }
+    }
+
+    private void renewLeases() {
+        long now = System.currentTimeMillis();
+        List<OwnedShard> lost = new ArrayList<>();
+        ownedShards.values().removeIf(owned -> {
+            try {
+                if (leases.renew(owned.shard, instanceId, leaseTtlMs)) {
+                    owned.validUntil = now + leaseTtlMs;
+                    return false;
+                }
+                log.warn("Lease of event shard {} lost, stopping consumer", owned.shard);
+            } catch (Exception e) {
+                if (now < owned.validUntil) {
+                    // Redis unreachable, keep consuming while the lease cannot have expired
+                    log.warn("Failed to renew lease of event shard {}, valid for another {} ms",
+                            owned.shard, owned.validUntil - now);
+                    return false;
+                }
+                log.error("Lease of event shard {} expired while Redis was unreachable", owned.shard);
+            }
+            lostCounter.increment();
+            lost.add(owned);
+            return true;
+        });
+        if (!lost.isEmpty()) {
+            stopConsuming(lost);
+        }
+    }
+
+    private int fairShare() {
+        int instances = Math.max(1, redisManager.getActiveInstanceIds().size());
+        return (shardCount + instances - 1) / instances;
+    }
+
+    private void claimShards(int share) {
+        long now = System.currentTimeMillis();
+        releasedAt.values().removeIf(released -> now - released > leaseTtlMs);
+
+        String[] owners = leases.getOwners(shardCount);
+        // Start at an instance specific offset so concurrent instances try different shards
+        int offset = Math.floorMod(instanceId.hashCode(), shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int shard = (offset + i) % shardCount;
+            if (owners[shard] != null) {
+                freeRounds.remove(shard);
+                continue;
+            }
+            int rounds = freeRounds.merge(shard, 1, Integer::sum);
+            boolean belowShare = ownedShards.size() < share;
+            boolean abandoned = rounds > 1;
+            if ((belowShare || abandoned) && !releasedAt.containsKey(shard)) {
+                acquireShard(shard);
+            }
+        }
+    }
+
+    private void acquireShard(int shard) {
+        if (!leases.tryAcquire(shard, instanceId, leaseTtlMs)) {
+            return;
+        }
+        try {
+            ShardListener listener = new ShardListener();
+            SimpleMessageListenerContainer container = startContainer(shard, listener);
+            ownedShards.put(shard,
+                    new OwnedShard(shard, container, listener, System.currentTimeMillis() + leaseTtlMs));
+            freeRounds.remove(shard);
+            acquiredCounter.increment();
+            log.info("Acquired event shard {}, consuming {}", shard, RabbitConfig.eventShardQueueName(shard));
+        } catch (Exception e) {
+            log.error("Failed to start consumer of event shard {}, releasing lease", shard, e);
+            leases.release(shard, instanceId);
+        }
+    }
+
+    private void releaseShards(Collection<Integer> shards) {
+        List<OwnedShard> released = new ArrayList<>();
+        for (Integer shard : shards) {
+            OwnedShard owned = ownedShards.remove(shard);
+            if (owned != null) {
+                released.add(owned);
+            }
+        }
+        if (released.isEmpty()) {
+            return;
+        }
+        // Stop consuming before the lease is free, so the next owner starts after us
+        stopConsuming(released);
+        for (OwnedShard owned : released) {
+            try {
+                leases.release(owned.shard, instanceId);
+            } catch (Exception e) {
+                log.warn("Failed to release lease of event shard {}, it expires in {} ms",
+                        owned.shard, leaseTtlMs, e);
+            }
+            releasedAt.put(owned.shard, System.currentTimeMillis());
+            releasedCounter.increment();
+            log.info("Released event shard {}", owned.shard);
+        }
+    }
+
+    /**
+     * Stops dispatching new deliveries of the shards, waits for the dispatched ones to be
+     * settled and flushes their acks before the containers close the channels. The shards
+     * drain in parallel against one deadline.
+     */
+    private void stopConsuming(List<OwnedShard> shards) {
+        shards.forEach(owned -> owned.listener.draining = true);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        for (OwnedShard owned : shards) {
+            try {
+                while (owned.listener.inFlight.get() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while draining event shard {}", owned.shard);
+                break;
+            }
+            int remaining = owned.listener.inFlight.get();
+            if (remaining > 0) {
+                log.warn("Event shard {} still has {} events in flight after {} ms, they are redelivered"
+                        + " to the next owner", owned.shard, remaining, drainTimeoutMs);
+            }
+        }
+        eventProcessor.flushAcks();
+        for (OwnedShard owned : shards) {
+            eventProcessor.unregisterListenerContainer(owned.container);
+            owned.container.stop();
+        }
+    }
+
+    private SimpleMessageListenerContainer startContainer(int shard, ShardListener listener) {
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId(ENDPOINT_ID_PREFIX + shard);
+        endpoint.setQueueNames(RabbitConfig.eventShardQueueName(shard));
+        endpoint.setMessageListener(listener);
+
+        // Same ack mode, prefetch and error handling as the single queue listener
+        SimpleMessageListenerContainer container = listenerContainerFactory.createListenerContainer(endpoint);
+        container.setConcurrentConsumers(consumersPerShard);
+        container.setMaxConcurrentConsumers(consumersPerShard);
+        container.afterPropertiesSet();
+        container.start();
+        // Prefetch follows the event flow controller, the ordered consumer count stays
+        eventProcessor.registerListenerContainer(container, false);
+        return container;
+    }
+
+    /**
+     * Dispatches the deliveries of one shard and counts the ones not settled yet.
+     */
+    private final class ShardListener implements ChannelAwareMessageListener {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean draining;
+
+        @Override
+        public void onMessage(Message message, Channel channel) {
+            eventProcessor.awaitFlowResume(() -> draining);
+            if (draining) {
+                // Left unacked, redelivered to the next owner once the channel is closed.
+                // Delivered after every dispatched one, so the ack watermark is not held back
+                return;
+            }
+            inFlight.incrementAndGet();
+            eventProcessor.processEvent(message, channel, inFlight::decrementAndGet);
+        }
+    }
+
+    private static final class OwnedShard {
+        private final int shard;
+        private final SimpleMessageListenerContainer container;
+        private final ShardListener listener;
+        // Local bound of the lease, the consumer is stopped past it if renewals keep failing
+        private volatile long validUntil;
+
+        OwnedShard(int shard, SimpleMessageListenerContainer container, ShardListener listener,
+                   long validUntil) {
+            this.shard = shard;
+            this.container = container;
+            this.listener = listener;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.service.event.StreamOffsetTracker;
+import com.rabbitmq.stream.Consumer;
+import com.rabbitmq.stream.Environment;
+import com.rabbitmq.stream.MessageHandler;
+import com.rabbitmq.stream.NoOffsetException;
+import com.rabbitmq.stream.OffsetSpecification;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.rabbit.stream.listener.StreamListenerContainer;
+import org.springframework.rabbit.stream.listener.StreamMessageListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stream ingest backend of the {@link EventProcessor}, enabled with
+ * {@code app.events.ingest=stream}.
+ * <p>
+ * Reads the FreeSWITCH events from a RabbitMQ stream with a named consumer. Offsets
+ * are tracked manually: an offset is stored only once its event task completed and
+ * every earlier offset of the consumer completed too (see {@link StreamOffsetTracker}),
+ * so a restart resumes after the last fully processed event instead of losing the
+ * ones in flight. Events refused during shutdown are not settled and replayed on the
+ * next start, which replaces the nack-and-requeue of the queue ingest.
+ * <p>
+ * With single active consumer (default) every instance subscribes under the same
+ * name and the broker delivers to one of them, the others take over from the stored
+ * offset when it goes away.
+ * <p>
+ * Replay: {@code app.events.stream.replay-from} repositions the consumer at startup,
+ * {@link #replayFrom(OffsetSpecification)} at runtime. Positions are given as first,
+ * last, next, offset:&lt;n&gt; or timestamp:&lt;ISO-8601 instant or epoch millis&gt;.
+ * <p>
+ * Metrics:
+ *   - events.stream.inflight  delivered offsets not completed yet
+ *   - events.stream.commits   offsets stored on the broker
+ *   - events.stream.failed    events that failed and were skipped, a stream cannot requeue
+ *   - events.stream.invalid   payloads that could not be parsed
+ */
+@Service
+@Slf4j
+public class EventStreamIngest {
+    private static final String OFFSET_PREFIX = "offset:";
+    private static final String TIMESTAMP_PREFIX = "timestamp:";
+
+    @Value("#{'${app.events.ingest:amqp}' == 'stream'}")
+    private boolean enabled;
+
+    @Value("${app.events.stream.name:freeswitch.events}")
+    private String streamName;
+
+    @Value("${app.events.stream.consumer-name:${spring.application.name}-events}")
+    private String consumerName;
+
+    @Value("${app.events.stream.single-active-consumer:true}")
+    private boolean singleActiveConsumer;
+
+    // Position when the consumer has no stored offset yet
+    @Value("${app.events.stream.initial-offset:next}")
+    private String initialOffset;
+
+    @Value("${app.events.stream.replay-from:}")
+    private String replayFrom;
+
+    private final EventProcessor eventProcessor;
+    private final ObjectProvider<Environment> streamEnvironment;
+    private final Map<Consumer, StreamOffsetTracker> trackers = new ConcurrentHashMap<>();
+
+    private StreamListenerContainer container;
+    // Position forced on the next subscription, cleared by the first delivered message
+    private volatile OffsetSpecification pendingReplay;
+
+    private final Counter commitCounter;
+    private final Counter failedCounter;
+    private final Counter invalidCounter;
+
+    public EventStreamIngest(EventProcessor eventProcessor,
+                             ObjectProvider<Environment> streamEnvironment,
+                             MeterRegistry meterRegistry) {
+        this.eventProcessor = eventProcessor;
+        this.streamEnvironment = streamEnvironment;
+
+        Gauge.builder("events.stream.inflight", trackers,
+                        t -> t.values().stream().mapToInt(StreamOffsetTracker::getInFlightCount).sum())
+                .description("Delivered stream offsets not completed yet")
+                .register(meterRegistry);
+        this.commitCounter = Counter.builder("events.stream.commits")
+                .description("Stream offsets stored on the broker")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("events.stream.failed")
+                .description("Stream events that failed and were skipped")
+                .register(meterRegistry);
+        this.invalidCounter = Counter.builder("events.stream.invalid")
+                .description("Stream payloads that could not be parsed")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || container != null) {
+            return;
+        }
+        if (!replayFrom.isBlank()) {
+            pendingReplay = parseOffset(replayFrom);
+            log.warn("Replaying stream {} from {}", streamName, replayFrom);
+        }
+        container = createContainer();
+        container.start();
+        log.info("Consuming events from stream {} as {}", streamName, consumerName);
+    }
+
+    /**
+     * Restarts the consumer at the given position. Offsets stored from then on follow
+     * the replayed events, so a restart during the replay resumes it.
+     */
+    public synchronized void replayFrom(OffsetSpecification offset) {
+        if (!enabled || container == null) {
+            throw new IllegalStateException("Stream ingest is not enabled");
+        }
+        log.warn("Replaying stream {} from {}", streamName, offset);
+        commitOffsets();
+        container.stop();
+        trackers.clear();
+        pendingReplay = offset;
+        container = createContainer();
+        container.start();
+    }
+
+    public void replayFrom(String offset) {
+        replayFrom(parseOffset(offset));
+    }
+
+    @Scheduled(fixedDelayString = "${app.events.stream.commit-interval-ms:1000}")
+    public void commitOffsets() {
+        trackers.values().forEach(tracker -> {
+            try {
+                if (tracker.commit()) {
+                    commitCounter.increment();
+                }
+            } catch (Exception e) {
+                log.warn("Failed to store offset {} of stream {}", tracker.committableOffset(), streamName, e);
+            }
+        });
+    }
+
+    /**
+     * Stores the offsets of the completed events and closes the consumer. Called after
+     * the event processor drained, the events it refused stay uncommitted.
+     */
+    public synchronized void shutdown() {
+        if (container == null) {
+            return;
+        }
+        commitOffsets();
+        container.stop();
+        log.info("Stream consumer {} stopped", consumerName);
+    }
+
+    private void onStreamMessage(com.rabbitmq.stream.Message message, MessageHandler.Context context) {
+        long offset = context.offset();
+        StreamOffsetTracker tracker = trackers.computeIfAbsent(context.consumer(), StreamOffsetTracker::new);
+        tracker.delivered(offset);
+        pendingReplay = null;
+
+        if (eventProcessor.isShuttingDown()) {
+            // Left in flight, the offset is not stored and the event is read again after restart
+            return;
+        }
+        try {
+            boolean accepted = eventProcessor.processPayload(message.getBodyAsBinary(), (ok) -> {
+                if (!ok) {
+                    if (eventProcessor.isShuttingDown()) {
+                        return; // refused by the draining processor, replayed after restart
+                    }
+                    failedCounter.increment();
+                    log.warn("Event at offset {} of stream {} failed, skipping it", offset, streamName);
+                }
+                tracker.completed(offset);
+            });
+            if (!accepted) {
+                invalidCounter.increment();
+                tracker.completed(offset);
+            }
+        } catch (Exception e) {
+            log.error("Failed to process event at offset {} of stream {}", offset, streamName, e);
+            failedCounter.increment();
+            tracker.completed(offset);
+        }
+    }
+
+    private StreamListenerContainer createContainer() {
+        StreamListenerContainer listenerContainer = new StreamListenerContainer(streamEnvironment.getObject());
+        listenerContainer.setQueueNames(streamName);
+        listenerContainer.setAutoStartup(false);
+        listenerContainer.setConsumerCustomizer((id, builder) -> {
+            builder.name(consumerName)
+                    .offset(parseOffset(initialOffset))
+                    // Applied after the stored offset lookup, so a replay wins over it
+                    .subscriptionListener(subscription -> {
+                        OffsetSpecification replay = pendingReplay;
+                        if (replay != null) {
+                            subscription.offsetSpecification(replay);
+                        }
+                    })
+                    .manualTrackingStrategy();
+            if (singleActiveConsumer) {
+                builder.singleActiveConsumer()
+                        .consumerUpdateListener(update -> {
+                            if (update.isActive()) {
+                                return resumeOffset(update.consumer());
+                            }
+                            // Handing over to another instance, store what completed so far
+                            StreamOffsetTracker tracker = trackers.remove(update.consumer());
+                            if (tracker != null && tracker.commit()) {
+                                commitCounter.increment();
+                            }
+                            return null;
+                        });
+            }
+        });
+        listenerContainer.setupMessageListener(new StreamMessageListener() {
+            @Override
+            public void onStreamMessage(com.rabbitmq.stream.Message message, MessageHandler.Context context) {
+                EventStreamIngest.this.onStreamMessage(message, context);
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                throw new UnsupportedOperationException("Stream events are consumed as native stream messages");
+            }
+        });
+        listenerContainer.afterPropertiesSet();
+        return listenerContainer;
+    }
+
+    /**
+     * Position of a consumer becoming the active one: the pending replay, else just
+     * after its stored offset, else the initial offset.
+     */
+    private OffsetSpecification resumeOffset(Consumer consumer) {
+        OffsetSpecification replay = pendingReplay;
+        if (replay != null) {
+            return replay;
+        }
+        try {
+            return OffsetSpecification.offset(consumer.storedOffset() + 1);
+        } catch (NoOffsetException e) {
+            return parseOffset(initialOffset);
+        }
+    }
+
+    static OffsetSpecification parseOffset(String value) {
+        String offset = value.trim();
+        switch (offset.toLowerCase()) {
+            case "first":
+                return OffsetSpecification.first();
+            case "last":
+                return OffsetSpecification.last();
+            case "next":
+                return OffsetSpecification.next();
+            default:
+                break;
+        }
+        try {
+            if (offset.startsWith(OFFSET_PREFIX)) {
+                return OffsetSpecification.offset(Long.parseLong(offset.substring(OFFSET_PREFIX.length())));
+            }
+            if (offset.startsWith(TIMESTAMP_PREFIX)) {
+                String timestamp = offset.substring(TIMESTAMP_PREFIX.length());
+                long epochMillis = timestamp.chars().allMatch(Character::isDigit)
+                        ? Long.parseLong(timestamp)
+                        : Instant.parse(timestamp).toEpochMilli();
+                return OffsetSpecification.timestamp(epochMillis);
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid stream offset: " + value, e);
+        }
+        throw new IllegalArgumentException("Invalid stream offset: " + value);
+    }
+}
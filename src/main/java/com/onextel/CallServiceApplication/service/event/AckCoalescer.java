@@ -0,0 +1,203 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.rabbitmq.client.Channel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces the acknowledgements of a single AMQP channel.
+ * <p>
+ * Channel events complete out of delivery order (each FreeSWITCH channel has its own
+ * mailbox), so a plain multiple ack of the latest tag would also ack messages still
+ * in progress. The coalescer keeps a window of settled delivery tags and advances a
+ * watermark below which every tag is settled. Positive acks are then sent as a single
+ * {@code basicAck(tag, multiple=true)} for the highest acked tag under the watermark,
+ * once {@code batchSize} acks are pending or when the registry flushes on its timer.
+ * <p>
+ * Nacks and rejects are sent immediately and individually, the message is only marked
+ * settled so the watermark can move past it. A multiple ack never covers a nacked tag,
+ * the broker no longer considers it outstanding.
+ * <p>
+ * Delivery tags are registered in delivery order on the listener thread, so the window
+ * only has to span the unacknowledged deliveries of the channel, which the prefetch
+ * count bounds.
+ */
+@Slf4j
+public class AckCoalescer {
+    @Getter
+    private final Channel channel;
+    private final int batchSize;
+    private final AckCoalescerRegistry registry;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int windowMask;
+    private final long[] settled;
+    private final long[] acked;
+    // Tags that fell outside the window, only possible if prefetch exceeds the window
+    private final Set<Long> overflow = new HashSet<>();
+
+    // Every tag <= watermark is settled
+    private long watermark;
+    // Highest positively acked tag <= watermark, the target of the next multiple ack
+    private long ackableTag;
+    // Highest tag already acknowledged to the broker with a multiple ack
+    private long flushedTag;
+    private int pendingAcks;
+
+    AckCoalescer(Channel channel, long firstDeliveryTag, int windowSize, int batchSize,
+                 AckCoalescerRegistry registry) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.registry = registry;
+        this.windowMask = windowSize - 1;
+        this.settled = new long[windowSize / Long.SIZE];
+        this.acked = new long[windowSize / Long.SIZE];
+        this.watermark = firstDeliveryTag - 1;
+        this.ackableTag = watermark;
+        this.flushedTag = watermark;
+    }
+
+    /**
+     * Marks the delivery as processed, the ack is sent with the next batch.
+     */
+    public void ack(long deliveryTag) {
+        lock.lock();
+        try {
+            if (!markSettled(deliveryTag, true)) {
+                sendAck(deliveryTag, false);
+                return;
+            }
+            if (pendingAcks >= batchSize) {
+                flushLocked();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Negatively acknowledges the delivery right away.
+     */
+    public void nack(long deliveryTag, boolean requeue) {
+        lock.lock();
+        try {
+            channel.basicNack(deliveryTag, false, requeue);
+            markSettled(deliveryTag, false);
+        } catch (IOException e) {
+            log.error("Failed to nack message with delivery tag: {}", deliveryTag, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects the delivery right away.
+     */
+    public void reject(long deliveryTag, boolean requeue) {
+        lock.lock();
+        try {
+            channel.basicReject(deliveryTag, requeue);
+            markSettled(deliveryTag, false);
+        } catch (IOException e) {
+            log.error("Failed to reject message with delivery tag: {}", deliveryTag, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the pending acks below the watermark, if any.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    private void flushLocked() {
+        if (ackableTag <= flushedTag) {
+            return;
+        }
+        int batch = pendingAcks;
+        if (sendAck(ackableTag, true)) {
+            registry.recordBatch(batch);
+        }
+        flushedTag = ackableTag;
+        pendingAcks = 0;
+    }
+
+    private boolean sendAck(long deliveryTag, boolean multiple) {
+        if (!channel.isOpen()) {
+            // Unacked deliveries of a closed channel are redelivered by the broker
+            log.warn("Channel is not available or closed, cannot ack delivery tag {}", deliveryTag);
+            return false;
+        }
+        try {
+            channel.basicAck(deliveryTag, multiple);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to ack message with delivery tag: {} multiple: {}", deliveryTag, multiple, e);
+            return false;
+        }
+    }
+
+    /**
+     * Records the tag as settled and advances the watermark.
+     *
+     * @return false if the tag is outside the window and was not recorded for batching
+     */
+    private boolean markSettled(long deliveryTag, boolean positive) {
+        if (deliveryTag <= watermark) {
+            log.warn("Delivery tag {} settled twice or below watermark {}", deliveryTag, watermark);
+            return true;
+        }
+        if (deliveryTag - watermark > windowMask) {
+            log.warn("Delivery tag {} outside ack window (watermark {}), acknowledging individually",
+                    deliveryTag, watermark);
+            overflow.add(deliveryTag);
+            return !positive;
+        }
+
+        int index = (int) (deliveryTag & windowMask);
+        settled[index >>> 6] |= 1L << index;
+        if (positive) {
+            acked[index >>> 6] |= 1L << index;
+            pendingAcks++;
+        }
+        advanceWatermark();
+        return true;
+    }
+
+    private void advanceWatermark() {
+        while (true) {
+            long next = watermark + 1;
+            int index = (int) (next & windowMask);
+            long bit = 1L << index;
+            if ((settled[index >>> 6] & bit) != 0) {
+                settled[index >>> 6] &= ~bit;
+                if ((acked[index >>> 6] & bit) != 0) {
+                    acked[index >>> 6] &= ~bit;
+                    ackableTag = next;
+                }
+                watermark = next;
+            } else if (!overflow.isEmpty() && overflow.remove(next)) {
+                // Already settled individually, a multiple ack must not name it
+                watermark = next;
+            } else {
+                return;
+            }
+        }
+    }
+}
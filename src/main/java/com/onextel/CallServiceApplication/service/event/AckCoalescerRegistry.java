@@ -0,0 +1,99 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the {@link AckCoalescer} of every consumer channel and flushes them on a timer.
+ * <p>
+ * The size trigger lives in the coalescer, the time trigger here: every
+ * {@code maxDelayMs} all pending acks are sent, so a quiet channel never holds
+ * acknowledgements (and with them its prefetch window) for longer than that. Closed
+ * channels are dropped on the same sweep, their unacked deliveries are redelivered
+ * by the broker anyway.
+ * <p>
+ * Metrics:
+ *   - events.ack.batch.size  acks covered by one multiple ack
+ *   - events.ack.coalescers  consumer channels with a coalescer
+ */
+@Slf4j
+public class AckCoalescerRegistry {
+    private final Map<Channel, AckCoalescer> coalescers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final int batchSize;
+    private final int windowSize;
+    private final DistributionSummary batchSizeSummary;
+
+    /**
+     * @param batchSize  acks collected before a multiple ack is sent, capped at half the prefetch
+     * @param maxDelayMs max time an ack is held back
+     * @param prefetch   prefetch count of the consumers, bounds the unacked deliveries per channel
+     */
+    public AckCoalescerRegistry(int batchSize, long maxDelayMs, int prefetch, MeterRegistry meterRegistry) {
+        // The broker stops delivering once prefetch messages are unacked, never wait for more than half
+        this.batchSize = Math.max(1, Math.min(batchSize, prefetch / 2));
+        // Power of two covering the prefetch window with room to spare
+        this.windowSize = Math.max(Long.SIZE, Integer.highestOneBit(Math.max(prefetch, 1) * 4) << 1);
+
+        this.batchSizeSummary = DistributionSummary.builder("events.ack.batch.size")
+                .description("Acknowledgements covered by one multiple ack")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        Gauge.builder("events.ack.coalescers", coalescers, Map::size)
+                .description("Consumer channels with an ack coalescer")
+                .register(meterRegistry);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "amqp-ack-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushAll, maxDelayMs, maxDelayMs, TimeUnit.MILLISECONDS);
+        log.info("Ack coalescing enabled, batch size {}, max delay {} ms", this.batchSize, maxDelayMs);
+    }
+
+    /**
+     * Returns the coalescer of the channel. Must be called on the listener thread in
+     * delivery order, the first call for a channel sets the start of its window.
+     */
+    public AckCoalescer forChannel(Channel channel, long deliveryTag) {
+        return coalescers.computeIfAbsent(channel,
+                ch -> new AckCoalescer(ch, deliveryTag, windowSize, batchSize, this));
+    }
+
+    public void flushAll() {
+        coalescers.values().removeIf(coalescer -> {
+            if (!coalescer.isOpen()) {
+                log.debug("Dropping ack coalescer of closed channel {}", coalescer.getChannel());
+                return true;
+            }
+            try {
+                coalescer.flush();
+            } catch (Exception e) {
+                log.error("Failed to flush acks of channel {}", coalescer.getChannel(), e);
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Stops the timer and sends every pending ack.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        flushAll();
+    }
+
+    void recordBatch(int acks) {
+        batchSizeSummary.record(acks);
+    }
+}
@@ -0,0 +1,145 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor starting one virtual thread per task.
+ * <p>
+ * Threads are cheap, so the executor does not bound the number of tasks it accepts.
+ * Instead every task takes a permit before it runs, which caps the number of handlers
+ * in flight (and so the number of threads competing for Redis connections) without
+ * tying the limit to a platform thread count. The permit is taken inside the virtual
+ * thread, a mailbox rescheduling itself from a worker can never deadlock on it.
+ * <p>
+ * Tasks still waiting for their permit when {@link #shutdownNow()} is called are not
+ * run, they are returned to the caller like the queued tasks of a pool, so it can
+ * settle them. A waiting task interrupted for any other reason still runs.
+ * <p>
+ * Metrics:
+ *   - events.executor.inflight     tasks currently holding a permit
+ *   - events.executor.permit.wait  time a task waited for its permit
+ */
+@Slf4j
+public class BoundedVirtualThreadExecutor extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final Timer permitWait;
+    // Accepted tasks that did not get their permit yet, claimed by their thread or by shutdownNow
+    private final Set<PermitTask> waiting = ConcurrentHashMap.newKeySet();
+
+    public BoundedVirtualThreadExecutor(String threadNamePrefix, int maxInFlight, MeterRegistry meterRegistry) {
+        this.delegate = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(threadNamePrefix, 0).factory());
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight, true);
+
+        Gauge.builder("events.executor.inflight", this, BoundedVirtualThreadExecutor::getInFlight)
+                .description("Event tasks currently running on virtual threads")
+                .register(meterRegistry);
+        this.permitWait = Timer.builder("events.executor.permit.wait")
+                .description("Time an event task waited for an execution permit")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        PermitTask permitTask = new PermitTask(task);
+        waiting.add(permitTask);
+        try {
+            delegate.execute(permitTask);
+        } catch (RejectedExecutionException e) {
+            waiting.remove(permitTask);
+            throw e;
+        }
+    }
+
+    private final class PermitTask implements Runnable {
+        private final Runnable task;
+
+        PermitTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                if (!waiting.contains(this)) {
+                    // Claimed by shutdownNow, which returns the task to its caller
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                log.warn("Interrupted while waiting for an execution permit, running task {} anyway", task);
+                permits.acquireUninterruptibly();
+                Thread.currentThread().interrupt();
+            }
+            permitWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            try {
+                if (waiting.remove(this)) {
+                    task.run();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    /**
+     * Interrupts the running tasks and returns the ones that never got a permit.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        delegate.shutdown();
+        // Claimed before the interrupts, so none of them runs after being returned
+        List<Runnable> unstarted = new ArrayList<>();
+        for (PermitTask permitTask : waiting) {
+            if (waiting.remove(permitTask)) {
+                unstarted.add(permitTask.task);
+            }
+        }
+        delegate.shutdownNow();
+        return unstarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,160 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mailbox holding the pending events of a single FreeSWITCH channel.
+ * <p>
+ * Any number of listener threads may offer events (lock-free MPSC queue), but the
+ * mailbox is scheduled on the event executor at most once at a time, so events of
+ * one channel are never handled concurrently. Each run drains a bounded batch,
+ * ordered by Event-Sequence, and then yields the worker back to other channels.
+ * With event lanes a run is scheduled on the lane of the event at the head of the
+ * queue and its batch stops before the first event of another lane.
+ * Once the shutdown drain of the scheduler gives up, a run stops before its next event.
+ */
+@Slf4j
+class ChannelMailbox implements Runnable {
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int RELEASED = 2;
+
+    @Getter
+    private final String channelId;
+    private final MailboxScheduler scheduler;
+    // Executor (or event lane) of the current run, picked by trySchedule
+    @Getter
+    private volatile Executor scheduledOn;
+    private final ConcurrentLinkedQueue<EventTask> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile long scheduledAtNanos;
+
+    ChannelMailbox(String channelId, MailboxScheduler scheduler) {
+        this.channelId = channelId;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Appends a task unless the mailbox is full. Only called by the scheduler while
+     * it holds the map bin for this channel, which is what makes release race free.
+     */
+    boolean offer(EventTask task, int capacity) {
+        if (depth.get() >= capacity) {
+            return false;
+        }
+        queue.offer(task);
+        depth.incrementAndGet();
+        return true;
+    }
+
+    int depth() {
+        return depth.get();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Moves the mailbox from IDLE to SCHEDULED and picks the executor of the run from
+     * the event at the head of the queue. Returns false if it is already scheduled (the
+     * running drain will pick the new task up) or released.
+     */
+    boolean trySchedule() {
+        if (state.compareAndSet(IDLE, SCHEDULED)) {
+            scheduledOn = scheduler.executorFor(queue.peek());
+            scheduledAtNanos = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks the mailbox as released. Called by the scheduler after it removed the
+     * mailbox from the channel map, new events for the channel get a fresh mailbox.
+     */
+    void markReleased() {
+        state.set(RELEASED);
+    }
+
+    /**
+     * Removes all pending tasks without running them, used when the mailbox cannot
+     * be scheduled any more (executor rejected it).
+     */
+    List<EventTask> drainPending() {
+        List<EventTask> pending = new ArrayList<>();
+        EventTask task;
+        while ((task = queue.poll()) != null) {
+            depth.decrementAndGet();
+            pending.add(task);
+        }
+        return pending;
+    }
+
+    @Override
+    public void run() {
+        scheduler.recordSchedulingLatency(System.nanoTime() - scheduledAtNanos);
+
+        List<EventTask> batch = pollBatch(scheduler.getBatchSize());
+        for (int i = 0; i < batch.size(); i++) {
+            if (scheduler.isAbandoned()) {
+                // Shutdown drain deadline passed, the remaining events go back to the broker
+                scheduler.abandon(batch.subList(i, batch.size()));
+                break;
+            }
+            try {
+                batch.get(i).run();
+            } catch (Exception e) {
+                // EventTask handles its own failures, this only guards the drain loop
+                log.error("Unexpected failure while processing event for channel {}", channelId, e);
+            }
+            scheduler.onCompleted();
+        }
+
+        if (scheduler.isAbandoned()) {
+            // Already removed by the drain, which nacked what was still queued
+            markReleased();
+            return;
+        }
+        if (queue.isEmpty() && scheduler.release(this)) {
+            return;
+        }
+
+        state.set(IDLE);
+        // An event may have been offered between the drain and the state change
+        if (!queue.isEmpty()) {
+            scheduler.schedule(this);
+        }
+    }
+
+    private List<EventTask> pollBatch(int batchSize) {
+        List<EventTask> batch = new ArrayList<>(Math.min(batchSize, Math.max(depth.get(), 1)));
+        EventTask task;
+        // Single consumer, the peeked task is the one polled
+        while (batch.size() < batchSize && (task = queue.peek()) != null) {
+            if (!batch.isEmpty() && scheduler.executorFor(task) != scheduledOn) {
+                // Next event belongs to another lane, it gets its own run there
+                break;
+            }
+            queue.poll();
+            batch.add(task);
+        }
+        scheduler.onDequeued(batch.size());
+        depth.addAndGet(-batch.size());
+        if (batch.size() > 1) {
+            // Keep Event-Sequence ordering among the events that arrived together
+            Collections.sort(batch);
+        }
+        return batch;
+    }
+}
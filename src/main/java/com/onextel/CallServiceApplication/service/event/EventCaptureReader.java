@@ -0,0 +1,89 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the segment files written by {@link EventCaptureWriter}.
+ */
+public final class EventCaptureReader {
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * @return false to stop reading
+         */
+        boolean onRecord(long receivedAtMicros, byte[] body);
+    }
+
+    private EventCaptureReader() {
+    }
+
+    /**
+     * Reads a segment file, or every segment of a capture directory in file name (time)
+     * order.
+     *
+     * @return number of records read
+     * @throws IOException if a file is not an event capture segment
+     */
+    public static long read(Path path, RecordHandler handler) throws IOException {
+        long records = 0;
+        for (Path segment : segments(path)) {
+            long read = readSegment(segment, handler);
+            if (read < 0) {
+                return records - read - 1;
+            }
+            records += read;
+        }
+        return records;
+    }
+
+    public static List<Path> segments(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(EventCaptureWriter.SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // Records read, or -(records + 1) when the handler stopped the read
+    private static long readSegment(Path path, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (segment.remaining() < EventCaptureWriter.SEGMENT_HEADER_BYTES
+                    || segment.getInt() != EventCaptureWriter.MAGIC) {
+                throw new IOException("Not an event capture segment: " + path);
+            }
+            int version = segment.getInt();
+            if (version != EventCaptureWriter.VERSION) {
+                throw new IOException("Unsupported event capture version " + version + ": " + path);
+            }
+            segment.getLong(); // created
+
+            long records = 0;
+            while (segment.remaining() >= EventCaptureWriter.RECORD_HEADER_BYTES) {
+                int length = segment.getInt();
+                if (length <= 0 || length > segment.remaining() - Long.BYTES) {
+                    break; // end of the written part
+                }
+                long receivedAtMicros = segment.getLong();
+                byte[] body = new byte[length];
+                segment.get(body);
+                records++;
+                if (!handler.onRecord(receivedAtMicros, body)) {
+                    return -records - 1;
+                }
+            }
+            return records;
+        }
+    }
+}
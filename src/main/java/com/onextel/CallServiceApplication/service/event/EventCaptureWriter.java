@@ -0,0 +1,155 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appends raw event bodies with their receive time to memory mapped segment files, the
+ * input of the {@link com.onextel.CallServiceApplication.service.EventReplayer}.
+ * <p>
+ * Segment layout, big endian:
+ * <pre>
+ *   header  int magic 'EVC1' | int version | long created epoch millis
+ *   record  int body length  | long received epoch micros | body bytes
+ * </pre>
+ * A length of 0 ends the segment, the unused tail of the file is never written. The
+ * record length is written after its timestamp and body, so a reader of a segment
+ * still being written never sees a torn record. A segment is full when the next record
+ * does not fit, the writer then continues in a new file. Bodies larger than a segment
+ * are dropped, and so are empty bodies, whose length would read as the end marker.
+ * <p>
+ * Metrics:
+ *   - events.capture.records  bodies written
+ *   - events.capture.bytes    bytes written, record headers included
+ *   - events.capture.dropped  bodies not written (empty, too large or I/O failure)
+ */
+@Slf4j
+public class EventCaptureWriter implements Closeable {
+    static final int MAGIC = 0x45564331; // EVC1
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 12;
+    static final String SEGMENT_SUFFIX = ".evcap";
+    private static final DateTimeFormatter SEGMENT_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    @Getter
+    private final Path directory;
+    private final int segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private boolean closed;
+    private int segmentCount;
+
+    private final Counter recordCounter;
+    private final Counter byteCounter;
+    private final Counter droppedCounter;
+
+    public EventCaptureWriter(Path directory, int segmentBytes, MeterRegistry meterRegistry) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.recordCounter = Counter.builder("events.capture.records")
+                .description("Event bodies written to the capture")
+                .register(meterRegistry);
+        this.byteCounter = Counter.builder("events.capture.bytes")
+                .description("Bytes written to the event capture")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("events.capture.dropped")
+                .description("Event bodies that could not be captured")
+                .register(meterRegistry);
+
+        Files.createDirectories(directory);
+        openSegment();
+    }
+
+    /**
+     * @return false if the body was not captured
+     */
+    public boolean append(byte[] body, long receivedAtMicros) {
+        int recordBytes = RECORD_HEADER_BYTES + body.length;
+        if (body.length == 0 || recordBytes > segmentBytes - SEGMENT_HEADER_BYTES) {
+            droppedCounter.increment();
+            return false;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (segment.remaining() < recordBytes) {
+                closeSegment();
+                openSegment();
+            }
+            int position = segment.position();
+            segment.putLong(position + Integer.BYTES, receivedAtMicros);
+            segment.put(position + RECORD_HEADER_BYTES, body);
+            segment.putInt(position, body.length);
+            segment.position(position + recordBytes);
+        } catch (IOException e) {
+            log.error("Failed to open a new event capture segment in {}, closing the capture", directory, e);
+            closed = true;
+            droppedCounter.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        recordCounter.increment();
+        byteCounter.increment(recordBytes);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (segment != null) {
+                closeSegment();
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    private void openSegment() throws IOException {
+        // Time then counter, so the file names sort in capture order
+        Path path = directory.resolve(String.format("events-%s-%04d%s",
+                SEGMENT_TIME.format(Instant.now()), segmentCount++, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        log.info("Capturing events to {}", path);
+    }
+
+    private void closeSegment() {
+        segment.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close event capture segment in {}", directory, e);
+        }
+        segment = null;
+        channel = null;
+    }
+}
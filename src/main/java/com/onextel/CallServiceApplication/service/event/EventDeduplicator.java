@@ -0,0 +1,202 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Filters redelivered FreeSWITCH events by (Core-UUID, Event-Sequence), the pair is
+ * unique per event of a node.
+ * <p>
+ * Handled events are recorded in a ring of time slices, each an open addressing table
+ * of 64-bit keys, so memory is fixed at {@code SLICES * capacity} longs plus a 32-bit
+ * verifier per key. The current slice takes the inserts, lookups probe every slice. A
+ * slice is recycled once the window divided by the slice count elapsed, or earlier
+ * when it is half full, which then shortens the effective window under bursts.
+ * <p>
+ * The key is a 64-bit hash of node and sequence. The verifier is computed from a
+ * second, independent hash: a key match with a different verifier is a hash collision,
+ * counted as false positive and not treated as duplicate.
+ * <p>
+ * Events are recorded only once handled successfully, so a nacked or refused event is
+ * processed again on redelivery. Two deliveries in flight at the same time both pass.
+ * <p>
+ * Metrics:
+ *   - events.dedup.hits             duplicates dropped
+ *   - events.dedup.false.positives  key collisions detected by the verifier
+ *   - events.dedup.early.rotations  slices recycled before their time because full
+ */
+@Slf4j
+public class EventDeduplicator {
+    private static final int SLICES = 4;
+    private static final long EMPTY = 0L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int MAX_CACHED_NODES = 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[][] keys;
+    private final int[][] verifiers;
+    private final int[] sizes = new int[SLICES];
+    private final int mask;
+    private final int maxSlotsPerSlice;
+    private final long sliceNanos;
+    private int current;
+    private long currentStartedNanos;
+
+    // Core-UUID -> 64-bit hash, one entry per FreeSWITCH node (and restart)
+    private final ConcurrentHashMap<String, Long> nodeHashes = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter falsePositiveCounter;
+    private final Counter earlyRotationCounter;
+
+    /**
+     * @param window           how long a handled event is remembered
+     * @param capacityPerSlice table size of a slice, rounded up to a power of two
+     */
+    public EventDeduplicator(long window, TimeUnit unit, int capacityPerSlice, MeterRegistry meterRegistry) {
+        int capacity = Integer.highestOneBit((Math.max(16, capacityPerSlice) - 1) << 1);
+        this.mask = capacity - 1;
+        this.maxSlotsPerSlice = capacity / 2;
+        this.keys = new long[SLICES][capacity];
+        this.verifiers = new int[SLICES][capacity];
+        this.sliceNanos = Math.max(1, unit.toNanos(window) / SLICES);
+        this.currentStartedNanos = System.nanoTime();
+
+        this.hitCounter = Counter.builder("events.dedup.hits")
+                .description("Redelivered events dropped by the dedup filter")
+                .register(meterRegistry);
+        this.falsePositiveCounter = Counter.builder("events.dedup.false.positives")
+                .description("Dedup key collisions detected by the verifier")
+                .register(meterRegistry);
+        this.earlyRotationCounter = Counter.builder("events.dedup.early.rotations")
+                .description("Dedup slices recycled early because full")
+                .register(meterRegistry);
+        log.info("Event dedup filter: {} slices of {} keys, window {} {}", SLICES, capacity, window, unit);
+    }
+
+    /**
+     * @return true if the event was already handled within the window
+     */
+    public boolean isDuplicate(String nodeId, int sequence) {
+        if (nodeId == null || sequence <= 0) {
+            return false;
+        }
+        long key = key(nodeId, sequence);
+        int verifier = verifier(nodeId, sequence);
+        lock.lock();
+        try {
+            rotateIfDue(System.nanoTime());
+            for (int slice = 0; slice < SLICES; slice++) {
+                int slot = find(keys[slice], key);
+                if (slot < 0) {
+                    continue;
+                }
+                if (verifiers[slice][slot] == verifier) {
+                    hitCounter.increment();
+                    return true;
+                }
+                falsePositiveCounter.increment();
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a successfully handled event.
+     */
+    public void record(String nodeId, int sequence) {
+        if (nodeId == null || sequence <= 0) {
+            return;
+        }
+        long key = key(nodeId, sequence);
+        int verifier = verifier(nodeId, sequence);
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            rotateIfDue(now);
+            if (sizes[current] >= maxSlotsPerSlice) {
+                earlyRotationCounter.increment();
+                rotate(now);
+            }
+            long[] table = keys[current];
+            int slot = (int) key & mask;
+            while (table[slot] != EMPTY && table[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == EMPTY) {
+                table[slot] = key;
+                sizes[current]++;
+            }
+            verifiers[current][slot] = verifier;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int find(long[] table, long key) {
+        int slot = (int) key & mask;
+        long stored;
+        while ((stored = table[slot]) != EMPTY) {
+            if (stored == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rotateIfDue(long now) {
+        // A quiet period may cover several slices, each of them expired
+        long elapsedSlices = (now - currentStartedNanos) / sliceNanos;
+        for (long i = 0; i < Math.min(elapsedSlices, SLICES); i++) {
+            rotate(now);
+        }
+    }
+
+    private void rotate(long now) {
+        // The oldest slice becomes the current one
+        current = (current + 1) % SLICES;
+        Arrays.fill(keys[current], EMPTY);
+        sizes[current] = 0;
+        currentStartedNanos = now;
+    }
+
+    private long key(String nodeId, int sequence) {
+        if (nodeHashes.size() > MAX_CACHED_NODES) {
+            nodeHashes.clear();
+        }
+        long nodeHash = nodeHashes.computeIfAbsent(nodeId, EventDeduplicator::fnv1a64);
+        long key = mix64(nodeHash + GOLDEN_GAMMA * sequence);
+        // 0 marks an empty slot
+        return key == EMPTY ? 1L : key;
+    }
+
+    private static int verifier(String nodeId, int sequence) {
+        return 31 * nodeId.hashCode() + Integer.reverse(sequence);
+    }
+
+    private static long fnv1a64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
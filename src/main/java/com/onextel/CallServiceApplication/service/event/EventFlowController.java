@@ -0,0 +1,212 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Feedback controller of the AMQP event consumers.
+ * <p>
+ * Every {@link #adjust()} it looks at the work accepted but not handled yet (mailboxes
+ * and executor queue) and at the mean handling latency since the previous call, then
+ * steers the listener containers with AIMD:
+ *   - congested (pending above pendingHigh or latency above target): prefetch halved,
+ *     one consumer less
+ *   - healthy (pending under a quarter of pendingHigh, latency under half the target,
+ *     events flowing): prefetch raised by a tenth of its max, one consumer more
+ *   - overloaded (pending above pendingPause): listeners paused until the backlog is
+ *     down to half of pendingPause
+ * <p>
+ * A pause withholds credit instead of stopping the containers: the listeners block in
+ * {@link #awaitResume} before dispatching, the deliveries prefetched meanwhile wait
+ * unacked in the consumer and the broker stops sending once the prefetch window of a
+ * channel is full. Channels stay open, so nothing is redelivered and the events in
+ * flight are acked as usual.
+ * <p>
+ * Prefetch is applied by the broker to a consumer when it starts (basic.qos only
+ * affects later consumers), so a new value only reaches the consumers the container
+ * starts afterwards: the ones added when the consumer count grows and the ones
+ * restarted after a channel failure. Running consumers keep theirs, and containers with
+ * a pinned consumer count (shard containers, or min-consumers equal to max-consumers)
+ * only get it on a restart; there the consumer count and the pause are the levers that
+ * act. Consumer counts are only changed on elastic containers, the shard containers
+ * keep their single ordered consumer.
+ * <p>
+ * Metrics:
+ *   - events.flow.prefetch  prefetch given to consumers started from now on
+ *   - events.flow.consumers consumers per elastic container
+ *   - events.flow.pending   pending work seen by the last adjustment
+ *   - events.flow.latency   mean handling latency of the last interval (ms)
+ *   - events.flow.paused    1 while the listeners are paused for overload
+ */
+@Slf4j
+public class EventFlowController {
+    // Paused listeners check their abandon condition this often
+    private static final long RESUME_POLL_MS = 100;
+
+    public record Limits(int minPrefetch, int maxPrefetch, int minConsumers, int maxConsumers,
+                         Duration latencyTarget, int pendingHigh, int pendingPause) {
+    }
+
+    /**
+     * Container steered by the controller, only elastic ones get their consumer count changed.
+     */
+    public record ManagedContainer(MessageListenerContainer container, boolean elastic) {
+    }
+
+    private final Limits limits;
+    private final IntSupplier pendingWork;
+    private final Supplier<Collection<ManagedContainer>> containers;
+    private final long latencyTargetNanos;
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    // Paused listeners wait on it
+    private final Object resumed = new Object();
+
+    @Getter
+    private volatile int prefetch;
+    @Getter
+    private volatile int consumers;
+    @Getter
+    private volatile boolean paused;
+    private volatile int lastPending;
+    private volatile long lastLatencyNanos;
+
+    public EventFlowController(Limits limits, int initialPrefetch, int initialConsumers,
+                               IntSupplier pendingWork, Supplier<Collection<ManagedContainer>> containers,
+                               MeterRegistry meterRegistry) {
+        this.limits = limits;
+        this.pendingWork = pendingWork;
+        this.containers = containers;
+        this.latencyTargetNanos = limits.latencyTarget().toNanos();
+        this.prefetch = clamp(initialPrefetch, limits.minPrefetch(), limits.maxPrefetch());
+        this.consumers = clamp(initialConsumers, limits.minConsumers(), limits.maxConsumers());
+
+        Gauge.builder("events.flow.prefetch", this, EventFlowController::getPrefetch)
+                .description("Prefetch given to the event consumers started from now on")
+                .register(meterRegistry);
+        Gauge.builder("events.flow.consumers", this, EventFlowController::getConsumers)
+                .description("Consumers per elastic event listener container")
+                .register(meterRegistry);
+        Gauge.builder("events.flow.pending", this, c -> c.lastPending)
+                .description("Pending event work seen by the flow controller")
+                .register(meterRegistry);
+        Gauge.builder("events.flow.latency", this, c -> c.lastLatencyNanos / 1e6)
+                .description("Mean event handling latency of the last flow interval in ms")
+                .register(meterRegistry);
+        Gauge.builder("events.flow.paused", this, c -> c.paused ? 1 : 0)
+                .description("Event listeners paused for overload")
+                .register(meterRegistry);
+        log.info("Event flow control: prefetch {}-{}, consumers {}-{}, latency target {} ms, pending high {} pause {}",
+                limits.minPrefetch(), limits.maxPrefetch(), limits.minConsumers(), limits.maxConsumers(),
+                limits.latencyTarget().toMillis(), limits.pendingHigh(), limits.pendingPause());
+    }
+
+    /**
+     * Records the time from dispatch to settlement of one event.
+     */
+    public void recordLatency(long nanos) {
+        latencySum.add(nanos);
+        latencyCount.increment();
+    }
+
+    /**
+     * Blocks the calling listener thread while the listeners are paused.
+     *
+     * @param abandon polled while waiting, returns true to stop waiting (e.g. on shutdown)
+     */
+    public void awaitResume(BooleanSupplier abandon) {
+        if (!paused) {
+            return;
+        }
+        synchronized (resumed) {
+            while (paused && !abandon.getAsBoolean()) {
+                try {
+                    resumed.wait(RESUME_POLL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public synchronized void adjust() {
+        int pending = pendingWork.getAsInt();
+        long count = latencyCount.sumThenReset();
+        long sum = latencySum.sumThenReset();
+        long meanLatency = count == 0 ? 0 : sum / count;
+        lastPending = pending;
+        lastLatencyNanos = meanLatency;
+
+        if (paused) {
+            if (pending > limits.pendingPause() / 2) {
+                return;
+            }
+            log.info("Event backlog down to {}, resuming listeners", pending);
+            apply(true);
+            synchronized (resumed) {
+                paused = false;
+                resumed.notifyAll();
+            }
+            return;
+        }
+        if (pending >= limits.pendingPause()) {
+            paused = true;
+            log.warn("Event backlog {} above {}, pausing listeners", pending, limits.pendingPause());
+            return;
+        }
+
+        int previousPrefetch = prefetch;
+        int previousConsumers = consumers;
+        if (pending >= limits.pendingHigh() || meanLatency > latencyTargetNanos) {
+            prefetch = Math.max(limits.minPrefetch(), prefetch / 2);
+            consumers = Math.max(limits.minConsumers(), consumers - 1);
+        } else if (count > 0 && pending < limits.pendingHigh() / 4 && meanLatency <= latencyTargetNanos / 2) {
+            prefetch = Math.min(limits.maxPrefetch(), prefetch + Math.max(1, limits.maxPrefetch() / 10));
+            consumers = Math.min(limits.maxConsumers(), consumers + 1);
+        }
+        if (prefetch != previousPrefetch || consumers != previousConsumers) {
+            log.debug("Event flow: pending {}, latency {} ms, prefetch {} -> {}, consumers {} -> {}",
+                    pending, TimeUnit.NANOSECONDS.toMillis(meanLatency),
+                    previousPrefetch, prefetch, previousConsumers, consumers);
+        }
+        // Applied every round, containers started since (shards) pick up the current values
+        apply(consumers >= previousConsumers);
+    }
+
+    private void apply(boolean growing) {
+        for (ManagedContainer managed : containers.get()) {
+            if (!(managed.container() instanceof SimpleMessageListenerContainer container)) {
+                continue;
+            }
+            container.setPrefetchCount(prefetch);
+            if (!managed.elastic()) {
+                continue;
+            }
+            // The container scales on its own between concurrent and max, pin both to the target
+            if (growing) {
+                container.setMaxConcurrentConsumers(consumers);
+                container.setConcurrentConsumers(consumers);
+            } else {
+                container.setConcurrentConsumers(consumers);
+                container.setMaxConcurrentConsumers(consumers);
+            }
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
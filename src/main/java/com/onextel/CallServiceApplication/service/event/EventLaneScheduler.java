@@ -0,0 +1,222 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Weighted fair scheduling of event work over lanes sharing the event executor.
+ * <p>
+ * Every lane is an {@link Executor} with its own FIFO queue and concurrency budget:
+ * no more than maxConcurrency of its tasks run at once, the rest waits in the lane
+ * instead of the executor queue. Whenever a task is queued or one finishes, the lanes
+ * with queued work and free budget are served in smooth weighted round robin order, so
+ * with weights 4 and 1 the first lane gets four executor slots for every one of the
+ * second, interleaved rather than in bursts. A lane flooded by informational events
+ * therefore only delays the other lanes by its share.
+ * <p>
+ * Lanes only order the start of the tasks. Per channel ordering comes from the
+ * mailboxes: one mailbox per channel, each run of it queued on the lane of the event
+ * at its head (see {@link MailboxScheduler}), so a channel never runs on two lanes at once.
+ * <p>
+ * Metrics, tagged with the lane:
+ *   - events.lane.queued     tasks waiting for the lane budget
+ *   - events.lane.running    tasks of the lane on the executor
+ *   - events.lane.wait       time from queueing to start
+ *   - events.lane.execution  run time of the lane tasks
+ */
+@Slf4j
+public class EventLaneScheduler {
+
+    public record LaneSpec(String name, int weight, int maxConcurrency) {
+    }
+
+    private record Queued(Runnable task, long queuedAtNanos) {
+    }
+
+    private final ExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    public EventLaneScheduler(ExecutorService executor, List<LaneSpec> specs, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        for (LaneSpec spec : specs) {
+            if (spec.weight() <= 0 || spec.maxConcurrency() <= 0) {
+                throw new IllegalArgumentException("Lane " + spec.name() + " needs a positive weight and budget");
+            }
+            lanes.put(spec.name(), new Lane(spec, meterRegistry));
+        }
+        log.info("Event lanes: {}", specs);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the lane does not exist
+     */
+    public Executor lane(String name) {
+        Lane lane = lanes.get(name);
+        if (lane == null) {
+            throw new IllegalArgumentException("Unknown event lane " + name);
+        }
+        return lane;
+    }
+
+    /**
+     * Tasks of all lanes waiting for their budget.
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return lanes.values().stream().mapToInt(lane -> lane.queue.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the tasks waiting for their lane budget without running them, used at
+     * the end of the shutdown drain.
+     */
+    public List<Runnable> drainQueued() {
+        List<Runnable> queued = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Lane lane : lanes.values()) {
+                lane.queue.forEach(q -> queued.add(q.task()));
+                lane.queue.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return queued;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Lane lane;
+            Queued next;
+            lock.lock();
+            try {
+                lane = pickLane();
+                if (lane == null) {
+                    return;
+                }
+                next = lane.queue.poll();
+                lane.running++;
+            } finally {
+                lock.unlock();
+            }
+            Lane selected = lane;
+            try {
+                executor.execute(() -> run(selected, next));
+            } catch (RejectedExecutionException e) {
+                // Executor shut down after the lane accepted the task: leave it queued for
+                // drainQueued() to nack, never run it on the caller
+                lock.lock();
+                try {
+                    selected.queue.addFirst(next);
+                    selected.running--;
+                } finally {
+                    lock.unlock();
+                }
+                log.warn("Event executor rejected a task of lane {}, left it queued", selected.spec.name());
+                return;
+            }
+        }
+    }
+
+    // Smooth weighted round robin over the lanes with queued work and free budget
+    private Lane pickLane() {
+        Lane best = null;
+        int eligibleWeight = 0;
+        for (Lane lane : lanes.values()) {
+            if (lane.queue.isEmpty() || lane.running >= lane.spec.maxConcurrency()) {
+                continue;
+            }
+            lane.currentWeight += lane.spec.weight();
+            eligibleWeight += lane.spec.weight();
+            if (best == null || lane.currentWeight > best.currentWeight) {
+                best = lane;
+            }
+        }
+        if (best != null) {
+            best.currentWeight -= eligibleWeight;
+        }
+        return best;
+    }
+
+    private void run(Lane lane, Queued queued) {
+        long startedAt = System.nanoTime();
+        lane.waitTimer.record(startedAt - queued.queuedAtNanos(), TimeUnit.NANOSECONDS);
+        try {
+            queued.task().run();
+        } finally {
+            lane.executionTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            lock.lock();
+            try {
+                lane.running--;
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+    }
+
+    private final class Lane implements Executor {
+        private final LaneSpec spec;
+        // Guarded by the scheduler lock
+        private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+        private int running;
+        private int currentWeight;
+
+        private final Timer waitTimer;
+        private final Timer executionTimer;
+
+        Lane(LaneSpec spec, MeterRegistry meterRegistry) {
+            this.spec = spec;
+            Gauge.builder("events.lane.queued", this, lane -> lane.queue.size())
+                    .tag("lane", spec.name())
+                    .description("Event tasks waiting for the lane budget")
+                    .register(meterRegistry);
+            Gauge.builder("events.lane.running", this, lane -> lane.running)
+                    .tag("lane", spec.name())
+                    .description("Event tasks of the lane on the executor")
+                    .register(meterRegistry);
+            this.waitTimer = Timer.builder("events.lane.wait")
+                    .tag("lane", spec.name())
+                    .description("Time an event task waited in its lane")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+            this.executionTimer = Timer.builder("events.lane.execution")
+                    .tag("lane", spec.name())
+                    .description("Run time of the event tasks of the lane")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Event executor is shut down");
+            }
+            lock.lock();
+            try {
+                queue.add(new Queued(task, System.nanoTime()));
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled debug logging of raw event payloads.
+ * <p>
+ * Payloads are handed to the logger as a {@link #describe lazy view} of the body, so
+ * the bytes are only decoded when a log statement is actually written, and at most
+ * once per view. With DEBUG enabled for this class one payload out of
+ * {@code sampleEvery} is logged, a sample of 0 disables payload logging.
+ */
+@Slf4j
+public class EventPayloadLogger {
+    private final long sampleEvery;
+    private final int maxBytes;
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * @param sampleEvery log one payload out of this many, 0 to never log
+     * @param maxBytes    longest prefix of a body that is decoded
+     */
+    public EventPayloadLogger(long sampleEvery, int maxBytes) {
+        this.sampleEvery = Math.max(0, sampleEvery);
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    public void sample(byte[] body) {
+        if (sampleEvery == 0 || !log.isDebugEnabled()) {
+            return;
+        }
+        if (received.getAndIncrement() % sampleEvery == 0) {
+            log.debug("Event Message : {}", describe(body));
+        }
+    }
+
+    /**
+     * Returns a view of the body decoded on its first {@code toString()}, for log
+     * arguments of statements that may not be written.
+     */
+    public Object describe(byte[] body) {
+        return new LazyPayload(body, maxBytes);
+    }
+
+    private static final class LazyPayload {
+        private final byte[] body;
+        private final int maxBytes;
+        private String text;
+
+        private LazyPayload(byte[] body, int maxBytes) {
+            this.body = body;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public String toString() {
+            if (text == null) {
+                if (body == null) {
+                    text = "null";
+                } else if (body.length <= maxBytes) {
+                    text = new String(body, StandardCharsets.UTF_8);
+                } else {
+                    text = new String(body, 0, maxBytes, StandardCharsets.UTF_8)
+                            + "... (" + body.length + " bytes)";
+                }
+            }
+            return text;
+        }
+    }
+}
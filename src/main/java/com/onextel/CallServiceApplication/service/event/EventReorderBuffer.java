@@ -0,0 +1,314 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Restores the FreeSWITCH firing order of channel events before they reach the
+ * channel mailboxes.
+ * <p>
+ * Event-Sequence is a counter per FreeSWITCH node (Core-UUID) shared by every event
+ * the node fires. With prefetch across several consumers, a late CHANNEL_ANSWER can
+ * be delivered after the CHANNEL_HANGUP of the same channel. For each node the buffer
+ * tracks a watermark below which every sequence has been seen. A channel event above
+ * a gap is held until the gap closes, then released in sequence order. Events of any
+ * other type are only observed, they close gaps but are never held.
+ * <p>
+ * A gap that stays open for longer than the window (the missing event was filtered,
+ * rejected or consumed by another instance) is skipped: the watermark jumps past it
+ * and the held events are released. An event arriving below the watermark is late
+ * and released right away.
+ * <p>
+ * Gaps are tracked per node rather than per (node, channel): the sequence numbers of
+ * one channel are not contiguous, only the node stream tells an event missing from one
+ * filtered out. The buffer is therefore only useful on an instance that receives the
+ * whole stream of its nodes. When several instances share the queue, or the broker,
+ * the shard queues or mod_amqp filter events, most gaps never close and nearly every
+ * channel event waits for the window; leave it disabled there.
+ * <p>
+ * Metrics:
+ *   - events.reorder.gaps      channel events held because of a sequence gap
+ *   - events.reorder.late      events arriving after their slot was skipped
+ *   - events.reorder.timeouts  gaps skipped after the window expired
+ *   - events.reorder.buffered  events currently held
+ *   - events.reorder.hold.time time a held event waited for its gap to close
+ */
+@Slf4j
+public class EventReorderBuffer {
+    // Sequences tracked above the watermark, must cover the events in flight per node
+    private static final int SEQUENCE_WINDOW = 8192;
+    private static final int SEQUENCE_MASK = SEQUENCE_WINDOW - 1;
+    // Nodes without events for this long are dropped, a restarted FreeSWITCH gets a new Core-UUID
+    private static final long IDLE_NODE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final ConcurrentHashMap<String, NodeSequence> nodes = new ConcurrentHashMap<>();
+    private final Consumer<EventTask> releaser;
+    private final long windowNanos;
+    private final int maxBufferedPerNode;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private final Counter gapCounter;
+    private final Counter lateCounter;
+    private final Counter timeoutCounter;
+    private final Timer holdTimer;
+
+    /**
+     * @param windowMs           max time a channel event is held for a missing sequence
+     * @param maxBufferedPerNode held events per node before the oldest gap is skipped
+     * @param releaser           receives the events in order, called under the node lock
+     */
+    public EventReorderBuffer(long windowMs, int maxBufferedPerNode,
+                              Consumer<EventTask> releaser, MeterRegistry meterRegistry) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.maxBufferedPerNode = maxBufferedPerNode;
+        this.releaser = releaser;
+
+        this.gapCounter = Counter.builder("events.reorder.gaps")
+                .description("Channel events held because of a sequence gap")
+                .register(meterRegistry);
+        this.lateCounter = Counter.builder("events.reorder.late")
+                .description("Events arriving after their sequence slot was skipped")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("events.reorder.timeouts")
+                .description("Sequence gaps skipped after the reorder window expired")
+                .register(meterRegistry);
+        this.holdTimer = Timer.builder("events.reorder.hold.time")
+                .description("Time a channel event was held for a sequence gap")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("events.reorder.buffered", buffered, AtomicInteger::get)
+                .description("Channel events held by the reorder buffer")
+                .register(meterRegistry);
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "event-reorder-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepMs = Math.max(5, windowMs / 4);
+        this.timer.scheduleWithFixedDelay(this::expireGaps, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases the channel event once every earlier sequence of its node has been seen.
+     */
+    public void offer(String nodeId, EventTask task) {
+        nodeFor(nodeId).offer(task);
+    }
+
+    /**
+     * Records the sequence of an event that is not reordered, it may close a gap.
+     */
+    public void observe(String nodeId, int sequence) {
+        nodeFor(nodeId).observe(sequence);
+    }
+
+    /**
+     * Releases every held event in sequence order, skipping all open gaps.
+     */
+    public void releaseAll() {
+        nodes.values().forEach(NodeSequence::releaseAll);
+    }
+
+    public void shutdown() {
+        timer.shutdown();
+        releaseAll();
+    }
+
+    public int getBufferedCount() {
+        return buffered.get();
+    }
+
+    private NodeSequence nodeFor(String nodeId) {
+        return nodes.computeIfAbsent(nodeId == null ? "unknown" : nodeId, NodeSequence::new);
+    }
+
+    private void expireGaps() {
+        try {
+            long now = System.nanoTime();
+            nodes.values().forEach(node -> node.expire(now));
+            nodes.values().removeIf(node -> node.isIdle(now));
+        } catch (Exception e) {
+            log.error("Failed to expire reorder gaps", e);
+        }
+    }
+
+    private record HeldEvent(EventTask task, long sequence, long heldAtNanos) {
+    }
+
+    /**
+     * Sequence state of one FreeSWITCH node.
+     */
+    private final class NodeSequence {
+        private final String nodeId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] seen = new long[SEQUENCE_WINDOW / Long.SIZE];
+        private final PriorityQueue<HeldEvent> held =
+                new PriorityQueue<>(Comparator.comparingLong(HeldEvent::sequence));
+        private boolean initialized;
+        // Every sequence <= watermark has been seen or skipped
+        private long watermark;
+        private volatile long lastEventNanos = System.nanoTime();
+
+        NodeSequence(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        void offer(EventTask task) {
+            long sequence = task.getEventSequence();
+            lastEventNanos = System.nanoTime();
+            lock.lock();
+            try {
+                if (!accept(sequence)) {
+                    lateCounter.increment();
+                    releaser.accept(task);
+                    return;
+                }
+                if (sequence == watermark + 1) {
+                    markSeen(sequence);
+                    releaser.accept(task);
+                    releaseReady();
+                    return;
+                }
+                markSeen(sequence);
+                gapCounter.increment();
+                held.add(new HeldEvent(task, sequence, System.nanoTime()));
+                buffered.incrementAndGet();
+                if (held.size() > maxBufferedPerNode) {
+                    log.warn("Reorder buffer of node {} full, skipping gap above sequence {}", nodeId, watermark);
+                    skipTo(held.peek().sequence());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void observe(long sequence) {
+            lastEventNanos = System.nanoTime();
+            lock.lock();
+            try {
+                if (accept(sequence)) {
+                    markSeen(sequence);
+                    releaseReady();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void expire(long now) {
+            lock.lock();
+            try {
+                long expiredSequence = -1;
+                for (HeldEvent event : held) {
+                    if (now - event.heldAtNanos() >= windowNanos) {
+                        expiredSequence = Math.max(expiredSequence, event.sequence());
+                    }
+                }
+                if (expiredSequence >= 0) {
+                    timeoutCounter.increment();
+                    log.debug("Reorder window expired on node {}, skipping sequences {} to {}",
+                            nodeId, watermark + 1, expiredSequence - 1);
+                    skipTo(expiredSequence);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isIdle(long now) {
+            return now - lastEventNanos > IDLE_NODE_NANOS && held.isEmpty();
+        }
+
+        void releaseAll() {
+            lock.lock();
+            try {
+                long lastHeld = watermark;
+                for (HeldEvent event : held) {
+                    lastHeld = Math.max(lastHeld, event.sequence());
+                }
+                skipTo(lastHeld);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Initializes the watermark on the first event of the node.
+         *
+         * @return false if the sequence is at or below the watermark (late or duplicate)
+         */
+        private boolean accept(long sequence) {
+            if (!initialized) {
+                initialized = true;
+                watermark = sequence - 1;
+            }
+            if (sequence <= watermark) {
+                return false;
+            }
+            if (sequence - watermark >= SEQUENCE_WINDOW) {
+                // Far ahead of the watermark, nothing in between can still be expected in order
+                log.warn("Sequence {} of node {} outside reorder window, skipping gap above {}",
+                        sequence, nodeId, watermark);
+                timeoutCounter.increment();
+                skipTo(sequence - SEQUENCE_WINDOW + 1);
+            }
+            return true;
+        }
+
+        private void markSeen(long sequence) {
+            int index = (int) (sequence & SEQUENCE_MASK);
+            seen[index >>> 6] |= 1L << index;
+        }
+
+        /**
+         * Moves the watermark just below the sequence, treating missing sequences as
+         * skipped, and releases everything that became ready.
+         */
+        private void skipTo(long sequence) {
+            while (watermark < sequence - 1) {
+                watermark++;
+                int index = (int) (watermark & SEQUENCE_MASK);
+                seen[index >>> 6] &= ~(1L << index);
+            }
+            releaseReady();
+        }
+
+        private void releaseReady() {
+            while (true) {
+                long next = watermark + 1;
+                int index = (int) (next & SEQUENCE_MASK);
+                long bit = 1L << index;
+                if ((seen[index >>> 6] & bit) == 0) {
+                    break;
+                }
+                seen[index >>> 6] &= ~bit;
+                watermark = next;
+            }
+
+            long now = System.nanoTime();
+            HeldEvent head;
+            while ((head = held.peek()) != null && head.sequence() <= watermark) {
+                held.poll();
+                buffered.decrementAndGet();
+                holdTimer.record(now - head.heldAtNanos(), TimeUnit.NANOSECONDS);
+                releaser.accept(head.task());
+            }
+        }
+    }
+}
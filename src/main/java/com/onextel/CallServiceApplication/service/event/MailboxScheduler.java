@@ -0,0 +1,260 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.common.ThreadUtils;
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Actor style scheduler for channel events.
+ * <p>
+ * Every channel UUID owns a {@link ChannelMailbox}. A mailbox is created on the first
+ * event of the channel, scheduled on the shared executor only while it has work and
+ * released again once it is drained. Creation, offer and release all happen inside
+ * {@link ConcurrentHashMap#compute} for the channel key, so an event can never be
+ * offered to a mailbox that is concurrently being removed.
+ * <p>
+ * With a lane selector (see {@link EventLaneScheduler}) the channel keeps its single
+ * mailbox and the lanes only weigh the scheduling: every run of a mailbox is queued on
+ * the lane of the event at its head and only takes the following events of that lane,
+ * so the channel events still run one at a time and in order.
+ * <p>
+ * On shutdown {@link #drain(Duration)} lets every mailbox work off its backlog on the
+ * executor, all channels in parallel and each in order, until one deadline. What is
+ * left then is taken out of the mailboxes and nacked, the mailboxes still running stop
+ * after their current event and nack the rest of their batch.
+ * <p>
+ * Metrics:
+ *   - events.mailbox.active             number of live mailboxes
+ *   - events.mailbox.pending            events waiting in all mailboxes
+ *   - events.mailbox.depth              mailbox depth observed on every enqueue
+ *   - events.mailbox.scheduling.latency time between scheduling a mailbox and its run
+ */
+@Slf4j
+public class MailboxScheduler {
+
+    /**
+     * Outcome of a {@link #drain(Duration)}.
+     *
+     * @param drained            events handled while draining
+     * @param nacked             events nacked at the deadline
+     * @param abandonedMailboxes mailboxes still holding events at the deadline
+     * @param complete           every mailbox drained before the deadline
+     */
+    public record DrainReport(long drained, int nacked, int abandonedMailboxes, long durationMs, boolean complete) {
+    }
+
+    private final ConcurrentHashMap<String, ChannelMailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final LongAdder completedEvents = new LongAdder();
+    private final AtomicInteger abandonedEvents = new AtomicInteger();
+    // Set at the drain deadline, mailboxes stop running events and new ones are refused
+    private volatile boolean abandoned;
+    private final Executor executor;
+    private final Function<EventTask, Executor> laneSelector;
+    private final int mailboxCapacity;
+    @Getter
+    private final int batchSize;
+
+    private final DistributionSummary depthSummary;
+    private final Timer schedulingLatency;
+
+    public MailboxScheduler(Executor executor, int mailboxCapacity, int batchSize, MeterRegistry meterRegistry) {
+        this(executor, null, mailboxCapacity, batchSize, meterRegistry);
+    }
+
+    /**
+     * @param laneSelector executor (event lane) of a mailbox run, chosen by the event at the
+     *                     head of the mailbox, null to run every mailbox on the executor
+     */
+    public MailboxScheduler(Executor executor, Function<EventTask, Executor> laneSelector,
+                            int mailboxCapacity, int batchSize, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.laneSelector = laneSelector;
+        this.mailboxCapacity = mailboxCapacity;
+        this.batchSize = batchSize;
+
+        Gauge.builder("events.mailbox.active", mailboxes, ConcurrentHashMap::size)
+                .description("Channel mailboxes currently alive")
+                .register(meterRegistry);
+        Gauge.builder("events.mailbox.pending", pendingEvents, AtomicInteger::get)
+                .description("Events waiting in channel mailboxes")
+                .register(meterRegistry);
+        this.depthSummary = DistributionSummary.builder("events.mailbox.depth")
+                .description("Mailbox depth observed when an event is enqueued")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.schedulingLatency = Timer.builder("events.mailbox.scheduling.latency")
+                .description("Delay between scheduling a mailbox and the start of its drain")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds the task to the mailbox of the channel and schedules the mailbox if it is idle.
+     *
+     * @return false if the channel mailbox is full, the caller owns the task again
+     */
+    public boolean submit(String channelId, EventTask task) {
+        if (abandoned) {
+            return false;
+        }
+        boolean[] accepted = new boolean[1];
+        ChannelMailbox mailbox = mailboxes.compute(channelId, (id, existing) -> {
+            ChannelMailbox target = existing != null ? existing : new ChannelMailbox(id, this);
+            accepted[0] = target.offer(task, mailboxCapacity);
+            return target;
+        });
+
+        if (!accepted[0]) {
+            return false;
+        }
+
+        pendingEvents.incrementAndGet();
+        depthSummary.record(mailbox.depth());
+        schedule(mailbox);
+        return true;
+    }
+
+    void schedule(ChannelMailbox mailbox) {
+        if (!mailbox.trySchedule()) {
+            return;
+        }
+        try {
+            mailbox.getScheduledOn().execute(mailbox);
+        } catch (RejectedExecutionException e) {
+            log.warn("Executor rejected mailbox for channel {}, rejecting its pending events",
+                    mailbox.getChannelId());
+            mailboxes.remove(mailbox.getChannelId(), mailbox);
+            mailbox.markReleased();
+            var pending = mailbox.drainPending();
+            onDequeued(pending.size());
+            pending.forEach(EventTask::nack);
+        }
+    }
+
+    /**
+     * Removes the mailbox from the map if it is still empty. The emptiness check runs
+     * under the same bin lock as {@link #submit}, so no event can slip in between.
+     */
+    boolean release(ChannelMailbox mailbox) {
+        boolean[] released = new boolean[1];
+        mailboxes.computeIfPresent(mailbox.getChannelId(), (id, current) -> {
+            if (current == mailbox && mailbox.isEmpty()) {
+                released[0] = true;
+                return null;
+            }
+            return current;
+        });
+        if (released[0]) {
+            mailbox.markReleased();
+        }
+        return released[0];
+    }
+
+    /**
+     * Executor a mailbox run starting with the task is scheduled on.
+     */
+    Executor executorFor(EventTask task) {
+        return laneSelector == null || task == null ? executor : laneSelector.apply(task);
+    }
+
+    void onDequeued(int count) {
+        if (count > 0) {
+            pendingEvents.addAndGet(-count);
+        }
+    }
+
+    void onCompleted() {
+        completedEvents.increment();
+    }
+
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Nacks the events a running mailbox polled but did not start before the deadline.
+     */
+    void abandon(List<EventTask> tasks) {
+        abandonedEvents.addAndGet(tasks.size());
+        tasks.forEach(EventTask::nack);
+    }
+
+    void recordSchedulingLatency(long nanos) {
+        schedulingLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getActiveMailboxCount() {
+        return mailboxes.size();
+    }
+
+    public int getPendingEventCount() {
+        return pendingEvents.get();
+    }
+
+    /**
+     * Waits for the mailboxes to work off their backlog until the timeout, then nacks the
+     * events left in them. The mailboxes keep draining on their executor, in parallel
+     * across channels and in order within one, nothing runs on the calling thread.
+     * Mailboxes refuse new events once the timeout passed, so call it after the event
+     * sources stopped.
+     */
+    public DrainReport drain(Duration timeout) {
+        long startedAt = System.nanoTime();
+        long completedBefore = completedEvents.sum();
+        boolean complete = awaitQuiescence(timeout);
+        int abandonedMailboxes = 0;
+        if (!complete) {
+            abandoned = true;
+            List<EventTask> pending = new ArrayList<>();
+            for (ChannelMailbox mailbox : mailboxes.values()) {
+                if (mailboxes.remove(mailbox.getChannelId(), mailbox)) {
+                    mailbox.markReleased();
+                }
+                List<EventTask> tasks = mailbox.drainPending();
+                if (!tasks.isEmpty()) {
+                    onDequeued(tasks.size());
+                    pending.addAll(tasks);
+                    abandonedMailboxes++;
+                }
+            }
+            abandon(pending);
+        }
+        return new DrainReport(completedEvents.sum() - completedBefore, abandonedEvents.get(), abandonedMailboxes,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), complete);
+    }
+
+    /**
+     * Waits until all mailboxes have been drained by the executor.
+     *
+     * @return true if every mailbox drained before the timeout
+     */
+    public boolean awaitQuiescence(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!mailboxes.isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            if (ThreadUtils.safeSleep(50, "mailbox scheduler - awaitQuiescence")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
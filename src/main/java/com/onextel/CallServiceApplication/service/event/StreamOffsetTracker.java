@@ -0,0 +1,74 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.rabbitmq.stream.Consumer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Tracks the offsets of one stream consumer and stores the highest offset below which
+ * every delivered message has completed.
+ * <p>
+ * Events complete out of delivery order (channel mailboxes), storing the offset of the
+ * latest completed message would skip the ones still in progress after a crash. The
+ * tracker keeps the offsets in flight, the committable offset is just below the oldest
+ * of them, or the last delivered offset when nothing is in flight. Offsets of a stream
+ * are not necessarily contiguous for a consumer, so only delivered offsets count.
+ * <p>
+ * An offset that never completes (an event refused while shutting down) holds the
+ * committed offset back, the consumer restarts from it and the event is replayed.
+ */
+@Slf4j
+public class StreamOffsetTracker {
+    @Getter
+    private final Consumer consumer;
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private volatile long lastDelivered = -1;
+    private long storedOffset = -1;
+
+    public StreamOffsetTracker(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Registers a delivered offset, must be called in delivery order.
+     */
+    public void delivered(long offset) {
+        // Added before publishing lastDelivered, a commit never sees it delivered but not in flight
+        inFlight.add(offset);
+        lastDelivered = offset;
+    }
+
+    public void completed(long offset) {
+        inFlight.remove(offset);
+    }
+
+    /**
+     * @return the highest offset with every delivered offset up to it completed, -1 if none
+     */
+    public long committableOffset() {
+        long delivered = lastDelivered;
+        Long oldest = inFlight.ceiling(Long.MIN_VALUE);
+        return oldest == null ? delivered : Math.min(delivered, oldest - 1);
+    }
+
+    /**
+     * Stores the committable offset on the broker if it moved since the last commit.
+     *
+     * @return true if an offset was stored
+     */
+    public synchronized boolean commit() {
+        long offset = committableOffset();
+        if (offset < 0 || offset == storedOffset) {
+            return false;
+        }
+        consumer.store(offset);
+        storedOffset = offset;
+        return true;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
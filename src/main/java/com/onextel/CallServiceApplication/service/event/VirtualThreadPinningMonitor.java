@@ -0,0 +1,108 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports virtual threads that block while pinned to their carrier thread.
+ * <p>
+ * Listens to the JFR {@code jdk.VirtualThreadPinned} event in-process. A pinned virtual
+ * thread holds a carrier (synchronized block, native frame) while it waits on I/O, with
+ * enough of them the event executor degrades to a small fixed pool. Every pinning is
+ * counted and timed, and the stack is logged once per distinct pinning site so the
+ * offending monitor can be found without flooding the log.
+ * <p>
+ * Metrics:
+ *   - events.virtual.pinned          pinned blocking operations
+ *   - events.virtual.pinned.duration time the carrier stayed pinned
+ */
+@Slf4j
+public class VirtualThreadPinningMonitor implements AutoCloseable {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_REPORTED_SITES = 256;
+    private static final int LOGGED_FRAMES = 12;
+
+    private final Duration threshold;
+    private final Counter pinnedCounter;
+    private final Timer pinnedDuration;
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+    private RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(Duration threshold, MeterRegistry meterRegistry) {
+        this.threshold = threshold;
+        this.pinnedCounter = Counter.builder("events.virtual.pinned")
+                .description("Virtual threads blocked while pinned to a carrier thread")
+                .register(meterRegistry);
+        this.pinnedDuration = Timer.builder("events.virtual.pinned.duration")
+                .description("Time a virtual thread kept its carrier pinned")
+                .register(meterRegistry);
+    }
+
+    public synchronized void start() {
+        if (recordingStream != null) {
+            return;
+        }
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.setReuse(false);
+            stream.startAsync();
+            recordingStream = stream;
+            log.info("Virtual thread pinning monitor started, threshold {} ms", threshold.toMillis());
+        } catch (Exception e) {
+            // JFR can be disabled in the runtime, pinning is a diagnostic only
+            log.warn("Unable to start virtual thread pinning monitor: {}", e.getMessage());
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCounter.increment();
+        pinnedDuration.record(event.getDuration());
+
+        String stack = formatStack(event.getStackTrace());
+        if (reportedSites.size() < MAX_REPORTED_SITES && reportedSites.add(stack)) {
+            log.warn("Virtual thread pinned for {} ms on thread {}:{}",
+                    event.getDuration().toMillis(),
+                    event.getThread() != null ? event.getThread().getJavaName() : "unknown",
+                    stack);
+        }
+    }
+
+    private static String formatStack(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return " <no stack trace>";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(LOGGED_FRAMES, frames.size()); i++) {
+            RecordedFrame frame = frames.get(i);
+            sb.append(System.lineSeparator()).append("\tat ")
+                    .append(frame.getMethod().getType().getName())
+                    .append('.')
+                    .append(frame.getMethod().getName())
+                    .append(':')
+                    .append(frame.getLineNumber());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (recordingStream != null) {
+            recordingStream.close();
+            recordingStream = null;
+        }
+    }
+}
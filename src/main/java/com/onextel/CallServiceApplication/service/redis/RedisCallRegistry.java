@@ -3,8 +3,11 @@ package com.onextel.CallServiceApplication.service.redis;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallChanges;
 import com.onextel.CallServiceApplication.model.CallState;
+import com.onextel.CallServiceApplication.model.CallSnapshot;
 import com.onextel.CallServiceApplication.model.Channel;
+import com.onextel.CallServiceApplication.model.ChannelSnapshot;
 import com.onextel.CallServiceApplication.model.DTMFEvent;
 import com.onextel.CallServiceApplication.util.RedisCommandUtils;
 import com.onextel.CallServiceApplication.util.RedisJsonUtils;
@@ -39,83 +42,217 @@ public class RedisCallRegistry {
     }
 
     public boolean registerCall(Call call) {
-        return connectionPool.executeSync("registerCall", conn -> {
-            try {
-                RedisAsyncCommands<String, String> async = conn.async();
-                String callJson = objectMapper.writeValueAsString(call);
-                String callKey = RedisKeys.callKey(call.getCallUuid());
-                String instanceCallsKey = RedisKeys.instanceCallsKey(instanceId);
-
-                List<RedisFuture<?>> futures = new ArrayList<>(Arrays.asList(
-                        RedisCommandUtils.jsonSetAsync(async, callKey, "$", callJson),
-                        RedisCommandUtils.expire(async, callKey, RedisKeys.TTL.CALL_SECONDS),
-                        RedisCommandUtils.sadd(async, instanceCallsKey, call.getCallUuid()),
-                        RedisCommandUtils.sadd(async, RedisKeys.GLOBAL_CALLS_KEY, call.getCallUuid()),
-                        RedisCommandUtils.hincrby(async, RedisKeys.GLOBAL_STATS_KEY, "totalCalls", 1),
-                        RedisCommandUtils.hincrby(async, RedisKeys.GLOBAL_STATS_KEY, "activeCalls", 1)
-                ));
+        return registerCallAsync(call).join();
+    }
+
+    /**
+     * Stores a new call with its channel mappings, adds it to the call sets and counts it.
+     * Like the other async writes, completes with false when a command fails or times
+     * out, never exceptionally.
+     */
+    public CompletableFuture<Boolean> registerCallAsync(Call call) {
+        // The snapshot the changes tracked from now on apply to
+        CallSnapshot stored = call.startChangeTracking();
+        return writeAsync("registerCall", call.getCallUuid(), async -> {
+            String callJson = objectMapper.writeValueAsString(stored);
+            String callKey = RedisKeys.callKey(call.getCallUuid());
+            String instanceCallsKey = RedisKeys.instanceCallsKey(instanceId);
+
+            List<RedisFuture<?>> futures = new ArrayList<>(Arrays.asList(
+                    RedisCommandUtils.jsonSetAsync(async, callKey, "$", callJson),
+                    RedisCommandUtils.expire(async, callKey, RedisKeys.TTL.CALL_SECONDS),
+                    RedisCommandUtils.sadd(async, instanceCallsKey, call.getCallUuid()),
+                    RedisCommandUtils.sadd(async, RedisKeys.GLOBAL_CALLS_KEY, call.getCallUuid()),
+                    RedisCommandUtils.hincrby(async, RedisKeys.GLOBAL_STATS_KEY, "totalCalls", 1),
+                    RedisCommandUtils.hincrby(async, RedisKeys.GLOBAL_STATS_KEY, "activeCalls", 1)
+            ));
+
+            // Channel mappings
+            stored.channels().keySet().forEach(channelUuid -> {
+                futures.add(async.set(RedisKeys.channelMappingKey(channelUuid), call.getCallUuid()));
+                futures.add(async.expire(RedisKeys.channelMappingKey(channelUuid), RedisKeys.TTL.CALL_SECONDS));
+
+            });
+            return futures;
+        }).thenApply(registered -> {
+            if (!registered) {
+                call.stopChangeTracking();
+            }
+            return registered;
+        });
+    }
 
-                // Channel mappings
-                call.getChannels().forEach((channelUuid, channel) -> {
-                    futures.add(async.set(RedisKeys.channelMappingKey(channelUuid), call.getCallUuid()));
-                    futures.add(async.expire(RedisKeys.channelMappingKey(channelUuid), RedisKeys.TTL.CALL_SECONDS));
+    public boolean unregisterCall(String callUuid) {
+        return unregisterCallAsync(callUuid).join();
+    }
+
+    /**
+     * Counts the call as completed, completes with false if the write failed.
+     */
+    public CompletableFuture<Boolean> unregisterCallAsync(String callUuid) {
+        return writeAsync("unregisterCall", callUuid, async -> Arrays.asList(
+                // Do not delete for now (24 hr ttl is set for all call keys)
+                //async.del(RedisKeys.callKey(callUuid)),
+                //async.srem(RedisKeys.instanceCallsKey(instanceId), callUuid),
+                //async.srem(RedisKeys.GLOBAL_CALLS_KEY, callUuid),
+
+                async.hincrby(RedisKeys.GLOBAL_STATS_KEY, "activeCalls", -1),
+                async.hincrby(RedisKeys.GLOBAL_STATS_KEY, "completedCalls", 1)
+        ));
+    }
+
+    public boolean updateCall(Call call) {
+        return updateCallAsync(call).join();
+    }
 
+    /**
+     * Writes the changes recorded on the call since its last write: the changed
+     * properties of the call and its channels in one JSON.MSET, a JSON.DEL per removed
+     * channel and the mappings of the added channels only.
+     * <p>
+     * Falls back to {@link #storeCallAsync(Call)} while the call does not record its
+     * changes (loaded from Redis, or never written by this instance) and when the partial
+     * write fails, as its changes were drained already.
+     */
+    public CompletableFuture<Boolean> updateCallAsync(Call call) {
+        if (!call.isChangeTracked()) {
+            return storeCallAsync(call);
+        }
+        CallChanges changes = call.drainChanges();
+        if (changes.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return writeAsync("updateCallChanges", call.getCallUuid(),
+                async -> changeCommands(async, call.getCallUuid(), changes))
+                // Off the Redis I/O thread, the fallback borrows a pooled connection
+                .thenComposeAsync(updated -> {
+                    if (updated) {
+                        return CompletableFuture.completedFuture(true);
+                    }
+                    log.warn("Partial update of call {} failed, storing the whole call", call.getCallUuid());
+                    call.stopChangeTracking();
+                    return storeCallAsync(call);
                 });
+    }
 
-                return LettuceFutures.awaitAll(
-                        RedisKeys.Intervals.BATCH_TIMEOUT_SECONDS,
-                        TimeUnit.SECONDS,
-                        futures.toArray(new RedisFuture[0])
-                );
-            } catch (JsonProcessingException e) {
-                log.error("Serialization failed for call {} ", call.getCallUuid(), e);
-                return false;
+    private List<RedisFuture<?>> changeCommands(RedisAsyncCommands<String, String> async, String callUuid,
+                                                CallChanges changes) throws JsonProcessingException {
+        String callKey = RedisKeys.callKey(callUuid);
+        Map<String, String> jsonByPath = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> property : changes.properties().entrySet()) {
+            jsonByPath.put("$." + property.getKey(), objectMapper.writeValueAsString(property.getValue()));
+        }
+        for (Map.Entry<String, ChannelSnapshot> channel : changes.addedChannels().entrySet()) {
+            jsonByPath.put(channelPath(channel.getKey()), objectMapper.writeValueAsString(channel.getValue()));
+        }
+        for (Map.Entry<String, Map<String, Object>> channel : changes.channelChanges().entrySet()) {
+            String channelPath = channelPath(channel.getKey());
+            for (Map.Entry<String, Object> property : channel.getValue().entrySet()) {
+                jsonByPath.put(channelPath + "." + property.getKey(),
+                        objectMapper.writeValueAsString(property.getValue()));
             }
-        }, false); // Default fallback value
+        }
+
+        List<RedisFuture<?>> futures = new ArrayList<>();
+        if (!jsonByPath.isEmpty()) {
+            futures.add(RedisJsonUtils.setJsonPaths(async, callKey, jsonByPath));
+        }
+        changes.removedChannels().forEach(channelUuid ->
+                futures.add(RedisCommandUtils.jsonDelAsync(async, callKey, channelPath(channelUuid))));
+        changes.addedChannels().keySet().forEach(channelUuid -> {
+            futures.add(async.set(RedisKeys.channelMappingKey(channelUuid), callUuid));
+            futures.add(async.expire(RedisKeys.channelMappingKey(channelUuid), RedisKeys.TTL.CALL_SECONDS));
+        });
+        return futures;
     }
 
-    public boolean unregisterCall(String callUuid) {
-        return connectionPool.executeSync("unregisterCall", conn -> {
-            RedisAsyncCommands<String, String> async = conn.async();
-            List<RedisFuture<?>> futures = Arrays.asList(
-                    // Do not delete for now (24 hr ttl is set for all call keys)
-                    //async.del(RedisKeys.callKey(callUuid)),
-                    //async.srem(RedisKeys.instanceCallsKey(instanceId), callUuid),
-                    //async.srem(RedisKeys.GLOBAL_CALLS_KEY, callUuid),
-
-                    async.hincrby(RedisKeys.GLOBAL_STATS_KEY, "activeCalls", -1),
-                    async.hincrby(RedisKeys.GLOBAL_STATS_KEY, "completedCalls", 1)
-            );
+    // Bracket notation, channel UUIDs contain dashes
+    private static String channelPath(String channelUuid) {
+        return "$.channels['" + channelUuid + "']";
+    }
 
-            return LettuceFutures.awaitAll(
-                    RedisKeys.Intervals.BATCH_TIMEOUT_SECONDS,
-                    TimeUnit.SECONDS,
-                    futures.toArray(new RedisFuture[0])
-            );
-        }, false);
+    public boolean storeCall(Call call) {
+        return storeCallAsync(call).join();
     }
 
-    public boolean updateCall(Call call) {
-        return connectionPool.executeSync("updateCall", conn -> {
+    /**
+     * Writes the whole call with JSON.SET and the mappings of all its channels, then
+     * records its changes for the following {@link #updateCallAsync(Call)}.
+     */
+    public CompletableFuture<Boolean> storeCallAsync(Call call) {
+        CallSnapshot stored = call.startChangeTracking();
+        return writeAsync("storeCall", call.getCallUuid(), async -> {
+            String callJson = objectMapper.writeValueAsString(stored);
+            List<RedisFuture<?>> futures = new ArrayList<>();
+
+            futures.add(RedisCommandUtils.jsonSetAsync(
+                    async,
+                    RedisKeys.callKey(call.getCallUuid()),
+                    "$",
+                    callJson
+            ));
+
+            stored.channels().keySet().forEach(channelUuid -> {
+                futures.add(async.set(
+                        RedisKeys.channelMappingKey(channelUuid),
+                        call.getCallUuid()
+                ));
+                futures.add(async.expire(RedisKeys.channelMappingKey(channelUuid), RedisKeys.TTL.CALL_SECONDS));
+            });
+            return futures;
+        }).thenApply(written -> {
+            if (!written) {
+                call.stopChangeTracking();
+            }
+            return written;
+        });
+    }
+
+    // Commands of one write, sent together on one pooled connection
+    @FunctionalInterface
+    private interface CommandBatch {
+        List<RedisFuture<?>> send(RedisAsyncCommands<String, String> async) throws JsonProcessingException;
+    }
+
+    private CompletableFuture<Boolean> writeAsync(String operationName, String callUuid, CommandBatch batch) {
+        return connectionPool.<Boolean>executeAsync(operationName, conn -> {
+                    try {
+                        List<RedisFuture<?>> futures = batch.send(conn.async());
+                        return CompletableFuture.allOf(futures.stream()
+                                        .map(CompletionStage::toCompletableFuture)
+                                        .toArray(CompletableFuture[]::new))
+                                .orTimeout(RedisKeys.Intervals.BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                                .thenApply(__ -> true);
+                    } catch (JsonProcessingException e) {
+                        log.error("Serialization failed for call {} ", callUuid, e);
+                        return CompletableFuture.completedFuture(false);
+                    }
+                })
+                .exceptionally(e -> {
+                    log.error("Redis operation {} failed for call {}", operationName, callUuid, e);
+                    return false;
+                });
+    }
+
+    /**
+     * Moves the call into the call set of this instance and stores its current state.
+     */
+    public boolean adoptCall(Call call, String previousInstanceId) {
+        CallSnapshot stored = call.startChangeTracking();
+        boolean adopted = connectionPool.executeSync("adoptCall", conn -> {
             try {
                 RedisAsyncCommands<String, String> async = conn.async();
-                String callJson = objectMapper.writeValueAsString(call);
+                String callJson = objectMapper.writeValueAsString(stored);
                 List<RedisFuture<?>> futures = new ArrayList<>();
 
                 futures.add(RedisCommandUtils.jsonSetAsync(
-                        async,
-                        RedisKeys.callKey(call.getCallUuid()),
-                        "$",
-                        callJson
-                ));
-
-                call.getChannels().forEach((channelUuid, channel) -> {
-                    futures.add(async.set(
-                            RedisKeys.channelMappingKey(channelUuid),
-                            call.getCallUuid()
-                    ));
-                    futures.add(async.expire(RedisKeys.channelMappingKey(channelUuid), RedisKeys.TTL.CALL_SECONDS));
-                });
+                        async, RedisKeys.callKey(call.getCallUuid()), "$", callJson));
+                if (previousInstanceId != null && !previousInstanceId.equals(instanceId)) {
+                    futures.add(RedisCommandUtils.srem(async,
+                            RedisKeys.instanceCallsKey(previousInstanceId), call.getCallUuid()));
+                }
+                futures.add(RedisCommandUtils.sadd(async,
+                        RedisKeys.instanceCallsKey(instanceId), call.getCallUuid()));
 
                 return LettuceFutures.awaitAll(
                         RedisKeys.Intervals.BATCH_TIMEOUT_SECONDS,
@@ -127,6 +264,10 @@ public class RedisCallRegistry {
                 return false;
             }
         }, false);
+        if (!adopted) {
+            call.stopChangeTracking();
+        }
+        return adopted;
     }
 
 
@@ -118,10 +118,34 @@ public class RedisCallStateManager {
         return callRegistry.updateCall(call);
     }
 
+    public boolean storeCall(Call call) {
+        return callRegistry.storeCall(call);
+    }
+
+    public CompletableFuture<Boolean> registerCallAsync(Call call) {
+        return callRegistry.registerCallAsync(call);
+    }
+
+    public CompletableFuture<Boolean> updateCallAsync(Call call) {
+        return callRegistry.updateCallAsync(call);
+    }
+
+    public CompletableFuture<Boolean> storeCallAsync(Call call) {
+        return callRegistry.storeCallAsync(call);
+    }
+
     public boolean unregisterCall(String callUuid) {
         return callRegistry.unregisterCall(callUuid);
     }
 
+    public CompletableFuture<Boolean> unregisterCallAsync(String callUuid) {
+        return callRegistry.unregisterCallAsync(callUuid);
+    }
+
+    public boolean adoptCall(Call call, String previousInstanceId) {
+        return callRegistry.adoptCall(call, previousInstanceId);
+    }
+
     public Optional<Call> getCall(String callUuid) {
         return callRegistry.getCall(callUuid);
     }
@@ -0,0 +1,78 @@
+package com.onextel.CallServiceApplication.service.redis;
+
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Redis leases of the event shard queues, one key per shard holding the id of the
+ * consuming instance. A lease is only renewed or released by its owner.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RedisEventShardLeases {
+    private static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+                    "   return redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+                    "else " +
+                    "   return 0 " +
+                    "end";
+
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+                    "   return redis.call('DEL', KEYS[1]) " +
+                    "else " +
+                    "   return 0 " +
+                    "end";
+
+    private final RedisConnectionPool connectionPool;
+
+    public boolean tryAcquire(int shard, String instanceId, long ttlMs) {
+        return connectionPool.executeWithConnection("acquireShardLease", conn ->
+                "OK".equals(conn.sync().set(RedisKeys.eventShardLeaseKey(shard), instanceId,
+                        SetArgs.Builder.nx().px(ttlMs))));
+    }
+
+    /**
+     * @return false if the lease expired or is held by another instance
+     */
+    public boolean renew(int shard, String instanceId, long ttlMs) {
+        return connectionPool.executeWithConnection("renewShardLease", conn -> {
+            Long renewed = conn.sync().eval(RENEW_SCRIPT, ScriptOutputType.INTEGER,
+                    new String[]{RedisKeys.eventShardLeaseKey(shard)}, instanceId, String.valueOf(ttlMs));
+            return renewed != null && renewed == 1L;
+        });
+    }
+
+    public void release(int shard, String instanceId) {
+        connectionPool.executeWithConnection("releaseShardLease", conn -> {
+            conn.sync().eval(RELEASE_SCRIPT, ScriptOutputType.INTEGER,
+                    new String[]{RedisKeys.eventShardLeaseKey(shard)}, instanceId);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the owner of every shard, null for shards without a lease.
+     */
+    public String[] getOwners(int shardCount) {
+        String[] keys = new String[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            keys[shard] = RedisKeys.eventShardLeaseKey(shard);
+        }
+        return connectionPool.executeWithConnection("getShardOwners", conn -> {
+            List<KeyValue<String, String>> values = conn.sync().mget(keys);
+            String[] owners = new String[shardCount];
+            for (int shard = 0; shard < shardCount; shard++) {
+                owners[shard] = values.get(shard).getValueOrElse(null);
+            }
+            return owners;
+        });
+    }
+}
@@ -30,6 +30,10 @@ package com.onextel.CallServiceApplication.service.redis;
  * cluster:stats:standalone	            Hash	    Non-campaign call stats	            24h
  * cluster:calls:global                 ZSet        All calls by timestamp              Persistent
  * cluster:calls:orphaned               ZSet        Orphan call ids                     24h
+ * ***************************************************************************************************
+ *  Event Shards
+ * ***************************************************************************************************
+ * cluster:events:shard:{n}:lease       String      Instance consuming the shard queue  Lease TTL (renewed)
  */
 
 public final class RedisKeys {
@@ -122,6 +126,14 @@ public final class RedisKeys {
         public static final String CURRENT_INSTANCE = "currentInstance";
     }
 
+    /**
+     * ================== EVENT SHARD KEYS ==================
+     */
+    public static final String EVENT_SHARD_LEASE_PREFIX = "cluster:events:shard:%d:lease";
+    public static String eventShardLeaseKey(int shard) {
+        return String.format(EVENT_SHARD_LEASE_PREFIX, shard);
+    }
+
     /**
      * ================== LOCK KEYS ==================
      */
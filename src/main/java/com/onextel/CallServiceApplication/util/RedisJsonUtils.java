@@ -147,6 +147,20 @@ public class RedisJsonUtils {
                 args);
     }
 
+    // Sets already serialized values at full JSON paths of one key in a single JSON.MSET
+    public static RedisFuture<String> setJsonPaths(
+            RedisAsyncCommands<String, String> async,
+            String key,
+            Map<String, String> jsonByPath) {
+        CommandArgs<String, String> args = new CommandArgs<>(StringCodec.UTF8);
+        jsonByPath.forEach((path, json) -> args.add(key).add(path).add(json));
+
+        return async.dispatch(
+                CommandType.JSON_MSET,
+                new StatusOutput<>(StringCodec.UTF8),
+                args);
+    }
+
     // DTMF-specific updates
     public static RedisFuture<Long> appendDTMFEvent(
             RedisAsyncCommands<String, String> async,
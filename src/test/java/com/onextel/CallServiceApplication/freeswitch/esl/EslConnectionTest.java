@@ -0,0 +1,164 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EslConnectionTest {
+    private static final String PASSWORD = "ClueCon";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<EslMessage> events = new LinkedBlockingQueue<>();
+    private final CompletableFuture<EslConnection> ready = new CompletableFuture<>();
+    private FakeEslServer server;
+    private NioEventLoopGroup group;
+    private EslConnection connection;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakeEslServer(0, PASSWORD);
+        group = new NioEventLoopGroup(1);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        server.close();
+    }
+
+    @Test
+    void authenticatesSubscribesAndRunsBgapiOverJson() throws Exception {
+        connect("json HEARTBEAT BACKGROUND_JOB", 5000);
+        assertThat(connection.isReady()).isTrue();
+
+        EslMessage hostname = connection.sendCommand("api hostname").get(5, TimeUnit.SECONDS);
+        assertThat(hostname.getContentType()).isEqualTo(EslMessage.API_RESPONSE);
+        assertThat(hostname.getBodyAsString()).isEqualTo(FakeEslServer.HOSTNAME);
+
+        String jobUuid = UUID.randomUUID().toString();
+        EslMessage accepted = connection.bgapi("status", jobUuid).get(5, TimeUnit.SECONDS);
+        assertThat(accepted.getReplyText()).isEqualTo("+OK Job-UUID: " + jobUuid);
+
+        JsonNode job = nextEvent("BACKGROUND_JOB", EslMessage.EVENT_JSON);
+        assertThat(job.get("Job-UUID").asText()).isEqualTo(jobUuid);
+        assertThat(job.get("Job-Command").asText()).isEqualTo("status");
+        assertThat(job.get("Core-UUID").asText()).isNotBlank();
+
+        JsonNode heartbeat = nextEvent("HEARTBEAT", EslMessage.EVENT_JSON);
+        assertThat(heartbeat.get("Idle-CPU").asText()).isEqualTo("97.5");
+    }
+
+    @Test
+    void decodesPlainEvents() throws Exception {
+        connect("plain HEARTBEAT BACKGROUND_JOB", 5000);
+
+        String jobUuid = UUID.randomUUID().toString();
+        connection.bgapi("show calls as json", jobUuid).get(5, TimeUnit.SECONDS);
+
+        Map<String, String> job = null;
+        while (job == null) {
+            EslMessage event = events.poll(5, TimeUnit.SECONDS);
+            assertThat(event).isNotNull();
+            assertThat(event.getContentType()).isEqualTo(EslMessage.EVENT_PLAIN);
+            Map<String, String> headers = EslConnection.parsePlainEvent(event);
+            if ("BACKGROUND_JOB".equals(headers.get("Event-Name"))) {
+                job = headers;
+            }
+        }
+        assertThat(job).containsEntry("Job-UUID", jobUuid)
+                .containsEntry("Job-Command", "show")
+                // URL encoded on the wire
+                .containsEntry("Job-Command-Arg", "calls as json")
+                .containsEntry("FreeSWITCH-Hostname", FakeEslServer.HOSTNAME);
+        assertThat(job.get("_body")).startsWith("+OK ");
+    }
+
+    @Test
+    void failsCommandWithoutReplyAfterTimeout() throws Exception {
+        connect(null, 200);
+
+        assertThatThrownBy(() -> connection.sendCommand("api sleep").get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    void failsCommandsOnceClosed() throws Exception {
+        connect(null, 5000);
+        connection.close();
+
+        CompletableFuture<EslMessage> reply = connection.sendCommand("api hostname");
+        assertThatThrownBy(() -> reply.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+    }
+
+    @Test
+    void decodesFrameSplitAcrossReads() {
+        String body = "{\"Event-Name\":\"HEARTBEAT\",\"Event-Sequence\":\"42\"}";
+        byte[] frame = ("Content-Type: text/event-json\nContent-Length: "
+                + body.getBytes(StandardCharsets.UTF_8).length + "\n\n" + body
+                + "Content-Type: command/reply\nReply-Text: +OK accepted\n\n").getBytes(StandardCharsets.UTF_8);
+
+        for (int split = 1; split < frame.length; split++) {
+            EmbeddedChannel channel = new EmbeddedChannel(new EslFrameDecoder());
+            channel.writeInbound(Unpooled.wrappedBuffer(frame, 0, split));
+            channel.writeInbound(Unpooled.wrappedBuffer(frame, split, frame.length - split));
+
+            EslMessage event = channel.readInbound();
+            assertThat(event.getContentType()).as("split at %d", split).isEqualTo(EslMessage.EVENT_JSON);
+            assertThat(event.getBodyAsString()).as("split at %d", split).isEqualTo(body);
+            EslMessage reply = channel.readInbound();
+            assertThat(reply.getReplyText()).as("split at %d", split).isEqualTo("+OK accepted");
+            assertThat((Object) channel.readInbound()).isNull();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private void connect(String subscription, long replyTimeoutMs) throws Exception {
+        connection = new EslConnection("127.0.0.1", server.getPort(), PASSWORD, subscription, 500,
+                replyTimeoutMs, group, new EslConnection.Listener() {
+            @Override
+            public void onReady(EslConnection source) {
+                ready.complete(source);
+            }
+
+            @Override
+            public void onEvent(EslConnection source, EslMessage event) {
+                events.add(event);
+            }
+        });
+        connection.connect();
+        assertThat(ready.get(5, TimeUnit.SECONDS)).isSameAs(connection);
+    }
+
+    private JsonNode nextEvent(String eventName, String contentType) throws Exception {
+        while (true) {
+            EslMessage event = events.poll(5, TimeUnit.SECONDS);
+            assertThat(event).as("%s event", eventName).isNotNull();
+            assertThat(event.getContentType()).isEqualTo(contentType);
+            JsonNode json = objectMapper.readTree(event.body());
+            if (eventName.equals(json.get("Event-Name").asText())) {
+                return json;
+            }
+        }
+    }
+}
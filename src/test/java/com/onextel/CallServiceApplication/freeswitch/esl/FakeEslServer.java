@@ -0,0 +1,227 @@
+package com.onextel.CallServiceApplication.freeswitch.esl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal FreeSWITCH Event Socket server to run the {@link EslConnection} against
+ * without a FreeSWITCH node, see {@link EslConnectionTest}.
+ * <p>
+ * Asks every connection for the password, accepts "auth", "event", "api hostname" and
+ * "bgapi" and answers a bgapi with a BACKGROUND_JOB event carrying its Job-UUID. Once
+ * subscribed a connection receives a HEARTBEAT event per second, in json or plain as
+ * subscribed. "api sleep" is never answered.
+ */
+class FakeEslServer implements AutoCloseable {
+    static final String HOSTNAME = "fake-freeswitch";
+
+    private final ServerSocket serverSocket;
+    private final String password;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    FakeEslServer(int port, String password) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.password = password;
+        Thread.ofPlatform().daemon().name("fake-esl-accept").start(this::acceptLoop);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofPlatform().daemon().name("fake-esl-session").start(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            write(out, "Content-Type: auth/request\n\n", null);
+
+            boolean authenticated = false;
+            String format = null;
+            Thread heartbeats = null;
+            String command;
+            while ((command = readCommand(in)) != null) {
+                String[] lines = command.split("\n");
+                String first = lines[0];
+                if (first.startsWith("auth ")) {
+                    authenticated = first.substring(5).equals(password);
+                    reply(out, authenticated ? "+OK accepted" : "-ERR invalid");
+                    if (!authenticated) {
+                        write(out, "Content-Type: text/disconnect-notice\nContent-Length: 0\n\n", null);
+                        return;
+                    }
+                } else if (!authenticated) {
+                    reply(out, "-ERR command not found");
+                } else if (first.startsWith("event ")) {
+                    format = first.split(" ")[1];
+                    reply(out, "+OK event listener enabled " + format);
+                    if (heartbeats == null) {
+                        String subscribedFormat = format;
+                        heartbeats = Thread.ofPlatform().daemon().name("fake-esl-heartbeat")
+                                .start(() -> heartbeatLoop(out, subscribedFormat));
+                    }
+                } else if (first.equals("api sleep")) {
+                    continue;
+                } else if (first.equals("api hostname")) {
+                    write(out, "Content-Type: api/response\n", HOSTNAME);
+                } else if (first.startsWith("bgapi ")) {
+                    String jobUuid = UUID.randomUUID().toString();
+                    for (String line : lines) {
+                        if (line.startsWith("Job-UUID: ")) {
+                            jobUuid = line.substring(10).trim();
+                        }
+                    }
+                    reply(out, "+OK Job-UUID: " + jobUuid);
+                    String[] job = first.substring(6).split(" ", 2);
+                    sendEvent(out, format, "BACKGROUND_JOB",
+                            "Job-UUID", jobUuid,
+                            "Job-Command", job[0],
+                            "Job-Command-Arg", job.length > 1 ? job[1] : "",
+                            "_body", "+OK " + UUID.randomUUID());
+                } else if (first.equals("exit")) {
+                    reply(out, "+OK bye");
+                    return;
+                } else {
+                    reply(out, "-ERR command not found");
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed by the client
+        }
+    }
+
+    private void heartbeatLoop(OutputStream out, String format) {
+        try {
+            while (!serverSocket.isClosed()) {
+                sendEvent(out, format, "HEARTBEAT",
+                        "Session-Count", "0",
+                        "Max-Sessions", "1000",
+                        "Idle-CPU", "97.5");
+                Thread.sleep(1000);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Connection closed
+        }
+    }
+
+    private void sendEvent(OutputStream out, String format, String eventName, String... headers)
+            throws IOException {
+        if (format == null) {
+            return;
+        }
+        String[] common = {
+                "Event-Name", eventName,
+                "Core-UUID", "00000000-0000-0000-0000-00000000fa4e",
+                "FreeSWITCH-Hostname", HOSTNAME,
+                "FreeSWITCH-IPv4", "127.0.0.1",
+                "Event-Date-Timestamp", String.valueOf(System.currentTimeMillis() * 1000),
+                "Event-Sequence", String.valueOf(sequence.incrementAndGet())};
+        StringBuilder body = new StringBuilder();
+        String eventBody = null;
+        if ("json".equals(format)) {
+            body.append('{');
+            appendJson(body, common);
+            body.append(',');
+            appendJson(body, headers);
+            body.append('}');
+            write(out, "Content-Type: text/event-json\n", body.toString());
+            return;
+        }
+        for (String[] pairs : new String[][]{common, headers}) {
+            for (int i = 0; i < pairs.length; i += 2) {
+                if ("_body".equals(pairs[i])) {
+                    eventBody = pairs[i + 1];
+                    continue;
+                }
+                body.append(pairs[i]).append(": ")
+                        .append(URLEncoder.encode(pairs[i + 1], StandardCharsets.UTF_8)).append('\n');
+            }
+        }
+        if (eventBody != null) {
+            body.append("Content-Length: ").append(eventBody.getBytes(StandardCharsets.UTF_8).length)
+                    .append("\n\n").append(eventBody);
+        } else {
+            body.append('\n');
+        }
+        write(out, "Content-Type: text/event-plain\n", body.toString());
+    }
+
+    private static void appendJson(StringBuilder json, String[] pairs) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(pairs[i]).append("\":\"")
+                    .append(pairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+    }
+
+    private static void reply(OutputStream out, String replyText) throws IOException {
+        write(out, "Content-Type: command/reply\nReply-Text: " + replyText + "\n\n", null);
+    }
+
+    /**
+     * Writes the headers, then the body with its Content-Length if there is one.
+     */
+    private static void write(OutputStream out, String headers, String body) throws IOException {
+        byte[] bytes;
+        if (body == null) {
+            bytes = headers.getBytes(StandardCharsets.UTF_8);
+        } else {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            byte[] head = (headers + "Content-Length: " + content.length + "\n\n").getBytes(StandardCharsets.UTF_8);
+            bytes = new byte[head.length + content.length];
+            System.arraycopy(head, 0, bytes, 0, head.length);
+            System.arraycopy(content, 0, bytes, head.length, content.length);
+        }
+        // Heartbeats and replies are written from two threads
+        synchronized (out) {
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    /**
+     * Lines of the next command up to the empty line, null at end of stream.
+     */
+    private static String readCommand(BufferedReader in) throws IOException {
+        StringBuilder command = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (!command.isEmpty()) {
+                    return command.toString();
+                }
+                continue;
+            }
+            if (!command.isEmpty()) {
+                command.append('\n');
+            }
+            command.append(line);
+        }
+        return null;
+    }
+}
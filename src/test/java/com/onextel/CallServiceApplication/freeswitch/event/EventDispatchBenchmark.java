@@ -0,0 +1,140 @@
+package com.onextel.CallServiceApplication.freeswitch.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.InstrumentedEventHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the dispatch path of the {@link EventDispatchTable}: route lookup,
+ * channel and ordering key resolution, lane and the instrumented handler invocation
+ * around a no-op handler.
+ * <p>
+ * The main method runs it with the GC profiler and exits with status 1 if
+ * {@code gc.alloc.rate.norm} shows an allocation per dispatch. Not a unit test, run it
+ * manually after {@code mvn test-compile}:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;test deps&gt; \
+ *       com.onextel.CallServiceApplication.freeswitch.event.EventDispatchBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+    private static final EventType[] MIX = {
+            EventType.CHANNEL_CREATE, EventType.CHANNEL_ANSWER, EventType.CHANNEL_HANGUP,
+            EventType.DTMF, EventType.CUSTOM, EventType.HEARTBEAT, EventType.CODEC, EventType.BACKGROUND_JOB};
+    // Below one byte per dispatch, the profiler reports fractions of the harness overhead
+    private static final double MAX_BYTES_PER_OP = 1.0;
+
+    private EventDispatchTable table;
+    private Event[] events;
+    private long handled;
+    private int next;
+
+    @Setup
+    public void setup() {
+        table = buildTable();
+        events = new Event[MIX.length];
+        for (int i = 0; i < MIX.length; i++) {
+            events[i] = event(MIX[i], i);
+        }
+    }
+
+    @Benchmark
+    public long dispatch() {
+        Event event = events[next++ & 7];
+        EventDispatchTable.Route route = table.route(event.getEventType());
+        long acc = route.lane().length();
+        if (route.channelScoped()) {
+            String key = event.getStringParam(route.orderingKey());
+            acc += key == null ? 0 : key.length();
+        }
+        route.handler().handleEvent(event);
+        return acc + handled;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EventDispatchBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        for (RunResult result : results) {
+            double bytesPerOp = allocationPerOp(result);
+            if (Double.isNaN(bytesPerOp)) {
+                System.out.println("FAIL: gc.alloc.rate.norm missing from the results");
+                System.exit(1);
+            }
+            if (bytesPerOp >= MAX_BYTES_PER_OP) {
+                System.out.printf("FAIL: dispatch path allocates %.2f bytes/op%n", bytesPerOp);
+                System.exit(1);
+            }
+            System.out.printf("OK: dispatch path allocation free (%.4f bytes/op)%n", bytesPerOp);
+        }
+    }
+
+    private static double allocationPerOp(RunResult result) {
+        for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+            // Labelled "·gc.alloc.rate.norm" by older JMH versions
+            if (secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+                return secondary.getValue().getScore();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private EventDispatchTable buildTable() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EventHandler noop = new EventHandler() {
+            @Override
+            public void handleEvent(Event event) {
+                handled++;
+            }
+        };
+        EventType[] types = EventType.values();
+        EventDispatchTable.Route[] routes = new EventDispatchTable.Route[types.length];
+        for (EventType type : types) {
+            boolean channelScoped = EventUtils.isChannelEvent(type);
+            routes[type.ordinal()] = new EventDispatchTable.Route(type,
+                    new InstrumentedEventHandler(noop, type, registry), EventFieldProjection.ALL,
+                    channelScoped, channelScoped ? EventParams.CHANNEL_CALL_UUID : null,
+                    channelScoped ? "control" : "info", true);
+        }
+        return new EventDispatchTable(routes);
+    }
+
+    private static Event event(EventType type, int sequence) {
+        Map<String, Object> details = new HashMap<>();
+        details.put(EventParams.EVENT_NAME, type.name());
+        details.put(EventParams.EVENT_SEQUENCE, String.valueOf(sequence));
+        details.put(EventParams.CHANNEL_CALL_UUID, "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+        return new Event(details);
+    }
+}
@@ -0,0 +1,130 @@
+package com.onextel.CallServiceApplication.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compares the bytes written to Redis per call event by a full JSON.SET of the call
+ * snapshot with the changed paths drained from its {@link CallChanges}, over the events
+ * of a typical two leg call with some DTMF.
+ * <p>
+ * After every event it applies the changes to the previously stored document and
+ * exits with status 1 if the result differs from the full document (computed
+ * properties left out). Not a unit test, run it manually:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *       com.onextel.CallServiceApplication.model.CallChangesBenchmark
+ * </pre>
+ */
+public class CallChangesBenchmark {
+    // Computed when the snapshot is taken, not tracked as changes
+    private static final List<String> COMPUTED = List.of("duration", "active");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT) // as configured in AppConfig
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private static long fullBytes;
+    private static long changeBytes;
+    private static boolean consistent = true;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            variables.put("variable_" + i, "value-" + UUID.randomUUID());
+        }
+        Call call = new Call(UUID.randomUUID().toString(), "sofia/external/1000", "1000", "bench",
+                "1001", "park", "", variables);
+        call.setFreeSwitchNodeId("node-1");
+        ObjectNode stored = (ObjectNode) MAPPER.valueToTree(call.startChangeTracking());
+
+        Channel aLeg = new Channel(UUID.randomUUID().toString(), call.getCallUuid(), ChannelRole.ORIGINATOR);
+        Channel bLeg = new Channel(UUID.randomUUID().toString(), call.getCallUuid(), ChannelRole.DESTINATION);
+        stored = event("add a-leg", call, stored, () -> call.addChannel(aLeg));
+        stored = event("ringing", call, stored, () -> call.updateCallState(CallState.RINGING));
+        stored = event("add b-leg", call, stored, () -> call.addChannel(bLeg));
+        stored = event("answer a-leg", call, stored, aLeg::answer);
+        stored = event("answer b-leg", call, stored, bLeg::answer);
+        stored = event("active", call, stored, () -> call.updateCallState(CallState.ACTIVE));
+        for (int i = 0; i < 5; i++) {
+            stored = event("dtmf " + i, call, stored, () -> call.addDTMFEvent(new DTMFEvent(
+                    "1", 100, DTMFEventType.DIGIT_PRESSED, ChannelRole.ORIGINATOR, Instant.now(),
+                    call.getCallUuid(), aLeg.getChannelUuid())));
+        }
+        stored = event("on hold", call, stored, () -> call.updateCallState(CallState.ON_HOLD));
+        stored = event("active", call, stored, () -> call.updateCallState(CallState.ACTIVE));
+        stored = event("hangup b-leg", call, stored, () -> bLeg.hangup("NORMAL_CLEARING"));
+        stored = event("remove b-leg", call, stored, () -> call.removeChannel(bLeg.getChannelUuid()));
+        event("ended", call, stored, () -> call.updateCallState(CallState.ENDED));
+
+        System.out.printf("total: full %d bytes, changes %d bytes (%.1fx less)%n",
+                fullBytes, changeBytes, (double) fullBytes / changeBytes);
+        if (!consistent) {
+            System.out.println("FAIL: applied changes differ from the full document");
+            System.exit(1);
+        }
+        System.out.println("OK: applied changes match the full document");
+    }
+
+    private static ObjectNode event(String name, Call call, ObjectNode stored, Runnable change) throws Exception {
+        call.write(change);
+        CallChanges changes = call.drainChanges();
+        ObjectNode document = (ObjectNode) MAPPER.valueToTree(call.getSnapshot());
+        int full = MAPPER.writeValueAsBytes(document).length;
+        int partial = apply(stored, changes);
+        fullBytes += full;
+        changeBytes += partial;
+
+        boolean same = withoutComputed(stored).equals(withoutComputed(document));
+        consistent &= same;
+        System.out.printf("%-14s full %6d bytes  changes %5d bytes%s%n", name, full, partial,
+                same ? "" : "  MISMATCH");
+        return stored;
+    }
+
+    /**
+     * Applies the changes like the JSON.MSET and JSON.DEL of the registry, returns the
+     * bytes of their values.
+     */
+    private static int apply(ObjectNode document, CallChanges changes) throws Exception {
+        int bytes = 0;
+        ObjectNode channels = (ObjectNode) document.get("channels");
+        for (Map.Entry<String, Object> property : changes.properties().entrySet()) {
+            bytes += set(document, property.getKey(), property.getValue());
+        }
+        for (Map.Entry<String, ChannelSnapshot> channel : changes.addedChannels().entrySet()) {
+            bytes += set(channels, channel.getKey(), channel.getValue());
+        }
+        for (Map.Entry<String, Map<String, Object>> channel : changes.channelChanges().entrySet()) {
+            ObjectNode stored = (ObjectNode) channels.get(channel.getKey());
+            for (Map.Entry<String, Object> property : channel.getValue().entrySet()) {
+                bytes += set(stored, property.getKey(), property.getValue());
+            }
+        }
+        changes.removedChannels().forEach(channels::remove);
+        return bytes;
+    }
+
+    private static int set(ObjectNode node, String property, Object value) throws Exception {
+        byte[] json = MAPPER.writeValueAsBytes(value);
+        node.set(property, MAPPER.readTree(json));
+        return json.length;
+    }
+
+    private static JsonNode withoutComputed(ObjectNode document) {
+        ObjectNode copy = document.deepCopy();
+        copy.remove(COMPUTED);
+        copy.get("channels").forEach(channel -> ((ObjectNode) channel).remove(COMPUTED));
+        return copy;
+    }
+}
@@ -0,0 +1,134 @@
+package com.onextel.CallServiceApplication.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallChangesTest {
+
+    private Call call;
+
+    @BeforeEach
+    void setUp() {
+        call = new Call("call-1", "sofia/external/1000", "1000", "test", "1001", "park", "", new HashMap<>());
+    }
+
+    @Test
+    void recordsNothingBeforeTracking() {
+        call.setHangupCause("NORMAL_CLEARING");
+        call.addChannel(new Channel("a-leg", "call-1", ChannelRole.ORIGINATOR));
+
+        call.startChangeTracking();
+
+        assertThat(call.drainChanges().isEmpty()).isTrue();
+    }
+
+    @Test
+    void drainsLatestValueOfChangedProperties() {
+        call.startChangeTracking();
+
+        call.updateCallState(CallState.RINGING);
+        call.updateCallState(CallState.ON_HOLD);
+        CallChanges changes = call.drainChanges();
+
+        assertThat(changes.properties())
+                .containsEntry("currentState", CallState.ON_HOLD)
+                .containsEntry("previousState", CallState.RINGING)
+                .containsKey("lastUpdateTimestamp")
+                .doesNotContainKey("hangupCause");
+        assertThat(changes.addedChannels()).isEmpty();
+        assertThat(changes.channelChanges()).isEmpty();
+        assertThat(changes.removedChannels()).isEmpty();
+        assertThat(call.drainChanges().isEmpty()).isTrue();
+    }
+
+    @Test
+    void drainsAddedChannelAsSnapshotThenItsOwnChanges() {
+        call.startChangeTracking();
+        Channel aLeg = new Channel("a-leg", "call-1", ChannelRole.ORIGINATOR);
+
+        call.addChannel(aLeg);
+        aLeg.answer();
+        CallChanges changes = call.drainChanges();
+
+        assertThat(changes.properties()).containsEntry("originatorChannelUuid", "a-leg");
+        assertThat(changes.addedChannels()).containsOnlyKeys("a-leg");
+        assertThat(changes.addedChannels().get("a-leg").state()).isEqualTo(ChannelState.CREATING);
+        assertThat(changes.channelChanges()).containsOnlyKeys("a-leg");
+        assertThat(changes.channelChanges().get("a-leg"))
+                .containsEntry("state", ChannelState.ANSWERED)
+                .containsKey("answeredTime");
+
+        aLeg.hangup("NORMAL_CLEARING");
+        changes = call.drainChanges();
+
+        assertThat(changes.addedChannels()).isEmpty();
+        assertThat(changes.channelChanges().get("a-leg"))
+                .containsOnlyKeys("state", "hangupCause", "hangupTime")
+                .containsEntry("state", ChannelState.HANGUP);
+    }
+
+    @Test
+    void drainsRemovalOfStoredChannelsOnly() {
+        call.addChannel(new Channel("a-leg", "call-1", ChannelRole.ORIGINATOR));
+        call.startChangeTracking();
+
+        call.addChannel(new Channel("b-leg", "call-1", ChannelRole.DESTINATION));
+        call.removeChannel("b-leg");
+        call.removeChannel("a-leg");
+        CallChanges changes = call.drainChanges();
+
+        // The b-leg was never stored, nothing to write for it
+        assertThat(changes.addedChannels()).isEmpty();
+        assertThat(changes.channelChanges()).isEmpty();
+        assertThat(changes.removedChannels()).containsExactly("a-leg");
+    }
+
+    @Test
+    void drainWaitsForWriteInProgress() throws Exception {
+        call.startChangeTracking();
+        CountDownLatch halfWritten = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread writer = new Thread(() -> call.write(() -> {
+            call.setCurrentState(CallState.ENDED);
+            halfWritten.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            call.setEndTime(Instant.now());
+        }));
+        writer.start();
+        assertThat(halfWritten.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<CallChanges> drained = CompletableFuture.supplyAsync(call::drainChanges);
+        Thread.sleep(100);
+        assertThat(drained).isNotDone();
+        finish.countDown();
+
+        assertThat(drained.get(5, TimeUnit.SECONDS).properties())
+                .containsEntry("currentState", CallState.ENDED)
+                .containsKeys("endTime", "duration");
+        writer.join();
+    }
+
+    @Test
+    void stopDropsPendingChanges() {
+        call.startChangeTracking();
+        call.updateCallState(CallState.RINGING);
+
+        call.stopChangeTracking();
+        call.updateCallState(CallState.ACTIVE);
+
+        assertThat(call.isChangeTracked()).isFalse();
+        assertThat(call.drainChanges().isEmpty()).isTrue();
+    }
+}
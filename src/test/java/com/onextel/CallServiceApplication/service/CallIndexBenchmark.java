@@ -0,0 +1,139 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.freeswitch.command.CustomVariables;
+import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallState;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the queries of the {@link CallManager} over a scan of the cached calls (how
+ * they were answered before the {@link CallIndex}) with the index, for growing numbers
+ * of calls. The queries select about one percent of the calls, so the scan time grows
+ * with the cache while the index time follows the result.
+ * <p>
+ * Exits with status 1 if the index and the scan disagree. Not a unit test, run it
+ * manually:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *       com.onextel.CallServiceApplication.service.CallIndexBenchmark [iterations=2000]
+ * </pre>
+ */
+public class CallIndexBenchmark {
+    private static final int[] SIZES = {1_000, 10_000, 50_000, 100_000};
+    private static final Duration LONG_RUNNING = Duration.ofMinutes(59);
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        boolean consistent = true;
+        System.out.printf("%8s  %-22s %12s %12s %8s%n", "calls", "query", "scan ns/op", "index ns/op", "result");
+        for (int size : SIZES) {
+            Map<String, Call> cache = new ConcurrentHashMap<>();
+            CallIndex index = new CallIndex();
+            populate(cache, index, size);
+
+            consistent &= compare(size, "calls by state", iterations,
+                    () -> scanByState(cache, CallState.ON_HOLD), () -> index.inState(CallState.ON_HOLD));
+            consistent &= compare(size, "long running calls", iterations,
+                    () -> scanLongRunning(cache, LONG_RUNNING),
+                    () -> index.answeredBefore(Instant.now().minus(LONG_RUNNING)));
+            consistent &= compare(size, "calls by campaign", iterations,
+                    () -> scanByCampaign(cache, "campaign-7"), () -> index.inCampaign("campaign-7"));
+            consistent &= compareCounts(size, iterations, cache, index);
+        }
+        System.out.println("sink " + sink);
+        if (!consistent) {
+            System.out.println("FAIL: index and scan disagree");
+            System.exit(1);
+        }
+        System.out.println("OK: index matches the scan");
+    }
+
+    private static void populate(Map<String, Call> cache, CallIndex index, int size) {
+        Random random = new Random(42);
+        CallState[] common = {CallState.ACTIVE, CallState.RINGING, CallState.ENDED};
+        Instant now = Instant.now();
+        for (int i = 0; i < size; i++) {
+            Map<String, String> variables = new HashMap<>();
+            variables.put(CustomVariables.CAMPAIGN_ID, "campaign-" + random.nextInt(100));
+            Call call = new Call(UUID.randomUUID().toString(), "sofia/external/1000", "1000", "bench",
+                    "1001", "park", "", variables);
+            call.setFreeSwitchNodeId("node-" + random.nextInt(8));
+            // About one percent of the calls on hold and answered an hour ago
+            call.setCurrentState(random.nextInt(100) == 0 ? CallState.ON_HOLD : common[random.nextInt(common.length)]);
+            long answeredSecondsAgo = random.nextInt(100) == 0 ? 3600 : random.nextInt(3000);
+            call.setAnswerTime(now.minusSeconds(answeredSecondsAgo));
+            call.setLastUpdateTimestamp(now.minusMillis(random.nextInt(3_600_000)));
+            cache.put(call.getCallUuid(), call);
+            index.index(call);
+        }
+    }
+
+    private static List<Call> scanByState(Map<String, Call> cache, CallState state) {
+        return cache.values().stream()
+                .filter(call -> call.getCurrentState() == state)
+                .sorted(Comparator.comparing(Call::getLastUpdateTimestamp))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Call> scanLongRunning(Map<String, Call> cache, Duration threshold) {
+        Instant cutoff = Instant.now().minus(threshold);
+        return cache.values().stream()
+                .filter(c -> c.getAnswerTime() != null)
+                .filter(c -> c.getAnswerTime().isBefore(cutoff))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Call> scanByCampaign(Map<String, Call> cache, String campaignId) {
+        return cache.values().stream()
+                .filter(c -> campaignId.equals(c.getCustomVariables().get(CustomVariables.CAMPAIGN_ID)))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean compare(int size, String query, int iterations,
+                                   Supplier<List<Call>> scan, Supplier<List<Call>> indexed) {
+        List<Call> expected = scan.get();
+        List<Call> actual = indexed.get();
+        boolean same = expected.size() == actual.size() && actual.containsAll(expected);
+        double scanNs = time(iterations, () -> scan.get().size());
+        double indexNs = time(iterations, () -> indexed.get().size());
+        System.out.printf("%8d  %-22s %12.0f %12.0f %8d%s%n", size, query, scanNs, indexNs, actual.size(),
+                same ? "" : "  MISMATCH");
+        return same;
+    }
+
+    private static boolean compareCounts(int size, int iterations, Map<String, Call> cache, CallIndex index) {
+        Supplier<Map<CallState, Long>> scan = () -> cache.values().stream()
+                .collect(Collectors.groupingBy(Call::getCurrentState, Collectors.counting()));
+        boolean same = scan.get().equals(index.countByState());
+        double scanNs = time(iterations, () -> scan.get().size());
+        double indexNs = time(iterations, () -> index.countByState().size());
+        System.out.printf("%8d  %-22s %12.0f %12.0f %8d%s%n", size, "state statistics", scanNs, indexNs,
+                index.countByState().size(), same ? "" : "  MISMATCH");
+        return same;
+    }
+
+    private static double time(int iterations, Supplier<Integer> query) {
+        // Warm up, then measure
+        for (int i = 0; i < Math.max(10, iterations / 10); i++) {
+            sink += query.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += query.get();
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+}
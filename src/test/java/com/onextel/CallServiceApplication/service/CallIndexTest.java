@@ -0,0 +1,117 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.freeswitch.command.CustomVariables;
+import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.model.CallState;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallIndexTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+
+    private final CallIndex index = new CallIndex();
+
+    @Test
+    void movesCallBetweenStatesOnReindex() {
+        Call call = call("call-1", CallState.RINGING, NOW, "node-1", null);
+        index.index(call);
+        assertThat(index.inState(CallState.RINGING)).containsExactly(call);
+
+        call.setCurrentState(CallState.ACTIVE);
+        index.index(call);
+
+        assertThat(index.inState(CallState.RINGING)).isEmpty();
+        assertThat(index.inState(CallState.ACTIVE)).containsExactly(call);
+        assertThat(index.countByState()).isEqualTo(Map.of(CallState.ACTIVE, 1L));
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void listsStateLeastRecentlyUpdatedFirst() {
+        Call recent = call("call-a", CallState.ON_HOLD, NOW, null, null);
+        Call old = call("call-b", CallState.ON_HOLD, NOW.minusSeconds(60), null, null);
+        index.index(recent);
+        index.index(old);
+
+        assertThat(index.inState(CallState.ON_HOLD)).containsExactly(old, recent);
+
+        old.setLastUpdateTimestamp(NOW.plusSeconds(1));
+        index.index(old);
+
+        assertThat(index.inState(CallState.ON_HOLD)).containsExactly(recent, old);
+    }
+
+    @Test
+    void answeredBeforeExcludesCutoffAndUnansweredCalls() {
+        Call early = call("call-1", CallState.ACTIVE, NOW, null, null);
+        early.setAnswerTime(NOW.minusSeconds(120));
+        Call atCutoff = call("call-2", CallState.ACTIVE, NOW, null, null);
+        atCutoff.setAnswerTime(NOW.minusSeconds(60));
+        Call ringing = call("call-3", CallState.RINGING, NOW, null, null);
+        index.index(atCutoff);
+        index.index(early);
+        index.index(ringing);
+
+        assertThat(index.answeredBefore(NOW.minusSeconds(60))).containsExactly(early);
+        assertThat(index.answeredBefore(NOW)).containsExactly(early, atCutoff);
+    }
+
+    @Test
+    void indexesByNodeAndCampaign() {
+        Call first = call("call-1", CallState.ACTIVE, NOW, "node-1", "campaign-7");
+        Call second = call("call-2", CallState.ACTIVE, NOW, "node-2", "campaign-7");
+        index.index(first);
+        index.index(second);
+
+        assertThat(index.onNode("node-1")).containsExactly(first);
+        assertThat(index.inCampaign("campaign-7")).containsExactlyInAnyOrder(first, second);
+
+        first.setFreeSwitchNodeId("node-2");
+        index.index(first);
+        index.remove(second);
+
+        assertThat(index.onNode("node-1")).isEmpty();
+        assertThat(index.onNode("node-2")).containsExactly(first);
+        assertThat(index.inCampaign("campaign-7")).containsExactly(first);
+        assertThat(index.inCampaign("campaign-8")).isEmpty();
+    }
+
+    @Test
+    void removeKeepsEntryOfReplacingInstance() {
+        Call cached = call("call-1", CallState.ACTIVE, NOW, "node-1", null);
+        Call recovered = call("call-1", CallState.ON_HOLD, NOW, "node-1", null);
+        index.index(cached);
+        index.index(recovered);
+
+        index.remove(cached);
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.inState(CallState.ACTIVE)).isEmpty();
+        assertThat(index.inState(CallState.ON_HOLD)).containsExactly(recovered);
+        assertThat(index.onNode("node-1")).containsExactly(recovered);
+
+        index.remove(recovered);
+
+        assertThat(index.size()).isZero();
+        assertThat(index.countByState()).isEmpty();
+        assertThat(index.onNode("node-1")).isEmpty();
+    }
+
+    private static Call call(String callUuid, CallState state, Instant updatedAt, String nodeId, String campaignId) {
+        Map<String, String> variables = new HashMap<>();
+        if (campaignId != null) {
+            variables.put(CustomVariables.CAMPAIGN_ID, campaignId);
+        }
+        Call call = new Call(callUuid, "sofia/external/1000", "1000", "test", "1001", "park", "", variables);
+        call.setCurrentState(state);
+        call.setLastUpdateTimestamp(updatedAt);
+        call.setFreeSwitchNodeId(nodeId);
+        return call;
+    }
+}
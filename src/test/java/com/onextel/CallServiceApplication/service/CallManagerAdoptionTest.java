@@ -0,0 +1,66 @@
+package com.onextel.CallServiceApplication.service;
+
+import com.onextel.CallServiceApplication.audit.AuditService;
+import com.onextel.CallServiceApplication.model.Call;
+import com.onextel.CallServiceApplication.service.redis.RedisCallMetricsService;
+import com.onextel.CallServiceApplication.service.redis.RedisCallStateManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CallManagerAdoptionTest {
+    private RedisCallStateManager redisManager;
+    private CallManager callManager;
+
+    @BeforeEach
+    void setUp() {
+        redisManager = mock(RedisCallStateManager.class);
+        callManager = new CallManager(redisManager, mock(AuditService.class), mock(RedisCallMetricsService.class),
+                100, 1, 250, 64);
+        callManager.setAppInstanceId("instance-b");
+        ReflectionTestUtils.setField(callManager, "adoptCallsOnMiss", true);
+    }
+
+    @Test
+    void adoptsCallOnceForConcurrentMisses() throws Exception {
+        Call call = new Call("call-1", "sofia/external/1000", "1000", "test", "1001", "park", "", new HashMap<>());
+        call.setCallServiceInstanceId("instance-a");
+        when(redisManager.getCallForChannel(anyString())).thenReturn(Optional.of("call-1"));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(redisManager.getCall("call-1")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(call);
+        });
+        when(redisManager.adoptCall(any(), anyString())).thenReturn(true);
+
+        CompletableFuture<Optional<Call>> first = CompletableFuture.supplyAsync(
+                () -> callManager.getCallByChannel("leg-a"));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Optional<Call>> second = CompletableFuture.supplyAsync(
+                () -> callManager.getCallByChannel("leg-b"));
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsSame(call);
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsSame(call);
+        assertThat(call.getCallServiceInstanceId()).isEqualTo("instance-b");
+        verify(redisManager, times(1)).getCall("call-1");
+        verify(redisManager, times(1)).adoptCall(call, "instance-a");
+        assertThat(callManager.getCall("call-1")).containsSame(call);
+    }
+}
@@ -0,0 +1,111 @@
+package com.onextel.CallServiceApplication.service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the deadlines of 100k calls on a {@link CallTimerWheel}, reschedules half of
+ * them as if their state changed and cancels a tenth as if they were finalized, then
+ * waits for the rest to expire. Reports the cost of scheduling, the CPU used by the
+ * process while the timers were pending and how late they fired.
+ * <p>
+ * Exits with status 1 if a deadline fired early, more than two ticks late, after being
+ * replaced or cancelled, or not at all. Not a unit test, run it manually:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *       com.onextel.CallServiceApplication.service.CallTimerWheelBenchmark [calls=100000]
+ * </pre>
+ */
+public class CallTimerWheelBenchmark {
+    private static final Duration TICK = Duration.ofMillis(250);
+    // One turn is 4 s, most deadlines wait more than one turn
+    private static final int WHEEL_SIZE = 16;
+    // Deadlines spread over this window, starting 2 s out
+    private static final long WINDOW_MS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Random random = new Random(42);
+
+        Map<String, CallDeadline> expected = new ConcurrentHashMap<>();
+        AtomicLong maxLateMs = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch remaining = new CountDownLatch(calls - calls / 10);
+
+        // The handler only records, run it on the ticker like a direct executor
+        Executor direct = Runnable::run;
+        CallTimerWheel wheel = new CallTimerWheel(TICK, WHEEL_SIZE, direct, (callUuid, deadline) -> {
+            long lateMs = Duration.between(deadline.at(), Instant.now()).toMillis();
+            if (!deadline.equals(expected.remove(callUuid)) || lateMs < 0 || lateMs > 2 * TICK.toMillis()) {
+                failures.incrementAndGet();
+            }
+            maxLateMs.accumulateAndGet(lateMs, Math::max);
+            remaining.countDown();
+        });
+        wheel.start();
+
+        List<String> callUuids = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            callUuids.add(UUID.randomUUID().toString());
+        }
+
+        long started = System.nanoTime();
+        Instant now = Instant.now();
+        for (String callUuid : callUuids) {
+            schedule(wheel, expected, callUuid, CallDeadline.Kind.RING_TIMEOUT,
+                    now.plusMillis(2_000 + random.nextLong(WINDOW_MS)));
+        }
+        for (int i = 0; i < calls / 2; i++) {
+            schedule(wheel, expected, callUuids.get(i), CallDeadline.Kind.MAX_DURATION,
+                    now.plusMillis(2_000 + random.nextLong(WINDOW_MS)));
+        }
+        for (int i = calls - calls / 10; i < calls; i++) {
+            wheel.cancel(callUuids.get(i));
+            expected.remove(callUuids.get(i));
+        }
+        long scheduleNanos = System.nanoTime() - started;
+        int operations = calls + calls / 2 + calls / 10;
+        System.out.printf("scheduled %d, rescheduled %d, cancelled %d: %d ns/op%n",
+                calls, calls / 2, calls / 10, scheduleNanos / operations);
+
+        long cpuBefore = processCpuNanos();
+        long waitStarted = System.nanoTime();
+        boolean drained = remaining.await(WINDOW_MS + 10_000, TimeUnit.MILLISECONDS);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStarted);
+        long cpuMs = TimeUnit.NANOSECONDS.toMillis(processCpuNanos() - cpuBefore);
+        wheel.stop();
+
+        System.out.printf("expired %d deadlines in %d ms using %d ms of CPU (%.2f%%), max %d ms late%n",
+                calls - calls / 10 - remaining.getCount(), waitedMs, cpuMs, 100.0 * cpuMs / waitedMs,
+                maxLateMs.get());
+        if (!drained || failures.get() > 0 || !expected.isEmpty() || wheel.size() > 0) {
+            System.out.printf("FAIL: %d deadlines missing, %d early, late or stale%n",
+                    expected.size(), failures.get());
+            System.exit(1);
+        }
+        System.out.println("OK: every deadline fired once, on time");
+    }
+
+    private static void schedule(CallTimerWheel wheel, Map<String, CallDeadline> expected,
+                                 String callUuid, CallDeadline.Kind kind, Instant at) {
+        CallDeadline deadline = new CallDeadline(kind, at);
+        expected.put(callUuid, deadline);
+        wheel.schedule(callUuid, deadline);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
@@ -0,0 +1,88 @@
+package com.onextel.CallServiceApplication.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallTimerWheelTest {
+    private static final Duration TICK = Duration.ofMillis(10);
+
+    private record Expired(String callUuid, CallDeadline deadline, Instant at) {
+    }
+
+    private final BlockingQueue<Expired> expired = new LinkedBlockingQueue<>();
+    // Small wheel, deadlines of more than 80 ms wait for several turns
+    private final CallTimerWheel wheel = new CallTimerWheel(TICK, 8, Runnable::run,
+            (callUuid, deadline) -> expired.add(new Expired(callUuid, deadline, Instant.now())));
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    void firesDeadlineOnceNeverEarly() throws Exception {
+        wheel.start();
+        CallDeadline deadline = deadline(CallDeadline.Kind.RING_TIMEOUT, 200);
+        wheel.schedule("call-1", deadline);
+        assertThat(wheel.size()).isEqualTo(1);
+
+        Expired fired = expired.poll(5, TimeUnit.SECONDS);
+
+        assertThat(fired).isNotNull();
+        assertThat(fired.callUuid()).isEqualTo("call-1");
+        assertThat(fired.deadline()).isEqualTo(deadline);
+        assertThat(fired.at()).isAfterOrEqualTo(deadline.at());
+        assertThat(expired.poll(100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void firesPassedDeadlineOnNextTick() throws Exception {
+        wheel.start();
+        wheel.schedule("call-1", deadline(CallDeadline.Kind.MISSING_HANGUP, -1_000));
+
+        assertThat(expired.poll(1, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @Test
+    void rescheduleReplacesPreviousDeadline() throws Exception {
+        wheel.start();
+        wheel.schedule("call-1", deadline(CallDeadline.Kind.RING_TIMEOUT, 50));
+        CallDeadline replacement = deadline(CallDeadline.Kind.MAX_DURATION, 150);
+        wheel.schedule("call-1", replacement);
+
+        Expired fired = expired.poll(5, TimeUnit.SECONDS);
+
+        assertThat(fired).isNotNull();
+        assertThat(fired.deadline()).isEqualTo(replacement);
+        assertThat(fired.at()).isAfterOrEqualTo(replacement.at());
+        assertThat(expired.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void cancelledDeadlineNeverFires() throws Exception {
+        wheel.start();
+        wheel.schedule("call-1", deadline(CallDeadline.Kind.RING_TIMEOUT, 50));
+        wheel.schedule("call-2", deadline(CallDeadline.Kind.RING_TIMEOUT, 50));
+        wheel.cancel("call-1");
+
+        Expired fired = expired.poll(5, TimeUnit.SECONDS);
+
+        assertThat(fired).isNotNull();
+        assertThat(fired.callUuid()).isEqualTo("call-2");
+        assertThat(expired.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(wheel.size()).isZero();
+    }
+
+    private static CallDeadline deadline(CallDeadline.Kind kind, long inMillis) {
+        return new CallDeadline(kind, Instant.now().plusMillis(inMillis));
+    }
+}
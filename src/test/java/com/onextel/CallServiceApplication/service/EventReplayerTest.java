@@ -0,0 +1,59 @@
+package com.onextel.CallServiceApplication.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventReplayerTest {
+
+    @TempDir
+    Path root;
+
+    private Path captures;
+    private EventReplayer replayer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        captures = Files.createDirectory(root.resolve("capture"));
+        replayer = new EventReplayer(null, null);
+        ReflectionTestUtils.setField(replayer, "captureDirectory", captures.toString());
+    }
+
+    @Test
+    void refusesReplayUnlessEnabled() throws Exception {
+        Files.createFile(captures.resolve("events-0.seg"));
+
+        assertThatThrownBy(() -> replayer.replayAsync("events-0.seg", 0))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void resolvesCapturesUnderCaptureDirectory() throws Exception {
+        Path segment = Files.createFile(captures.resolve("events-0.seg"));
+
+        assertThat(replayer.resolveCapture("events-0.seg")).isEqualTo(segment.toRealPath());
+        assertThat(replayer.resolveCapture(".")).isEqualTo(captures.toRealPath());
+    }
+
+    @Test
+    void rejectsPathsOutsideCaptureDirectory() throws Exception {
+        Path outside = Files.createFile(root.resolve("secret"));
+        Files.createSymbolicLink(captures.resolve("link"), outside);
+
+        assertThatThrownBy(() -> replayer.resolveCapture("../secret"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> replayer.resolveCapture(outside.toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> replayer.resolveCapture("link"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> replayer.resolveCapture("missing.seg"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,110 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AckCoalescerTest {
+
+    private final Channel channel = mock(Channel.class);
+    private AckCoalescerRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        when(channel.isOpen()).thenReturn(true);
+        // Batch of 4, the timer never fires during a test
+        registry = new AckCoalescerRegistry(4, 60_000, 100, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void multipleAckStopsBelowUnsettledTag() throws Exception {
+        AckCoalescer acks = registry.forChannel(channel, 1);
+
+        // Tag 2 still in progress
+        acks.ack(1);
+        acks.ack(3);
+        acks.ack(4);
+        acks.ack(5);
+        acks.flush();
+
+        verify(channel).basicAck(1, true);
+        verify(channel, never()).basicAck(5, true);
+
+        acks.ack(2);
+        acks.flush();
+
+        verify(channel).basicAck(5, true);
+    }
+
+    @Test
+    void sendsBatchOnceBatchSizeAcksArePending() throws Exception {
+        AckCoalescer acks = registry.forChannel(channel, 10);
+
+        acks.ack(12);
+        acks.ack(11);
+        acks.ack(13);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        acks.ack(10);
+
+        verify(channel).basicAck(13, true);
+    }
+
+    @Test
+    void nackIsSentAtOnceBeforeMultipleAckPassesIt() throws Exception {
+        AckCoalescer acks = registry.forChannel(channel, 1);
+
+        acks.ack(1);
+        acks.nack(2, true);
+        verify(channel).basicNack(2, false, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        acks.ack(3);
+        acks.flush();
+
+        // The broker no longer holds tag 2 when the multiple ack covers it
+        InOrder order = inOrder(channel);
+        order.verify(channel).basicNack(2, false, true);
+        order.verify(channel).basicAck(3, true);
+        verify(channel, never()).basicAck(eq(2L), anyBoolean());
+    }
+
+    @Test
+    void ackOutsideWindowIsSentIndividually() throws Exception {
+        AckCoalescer acks = registry.forChannel(channel, 1);
+        long outside = 1 + 1024;
+
+        acks.ack(outside);
+
+        verify(channel).basicAck(outside, false);
+    }
+
+    @Test
+    void flushWithoutNewAcksSendsNothing() throws Exception {
+        AckCoalescer acks = registry.forChannel(channel, 1);
+        acks.ack(1);
+        acks.flush();
+        acks.flush();
+
+        verify(channel, times(1)).basicAck(anyLong(), anyBoolean());
+        verify(channel).basicAck(1, true);
+    }
+}
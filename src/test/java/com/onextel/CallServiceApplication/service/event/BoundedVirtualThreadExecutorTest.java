@@ -0,0 +1,66 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedVirtualThreadExecutorTest {
+
+    @Test
+    void shutdownNowReturnsTasksWaitingForPermit() throws Exception {
+        BoundedVirtualThreadExecutor executor =
+                new BoundedVirtualThreadExecutor("test-vt-", 1, new SimpleMeterRegistry());
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            blockerStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(blockerStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicInteger ran = new AtomicInteger();
+        Runnable first = ran::incrementAndGet;
+        Runnable second = ran::incrementAndGet;
+        executor.execute(first);
+        executor.execute(second);
+
+        List<Runnable> unstarted = executor.shutdownNow();
+
+        assertThat(unstarted).containsExactlyInAnyOrder(first, second);
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).hasValue(0);
+        assertThat(executor.getInFlight()).isZero();
+    }
+
+    @Test
+    void runsEveryTaskWithinPermits() throws Exception {
+        BoundedVirtualThreadExecutor executor =
+                new BoundedVirtualThreadExecutor("test-vt-", 2, new SimpleMeterRegistry());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.onSpinWait();
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,75 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventCaptureWriterTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void readsBackRecordsInOrder() throws Exception {
+        try (EventCaptureWriter writer = new EventCaptureWriter(directory, 4096, meterRegistry)) {
+            assertThat(writer.append(body("first"), 1_000)).isTrue();
+            assertThat(writer.append(body("second"), 2_000)).isTrue();
+        }
+
+        List<String> bodies = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        long records = EventCaptureReader.read(directory, (receivedAtMicros, body) -> {
+            times.add(receivedAtMicros);
+            bodies.add(new String(body, StandardCharsets.UTF_8));
+            return true;
+        });
+
+        assertThat(records).isEqualTo(2);
+        assertThat(bodies).containsExactly("first", "second");
+        assertThat(times).containsExactly(1_000L, 2_000L);
+    }
+
+    @Test
+    void dropsEmptyBodiesWithoutEndingSegment() throws Exception {
+        try (EventCaptureWriter writer = new EventCaptureWriter(directory, 4096, meterRegistry)) {
+            writer.append(body("before"), 1);
+            assertThat(writer.append(new byte[0], 2)).isFalse();
+            writer.append(body("after"), 3);
+        }
+
+        List<String> bodies = new ArrayList<>();
+        EventCaptureReader.read(directory, (receivedAtMicros, body) ->
+                bodies.add(new String(body, StandardCharsets.UTF_8)));
+
+        assertThat(bodies).containsExactly("before", "after");
+        assertThat(meterRegistry.counter("events.capture.dropped").count()).isEqualTo(1);
+    }
+
+    @Test
+    void continuesInNewSegmentWhenFull() throws Exception {
+        byte[] payload = new byte[100];
+        try (EventCaptureWriter writer = new EventCaptureWriter(directory, 256, meterRegistry)) {
+            for (int i = 0; i < 5; i++) {
+                assertThat(writer.append(payload, i)).isTrue();
+            }
+            // Larger than a segment
+            assertThat(writer.append(new byte[512], 5)).isFalse();
+        }
+
+        assertThat(EventCaptureReader.segments(directory)).hasSize(3);
+        assertThat(EventCaptureReader.read(directory, (receivedAtMicros, body) -> true)).isEqualTo(5);
+    }
+
+    private static byte[] body(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventDeduplicatorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void detectsRecordedEventsOnly() {
+        EventDeduplicator dedup = new EventDeduplicator(1, TimeUnit.MINUTES, 1024, meterRegistry);
+
+        assertThat(dedup.isDuplicate("node-a", 7)).isFalse();
+        dedup.record("node-a", 7);
+
+        assertThat(dedup.isDuplicate("node-a", 7)).isTrue();
+        assertThat(dedup.isDuplicate("node-a", 8)).isFalse();
+        // Sequences are per node
+        assertThat(dedup.isDuplicate("node-b", 7)).isFalse();
+        assertThat(meterRegistry.counter("events.dedup.hits").count()).isEqualTo(1);
+    }
+
+    @Test
+    void ignoresEventsWithoutNodeOrSequence() {
+        EventDeduplicator dedup = new EventDeduplicator(1, TimeUnit.MINUTES, 1024, meterRegistry);
+
+        dedup.record(null, 1);
+        dedup.record("node-a", 0);
+
+        assertThat(dedup.isDuplicate(null, 1)).isFalse();
+        assertThat(dedup.isDuplicate("node-a", 0)).isFalse();
+    }
+
+    @Test
+    void forgetsEventsAfterWindow() throws Exception {
+        EventDeduplicator dedup = new EventDeduplicator(200, TimeUnit.MILLISECONDS, 1024, meterRegistry);
+        dedup.record("node-a", 1);
+        assertThat(dedup.isDuplicate("node-a", 1)).isTrue();
+
+        Thread.sleep(300);
+
+        assertThat(dedup.isDuplicate("node-a", 1)).isFalse();
+    }
+
+    @Test
+    void rotatesFullSliceEarly() {
+        // 16 slots per slice, a slice takes 8 keys before it rotates
+        EventDeduplicator dedup = new EventDeduplicator(1, TimeUnit.MINUTES, 16, meterRegistry);
+        for (int sequence = 1; sequence <= 32; sequence++) {
+            dedup.record("node-a", sequence);
+        }
+        assertThat(dedup.isDuplicate("node-a", 1)).isTrue();
+
+        // Recycles the oldest slice, holding sequences 1 to 8
+        dedup.record("node-a", 33);
+
+        assertThat(dedup.isDuplicate("node-a", 1)).isFalse();
+        assertThat(dedup.isDuplicate("node-a", 8)).isFalse();
+        assertThat(dedup.isDuplicate("node-a", 9)).isTrue();
+        assertThat(dedup.isDuplicate("node-a", 33)).isTrue();
+        assertThat(meterRegistry.counter("events.dedup.early.rotations").count()).isEqualTo(4);
+    }
+}
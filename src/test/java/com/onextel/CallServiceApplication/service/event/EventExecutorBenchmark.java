@@ -0,0 +1,149 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the fixed platform pool with the virtual thread executor behind the
+ * channel mailboxes.
+ * <p>
+ * Events are generated at a fixed rate over a set of channels. Every handler simulates
+ * the synchronous Redis round trips of a channel event: it borrows one of the pooled
+ * connections (a fair semaphore, like the Lettuce pool) and blocks for the configured
+ * latency. Not a unit test, run it manually:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *       com.onextel.CallServiceApplication.service.event.EventExecutorBenchmark \
+ *       [eventsPerSecond=5000] [seconds=30] [channels=2000] [redisLatencyMs=2] [redisConnections=50]
+ * </pre>
+ */
+public class EventExecutorBenchmark {
+    private static final String SUBMITTED_AT = "Bench-Submitted-Nanos";
+    private static final int FIXED_THREADS = 50;
+    private static final int MAILBOX_CAPACITY = 100;
+    private static final int MAILBOX_BATCH_SIZE = 16;
+    private static final int VIRTUAL_MAX_IN_FLIGHT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int rate = intArg(args, 0, 5000);
+        int seconds = intArg(args, 1, 30);
+        int channels = intArg(args, 2, 2000);
+        int redisLatencyMs = intArg(args, 3, 2);
+        int redisConnections = intArg(args, 4, 50);
+
+        System.out.printf("rate=%d/s duration=%ds channels=%d redisLatency=%dms redisConnections=%d%n",
+                rate, seconds, channels, redisLatencyMs, redisConnections);
+
+        run("fixed", rate, seconds, channels, redisLatencyMs, redisConnections);
+        run("virtual", rate, seconds, channels, redisLatencyMs, redisConnections);
+    }
+
+    private static void run(String mode, int rate, int seconds, int channels,
+                            int redisLatencyMs, int redisConnections) throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = "virtual".equals(mode)
+                ? new BoundedVirtualThreadExecutor("bench-vt-", VIRTUAL_MAX_IN_FLIGHT, registry)
+                : Executors.newFixedThreadPool(FIXED_THREADS);
+        MailboxScheduler scheduler = new MailboxScheduler(executor, MAILBOX_CAPACITY, MAILBOX_BATCH_SIZE, registry);
+
+        Timer latency = Timer.builder("bench.latency")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        Semaphore redisPool = new Semaphore(redisConnections, true);
+        AtomicLong acked = new AtomicLong();
+        AtomicLong nacked = new AtomicLong();
+        EventHandler handler = new SimulatedRedisHandler(redisPool, redisLatencyMs, latency);
+
+        int[] sequences = new int[channels];
+        long total = (long) rate * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+
+        for (long i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int channel = (int) (i % channels);
+            EventTask task = new EventTask(newEvent(channel, ++sequences[channel]), handler, ack -> {
+                if (ack) {
+                    acked.incrementAndGet();
+                } else {
+                    nacked.incrementAndGet();
+                }
+            });
+            if (!scheduler.submit("channel-" + channel, task)) {
+                task.nack();
+            }
+        }
+        long offeredNanos = System.nanoTime() - start;
+        scheduler.awaitQuiescence(java.time.Duration.ofMinutes(2));
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        double elapsedSeconds = elapsedNanos / 1e9;
+        System.out.printf("%-8s offered=%d in %.1fs, acked=%d nacked=%d, throughput=%.0f events/s%n",
+                mode, total, offeredNanos / 1e9, acked.get(), nacked.get(), acked.get() / elapsedSeconds);
+        for (ValueAtPercentile p : latency.takeSnapshot().percentileValues()) {
+            System.out.printf("%-8s p%-5s %.2f ms%n", mode, p.percentile() * 100, p.value(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static Event newEvent(int channel, int sequence) {
+        Map<String, Object> details = new HashMap<>();
+        details.put(EventParams.EVENT_NAME, "CHANNEL_PROGRESS");
+        details.put(EventParams.CHANNEL_CALL_UUID, "channel-" + channel);
+        details.put(EventParams.EVENT_SEQUENCE, String.valueOf(sequence));
+        details.put(SUBMITTED_AT, System.nanoTime());
+        return new Event(details);
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static class SimulatedRedisHandler extends EventHandler {
+        private final Semaphore redisPool;
+        private final int latencyMs;
+        private final Timer latency;
+
+        SimulatedRedisHandler(Semaphore redisPool, int latencyMs, Timer latency) {
+            this.redisPool = redisPool;
+            this.latencyMs = latencyMs;
+            this.latency = latency;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            try {
+                redisPool.acquire();
+                try {
+                    Thread.sleep(latencyMs);
+                } finally {
+                    redisPool.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long submitted = (Long) event.getEventDetails().get(SUBMITTED_AT);
+            latency.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventFlowControllerTest {
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final EventFlowController controller = new EventFlowController(
+            new EventFlowController.Limits(10, 200, 1, 10, Duration.ofMillis(250), 2000, 10_000),
+            50, 3, pending::get, List::of, new SimpleMeterRegistry());
+
+    @Test
+    void pauseBlocksListenersUntilBacklogDrains() throws Exception {
+        pending.set(10_000);
+        controller.adjust();
+        assertThat(controller.isPaused()).isTrue();
+
+        CountDownLatch resumed = new CountDownLatch(1);
+        Thread listener = Thread.ofVirtual().start(() -> {
+            controller.awaitResume(() -> false);
+            resumed.countDown();
+        });
+        assertThat(resumed.await(300, TimeUnit.MILLISECONDS)).isFalse();
+
+        // Still above half of pending-pause
+        pending.set(6_000);
+        controller.adjust();
+        assertThat(controller.isPaused()).isTrue();
+
+        pending.set(4_000);
+        controller.adjust();
+        assertThat(controller.isPaused()).isFalse();
+        assertThat(resumed.await(5, TimeUnit.SECONDS)).isTrue();
+        listener.join();
+    }
+
+    @Test
+    void pausedListenerReturnsWhenAbandoned() throws Exception {
+        pending.set(20_000);
+        controller.adjust();
+
+        CountDownLatch returned = new CountDownLatch(1);
+        AtomicInteger shutdown = new AtomicInteger();
+        Thread.ofVirtual().start(() -> {
+            controller.awaitResume(() -> shutdown.get() > 0);
+            returned.countDown();
+        });
+        shutdown.set(1);
+
+        assertThat(returned.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(controller.isPaused()).isTrue();
+    }
+
+    @Test
+    void halvesPrefetchWhenCongested() {
+        pending.set(3_000);
+        controller.adjust();
+
+        assertThat(controller.getPrefetch()).isEqualTo(25);
+        assertThat(controller.getConsumers()).isEqualTo(2);
+        assertThat(controller.isPaused()).isFalse();
+    }
+}
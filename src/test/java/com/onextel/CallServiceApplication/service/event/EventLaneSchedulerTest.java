@@ -0,0 +1,74 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventLaneSchedulerTest {
+
+    @Test
+    void leavesTasksQueuedWhenExecutorShutsDown() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        EventLaneScheduler lanes = new EventLaneScheduler(executor,
+                List.of(new EventLaneScheduler.LaneSpec("control", 1, 1)), new SimpleMeterRegistry());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.lane("control").execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Over the lane budget, they wait in the lane
+        AtomicInteger ran = new AtomicInteger();
+        Runnable first = ran::incrementAndGet;
+        Runnable second = ran::incrementAndGet;
+        lanes.lane("control").execute(first);
+        lanes.lane("control").execute(second);
+
+        executor.shutdown();
+        release.countDown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ran).hasValue(0);
+        assertThat(lanes.getQueuedCount()).isEqualTo(2);
+        assertThat(lanes.drainQueued()).containsExactly(first, second);
+    }
+
+    @Test
+    void servesLanesByWeightWithinBudget() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        EventLaneScheduler lanes = new EventLaneScheduler(executor, List.of(
+                new EventLaneScheduler.LaneSpec("control", 4, 2),
+                new EventLaneScheduler.LaneSpec("info", 1, 1)), new SimpleMeterRegistry());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 20; i++) {
+            lanes.lane("info").execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                running.decrementAndGet();
+                done.countDown();
+            });
+            lanes.lane("control").execute(done::countDown);
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(lanes.getQueuedCount()).isZero();
+        executor.shutdown();
+    }
+}
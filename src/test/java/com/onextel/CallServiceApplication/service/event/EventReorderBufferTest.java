@@ -0,0 +1,117 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventReorderBufferTest {
+    private static final String NODE = "node-1";
+
+    private final List<Integer> released = new CopyOnWriteArrayList<>();
+    private EventReorderBuffer buffer;
+
+    @AfterEach
+    void tearDown() {
+        if (buffer != null) {
+            buffer.shutdown();
+        }
+    }
+
+    @Test
+    void releasesEventsInSequenceRightAway() {
+        buffer = newBuffer(10_000);
+
+        buffer.offer(NODE, task(10));
+        buffer.offer(NODE, task(11));
+        buffer.observe(NODE, 12);
+        buffer.offer(NODE, task(13));
+
+        assertThat(released).containsExactly(10, 11, 13);
+        assertThat(buffer.getBufferedCount()).isZero();
+    }
+
+    @Test
+    void holdsEventsAboveGapUntilItCloses() {
+        buffer = newBuffer(10_000);
+
+        buffer.offer(NODE, task(10));
+        buffer.offer(NODE, task(13));
+        buffer.offer(NODE, task(12));
+
+        assertThat(released).containsExactly(10);
+        assertThat(buffer.getBufferedCount()).isEqualTo(2);
+
+        // A non channel event fills the gap
+        buffer.observe(NODE, 11);
+
+        assertThat(released).containsExactly(10, 12, 13);
+        assertThat(buffer.getBufferedCount()).isZero();
+    }
+
+    @Test
+    void tracksGapsPerNode() {
+        buffer = newBuffer(10_000);
+
+        buffer.offer(NODE, task(10));
+        buffer.offer(NODE, task(12));
+        buffer.offer("node-2", task(500));
+        buffer.offer("node-2", task(501));
+
+        assertThat(released).containsExactly(10, 500, 501);
+    }
+
+    @Test
+    void skipsGapAfterWindowAndReleasesLateEvents() throws Exception {
+        buffer = newBuffer(200);
+
+        buffer.offer(NODE, task(10));
+        buffer.offer(NODE, task(12));
+        assertThat(released).containsExactly(10);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (released.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(released).containsExactly(10, 12);
+
+        // Its slot was skipped, released as soon as it arrives
+        buffer.offer(NODE, task(11));
+        assertThat(released).containsExactly(10, 12, 11);
+        assertThat(buffer.getBufferedCount()).isZero();
+    }
+
+    @Test
+    void releaseAllSkipsOpenGaps() {
+        buffer = newBuffer(10_000);
+
+        buffer.offer(NODE, task(10));
+        buffer.offer(NODE, task(14));
+        buffer.offer(NODE, task(12));
+
+        buffer.releaseAll();
+
+        assertThat(released).containsExactly(10, 12, 14);
+        assertThat(buffer.getBufferedCount()).isZero();
+    }
+
+    private EventReorderBuffer newBuffer(long windowMs) {
+        return new EventReorderBuffer(windowMs, 100,
+                task -> released.add(task.getEventSequence()), new SimpleMeterRegistry());
+    }
+
+    private static EventTask task(int sequence) {
+        Event event = new Event(Map.of(
+                EventParams.EVENT_NAME, "CHANNEL_ANSWER",
+                EventParams.EVENT_SEQUENCE, String.valueOf(sequence)));
+        return new EventTask(event, null);
+    }
+}
@@ -0,0 +1,168 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import com.onextel.CallServiceApplication.freeswitch.event.EventType;
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MailboxSchedulerTest {
+    private static final int CHANNELS = 50;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    // Channel -> sequences in handling order
+    private final Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    private final AtomicInteger overlaps = new AtomicInteger();
+
+    private final EventHandler recordingHandler = new EventHandler() {
+        @Override
+        public void handleEvent(Event event) {
+            String channelId = event.getStringParam(EventParams.UNIQUE_ID);
+            AtomicInteger active = running.computeIfAbsent(channelId, id -> new AtomicInteger());
+            if (active.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            handled.computeIfAbsent(channelId, id -> new CopyOnWriteArrayList<>()).add(event.getEventSequence());
+            Thread.yield();
+            active.decrementAndGet();
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void handlesChannelEventsInOrderOneAtATime() {
+        MailboxScheduler scheduler = new MailboxScheduler(executor, 100, 4, new SimpleMeterRegistry());
+
+        int sequence = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                assertThat(scheduler.submit("channel-" + channel,
+                        task(EventType.CHANNEL_EXECUTE, "channel-" + channel, ++sequence))).isTrue();
+            }
+        }
+
+        assertThat(scheduler.awaitQuiescence(Duration.ofSeconds(10))).isTrue();
+        assertThat(overlaps).hasValue(0);
+        assertThat(handled).hasSize(CHANNELS);
+        handled.values().forEach(sequences -> assertThat(sequences).hasSize(20).isSorted());
+        assertThat(scheduler.getActiveMailboxCount()).isZero();
+        assertThat(scheduler.getPendingEventCount()).isZero();
+    }
+
+    @Test
+    void refusesEventsOverMailboxCapacity() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService blocked = Executors.newSingleThreadExecutor();
+        blocked.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        MailboxScheduler scheduler = new MailboxScheduler(blocked, 2, 16, new SimpleMeterRegistry());
+
+        assertThat(scheduler.submit("channel-1", task(EventType.CHANNEL_EXECUTE, "channel-1", 1))).isTrue();
+        assertThat(scheduler.submit("channel-1", task(EventType.CHANNEL_EXECUTE, "channel-1", 2))).isTrue();
+        assertThat(scheduler.submit("channel-1", task(EventType.CHANNEL_EXECUTE, "channel-1", 3))).isFalse();
+        assertThat(scheduler.submit("channel-2", task(EventType.CHANNEL_EXECUTE, "channel-2", 4))).isTrue();
+
+        release.countDown();
+        assertThat(scheduler.awaitQuiescence(Duration.ofSeconds(5))).isTrue();
+        assertThat(handled.get("channel-1")).containsExactly(1, 2);
+        blocked.shutdown();
+    }
+
+    @Test
+    void drainNacksEventsLeftAtDeadline() {
+        ExecutorService stuck = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        stuck.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        MailboxScheduler scheduler = new MailboxScheduler(stuck, 100, 16, new SimpleMeterRegistry());
+        AtomicInteger nacked = new AtomicInteger();
+        for (int i = 1; i <= 3; i++) {
+            Event event = event(EventType.CHANNEL_EXECUTE, "channel-1", i);
+            scheduler.submit("channel-1", new EventTask(event, recordingHandler, ok -> {
+                if (!ok) {
+                    nacked.incrementAndGet();
+                }
+            }));
+        }
+
+        MailboxScheduler.DrainReport report = scheduler.drain(Duration.ofMillis(200));
+
+        assertThat(report.complete()).isFalse();
+        assertThat(report.nacked()).isEqualTo(3);
+        assertThat(nacked).hasValue(3);
+        assertThat(scheduler.submit("channel-1", task(EventType.CHANNEL_EXECUTE, "channel-1", 4))).isFalse();
+        release.countDown();
+        stuck.shutdown();
+    }
+
+    @Test
+    void keepsChannelOrderAcrossLanes() {
+        EventLaneScheduler lanes = new EventLaneScheduler(executor, List.of(
+                new EventLaneScheduler.LaneSpec("control", 4, 8),
+                new EventLaneScheduler.LaneSpec("info", 1, 4)),
+                new SimpleMeterRegistry());
+        MailboxScheduler scheduler = new MailboxScheduler(executor,
+                task -> lanes.lane(task.getEvent().getEventType() == EventType.DTMF ? "info" : "control"),
+                100, 16, new SimpleMeterRegistry());
+
+        // CHANNEL_CREATE (control), DTMF and DTMF (info), CHANNEL_HANGUP (control) per channel
+        EventType[] types = {EventType.CHANNEL_CREATE, EventType.DTMF, EventType.DTMF, EventType.CHANNEL_HANGUP};
+        int sequence = 0;
+        for (EventType type : types) {
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                assertThat(scheduler.submit("channel-" + channel, task(type, "channel-" + channel, ++sequence)))
+                        .isTrue();
+            }
+        }
+
+        assertThat(scheduler.awaitQuiescence(Duration.ofSeconds(10))).isTrue();
+        assertThat(overlaps).hasValue(0);
+        assertThat(handled).hasSize(CHANNELS);
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            List<Integer> sequences = handled.get("channel-" + channel);
+            assertThat(sequences).hasSize(types.length).isSorted();
+        }
+        assertThat(scheduler.getPendingEventCount()).isZero();
+    }
+
+    private EventTask task(EventType type, String channelId, int sequence) {
+        return new EventTask(event(type, channelId, sequence), recordingHandler);
+    }
+
+    private static Event event(EventType type, String channelId, int sequence) {
+        return new Event(Map.of(
+                EventParams.EVENT_NAME, type.name(),
+                EventParams.EVENT_SEQUENCE, String.valueOf(sequence),
+                EventParams.UNIQUE_ID, channelId));
+    }
+}
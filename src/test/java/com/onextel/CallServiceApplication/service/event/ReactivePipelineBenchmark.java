@@ -0,0 +1,225 @@
+package com.onextel.CallServiceApplication.service.event;
+
+import com.onextel.CallServiceApplication.freeswitch.event.Event;
+import com.onextel.CallServiceApplication.freeswitch.event.EventParams;
+import com.onextel.CallServiceApplication.freeswitch.event.EventTask;
+import com.onextel.CallServiceApplication.freeswitch.event.handlers.EventHandler;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Compares the mailbox path of the EventProcessor with the reactive pipeline of the
+ * EventReactiveIngest (groupBy lane, concatMap handler) on the same simulated load.
+ * <p>
+ * The broker is simulated by a semaphore of prefetch permits: an event is only
+ * delivered while fewer than prefetch events are unacked, and its ack releases the
+ * permit. Every handler blocks on one of the pooled Redis connections for the
+ * configured latency. Not a unit test, run it manually:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *       com.onextel.CallServiceApplication.service.event.ReactivePipelineBenchmark \
+ *       [eventsPerSecond=5000] [seconds=30] [channels=2000] [redisLatencyMs=2] [redisConnections=50] [prefetch=250]
+ * </pre>
+ */
+public class ReactivePipelineBenchmark {
+    private static final String SUBMITTED_AT = "Bench-Submitted-Nanos";
+    private static final int HANDLER_THREADS = 50;
+    private static final int MAILBOX_CAPACITY = 100;
+    private static final int MAILBOX_BATCH_SIZE = 16;
+    private static final int REACTIVE_LANES = 64;
+
+    public static void main(String[] args) throws Exception {
+        int rate = intArg(args, 0, 5000);
+        int seconds = intArg(args, 1, 30);
+        int channels = intArg(args, 2, 2000);
+        int redisLatencyMs = intArg(args, 3, 2);
+        int redisConnections = intArg(args, 4, 50);
+        int prefetch = intArg(args, 5, 250);
+
+        System.out.printf("rate=%d/s duration=%ds channels=%d redisLatency=%dms redisConnections=%d prefetch=%d%n",
+                rate, seconds, channels, redisLatencyMs, redisConnections, prefetch);
+
+        run("mailbox", rate, seconds, channels, redisLatencyMs, redisConnections, prefetch);
+        run("reactive", rate, seconds, channels, redisLatencyMs, redisConnections, prefetch);
+    }
+
+    private static void run(String mode, int rate, int seconds, int channels, int redisLatencyMs,
+                            int redisConnections, int prefetch) throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Timer latency = Timer.builder("bench.latency")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        Semaphore redisPool = new Semaphore(redisConnections, true);
+        Semaphore unacked = new Semaphore(prefetch);
+        AtomicLong acked = new AtomicLong();
+        AtomicLong nacked = new AtomicLong();
+
+        Pipeline pipeline = "reactive".equals(mode)
+                ? new ReactivePipeline(redisPool, redisLatencyMs, latency)
+                : new MailboxPipeline(redisPool, redisLatencyMs, latency, registry);
+
+        int[] sequences = new int[channels];
+        long total = (long) rate * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+
+        for (long i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // Broker side: no delivery while prefetch events are unacked
+            unacked.acquire();
+            int channel = (int) (i % channels);
+            pipeline.deliver(newEvent(channel, ++sequences[channel]), ack -> {
+                if (ack) {
+                    acked.incrementAndGet();
+                } else {
+                    nacked.incrementAndGet();
+                }
+                unacked.release();
+            });
+        }
+        long offeredNanos = System.nanoTime() - start;
+        unacked.tryAcquire(prefetch, 2, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - start;
+        pipeline.close();
+
+        double elapsedSeconds = elapsedNanos / 1e9;
+        System.out.printf("%-8s offered=%d in %.1fs, acked=%d nacked=%d, throughput=%.0f events/s%n",
+                mode, total, offeredNanos / 1e9, acked.get(), nacked.get(), acked.get() / elapsedSeconds);
+        for (ValueAtPercentile p : latency.takeSnapshot().percentileValues()) {
+            System.out.printf("%-8s p%-5s %.2f ms%n", mode, p.percentile() * 100, p.value(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private interface Pipeline {
+        void deliver(Event event, Consumer<Boolean> settle);
+
+        void close() throws InterruptedException;
+    }
+
+    // EventProcessor path: per channel mailboxes on a fixed pool
+    private static class MailboxPipeline implements Pipeline {
+        private final ExecutorService executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+        private final MailboxScheduler scheduler;
+        private final SimulatedRedisHandler handler;
+
+        MailboxPipeline(Semaphore redisPool, int latencyMs, Timer latency, SimpleMeterRegistry registry) {
+            this.scheduler = new MailboxScheduler(executor, MAILBOX_CAPACITY, MAILBOX_BATCH_SIZE, registry);
+            this.handler = new SimulatedRedisHandler(redisPool, latencyMs, latency);
+        }
+
+        @Override
+        public void deliver(Event event, Consumer<Boolean> settle) {
+            EventTask task = new EventTask(event, handler, settle);
+            if (!scheduler.submit(event.getStringParam(EventParams.CHANNEL_CALL_UUID), task)) {
+                task.nack();
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            scheduler.awaitQuiescence(Duration.ofMinutes(1));
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // EventReactiveIngest path: groupBy lane, concatMap handler on a bounded elastic scheduler
+    private static class ReactivePipeline implements Pipeline {
+        private record Delivery(Event event, Consumer<Boolean> settle, int lane) {
+        }
+
+        private final Sinks.Many<Delivery> deliveries = Sinks.many().unicast().onBackpressureBuffer();
+        private final Scheduler handlerScheduler =
+                Schedulers.newBoundedElastic(HANDLER_THREADS, Integer.MAX_VALUE, "bench-reactive");
+        private final Disposable subscription;
+
+        ReactivePipeline(Semaphore redisPool, int latencyMs, Timer latency) {
+            SimulatedRedisHandler handler = new SimulatedRedisHandler(redisPool, latencyMs, latency);
+            subscription = deliveries.asFlux()
+                    .groupBy(Delivery::lane)
+                    .flatMap(lane -> lane.concatMap(delivery -> Mono.fromRunnable(() -> handler.handleEvent(delivery.event()))
+                            .subscribeOn(handlerScheduler)
+                            .doOnSuccess(ignored -> delivery.settle().accept(true))
+                            .doOnError(ignored -> delivery.settle().accept(false))
+                            .onErrorComplete(), 1), REACTIVE_LANES)
+                    .subscribe();
+        }
+
+        @Override
+        public void deliver(Event event, Consumer<Boolean> settle) {
+            // Single producer thread, like the AMQP consumer of the receiver
+            int lane = Math.floorMod(event.getStringParam(EventParams.CHANNEL_CALL_UUID).hashCode(), REACTIVE_LANES);
+            deliveries.tryEmitNext(new Delivery(event, settle, lane)).orThrow();
+        }
+
+        @Override
+        public void close() {
+            deliveries.tryEmitComplete();
+            subscription.dispose();
+            handlerScheduler.dispose();
+        }
+    }
+
+    private static Event newEvent(int channel, int sequence) {
+        Map<String, Object> details = new HashMap<>();
+        details.put(EventParams.EVENT_NAME, "CHANNEL_PROGRESS");
+        details.put(EventParams.CHANNEL_CALL_UUID, "channel-" + channel);
+        details.put(EventParams.EVENT_SEQUENCE, String.valueOf(sequence));
+        details.put(SUBMITTED_AT, System.nanoTime());
+        return new Event(details);
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static class SimulatedRedisHandler extends EventHandler {
+        private final Semaphore redisPool;
+        private final int latencyMs;
+        private final Timer latency;
+
+        SimulatedRedisHandler(Semaphore redisPool, int latencyMs, Timer latency) {
+            this.redisPool = redisPool;
+            this.latencyMs = latencyMs;
+            this.latency = latency;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            try {
+                redisPool.acquire();
+                try {
+                    Thread.sleep(latencyMs);
+                } finally {
+                    redisPool.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long submitted = (Long) event.getEventDetails().get(SUBMITTED_AT);
+            latency.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+        }
+    }
+}